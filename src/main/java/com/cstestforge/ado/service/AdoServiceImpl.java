@@ -323,11 +323,13 @@ public class AdoServiceImpl implements AdoService {
             status.setTotalItems(totalOperations);
             syncConfigRepository.saveStatus(projectId, status);
             
-            // Process ADO test cases and sync with CSTestForge tests
+            // Process ADO test cases and sync with CSTestForge tests; new tests are created
+            // together afterwards so the test indexes are written once
             int processed = 0;
+            List<com.cstestforge.project.model.test.Test> newTests = new ArrayList<>();
             for (Map<String, Object> adoTestCase : adoTestCases) {
                 try {
-                    syncTestCase(projectId, adoTestCase, csTestForgeTests, syncConfig.isTwoWaySync());
+                    syncTestCase(projectId, adoTestCase, csTestForgeTests, syncConfig.isTwoWaySync(), newTests);
                     processed++;
                     
                     // Update status
@@ -338,6 +340,11 @@ public class AdoServiceImpl implements AdoService {
                 }
             }
             
+            if (!newTests.isEmpty()) {
+                testRepository.createAll(projectId, newTests);
+                logger.info("Created {} tests from ADO test cases", newTests.size());
+            }
+            
             // Handle two-way sync from CSTestForge to ADO if configured
             if (syncConfig.isTwoWaySync()) {
                 // Filter tests that are in CSTestForge but not in ADO
@@ -570,9 +577,11 @@ public class AdoServiceImpl implements AdoService {
      * @param adoTestCase ADO test case
      * @param csTestForgeTests CSTestForge tests
      * @param twoWaySync Whether two-way sync is enabled
+     * @param newTests Receives tests to create for ADO test cases not in CSTestForge
      */
     private void syncTestCase(String projectId, Map<String, Object> adoTestCase, 
-                              List<Map<String, Object>> csTestForgeTests, boolean twoWaySync) {
+                              List<Map<String, Object>> csTestForgeTests, boolean twoWaySync,
+                              List<com.cstestforge.project.model.test.Test> newTests) {
         String adoTestCaseId = adoTestCase.get("id").toString();
         String adoTestCaseTitle = (String) adoTestCase.get("title");
         
@@ -581,7 +590,10 @@ public class AdoServiceImpl implements AdoService {
         
         if (matchingTest == null) {
             // Test doesn't exist in CSTestForge, create it
-            createTestFromAdo(projectId, adoTestCase);
+            com.cstestforge.project.model.test.Test newTest = buildTestFromAdo(projectId, adoTestCase);
+            if (newTest != null) {
+                newTests.add(newTest);
+            }
         } else if (twoWaySync) {
             // Test exists, update it if needed based on which one is newer
             // In a real implementation, compare timestamps and update accordingly
@@ -611,13 +623,13 @@ public class AdoServiceImpl implements AdoService {
     }
     
     /**
-     * Create a new test in CSTestForge from an ADO test case
+     * Build a new CSTestForge test from an ADO test case
      * 
      * @param projectId Project ID
      * @param adoTestCase ADO test case
-     * @return Created test
+     * @return Test to create, or null if the test case cannot be converted
      */
-    private Map<String, Object> createTestFromAdo(String projectId, Map<String, Object> adoTestCase) {
+    private com.cstestforge.project.model.test.Test buildTestFromAdo(String projectId, Map<String, Object> adoTestCase) {
         try {
             // Create new Test object
             com.cstestforge.project.model.test.Test newTest = new com.cstestforge.project.model.test.Test();
@@ -661,15 +673,10 @@ public class AdoServiceImpl implements AdoService {
             }
             
             newTest.setSteps(steps);
-            
-            // Save test using repository
-            com.cstestforge.project.model.test.Test savedTest = testRepository.create(projectId, newTest);
-            
-            // Convert to map for return
-            return convertTestToMap(savedTest);
+            return newTest;
         } catch (Exception e) {
             logger.error("Error creating test from ADO test case", e);
-            return Collections.emptyMap();
+            return null;
         }
     }
     
@@ -4,6 +4,8 @@ import com.cstestforge.dashboard.model.DashboardStats;
 import com.cstestforge.dashboard.model.EnvironmentStatus;
 import com.cstestforge.dashboard.model.FailureAnalysis;
 import com.cstestforge.project.model.execution.TestExecution;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -22,26 +24,33 @@ import java.util.*;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.cstestforge.storage.ShardedCollection;
+import com.cstestforge.storage.ShardedLayout;
+import com.cstestforge.storage.StorageEngine;
+import com.cstestforge.storage.VersionHistoryStore;
 
 /**
  * Implementation of the DashboardRepository interface that uses the file system for storage
  */
 @Repository
-public class DashboardRepositoryImpl implements DashboardRepository {
+public class DashboardRepositoryImpl implements DashboardRepository, ShardedCollection {
 
     private static final Logger logger = LoggerFactory.getLogger(DashboardRepositoryImpl.class);
     private static final int TIMEOUT_MS = 5000; // 5 seconds timeout for health checks
     private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
     
-    private final ObjectMapper objectMapper;
+    private final StorageEngine storageEngine;
     private final String dataDirectoryPath;
+    // Step-level details of an execution, which no dashboard query uses; skipped when parsing
+    private static final Set<String> EXECUTION_DETAIL_FIELDS = Set.of("stepExecutions", "screenshotPaths");
     
-    public DashboardRepositoryImpl(@Value("${app.data.directory:./data}") String dataDirectoryPath) {
+    private final ObjectReader executionSummaryReader;
+    
+    public DashboardRepositoryImpl(@Value("${app.data.directory:./data}") String dataDirectoryPath,
+                                   StorageEngine storageEngine) {
         this.dataDirectoryPath = dataDirectoryPath;
-        this.objectMapper = new ObjectMapper();
-        this.objectMapper.registerModule(new JavaTimeModule());
+        this.storageEngine = storageEngine;
+        this.executionSummaryReader = storageEngine.getObjectMapper().readerFor(TestExecution.class);
         
         // Ensure data directory exists
         try {
@@ -651,16 +660,43 @@ public class DashboardRepositoryImpl implements DashboardRepository {
         // Ensure directory exists
         Files.createDirectories(executionsDir);
         
-        // Read all execution files
-        try (Stream<Path> paths = Files.walk(executionsDir)) {
-            return paths
-                .filter(Files::isRegularFile)
-                .filter(path -> path.toString().endsWith(".json"))
-                .map(this::readTestExecution)
-                .filter(Optional::isPresent)
-                .map(Optional::get)
-                .collect(Collectors.toList());
+        // Entries are execution files or execution directories, read one bucket at a time
+        List<TestExecution> executions = new ArrayList<>();
+        for (File entry : executionLayout()) {
+            if (entry.isDirectory()) {
+                try (Stream<Path> paths = Files.walk(entry.toPath())) {
+                    paths.filter(Files::isRegularFile)
+                        .filter(path -> path.toString().endsWith(".json"))
+                        .filter(path -> !path.toString().contains(File.separator + VersionHistoryStore.HISTORY_DIR + File.separator))
+                        .filter(path -> !path.toString().contains(File.separator + "details" + File.separator))
+                        .map(this::readTestExecution)
+                        .forEach(execution -> execution.ifPresent(executions::add));
+                }
+            } else if (entry.getName().endsWith(".json")) {
+                readTestExecution(entry.toPath()).ifPresent(executions::add);
+            }
         }
+        return executions;
+    }
+    
+    @Override
+    public String getCollectionName() {
+        return "dashboard-executions";
+    }
+    
+    @Override
+    public int migrateToShards() {
+        return executionLayout().migrate(storageEngine::move);
+    }
+    
+    /**
+     * Get the sharded layout of the shared executions directory
+     * 
+     * @return Executions layout
+     */
+    private ShardedLayout executionLayout() {
+        return new ShardedLayout(Paths.get(dataDirectoryPath, "executions").toFile(),
+                name -> !name.startsWith("_") && !name.startsWith("."));
     }
     
     /**
@@ -671,8 +707,12 @@ public class DashboardRepositoryImpl implements DashboardRepository {
      */
     private Optional<TestExecution> readTestExecution(Path path) {
         try {
-            TestExecution execution = objectMapper.readValue(path.toFile(), TestExecution.class);
-            return Optional.of(execution);
+            JsonNode tree = storageEngine.readTree(path.toFile(), EXECUTION_DETAIL_FIELDS);
+            if (tree == null) {
+                return Optional.empty();
+            }
+            TestExecution execution = executionSummaryReader.treeToValue(tree, TestExecution.class);
+            return Optional.ofNullable(execution);
         } catch (IOException e) {
             logger.error("Error reading test execution from {}", path, e);
             return Optional.empty();
@@ -711,8 +751,8 @@ public class DashboardRepositoryImpl implements DashboardRepository {
      */
     private Optional<EnvironmentStatus> readEnvironmentStatus(Path path) {
         try {
-            EnvironmentStatus status = objectMapper.readValue(path.toFile(), EnvironmentStatus.class);
-            return Optional.of(status);
+            EnvironmentStatus status = storageEngine.read(path.toFile(), EnvironmentStatus.class);
+            return Optional.ofNullable(status);
         } catch (IOException e) {
             logger.error("Error reading environment status from {}", path, e);
             return Optional.empty();
@@ -731,8 +771,10 @@ public class DashboardRepositoryImpl implements DashboardRepository {
             Path testFile = Paths.get(dataDirectoryPath, "tests", testId + ".json");
             if (Files.exists(testFile)) {
                 // Read the test file and extract the name
-                Map<String, Object> test = objectMapper.readValue(testFile.toFile(), Map.class);
-                return (String) test.getOrDefault("name", "Test " + testId);
+                Map<String, Object> test = storageEngine.read(testFile.toFile(), Map.class);
+                if (test != null) {
+                    return (String) test.getOrDefault("name", "Test " + testId);
+                }
             }
         } catch (IOException e) {
             logger.error("Error getting test name for test ID {}", testId, e);
@@ -824,4 +866,4 @@ public class DashboardRepositoryImpl implements DashboardRepository {
         // For this example, we'll just create a CSV that Excel can open
         generateCsvReport(stats, outputStream, projectId);
     }
-} 
\ No newline at end of file
+}
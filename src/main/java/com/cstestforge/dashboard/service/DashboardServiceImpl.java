@@ -7,6 +7,7 @@ import com.cstestforge.execution.service.TestExecutionService;
 import com.cstestforge.project.model.Project;
 import com.cstestforge.project.model.execution.TestExecution;
 import com.cstestforge.project.service.ProjectService;
+import com.cstestforge.storage.StorageEngine;
 import com.cstestforge.testing.service.TestService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -48,11 +49,15 @@ public class DashboardServiceImpl implements DashboardService {
             TestExecutionService executionService,
             TestService testService,
             ProjectService projectService,
-            DashboardRepository dashboardRepository) {
+            DashboardRepository dashboardRepository,
+            StorageEngine storageEngine) {
         this.executionService = executionService;
         this.testService = testService;
         this.projectService = projectService;
         this.dashboardRepository = dashboardRepository;
+
+        // Data changed by hand or by another instance invalidates the aggregates
+        storageEngine.addChangeListener(files -> invalidateCache());
     }
     
     @Override
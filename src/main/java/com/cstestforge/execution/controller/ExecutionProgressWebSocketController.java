@@ -0,0 +1,58 @@
+package com.cstestforge.execution.controller;
+
+import com.cstestforge.execution.model.TestExecutionInfo;
+import com.cstestforge.execution.service.ExecutionEventPublisher;
+import com.cstestforge.execution.service.TestExecutionService;
+import com.cstestforge.recorder.websocket.WebSocketMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.handler.annotation.DestinationVariable;
+import org.springframework.messaging.simp.annotation.SubscribeMapping;
+import org.springframework.stereotype.Controller;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * WebSocket controller for live execution progress. Subscribing to
+ * {@code /app/executions/{executionId}} returns a snapshot of the execution; the
+ * progress frames that follow it are published on {@code /topic/executions/{executionId}}.
+ */
+@Controller
+public class ExecutionProgressWebSocketController {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExecutionProgressWebSocketController.class);
+
+    private final TestExecutionService executionService;
+    private final ExecutionEventPublisher eventPublisher;
+
+    @Autowired
+    public ExecutionProgressWebSocketController(TestExecutionService executionService,
+                                                ExecutionEventPublisher eventPublisher) {
+        this.executionService = executionService;
+        this.eventPublisher = eventPublisher;
+    }
+
+    /**
+     * Handle a subscription to the progress of an execution
+     *
+     * @param executionId Execution ID
+     * @return Snapshot of the execution with the sequence of the last frame it includes
+     */
+    @SubscribeMapping("/executions/{executionId}")
+    public WebSocketMessage<Map<String, Object>> subscribeToExecution(@DestinationVariable String executionId) {
+        logger.debug("Subscription to progress of execution {}", executionId);
+
+        // Read the sequence first: the state read after it is at least as new
+        long sequence = eventPublisher.getSequence(executionId);
+        try {
+            TestExecutionInfo executionInfo = executionService.getExecutionStatus(executionId);
+            return eventPublisher.snapshot(executionInfo, sequence);
+        } catch (IllegalArgumentException e) {
+            Map<String, Object> payload = new HashMap<>();
+            payload.put("error", "Execution not found");
+            return WebSocketMessage.of("ERROR", payload);
+        }
+    }
+}
@@ -291,4 +291,27 @@ public class TestExecutionController {
                     .body(ApiResponse.error("Error cleaning up old executions", e.getMessage()));
         }
     }
+
+    /**
+     * Archive old executions into monthly packs; they remain readable
+     * 
+     * @param projectId Project ID
+     * @param daysToKeep Number of days to keep executions in the hot directories
+     * @return Number of executions archived
+     */
+    @PostMapping("/archive/{projectId}")
+    public ResponseEntity<ApiResponse<Integer>> archiveOldExecutions(
+            @PathVariable String projectId,
+            @RequestParam(defaultValue = "90") int daysToKeep) {
+        try {
+            int archivedCount = executionService.archiveOldExecutions(projectId, daysToKeep);
+            return ResponseEntity.ok(ApiResponse.success(archivedCount, 
+                    String.format("Archived %d executions older than %d days", archivedCount, daysToKeep)));
+        } catch (Exception e) {
+            logger.error("Error archiving old executions", e);
+            return ResponseEntity
+                    .status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(ApiResponse.error("Error archiving old executions", e.getMessage()));
+        }
+    }
 } 
\ No newline at end of file
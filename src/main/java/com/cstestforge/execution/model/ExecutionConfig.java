@@ -17,6 +17,7 @@ public class ExecutionConfig {
     private int retryCount;
     private boolean screenshotsEnabled;
     private boolean videoEnabled;
+    private ExecutionPriority priority;
     private Map<String, Object> customSettings;
 
     /**
@@ -33,6 +34,7 @@ public class ExecutionConfig {
         this.retryCount = 1;
         this.screenshotsEnabled = true;
         this.videoEnabled = false;
+        this.priority = ExecutionPriority.MANUAL;
         this.customSettings = new HashMap<>();
     }
 
@@ -210,6 +212,24 @@ public class ExecutionConfig {
         this.videoEnabled = videoEnabled;
     }
 
+    /**
+     * Get the priority class for test slot admission
+     * 
+     * @return Priority class
+     */
+    public ExecutionPriority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Set the priority class for test slot admission
+     * 
+     * @param priority Priority class
+     */
+    public void setPriority(ExecutionPriority priority) {
+        this.priority = priority != null ? priority : ExecutionPriority.MANUAL;
+    }
+
     /**
      * Get custom settings
      * 
@@ -0,0 +1,17 @@
+package com.cstestforge.execution.model;
+
+/**
+ * Priority class of an execution when test slots are contended. Classes are served
+ * strictly in declaration order; within a class, slots are shared fairly by project.
+ */
+public enum ExecutionPriority {
+    /**
+     * Started by a user who is waiting for the result
+     */
+    MANUAL,
+    
+    /**
+     * Started by a CI pipeline
+     */
+    CI
+}
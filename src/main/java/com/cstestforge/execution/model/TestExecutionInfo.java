@@ -24,6 +24,9 @@ public class TestExecutionInfo {
     private int queuedTests;
     private ExecutionConfig config;
     private String createdBy;
+    private LocalDateTime estimatedStartTime;
+    private Long predictedMakespan;
+    private Long actualMakespan;
 
     /**
      * Default constructor
@@ -368,4 +371,58 @@ public class TestExecutionInfo {
     public void setCreatedBy(String createdBy) {
         this.createdBy = createdBy;
     }
-} 
\ No newline at end of file
+
+    /**
+     * Get the estimated time the first test starts, while the execution is queued
+     * 
+     * @return Estimated start time, or null if the execution is not queued
+     */
+    public LocalDateTime getEstimatedStartTime() {
+        return estimatedStartTime;
+    }
+
+    /**
+     * Set the estimated time the first test starts
+     * 
+     * @param estimatedStartTime Estimated start time
+     */
+    public void setEstimatedStartTime(LocalDateTime estimatedStartTime) {
+        this.estimatedStartTime = estimatedStartTime;
+    }
+
+    /**
+     * Get the wall-clock time the test plan predicted for running all tests
+     * 
+     * @return Predicted makespan in milliseconds, or null before the tests are planned
+     */
+    public Long getPredictedMakespan() {
+        return predictedMakespan;
+    }
+
+    /**
+     * Set the predicted makespan
+     * 
+     * @param predictedMakespan Predicted makespan in milliseconds
+     */
+    public void setPredictedMakespan(Long predictedMakespan) {
+        this.predictedMakespan = predictedMakespan;
+    }
+
+    /**
+     * Get the wall-clock time from the first test start to the last test finish
+     * 
+     * @return Actual makespan in milliseconds, or null until the tests have run
+     */
+    public Long getActualMakespan() {
+        return actualMakespan;
+    }
+
+    /**
+     * Set the actual makespan
+     * 
+     * @param actualMakespan Actual makespan in milliseconds
+     */
+    public void setActualMakespan(Long actualMakespan) {
+        this.actualMakespan = actualMakespan;
+    }
+}
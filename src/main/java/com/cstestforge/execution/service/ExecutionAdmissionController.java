@@ -0,0 +1,410 @@
+package com.cstestforge.execution.service;
+
+import com.cstestforge.execution.model.ExecutionPriority;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Shares one global budget of test slots between all running executions.
+ * <p>
+ * Every execution registers a {@link Ticket} and its workers request a slot per test.
+ * A request is a future, so a waiting worker holds no thread.
+ * When a slot frees up it goes to a waiting execution of the highest priority class
+ * ({@link ExecutionPriority}, strictly in declaration order); within a class, to the
+ * project holding the fewest slots relative to its weight; between executions of the
+ * same standing, to the one registered first. A large CI run therefore cannot starve
+ * a manual run, and a project with many executions cannot crowd out the others, while
+ * the budget as a whole stays in use whenever any test is waiting.
+ * <p>
+ * Project weights are configured as {@code projectId:weight} pairs; unlisted projects
+ * have weight 1.
+ */
+@Service
+public class ExecutionAdmissionController {
+    private static final Logger logger = LoggerFactory.getLogger(ExecutionAdmissionController.class);
+
+    // Assumed test duration until the first test finishes
+    private static final long DEFAULT_TEST_NANOS = TimeUnit.SECONDS.toNanos(30);
+    // Weight of the latest test in the average duration
+    private static final double DURATION_SMOOTHING = 0.1;
+
+    private final int capacity;
+    private final Map<String, Integer> projectWeights;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Guarded by lock
+    private final List<Ticket> tickets = new ArrayList<>();
+    private final Map<String, Integer> projectSlots = new HashMap<>();
+    private int inUse;
+    private long nextSequence;
+    private double averageTestNanos = DEFAULT_TEST_NANOS;
+
+    /**
+     * Create the admission controller
+     *
+     * @param capacity Number of tests that may run at once across all executions
+     * @param projectWeights Comma-separated {@code projectId:weight} pairs
+     */
+    public ExecutionAdmissionController(
+            @Value("${cstestforge.execution.max-parallel-tests:5}") int capacity,
+            @Value("${cstestforge.execution.project-weights:}") String projectWeights) {
+        this.capacity = Math.max(1, capacity);
+        this.projectWeights = parseWeights(projectWeights);
+    }
+
+    /**
+     * Register an execution for slots
+     *
+     * @param executionId Execution ID
+     * @param projectId Project ID
+     * @param priority Priority class
+     * @param tests Number of tests the execution will run
+     * @return Ticket to acquire slots with, to be closed when the execution ends
+     */
+    public Ticket register(String executionId, String projectId, ExecutionPriority priority, int tests) {
+        lock.lock();
+        try {
+            Ticket ticket = new Ticket(executionId, projectId,
+                    priority != null ? priority : ExecutionPriority.MANUAL,
+                    projectWeights.getOrDefault(projectId, 1), nextSequence++, tests);
+            tickets.add(ticket);
+            return ticket;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Estimate when a registered execution starts its first test.
+     * <p>
+     * Counts the tests of every execution served before this one (higher classes, then
+     * earlier registrations of the same class) and assumes they drain at the full
+     * budget, each taking the average observed test duration. Fair sharing between
+     * projects usually starts the execution sooner, so this is an upper estimate.
+     *
+     * @param executionId Execution ID
+     * @return Estimated start time, now if a slot is already held, or null if the
+     *         execution is not registered
+     */
+    public LocalDateTime estimateStart(String executionId) {
+        lock.lock();
+        try {
+            Ticket ticket = null;
+            for (Ticket candidate : tickets) {
+                if (candidate.executionId.equals(executionId)) {
+                    ticket = candidate;
+                    break;
+                }
+            }
+            if (ticket == null) {
+                return null;
+            }
+            if (ticket.held > 0) {
+                return LocalDateTime.now();
+            }
+
+            long ahead = inUse;
+            for (Ticket other : tickets) {
+                if (other != ticket && servedBefore(other, ticket)) {
+                    ahead += other.remaining;
+                }
+            }
+            if (ahead < capacity) {
+                return LocalDateTime.now();
+            }
+            long waves = (ahead - capacity) / capacity + 1;
+            return LocalDateTime.now().plusNanos((long) (waves * averageTestNanos));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of tests that may run at once across all executions
+     *
+     * @return Slot budget
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Get the number of slots granted to executions
+     *
+     * @return Slots in use
+     */
+    public int getInUse() {
+        lock.lock();
+        try {
+            return inUse;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of executions with a slot request waiting
+     *
+     * @return Waiting executions
+     */
+    public int getWaitingExecutions() {
+        lock.lock();
+        try {
+            int waiting = 0;
+            for (Ticket ticket : tickets) {
+                if (!ticket.requests.isEmpty()) {
+                    waiting++;
+                }
+            }
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Grant free slots to waiting tickets, best standing first. Called with the lock held;
+     * completing a request runs only the requester's hand-off to its executor.
+     */
+    private void dispatch() {
+        while (inUse < capacity) {
+            Ticket best = null;
+            for (Ticket ticket : tickets) {
+                if (!ticket.requests.isEmpty() && (best == null || ranksBefore(ticket, best))) {
+                    best = ticket;
+                }
+            }
+            if (best == null) {
+                return;
+            }
+            // A request withdrawn while queued takes no slot
+            CompletableFuture<Void> request = best.requests.poll();
+            if (request.complete(null)) {
+                best.held++;
+                best.remaining = Math.max(0, best.remaining - 1);
+                inUse++;
+                projectSlots.merge(best.projectId, 1, Integer::sum);
+            }
+        }
+    }
+
+    /**
+     * Compare two waiting tickets for the next free slot
+     */
+    private boolean ranksBefore(Ticket a, Ticket b) {
+        if (a.priority != b.priority) {
+            return a.priority.ordinal() < b.priority.ordinal();
+        }
+        if (!a.projectId.equals(b.projectId)) {
+            // (slots + 1) / weight, compared without division
+            long shareA = (long) (projectSlots.getOrDefault(a.projectId, 0) + 1) * b.weight;
+            long shareB = (long) (projectSlots.getOrDefault(b.projectId, 0) + 1) * a.weight;
+            if (shareA != shareB) {
+                return shareA < shareB;
+            }
+        }
+        return a.sequence < b.sequence;
+    }
+
+    private static boolean servedBefore(Ticket a, Ticket b) {
+        if (a.priority != b.priority) {
+            return a.priority.ordinal() < b.priority.ordinal();
+        }
+        return a.sequence < b.sequence;
+    }
+
+    /**
+     * Return a slot to the budget. Called with the lock held.
+     */
+    private void returnSlot(Ticket ticket) {
+        inUse--;
+        projectSlots.computeIfPresent(ticket.projectId, (project, slots) -> slots > 1 ? slots - 1 : null);
+        dispatch();
+    }
+
+    private static Map<String, Integer> parseWeights(String value) {
+        Map<String, Integer> weights = new HashMap<>();
+        if (value == null || value.isBlank()) {
+            return weights;
+        }
+        for (String pair : value.split(",")) {
+            int separator = pair.lastIndexOf(':');
+            if (separator <= 0) {
+                logger.warn("Ignoring project weight without a weight: {}", pair.trim());
+                continue;
+            }
+            try {
+                int weight = Integer.parseInt(pair.substring(separator + 1).trim());
+                if (weight > 0) {
+                    weights.put(pair.substring(0, separator).trim(), weight);
+                } else {
+                    logger.warn("Ignoring non-positive project weight: {}", pair.trim());
+                }
+            } catch (NumberFormatException e) {
+                logger.warn("Ignoring invalid project weight: {}", pair.trim());
+            }
+        }
+        return weights;
+    }
+
+    /**
+     * Slot account of one execution. Its workers call {@link #acquire()} before each
+     * test and {@link #release(long)} after it.
+     */
+    public class Ticket implements WorkStealingTestScheduler.SlotGate, AutoCloseable {
+        private final String executionId;
+        private final String projectId;
+        private final ExecutionPriority priority;
+        private final int weight;
+        private final long sequence;
+        // Guarded by lock: pending slot requests, slots held, and tests not yet started
+        private final Deque<CompletableFuture<Void>> requests = new ArrayDeque<>();
+        private int held;
+        private int remaining;
+        private boolean closed;
+
+        private Ticket(String executionId, String projectId, ExecutionPriority priority,
+                       int weight, long sequence, int tests) {
+            this.executionId = executionId;
+            this.projectId = projectId;
+            this.priority = priority;
+            this.weight = weight;
+            this.sequence = sequence;
+            this.remaining = tests;
+        }
+
+        /**
+         * Request a slot
+         *
+         * @return Future completed once the slot is granted, or failed if the ticket is
+         *         closed; cancelling it withdraws the request
+         */
+        @Override
+        public CompletableFuture<Void> acquire() {
+            CompletableFuture<Void> request = new CompletableFuture<>();
+            lock.lock();
+            try {
+                if (closed) {
+                    request.completeExceptionally(
+                            new IllegalStateException("Ticket of execution " + executionId + " is closed"));
+                    return request;
+                }
+                requests.add(request);
+                dispatch();
+            } finally {
+                lock.unlock();
+            }
+            request.whenComplete((ignored, error) -> {
+                if (request.isCancelled()) {
+                    withdraw(request);
+                }
+            });
+            return request;
+        }
+
+        /**
+         * Give back a slot after running a test
+         *
+         * @param elapsedNanos How long the test ran
+         */
+        @Override
+        public void release(long elapsedNanos) {
+            lock.lock();
+            try {
+                if (held == 0) {
+                    return;
+                }
+                held--;
+                averageTestNanos += DURATION_SMOOTHING * (elapsedNanos - averageTestNanos);
+                returnSlot(this);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Give back a slot that ran no test, leaving the average duration alone
+         */
+        @Override
+        public void releaseUnused() {
+            lock.lock();
+            try {
+                if (held > 0) {
+                    held--;
+                    returnSlot(this);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Unregister the execution, withdrawing its requests and returning any slots it
+         * still holds
+         */
+        @Override
+        public void close() {
+            List<CompletableFuture<Void>> withdrawn;
+            lock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                tickets.remove(this);
+                withdrawn = new ArrayList<>(requests);
+                requests.clear();
+                int leaked = held;
+                held = 0;
+                for (int i = 0; i < leaked; i++) {
+                    returnSlot(this);
+                }
+                dispatch();
+            } finally {
+                lock.unlock();
+            }
+            for (CompletableFuture<Void> request : withdrawn) {
+                request.cancel(false);
+            }
+        }
+
+        private void withdraw(CompletableFuture<Void> request) {
+            lock.lock();
+            try {
+                requests.remove(request);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public String getExecutionId() {
+            return executionId;
+        }
+
+        /**
+         * Get the number of slots this execution holds
+         *
+         * @return Held slots
+         */
+        public int getHeld() {
+            lock.lock();
+            try {
+                return held;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.cstestforge.execution.service;
+
+import com.cstestforge.execution.model.TestExecutionInfo;
+import com.cstestforge.execution.model.TestStatus;
+import com.cstestforge.recorder.websocket.WebSocketMessage;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Pushes the live progress of running executions to STOMP subscribers.
+ * <p>
+ * Every execution has a topic, {@code /topic/executions/{executionId}}. Test events are
+ * queued as they happen and sent in coalesced {@code PROGRESS} frames, at most
+ * {@code cstestforge.execution.events.max-frames-per-second} per execution, each holding
+ * the events since the previous frame plus the absolute counters and the estimated end
+ * time. The last frame, {@code FINISHED}, is sent as soon as the execution ends.
+ * <p>
+ * Frames are numbered. A late subscriber subscribes to the topic, then requests a
+ * snapshot from {@code /app/executions/{executionId}}, and drops frames numbered at or
+ * below the snapshot's sequence. Counters in frames are absolute, so a frame that
+ * overlaps the snapshot does no harm.
+ */
+@Service
+public class ExecutionEventPublisher {
+    private static final Logger logger = LoggerFactory.getLogger(ExecutionEventPublisher.class);
+
+    /** Topic prefix of execution progress frames */
+    public static final String TOPIC_PREFIX = "/topic/executions/";
+
+    // Events kept per frame; the counters stay exact when more are dropped
+    private static final int MAX_EVENTS_PER_FRAME = 200;
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final long frameIntervalNanos;
+    private final Map<String, Stream> streams = new ConcurrentHashMap<>();
+    // Single thread, so the frames of an execution are sent in order
+    private final ScheduledExecutorService frameScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "execution-events");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ExecutionEventPublisher(
+            SimpMessagingTemplate messagingTemplate,
+            @Value("${cstestforge.execution.events.max-frames-per-second:4}") int maxFramesPerSecond) {
+        this.messagingTemplate = messagingTemplate;
+        this.frameIntervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, maxFramesPerSecond);
+    }
+
+    /**
+     * Start publishing an execution
+     *
+     * @param executionId Execution ID
+     * @param liveState Returns the live state of the execution; called on the frame thread
+     */
+    public void open(String executionId, Supplier<TestExecutionInfo> liveState) {
+        streams.putIfAbsent(executionId, new Stream(executionId, liveState));
+    }
+
+    /**
+     * Publish that a test started
+     *
+     * @param executionId Execution ID
+     * @param testId Test ID
+     * @param testName Test name
+     */
+    public void testStarted(String executionId, String testId, String testName) {
+        Stream stream = streams.get(executionId);
+        if (stream != null) {
+            stream.startedNanos.compareAndSet(0, System.nanoTime());
+            stream.add(event("TEST_STARTED", testId, testName, null));
+        }
+    }
+
+    /**
+     * Publish that a test finished
+     *
+     * @param executionId Execution ID
+     * @param testId Test ID
+     * @param testName Test name
+     * @param result Test result
+     */
+    public void testFinished(String executionId, String testId, String testName, TestStatus result) {
+        Stream stream = streams.get(executionId);
+        if (stream != null) {
+            stream.finished.incrementAndGet();
+            stream.add(event("TEST_FINISHED", testId, testName, result));
+        }
+    }
+
+    /**
+     * Publish that the counters or status changed without a test event
+     *
+     * @param executionId Execution ID
+     */
+    public void changed(String executionId) {
+        Stream stream = streams.get(executionId);
+        if (stream != null) {
+            stream.schedule();
+        }
+    }
+
+    /**
+     * Send the final frame of an execution and stop publishing it
+     *
+     * @param executionId Execution ID
+     */
+    public void close(String executionId) {
+        Stream stream = streams.remove(executionId);
+        if (stream != null) {
+            stream.closed = true;
+            frameScheduler.execute(() -> stream.send("FINISHED"));
+        }
+    }
+
+    /**
+     * Get the number of the last frame sent for an execution
+     *
+     * @param executionId Execution ID
+     * @return Sequence, 0 before the first frame or if the execution is not published
+     */
+    public long getSequence(String executionId) {
+        Stream stream = streams.get(executionId);
+        return stream != null ? stream.sequence : 0;
+    }
+
+    /**
+     * Build the snapshot a subscriber starts from
+     *
+     * @param executionInfo Live execution state
+     * @param sequence Sequence of the last frame included in the state
+     * @return Snapshot message
+     */
+    public WebSocketMessage<Map<String, Object>> snapshot(TestExecutionInfo executionInfo, long sequence) {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("sequence", sequence);
+        payload.put("execution", executionInfo);
+        Stream stream = streams.get(executionInfo.getId());
+        payload.put("estimatedEndTime", stream != null ? stream.estimateEnd(executionInfo) : null);
+        return WebSocketMessage.of("SNAPSHOT", payload);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        frameScheduler.shutdownNow();
+    }
+
+    private static Map<String, Object> event(String type, String testId, String testName, TestStatus result) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("type", type);
+        event.put("testId", testId);
+        event.put("testName", testName);
+        if (result != null) {
+            event.put("result", result);
+        }
+        event.put("time", LocalDateTime.now());
+        return event;
+    }
+
+    /**
+     * Pending events and frame state of one execution
+     */
+    private class Stream {
+        private final String executionId;
+        private final Supplier<TestExecutionInfo> liveState;
+        private final Queue<Map<String, Object>> events = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pendingEvents = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicLong startedNanos = new AtomicLong();
+        private final AtomicInteger finished = new AtomicInteger();
+        private volatile boolean closed;
+        // Written on the frame thread only
+        private volatile long sequence;
+        private volatile long lastFrameNanos = System.nanoTime() - frameIntervalNanos;
+
+        private Stream(String executionId, Supplier<TestExecutionInfo> liveState) {
+            this.executionId = executionId;
+            this.liveState = liveState;
+        }
+
+        private void add(Map<String, Object> event) {
+            if (pendingEvents.incrementAndGet() <= MAX_EVENTS_PER_FRAME) {
+                events.add(event);
+            }
+            schedule();
+        }
+
+        /**
+         * Schedule a frame no sooner than one interval after the last one
+         */
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                long delay = Math.max(0, lastFrameNanos + frameIntervalNanos - System.nanoTime());
+                try {
+                    frameScheduler.schedule(() -> send("PROGRESS"), delay, TimeUnit.NANOSECONDS);
+                } catch (RuntimeException e) {
+                    scheduled.set(false);
+                    logger.debug("Could not schedule progress frame of execution {}", executionId, e);
+                }
+            }
+        }
+
+        private void send(String type) {
+            if (closed && !"FINISHED".equals(type)) {
+                return;
+            }
+            // Reset first: an event added from here on schedules the next frame
+            lastFrameNanos = System.nanoTime();
+            scheduled.set(false);
+
+            List<Map<String, Object>> batch = new ArrayList<>();
+            Map<String, Object> event;
+            while ((event = events.poll()) != null) {
+                batch.add(event);
+            }
+            int dropped = Math.max(0, pendingEvents.getAndSet(0) - batch.size());
+
+            try {
+                TestExecutionInfo executionInfo = liveState.get();
+                Map<String, Object> payload = new HashMap<>();
+                payload.put("sequence", ++sequence);
+                payload.put("executionId", executionId);
+                payload.put("status", executionInfo.getStatus());
+                payload.put("totalTests", executionInfo.getTotalTests());
+                payload.put("passedTests", executionInfo.getPassedTests());
+                payload.put("failedTests", executionInfo.getFailedTests());
+                payload.put("skippedTests", executionInfo.getSkippedTests());
+                payload.put("errorTests", executionInfo.getErrorTests());
+                payload.put("runningTests", executionInfo.getRunningTests());
+                payload.put("queuedTests", executionInfo.getQueuedTests());
+                payload.put("estimatedStartTime", executionInfo.getEstimatedStartTime());
+                payload.put("estimatedEndTime", estimateEnd(executionInfo));
+                payload.put("events", batch);
+                payload.put("droppedEvents", dropped);
+                messagingTemplate.convertAndSend(TOPIC_PREFIX + executionId, WebSocketMessage.of(type, payload));
+            } catch (Exception e) {
+                logger.warn("Error publishing progress of execution {}: {}", executionId, e.getMessage());
+            }
+        }
+
+        /**
+         * Estimate the end from the rate tests have finished at since the first started
+         *
+         * @return Estimated end time, or null before the first test finished
+         */
+        private LocalDateTime estimateEnd(TestExecutionInfo executionInfo) {
+            long started = startedNanos.get();
+            int done = finished.get();
+            if (started == 0 || done == 0) {
+                return null;
+            }
+            int remaining = Math.max(0, executionInfo.getTotalTests() - done);
+            long elapsed = System.nanoTime() - started;
+            return LocalDateTime.now().plusNanos((long) ((double) elapsed / done * remaining));
+        }
+    }
+}
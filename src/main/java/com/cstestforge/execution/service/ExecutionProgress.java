@@ -0,0 +1,116 @@
+package com.cstestforge.execution.service;
+
+import com.cstestforge.execution.model.TestExecutionInfo;
+import com.cstestforge.execution.model.TestStatus;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live progress of a running execution, updated by its test threads without locking.
+ * <p>
+ * Results are counted in striped counters, so tests finishing at the same time do not
+ * contend, and the running and queued counts are plain volatile gauges. Nothing is
+ * written to storage here: the service copies the counts into the execution with
+ * {@link #applyTo(TestExecutionInfo)} when it is read, and persists it only when
+ * {@link #takeDirty()} reports a change since the last flush.
+ */
+public class ExecutionProgress {
+
+    private final LongAdder passed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private volatile int running;
+    private volatile int queued;
+    private volatile boolean dirty;
+
+    /**
+     * Create the progress of an execution, starting from its current counts
+     *
+     * @param executionInfo Execution info
+     */
+    public ExecutionProgress(TestExecutionInfo executionInfo) {
+        passed.add(executionInfo.getPassedTests());
+        failed.add(executionInfo.getFailedTests());
+        skipped.add(executionInfo.getSkippedTests());
+        errors.add(executionInfo.getErrorTests());
+        running = executionInfo.getRunningTests();
+        queued = executionInfo.getQueuedTests();
+    }
+
+    /**
+     * Count the result of a finished test
+     *
+     * @param result Test result
+     */
+    public void record(TestStatus result) {
+        switch (result) {
+            case PASSED:
+                passed.increment();
+                break;
+            case FAILED:
+                failed.increment();
+                break;
+            case SKIPPED:
+                skipped.increment();
+                break;
+            case ERROR:
+                errors.increment();
+                break;
+            default:
+                return;
+        }
+        dirty = true;
+    }
+
+    /**
+     * Set the running and queued counts
+     *
+     * @param running Tests running
+     * @param queued Tests waiting to run
+     */
+    public void setCounts(int running, int queued) {
+        this.running = running;
+        this.queued = queued;
+        dirty = true;
+    }
+
+    /**
+     * Mark the progress as changed, so the next flush persists it
+     */
+    public void markDirty() {
+        dirty = true;
+    }
+
+    /**
+     * Check for changes since the last call and reset the flag. A change racing with
+     * the reset sets the flag again, so it is persisted by the next flush at the latest.
+     *
+     * @return true if anything changed
+     */
+    public boolean takeDirty() {
+        if (!dirty) {
+            return false;
+        }
+        dirty = false;
+        return true;
+    }
+
+    /**
+     * Copy the live counts into the execution info
+     *
+     * @param executionInfo Execution info to update
+     * @return The execution info
+     */
+    public TestExecutionInfo applyTo(TestExecutionInfo executionInfo) {
+        synchronized (executionInfo) {
+            executionInfo.setPassedTests(passed.intValue());
+            executionInfo.setFailedTests(failed.intValue());
+            executionInfo.setSkippedTests(skipped.intValue());
+            executionInfo.setErrorTests(errors.intValue());
+            executionInfo.setRunningTests(running);
+            executionInfo.setQueuedTests(queued);
+        }
+        return executionInfo;
+    }
+}
@@ -99,4 +99,14 @@ public interface TestExecutionService {
      * @return Number of executions deleted
      */
     int cleanupOldExecutions(String projectId, int daysToKeep);
+
+    /**
+     * Move old executions into the monthly archive packs. Archived executions remain
+     * readable through every query.
+     *
+     * @param projectId Project ID
+     * @param daysToKeep Number of days to keep executions in the hot directories
+     * @return Number of executions archived
+     */
+    int archiveOldExecutions(String projectId, int daysToKeep);
 } 
\ No newline at end of file
@@ -7,19 +7,26 @@ import com.cstestforge.project.service.ProjectService;
 import com.cstestforge.storage.repository.TestExecutionRepository;
 import com.cstestforge.testing.model.TestCase;
 import com.cstestforge.testing.service.TestService;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -33,21 +40,56 @@ public class TestExecutionServiceImpl implements TestExecutionService {
     private final TestExecutionRepository executionRepository;
     private final TestService testService;
     private final ProjectService projectService;
+    private final ExecutionAdmissionController admissionController;
+    private final ExecutionEventPublisher eventPublisher;
     
     // Track ongoing executions
     private final Map<String, TestExecutionInfo> activeExecutions = new ConcurrentHashMap<>();
     
-    // Executor for running tests in parallel
-    private final Executor testExecutor = Executors.newCachedThreadPool();
+    // Live counts of the executions whose tests are running, persisted by flushProgress()
+    private final Map<String, ExecutionProgress> activeProgress = new ConcurrentHashMap<>();
+    
+    @Value("${cstestforge.storage.archive.enabled:true}")
+    private boolean archiveEnabled;
+    
+    @Value("${cstestforge.storage.archive.after-days:90}")
+    private int archiveAfterDays;
+    
+    // Estimated duration of tests that have never run in a project with no history at all
+    @Value("${cstestforge.execution.sharding.default-test-ms:30000}")
+    private long defaultTestMillis;
+    
+    // Schedulers of the executions whose tests are running, for cancellation
+    private final Map<String, WorkStealingTestScheduler<TestCase>> activeSchedulers = new ConcurrentHashMap<>();
+    
+    // Test slots of the executions that have not finished yet
+    private final Map<String, ExecutionAdmissionController.Ticket> activeTickets = new ConcurrentHashMap<>();
+    
+    // Runs the tests of all executions, one thread per slot of the global budget
+    private final ExecutorService testExecutor;
+    
+    // Prepares executions and finishes them; never waits for a test slot
+    private final ExecutorService executionDispatcher = Executors.newCachedThreadPool(daemonThreads("execution-dispatch"));
 
     @Autowired
     public TestExecutionServiceImpl(
             TestExecutionRepository executionRepository,
             TestService testService,
-            ProjectService projectService) {
+            ProjectService projectService,
+            ExecutionAdmissionController admissionController,
+            ExecutionEventPublisher eventPublisher) {
         this.executionRepository = executionRepository;
         this.testService = testService;
         this.projectService = projectService;
+        this.admissionController = admissionController;
+        this.eventPublisher = eventPublisher;
+        this.testExecutor = Executors.newFixedThreadPool(admissionController.getCapacity(), daemonThreads("test-worker"));
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        executionDispatcher.shutdownNow();
+        testExecutor.shutdownNow();
     }
 
     @Override
@@ -84,8 +126,13 @@ public class TestExecutionServiceImpl implements TestExecutionService {
         // Store in active executions
         activeExecutions.put(executionId, executionInfo);
         
+        // Register for test slots now, so the caller gets an estimated start time
+        activeTickets.put(executionId, admissionController.register(executionId, request.getProjectId(),
+                request.getConfig().getPriority(), request.getTestIds().size()));
+        executionInfo.setEstimatedStartTime(admissionController.estimateStart(executionId));
+        
         // Start execution asynchronously
-        runTestsAsync(executionId, request);
+        executionDispatcher.execute(() -> runTestsAsync(executionId, request));
         
         return executionInfo;
     }
@@ -93,8 +140,16 @@ public class TestExecutionServiceImpl implements TestExecutionService {
     @Override
     public TestExecutionInfo getExecutionStatus(String executionId) {
         // Check active executions first to get real-time status
-        if (activeExecutions.containsKey(executionId)) {
-            return activeExecutions.get(executionId);
+        TestExecutionInfo activeExecution = activeExecutions.get(executionId);
+        if (activeExecution != null) {
+            ExecutionProgress progress = activeProgress.get(executionId);
+            if (progress != null) {
+                progress.applyTo(activeExecution);
+            }
+            if (activeExecution.getStatus() == TestStatus.QUEUED) {
+                activeExecution.setEstimatedStartTime(admissionController.estimateStart(executionId));
+            }
+            return activeExecution;
         }
         
         // Otherwise load from repository
@@ -111,18 +166,36 @@ public class TestExecutionServiceImpl implements TestExecutionService {
         // Get current execution
         TestExecutionInfo executionInfo = getExecutionStatus(executionId);
         
-        if (executionInfo.getStatus() == TestStatus.RUNNING || 
-            executionInfo.getStatus() == TestStatus.QUEUED) {
-            
-            // Update status to aborted
-            executionInfo.setStatus(TestStatus.ABORTED);
-            executionInfo.setEndTime(LocalDateTime.now());
-            
-            // Update in repository
-            String projectId = getProjectIdFromExecutionId(executionId);
-            TestExecution execution = convertToEntity(executionInfo);
-            executionRepository.update(projectId, executionId, execution);
-            
+        // Serialized with progress flushes, so a flush cannot persist a stale state over the abort
+        boolean stopped = false;
+        synchronized (executionInfo) {
+            if (executionInfo.getStatus() == TestStatus.RUNNING || 
+                executionInfo.getStatus() == TestStatus.QUEUED) {
+                
+                // Update status to aborted
+                executionInfo.setStatus(TestStatus.ABORTED);
+                executionInfo.setEstimatedStartTime(null);
+                executionInfo.setEndTime(LocalDateTime.now());
+                
+                // Drop the queued tests and interrupt the running ones
+                WorkStealingTestScheduler<TestCase> scheduler = activeSchedulers.get(executionId);
+                if (scheduler != null) {
+                    scheduler.cancel();
+                }
+                ExecutionProgress progress = activeProgress.get(executionId);
+                if (progress != null) {
+                    progress.applyTo(executionInfo);
+                }
+                
+                // Update in repository
+                String projectId = getProjectIdFromExecutionId(executionId);
+                TestExecution execution = convertToEntity(executionInfo);
+                executionRepository.update(projectId, executionId, execution);
+                stopped = true;
+            }
+        }
+        
+        if (stopped) {
             // Update active executions cache
             if (activeExecutions.containsKey(executionId)) {
                 activeExecutions.put(executionId, executionInfo);
@@ -143,8 +216,8 @@ public class TestExecutionServiceImpl implements TestExecutionService {
         String projectId = executionInfo.getProjectId();
         
         try {
-            // Load execution from repository
-            TestExecution execution = executionRepository.findById(projectId, executionId)
+            // Load execution with its step-level details from repository
+            TestExecution execution = executionRepository.findByIdWithDetails(projectId, executionId)
                 .orElseThrow(() -> new IllegalArgumentException("Execution not found with ID: " + executionId));
             
             // Load test-specific results if available
@@ -338,6 +411,17 @@ public class TestExecutionServiceImpl implements TestExecutionService {
                 performanceMetrics.put("avgTestTime", Math.round(avgTestTime * 100) / 100.0);
             }
             
+            // Compare the planned makespan with the actual one
+            if (executionInfo.getPredictedMakespan() != null && executionInfo.getActualMakespan() != null
+                    && executionInfo.getPredictedMakespan() > 0) {
+                long predicted = executionInfo.getPredictedMakespan();
+                long actual = executionInfo.getActualMakespan();
+                performanceMetrics.put("predictedMakespan", predicted);
+                performanceMetrics.put("actualMakespan", actual);
+                // Percent the run took longer (positive) or shorter than planned
+                performanceMetrics.put("makespanError", Math.round((double) (actual - predicted) / predicted * 10000) / 100.0);
+            }
+            
             // Store the performance metrics in the execution info via custom settings
             if (!performanceMetrics.isEmpty()) {
                 // Initialize custom settings if needed
@@ -485,7 +569,7 @@ public class TestExecutionServiceImpl implements TestExecutionService {
                 .sorted(Comparator.comparing(TestExecution::getStartTime).reversed())
                 .skip(offset)
                 .limit(limit)
-                .map(this::convertToInfo)
+                .map(this::toLiveInfo)
                 .collect(Collectors.toList());
     }
 
@@ -497,7 +581,7 @@ public class TestExecutionServiceImpl implements TestExecutionService {
         return executions.stream()
                 .sorted(Comparator.comparing(TestExecution::getStartTime).reversed())
                 .limit(limit)
-                .map(this::convertToInfo)
+                .map(this::toLiveInfo)
                 .collect(Collectors.toList());
     }
 
@@ -507,6 +591,7 @@ public class TestExecutionServiceImpl implements TestExecutionService {
         
         // Remove from active executions if present
         activeExecutions.remove(executionId);
+        activeProgress.remove(executionId);
         
         // Delete from repository
         return executionRepository.delete(projectId, executionId);
@@ -515,7 +600,7 @@ public class TestExecutionServiceImpl implements TestExecutionService {
     @Override
     public Optional<TestExecutionInfo> getLatestTestExecution(String projectId, String testId) {
         Optional<TestExecution> execution = executionRepository.findLatestByTestId(projectId, testId);
-        return execution.map(this::convertToInfo);
+        return execution.map(this::toLiveInfo);
     }
 
     @Override
@@ -533,7 +618,7 @@ public class TestExecutionServiceImpl implements TestExecutionService {
         return executions.stream()
                 .sorted(Comparator.comparing(TestExecution::getStartTime).reversed())
                 .limit(limit)
-                .map(this::convertToInfo)
+                .map(this::toLiveInfo)
                 .collect(Collectors.toList());
     }
 
@@ -543,50 +628,128 @@ public class TestExecutionServiceImpl implements TestExecutionService {
         return executionRepository.deleteOlderThan(projectId, cutoffDate);
     }
     
+    @Override
+    public int archiveOldExecutions(String projectId, int daysToKeep) {
+        LocalDateTime cutoffDate = LocalDateTime.now().minus(daysToKeep, ChronoUnit.DAYS);
+        return executionRepository.archiveOlderThan(projectId, cutoffDate);
+    }
+    
+    /**
+     * Archive the executions of all projects that are older than the configured age
+     */
+    @Scheduled(initialDelayString = "${cstestforge.storage.archive.interval-ms:3600000}",
+            fixedDelayString = "${cstestforge.storage.archive.interval-ms:3600000}")
+    public void archiveOldExecutions() {
+        if (!archiveEnabled) {
+            return;
+        }
+        for (String projectId : getProjectIdsFromExecutionHistory()) {
+            try {
+                archiveOldExecutions(projectId, archiveAfterDays);
+            } catch (Exception e) {
+                logger.error("Error archiving executions of project {}", projectId, e);
+            }
+        }
+    }
+    
+    /**
+     * Persist the live progress of running executions that changed since the last flush.
+     * Tests only update the in-memory counters; terminal states are persisted at once.
+     */
+    @Scheduled(fixedDelayString = "${cstestforge.execution.progress.flush-interval-ms:1000}")
+    public void flushProgress() {
+        for (Map.Entry<String, ExecutionProgress> entry : activeProgress.entrySet()) {
+            TestExecutionInfo executionInfo = activeExecutions.get(entry.getKey());
+            if (executionInfo == null || !entry.getValue().takeDirty()) {
+                continue;
+            }
+            try {
+                updateExecutionInfo(entry.getValue().applyTo(executionInfo));
+            } catch (Exception e) {
+                // Keep the change pending for the next flush
+                entry.getValue().markDirty();
+                logger.error("Error flushing progress of execution {}", entry.getKey(), e);
+            }
+        }
+    }
+    
     /**
-     * Run tests asynchronously
+     * Prepare an execution and start its tests, on the dispatch executor. Returns once
+     * the tests are started; the execution is finished when they are done.
      * 
      * @param executionId Execution ID
      * @param request Test execution request
      */
-    @Async
-    protected void runTestsAsync(String executionId, TestExecutionRequest request) {
+    private void runTestsAsync(String executionId, TestExecutionRequest request) {
+        CompletableFuture<Void> run;
         try {
             String projectId = request.getProjectId();
             TestExecutionInfo executionInfo = activeExecutions.get(executionId);
             
-            // Update status to running
-            executionInfo.setStatus(TestStatus.RUNNING);
+            // Stays queued until the admission controller grants the first test slot
             executionInfo.setRunningTests(0);
             executionInfo.setQueuedTests(request.getTestIds().size());
             
             // Update repository
             updateExecutionInfo(executionInfo);
+            ExecutionProgress liveProgress = new ExecutionProgress(executionInfo);
+            activeProgress.put(executionId, liveProgress);
+            eventPublisher.open(executionId, () -> liveProgress.applyTo(executionInfo));
             
             // Load test cases
             List<TestCase> testCases = loadTestCases(projectId, request.getTestIds());
             
             // Execute tests based on configuration
             if (request.getConfig().isParallel()) {
-                executeTestsInParallel(executionInfo, testCases, request.getConfig());
+                run = executeTestsInParallel(executionInfo, testCases, request.getConfig());
             } else {
-                executeTestsSequentially(executionInfo, testCases, request.getConfig());
+                run = executeTestsSequentially(executionInfo, testCases, request.getConfig());
             }
-            
-            // All tests are completed at this point
-            finalizeExecution(executionInfo);
-            
         } catch (Exception e) {
-            logger.error("Error executing tests for execution {}", executionId, e);
-            
-            // Update execution status to error
+            run = CompletableFuture.failedFuture(e);
+        }
+        run.whenCompleteAsync((ignored, error) -> finishExecution(executionId, error), executionDispatcher);
+    }
+    
+    /**
+     * Persist the final state of an execution once its tests are done, stopped or failed
+     * to start, and release its test slots
+     * 
+     * @param executionId Execution ID
+     * @param error Error that ended the execution, or null
+     */
+    private void finishExecution(String executionId, Throwable error) {
+        ExecutionAdmissionController.Ticket ticket = activeTickets.remove(executionId);
+        if (ticket != null) {
+            ticket.close();
+        }
+        try {
             TestExecutionInfo executionInfo = activeExecutions.get(executionId);
-            if (executionInfo != null) {
-                executionInfo.setStatus(TestStatus.ERROR);
-                executionInfo.setEndTime(LocalDateTime.now());
+            if (error != null) {
+                failExecution(executionId, error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error);
+                return;
+            }
+            
+            // All tests are completed at this point, unless the execution was stopped
+            ExecutionProgress progress = activeProgress.remove(executionId);
+            if (progress != null) {
+                progress.applyTo(executionInfo);
+            }
+            if (executionInfo.getStatus() == TestStatus.ABORTED) {
+                executionInfo.setRunningTests(0);
+                executionInfo.setQueuedTests(0);
                 updateExecutionInfo(executionInfo);
+            } else {
+                finalizeExecution(executionInfo);
             }
+            
+        } catch (Exception e) {
+            failExecution(executionId, e);
         } finally {
+            // Final frame for live subscribers, after the final state is persisted
+            eventPublisher.close(executionId);
+            
             // Remove from active executions after a delay to allow clients to fetch final status
             CompletableFuture.delayedExecutor(5, java.util.concurrent.TimeUnit.MINUTES)
                     .execute(() -> activeExecutions.remove(executionId));
@@ -594,46 +757,39 @@ public class TestExecutionServiceImpl implements TestExecutionService {
     }
     
     /**
-     * Execute tests in parallel
+     * Mark an execution as failed
      * 
-     * @param executionInfo Execution info to update
-     * @param testCases Test cases to execute
-     * @param config Execution configuration
+     * @param executionId Execution ID
+     * @param error Error that ended the execution
      */
-    private void executeTestsInParallel(TestExecutionInfo executionInfo, List<TestCase> testCases, ExecutionConfig config) {
-        int maxParallel = Math.min(config.getMaxParallel(), testCases.size());
-        
-        // Prepare test cases for parallel execution
-        List<CompletableFuture<Void>> futures = new ArrayList<>();
-        List<TestCase> queuedTests = new ArrayList<>(testCases);
+    private void failExecution(String executionId, Throwable error) {
+        logger.error("Error executing tests for execution {}", executionId, error);
         
-        executionInfo.setRunningTests(Math.min(maxParallel, queuedTests.size()));
-        executionInfo.setQueuedTests(Math.max(0, queuedTests.size() - maxParallel));
-        updateExecutionInfo(executionInfo);
-        
-        // Execute tests in parallel
-        for (int i = 0; i < maxParallel; i++) {
-            if (!queuedTests.isEmpty()) {
-                TestCase testCase = queuedTests.remove(0);
-                futures.add(CompletableFuture.runAsync(() -> {
-                    executeTest(executionInfo, testCase, config);
-                    
-                    // Handle queued tests
-                    synchronized (queuedTests) {
-                        if (!queuedTests.isEmpty()) {
-                            TestCase nextTest = queuedTests.remove(0);
-                            executionInfo.setQueuedTests(queuedTests.size());
-                            updateExecutionInfo(executionInfo);
-                            
-                            executeTest(executionInfo, nextTest, config);
-                        }
-                    }
-                }, testExecutor));
+        // Update execution status to error
+        TestExecutionInfo executionInfo = activeExecutions.get(executionId);
+        ExecutionProgress progress = activeProgress.remove(executionId);
+        if (executionInfo != null) {
+            if (progress != null) {
+                progress.applyTo(executionInfo);
             }
+            executionInfo.setStatus(TestStatus.ERROR);
+            executionInfo.setEndTime(LocalDateTime.now());
+            updateExecutionInfo(executionInfo);
         }
-        
-        // Wait for all tests to complete
-        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+    }
+    
+    /**
+     * Execute tests in parallel on up to maxParallel slots, within the global budget,
+     * longest expected test first, until the queue is empty
+     * 
+     * @param executionInfo Execution info to update
+     * @param testCases Test cases to execute
+     * @param config Execution configuration
+     * @return Future completed when the tests are done
+     */
+    private CompletableFuture<Void> executeTestsInParallel(TestExecutionInfo executionInfo, List<TestCase> testCases, ExecutionConfig config) {
+        int parallelism = Math.min(config.getMaxParallel(), admissionController.getCapacity());
+        return runPlanned(executionInfo, testCases, config, parallelism);
     }
     
     /**
@@ -642,19 +798,143 @@ public class TestExecutionServiceImpl implements TestExecutionService {
      * @param executionInfo Execution info to update
      * @param testCases Test cases to execute
      * @param config Execution configuration
+     * @return Future completed when the tests are done
      */
-    private void executeTestsSequentially(TestExecutionInfo executionInfo, List<TestCase> testCases, ExecutionConfig config) {
-        executionInfo.setRunningTests(1);
-        executionInfo.setQueuedTests(testCases.size() - 1);
-        updateExecutionInfo(executionInfo);
+    private CompletableFuture<Void> executeTestsSequentially(TestExecutionInfo executionInfo, List<TestCase> testCases, ExecutionConfig config) {
+        return runPlanned(executionInfo, testCases, config, 1);
+    }
+    
+    /**
+     * Plan the tests across slots from their duration history, run them, then record the
+     * predicted and actual makespan and the new test durations
+     * 
+     * @param executionInfo Execution info to update
+     * @param testCases Test cases to execute
+     * @param config Execution configuration
+     * @param slots Number of slots
+     * @return Future completed when the tests are done and the durations recorded
+     */
+    private CompletableFuture<Void> runPlanned(TestExecutionInfo executionInfo, List<TestCase> testCases, ExecutionConfig config, int slots) {
+        String projectId = executionInfo.getProjectId();
+        Map<String, Long> history = findTestMillis(projectId, testCases);
+        long fallback = medianOrDefault(history.values());
+        TestShardPlan<TestCase> plan = TestShardPlan.plan(testCases, slots,
+                testCase -> history.getOrDefault(testCase.getId(), fallback));
+        executionInfo.setPredictedMakespan(plan.getPredictedMakespanMillis());
         
-        for (TestCase testCase : testCases) {
+        Map<String, Duration> durations = new ConcurrentHashMap<>();
+        Consumer<TestCase> action = testCase -> {
+            long started = System.nanoTime();
             executeTest(executionInfo, testCase, config);
-            
-            // Update queue count for next test
-            executionInfo.setQueuedTests(Math.max(0, executionInfo.getQueuedTests() - 1));
-            updateExecutionInfo(executionInfo);
+            // Interrupted tests did not run to the end
+            if (!Thread.currentThread().isInterrupted() && testCase.getId() != null) {
+                durations.put(testCase.getId(), Duration.ofNanos(System.nanoTime() - started));
+            }
+        };
+        
+        // A single slot keeps the requested order: any order has the same makespan
+        WorkStealingTestScheduler<TestCase> scheduler = slots > 1
+                ? new WorkStealingTestScheduler<>(plan.getShards(), action)
+                : new WorkStealingTestScheduler<>(testCases, 1, action);
+        return runScheduled(executionInfo, scheduler).thenRun(() -> {
+            executionInfo.setActualMakespan(scheduler.getElapsedMillis());
+            logger.info("Execution {} ran {} tests on {} slots in {} ms, predicted {} ms ({} of {} tests with history)",
+                    executionInfo.getId(), scheduler.getCompleted(), scheduler.getParallelism(),
+                    executionInfo.getActualMakespan(), executionInfo.getPredictedMakespan(),
+                    history.size(), testCases.size());
+            try {
+                executionRepository.recordTestDurations(projectId, durations);
+            } catch (Exception e) {
+                logger.warn("Error recording test durations for execution {}: {}", executionInfo.getId(), e.getMessage());
+            }
+        });
+    }
+    
+    /**
+     * Get how long each test took in its past runs
+     * 
+     * @param projectId Project ID
+     * @param testCases Test cases to look up
+     * @return Smoothed milliseconds by test ID, for the tests that have run before
+     */
+    private Map<String, Long> findTestMillis(String projectId, List<TestCase> testCases) {
+        Set<String> testIds = testCases.stream()
+                .map(TestCase::getId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        Map<String, Long> history = new HashMap<>();
+        try {
+            executionRepository.findTestDurations(projectId, testIds)
+                    .forEach((testId, duration) -> history.put(testId, duration.toMillis()));
+        } catch (Exception e) {
+            logger.warn("Error loading test durations for project {}: {}", projectId, e.getMessage());
         }
+        return history;
+    }
+    
+    /**
+     * Get the estimate for tests that have not run before: the median of the known
+     * durations, or the configured default if none are known
+     * 
+     * @param known Known durations in milliseconds
+     * @return Estimated milliseconds
+     */
+    private long medianOrDefault(Collection<Long> known) {
+        if (known.isEmpty()) {
+            return defaultTestMillis;
+        }
+        List<Long> sorted = new ArrayList<>(known);
+        Collections.sort(sorted);
+        return sorted.get(sorted.size() / 2);
+    }
+    
+    /**
+     * Start the tests of a scheduler, keeping the live running and queued counts of the
+     * execution's progress up to date. Every test waits for a slot from the execution's
+     * {@link ExecutionAdmissionController} ticket without holding a thread; the execution
+     * turns from queued to running when the first one is granted.
+     * {@link #stopExecution(String)} cancels the scheduler while it is registered.
+     * 
+     * @param executionInfo Execution info to update
+     * @param scheduler Scheduler holding the tests
+     * @return Future completed on the dispatch executor when the tests are done
+     */
+    private CompletableFuture<Void> runScheduled(TestExecutionInfo executionInfo, WorkStealingTestScheduler<TestCase> scheduler) {
+        ExecutionProgress progress = activeProgress.computeIfAbsent(executionInfo.getId(),
+                id -> new ExecutionProgress(executionInfo));
+        scheduler.setProgressListener((running, queued) -> {
+            progress.setCounts(running, queued);
+            if (running > 0 && executionInfo.getStatus() == TestStatus.QUEUED) {
+                markRunning(executionInfo);
+            }
+        });
+        progress.setCounts(0, scheduler.getQueued());
+        
+        scheduler.setSlotGate(activeTickets.get(executionInfo.getId()));
+        activeSchedulers.put(executionInfo.getId(), scheduler);
+        // Stopped before the tests were loaded
+        if (executionInfo.getStatus() == TestStatus.ABORTED) {
+            scheduler.cancel();
+        }
+        return scheduler.start(testExecutor).whenCompleteAsync(
+                (ignored, error) -> activeSchedulers.remove(executionInfo.getId()), executionDispatcher);
+    }
+    
+    /**
+     * Mark a queued execution as running once its first test has a slot; the next
+     * progress flush persists it
+     * 
+     * @param executionInfo Execution info to update
+     */
+    private void markRunning(TestExecutionInfo executionInfo) {
+        synchronized (executionInfo) {
+            if (executionInfo.getStatus() != TestStatus.QUEUED) {
+                return;
+            }
+            executionInfo.setStatus(TestStatus.RUNNING);
+            executionInfo.setEstimatedStartTime(null);
+        }
+        eventPublisher.changed(executionInfo.getId());
     }
     
     /**
@@ -669,6 +949,7 @@ public class TestExecutionServiceImpl implements TestExecutionService {
         // against the actual system under test
         
         logger.info("Executing test: {}", testCase.getName());
+        eventPublisher.testStarted(executionInfo.getId(), testCase.getId(), testCase.getName());
         
         try {
             // Simulate test execution time
@@ -677,27 +958,12 @@ public class TestExecutionServiceImpl implements TestExecutionService {
             // Randomly determine test result for simulation purposes
             TestStatus testResult = generateRandomTestResult();
             
-            // Update execution counts based on test result
-            synchronized (executionInfo) {
-                switch (testResult) {
-                    case PASSED:
-                        executionInfo.setPassedTests(executionInfo.getPassedTests() + 1);
-                        break;
-                    case FAILED:
-                        executionInfo.setFailedTests(executionInfo.getFailedTests() + 1);
-                        break;
-                    case SKIPPED:
-                        executionInfo.setSkippedTests(executionInfo.getSkippedTests() + 1);
-                        break;
-                    case ERROR:
-                        executionInfo.setErrorTests(executionInfo.getErrorTests() + 1);
-                        break;
-                    default:
-                        break;
-                }
+            // Count the result; flushProgress() persists it
+            ExecutionProgress progress = activeProgress.get(executionInfo.getId());
+            if (progress != null) {
+                progress.record(testResult);
             }
-            
-            updateExecutionInfo(executionInfo);
+            eventPublisher.testFinished(executionInfo.getId(), testCase.getId(), testCase.getName(), testResult);
             
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
@@ -759,6 +1025,12 @@ public class TestExecutionServiceImpl implements TestExecutionService {
         metrics.put("failedTests", info.getFailedTests());
         metrics.put("skippedTests", info.getSkippedTests());
         metrics.put("errorTests", info.getErrorTests());
+        if (info.getPredictedMakespan() != null) {
+            metrics.put("predictedMakespan", info.getPredictedMakespan());
+        }
+        if (info.getActualMakespan() != null) {
+            metrics.put("actualMakespan", info.getActualMakespan());
+        }
         entity.setMetrics(metrics);
         
         // Store config as metadata
@@ -770,6 +1042,7 @@ public class TestExecutionServiceImpl implements TestExecutionService {
         metadata.put("retryCount", info.getConfig().getRetryCount());
         metadata.put("screenshotsEnabled", info.getConfig().isScreenshotsEnabled());
         metadata.put("videoEnabled", info.getConfig().isVideoEnabled());
+        metadata.put("priority", info.getConfig().getPriority().name());
         entity.setMetadata(metadata);
         
         return entity;
@@ -808,6 +1081,12 @@ public class TestExecutionServiceImpl implements TestExecutionService {
             info.setErrorTests(getMetricValue(metrics, "errorTests", 0));
             info.setRunningTests(getMetricValue(metrics, "runningTests", 0));
             info.setQueuedTests(getMetricValue(metrics, "queuedTests", 0));
+            if (metrics.get("predictedMakespan") instanceof Number) {
+                info.setPredictedMakespan(((Number) metrics.get("predictedMakespan")).longValue());
+            }
+            if (metrics.get("actualMakespan") instanceof Number) {
+                info.setActualMakespan(((Number) metrics.get("actualMakespan")).longValue());
+            }
         }
         
         // Get config from metadata
@@ -821,6 +1100,13 @@ public class TestExecutionServiceImpl implements TestExecutionService {
             config.setRetryCount(getMetadataInt(metadata, "retryCount", 1));
             config.setScreenshotsEnabled(getMetadataBoolean(metadata, "screenshotsEnabled", true));
             config.setVideoEnabled(getMetadataBoolean(metadata, "videoEnabled", false));
+            if (metadata.get("priority") instanceof String) {
+                try {
+                    config.setPriority(ExecutionPriority.valueOf((String) metadata.get("priority")));
+                } catch (IllegalArgumentException e) {
+                    logger.debug("Unknown execution priority: {}", metadata.get("priority"));
+                }
+            }
         }
         info.setConfig(config);
         
@@ -969,7 +1255,6 @@ public class TestExecutionServiceImpl implements TestExecutionService {
         try {
             // Since we don't have a direct method to get project ID for execution,
             // we'll need to search through each project's executions
-            // Get a list of all projects (Note: This would typically come from ProjectService)
             List<String> projectIds = getProjectIdsFromExecutionHistory();
             
             for (String projectId : projectIds) {
@@ -987,33 +1272,12 @@ public class TestExecutionServiceImpl implements TestExecutionService {
     }
     
     /**
-     * Get a list of project IDs that have execution history
-     * In a real implementation, this would come from ProjectService
+     * Get the IDs of all projects, which are the projects that can have execution history
      * 
      * @return List of project IDs
      */
     private List<String> getProjectIdsFromExecutionHistory() {
-        // This is a fallback implementation that would be replaced with
-        // a proper service call in a production system
-        List<String> projectIds = new ArrayList<>();
-        
-        try {
-            // For now, use the projectService to get all project IDs
-            projectService.findAll(null)
-                .getItems()
-                .forEach(project -> projectIds.add(project.getId()));
-                
-            // If no projects found, add a default for testing
-            if (projectIds.isEmpty()) {
-                projectIds.add("default-project");
-            }
-        } catch (Exception e) {
-            logger.error("Error getting project IDs", e);
-            // Return a default value for fallback
-            projectIds.add("default-project");
-        }
-        
-        return projectIds;
+        return new ArrayList<>(projectService.getAllProjectIds());
     }
     
     /**
@@ -1040,14 +1304,31 @@ public class TestExecutionServiceImpl implements TestExecutionService {
      * @param executionInfo Execution info to update
      */
     private void updateExecutionInfo(TestExecutionInfo executionInfo) {
-        // Update in repository
-        TestExecution entity = convertToEntity(executionInfo);
-        executionRepository.update(executionInfo.getProjectId(), executionInfo.getId(), entity);
+        // Update in repository; serialized per execution so a flush cannot overwrite a newer state
+        synchronized (executionInfo) {
+            TestExecution entity = convertToEntity(executionInfo);
+            executionRepository.update(executionInfo.getProjectId(), executionInfo.getId(), entity);
+        }
         
         // Update in active executions
         activeExecutions.put(executionInfo.getId(), executionInfo);
     }
     
+    /**
+     * Get the live state of an execution that is still active, else convert the stored one
+     * 
+     * @param execution Stored execution
+     * @return Execution info
+     */
+    private TestExecutionInfo toLiveInfo(TestExecution execution) {
+        TestExecutionInfo activeExecution = activeExecutions.get(execution.getId());
+        if (activeExecution == null) {
+            return convertToInfo(execution);
+        }
+        ExecutionProgress progress = activeProgress.get(execution.getId());
+        return progress != null ? progress.applyTo(activeExecution) : activeExecution;
+    }
+    
     /**
      * Generate random test result for simulation purposes
      * 
@@ -1066,4 +1347,13 @@ public class TestExecutionServiceImpl implements TestExecutionService {
             return TestStatus.ERROR;
         }
     }
-} 
\ No newline at end of file
+    
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
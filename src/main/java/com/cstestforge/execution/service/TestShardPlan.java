@@ -0,0 +1,96 @@
+package com.cstestforge.execution.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.ToLongFunction;
+
+/**
+ * Assignment of tests to slots by longest processing time first.
+ * <p>
+ * Tests are sorted by estimated duration, longest first, and each goes to the slot with
+ * the least estimated work so far. Every slot therefore starts with its longest test and
+ * ends with its shortest, so a slow test never starts last, and the planned makespan
+ * (the busiest slot's total) is within 4/3 of the optimum. At run time
+ * {@link WorkStealingTestScheduler} lets idle slots steal the short tail tests of busy
+ * ones, which absorbs estimation errors.
+ *
+ * @param <T> Test type
+ */
+public class TestShardPlan<T> {
+
+    private final List<List<T>> shards;
+    private final long[] shardMillis;
+    private final long predictedMakespanMillis;
+
+    private TestShardPlan(List<List<T>> shards, long[] shardMillis) {
+        this.shards = shards;
+        this.shardMillis = shardMillis;
+        long makespan = 0;
+        for (long millis : shardMillis) {
+            makespan = Math.max(makespan, millis);
+        }
+        this.predictedMakespanMillis = makespan;
+    }
+
+    /**
+     * Plan tests across slots
+     *
+     * @param tests Tests to run
+     * @param slots Number of slots
+     * @param estimateMillis Estimated duration of a test
+     * @param <T> Test type
+     * @return Plan with one shard per slot, each in run order
+     */
+    public static <T> TestShardPlan<T> plan(List<T> tests, int slots, ToLongFunction<T> estimateMillis) {
+        int shardCount = Math.max(1, Math.min(slots, tests.size()));
+        List<T> ordered = new ArrayList<>(tests);
+        // Stable sort: equal estimates keep their requested order
+        ordered.sort(Comparator.comparingLong(estimateMillis).reversed());
+
+        List<List<T>> shards = new ArrayList<>(shardCount);
+        long[] shardMillis = new long[shardCount];
+        PriorityQueue<Integer> leastLoaded = new PriorityQueue<>(shardCount,
+                Comparator.<Integer>comparingLong(shard -> shardMillis[shard]).thenComparingInt(shard -> shard));
+        for (int i = 0; i < shardCount; i++) {
+            shards.add(new ArrayList<>());
+            leastLoaded.add(i);
+        }
+        for (T test : ordered) {
+            int shard = leastLoaded.poll();
+            shards.get(shard).add(test);
+            shardMillis[shard] += Math.max(0, estimateMillis.applyAsLong(test));
+            leastLoaded.add(shard);
+        }
+        return new TestShardPlan<>(shards, shardMillis);
+    }
+
+    /**
+     * Get the tests of each slot, in run order
+     *
+     * @return Shards
+     */
+    public List<List<T>> getShards() {
+        return Collections.unmodifiableList(shards);
+    }
+
+    /**
+     * Get the estimated total duration of each slot
+     *
+     * @return Milliseconds by shard
+     */
+    public long[] getShardMillis() {
+        return shardMillis.clone();
+    }
+
+    /**
+     * Get the predicted wall-clock time of the run, assuming every slot is granted
+     *
+     * @return Predicted makespan in milliseconds
+     */
+    public long getPredictedMakespanMillis() {
+        return predictedMakespanMillis;
+    }
+}
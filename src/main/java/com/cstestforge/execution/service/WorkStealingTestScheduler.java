@@ -0,0 +1,361 @@
+package com.cstestforge.execution.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Runs a list of tests on a fixed number of workers until the list is exhausted.
+ * <p>
+ * Each worker owns a deque seeded round-robin with the tests, or with one shard of a
+ * {@link TestShardPlan}. A worker takes tests from
+ * the head of its own deque and, once it is empty, steals from the tail of the others,
+ * so workers that draw short tests help the ones that drew long tests and every slot
+ * stays busy while any test is queued. No lock is shared between workers: the deques
+ * are lock-free and the running and queued counts are atomic counters.
+ * <p>
+ * An optional {@link SlotGate} bounds the tests running at once beyond the worker
+ * count: every worker requests a slot before taking a test and releases it after.
+ * Workers hold no thread while they wait for a slot; each granted test runs as one
+ * task on the executor, so a pool sized to the slot budget is never short of threads.
+ * <p>
+ * {@link #cancel()} drops the queued tests and interrupts the running ones.
+ *
+ * @param <T> Test type
+ */
+public class WorkStealingTestScheduler<T> {
+    private static final Logger logger = LoggerFactory.getLogger(WorkStealingTestScheduler.class);
+
+    /**
+     * Receives the counts after every test start and finish
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+        void onProgress(int running, int queued);
+    }
+
+    /**
+     * Admits tests into slots shared with other schedulers
+     */
+    public interface SlotGate {
+        /**
+         * Request a slot
+         *
+         * @return Future completed once the slot is granted; cancelling it withdraws the request
+         */
+        CompletableFuture<Void> acquire();
+
+        /**
+         * Give back a granted slot after running a test
+         *
+         * @param elapsedNanos How long the test ran
+         */
+        void release(long elapsedNanos);
+
+        /**
+         * Give back a granted slot without having run a test
+         */
+        void releaseUnused();
+    }
+
+    private static final SlotGate UNBOUNDED = new SlotGate() {
+        @Override
+        public CompletableFuture<Void> acquire() {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public void release(long elapsedNanos) {
+        }
+
+        @Override
+        public void releaseUnused() {
+        }
+    };
+
+    private final List<Worker> workers;
+    private final Consumer<T> action;
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicLong firstStartNanos = new AtomicLong();
+    private volatile long lastFinishNanos;
+    private volatile boolean cancelled;
+    private volatile ProgressListener progressListener = (runningCount, queuedCount) -> { };
+    private volatile SlotGate slotGate = UNBOUNDED;
+    private volatile Executor executor;
+
+    /**
+     * Create a scheduler
+     *
+     * @param tests Tests in the order they should start
+     * @param parallelism Maximum number of tests running at once
+     * @param action Runs one test
+     */
+    public WorkStealingTestScheduler(List<T> tests, int parallelism, Consumer<T> action) {
+        this(roundRobin(tests, parallelism), action);
+    }
+
+    /**
+     * Create a scheduler with one worker per shard, such as the shards of a {@link TestShardPlan}
+     *
+     * @param shards Tests of each worker, in the order they should start
+     * @param action Runs one test
+     */
+    public WorkStealingTestScheduler(List<List<T>> shards, Consumer<T> action) {
+        this.action = action;
+        List<Worker> created = new ArrayList<>(Math.max(1, shards.size()));
+        int total = 0;
+        for (List<T> shard : shards) {
+            Worker worker = new Worker(created.size());
+            worker.deque.addAll(shard);
+            created.add(worker);
+            total += shard.size();
+        }
+        if (created.isEmpty()) {
+            created.add(new Worker(0));
+        }
+        this.workers = Collections.unmodifiableList(created);
+        this.queued.set(total);
+    }
+
+    private static <T> List<List<T>> roundRobin(List<T> tests, int parallelism) {
+        int workerCount = Math.max(1, Math.min(parallelism, tests.size()));
+        List<List<T>> shards = new ArrayList<>(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            shards.add(new ArrayList<>());
+        }
+        for (int i = 0; i < tests.size(); i++) {
+            shards.get(i % workerCount).add(tests.get(i));
+        }
+        return shards;
+    }
+
+    /**
+     * Set the progress listener
+     *
+     * @param progressListener Listener, called on worker threads
+     */
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Set the gate every test must pass before starting
+     *
+     * @param slotGate Slot gate, set before the workers start
+     */
+    public void setSlotGate(SlotGate slotGate) {
+        this.slotGate = slotGate != null ? slotGate : UNBOUNDED;
+    }
+
+    /**
+     * Start the workers
+     *
+     * @param executor Executor running the tests, one task per test
+     * @return Future completed when every worker has finished
+     */
+    public CompletableFuture<Void> start(Executor executor) {
+        this.executor = executor;
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[workers.size()];
+        for (int i = 0; i < futures.length; i++) {
+            Worker worker = workers.get(i);
+            worker.requestSlot();
+            futures[i] = worker.done;
+        }
+        return CompletableFuture.allOf(futures);
+    }
+
+    /**
+     * Run all tests and wait for them to finish or be cancelled
+     *
+     * @param executor Executor running the tests, one task per test
+     */
+    public void run(Executor executor) {
+        start(executor).join();
+    }
+
+    /**
+     * Drop the queued tests and interrupt the running ones
+     */
+    public void cancel() {
+        cancelled = true;
+        for (Worker worker : workers) {
+            int dropped = 0;
+            while (worker.deque.pollFirst() != null) {
+                dropped++;
+            }
+            queued.addAndGet(-dropped);
+            worker.interrupt();
+        }
+        progressListener.onProgress(running.get(), queued.get());
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Get the number of workers, the most tests that run at once
+     *
+     * @return Worker count
+     */
+    public int getParallelism() {
+        return workers.size();
+    }
+
+    public int getRunning() {
+        return running.get();
+    }
+
+    public int getQueued() {
+        return queued.get();
+    }
+
+    public int getCompleted() {
+        return completed.get();
+    }
+
+    /**
+     * Get the time from the first test start to the last test finish
+     *
+     * @return Elapsed milliseconds, 0 if no test has finished
+     */
+    public long getElapsedMillis() {
+        long first = firstStartNanos.get();
+        long last = lastFinishNanos;
+        return first == 0 || last == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(last - first);
+    }
+
+    /**
+     * Take the next test: the head of the worker's own deque, else the tail of another
+     *
+     * @return Test, or null once every deque is empty
+     */
+    private T next(Worker self) {
+        T test = self.deque.pollFirst();
+        if (test != null) {
+            return test;
+        }
+        int count = workers.size();
+        for (int i = 1; i < count; i++) {
+            test = workers.get((self.index + i) % count).deque.pollLast();
+            if (test != null) {
+                return test;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * One slot: runs tests until none are left, requesting the slot again before each
+     */
+    private class Worker {
+        private final int index;
+        private final Deque<T> deque = new ConcurrentLinkedDeque<>();
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        // Pending slot request and thread running a test, guarded by this worker
+        private CompletableFuture<Void> request;
+        private Thread thread;
+
+        private Worker(int index) {
+            this.index = index;
+        }
+
+        /**
+         * Request a slot for the next test, or finish if none are left
+         */
+        private void requestSlot() {
+            if (cancelled || queued.get() <= 0) {
+                done.complete(null);
+                return;
+            }
+            SlotGate gate = slotGate;
+            CompletableFuture<Void> slot = gate.acquire();
+            synchronized (this) {
+                request = slot;
+            }
+            // Cancelled before the request was visible to cancel()
+            if (cancelled) {
+                slot.cancel(false);
+            }
+            slot.whenComplete((ignored, error) -> {
+                if (error != null) {
+                    // Withdrawn by cancel(), or the gate was closed
+                    done.complete(null);
+                    return;
+                }
+                try {
+                    executor.execute(() -> runTest(gate));
+                } catch (RejectedExecutionException e) {
+                    gate.releaseUnused();
+                    done.completeExceptionally(e);
+                }
+            });
+        }
+
+        /**
+         * Run one test on a granted slot, then request the next slot
+         */
+        private void runTest(SlotGate gate) {
+            synchronized (this) {
+                request = null;
+                thread = Thread.currentThread();
+            }
+            boolean ran = false;
+            try {
+                T test = cancelled ? null : next(this);
+                if (test == null) {
+                    gate.releaseUnused();
+                    return;
+                }
+                queued.decrementAndGet();
+                firstStartNanos.compareAndSet(0, System.nanoTime());
+                progressListener.onProgress(running.incrementAndGet(), queued.get());
+                long started = System.nanoTime();
+                try {
+                    action.accept(test);
+                } catch (RuntimeException e) {
+                    logger.error("Test {} failed to run", test, e);
+                } finally {
+                    lastFinishNanos = System.nanoTime();
+                    gate.release(lastFinishNanos - started);
+                    completed.incrementAndGet();
+                    progressListener.onProgress(running.decrementAndGet(), queued.get());
+                }
+                ran = true;
+            } finally {
+                synchronized (this) {
+                    thread = null;
+                    // Do not leak a cancellation interrupt into the pool thread's next task
+                    Thread.interrupted();
+                }
+                if (!ran) {
+                    done.complete(null);
+                }
+            }
+            requestSlot();
+        }
+
+        private synchronized void interrupt() {
+            if (request != null) {
+                request.cancel(false);
+            }
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+    }
+}
@@ -45,7 +45,8 @@ public class ProjectController {
             @RequestParam(required = false, defaultValue = "updatedAt") String sortBy,
             @RequestParam(required = false, defaultValue = "desc") String sortDirection,
             @RequestParam(required = false, defaultValue = "1") int page,
-            @RequestParam(required = false, defaultValue = "10") int size) {
+            @RequestParam(required = false, defaultValue = "10") int size,
+            @RequestParam(required = false) String cursor) {
 
         try {
             // Create filter from request parameters
@@ -53,6 +54,7 @@ public class ProjectController {
             filter.setSearch(search);
             filter.setPage(page);
             filter.setSize(size);
+            filter.setCursor(cursor);
             filter.setSortBy(sortBy);
             filter.setSortDirection(sortDirection);
 
@@ -82,11 +84,16 @@ public class ProjectController {
                             pagedResponse.getPage(),
                             pagedResponse.getSize(),
                             pagedResponse.getTotalItems(),
-                            pagedResponse.getTotalPages()
+                            pagedResponse.getTotalPages(),
+                            pagedResponse.getNextCursor()
                     )
             );
 
             return ResponseEntity.ok(ApiResponse.success(response));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity
+                    .status(HttpStatus.BAD_REQUEST)
+                    .body(ApiResponse.error("Invalid project query", e.getMessage()));
         } catch (Exception e) {
             e.printStackTrace();
             return ResponseEntity
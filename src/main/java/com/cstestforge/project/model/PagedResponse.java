@@ -13,6 +13,7 @@ public class PagedResponse<T> {
     private int size;
     private long totalItems;
     private int totalPages;
+    private String nextCursor;
 
     public PagedResponse() {
     }
@@ -25,6 +26,11 @@ public class PagedResponse<T> {
         this.totalPages = size > 0 ? (int) Math.ceil((double) totalItems / size) : 0;
     }
 
+    public PagedResponse(List<T> items, int page, int size, long totalItems, String nextCursor) {
+        this(items, page, size, totalItems);
+        this.nextCursor = nextCursor;
+    }
+
     public List<T> getItems() {
         return items;
     }
@@ -65,6 +71,19 @@ public class PagedResponse<T> {
         this.totalPages = totalPages;
     }
 
+    /**
+     * Get the opaque cursor of the next page; pass it back to continue after this page
+     *
+     * @return Next page cursor, or null if this is the last page
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
     /**
      * Check if this is the first page
      * 
@@ -8,6 +8,7 @@ public class PaginationParams {
     private int size;
     private long totalItems;
     private int totalPages;
+    private String nextCursor;
 
     public PaginationParams() {
     }
@@ -19,6 +20,11 @@ public class PaginationParams {
         this.totalPages = totalPages;
     }
 
+    public PaginationParams(int page, int size, long totalItems, int totalPages, String nextCursor) {
+        this(page, size, totalItems, totalPages);
+        this.nextCursor = nextCursor;
+    }
+
     public int getPage() {
         return page;
     }
@@ -50,4 +56,12 @@ public class PaginationParams {
     public void setTotalPages(int totalPages) {
         this.totalPages = totalPages;
     }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
 }
\ No newline at end of file
@@ -14,6 +14,7 @@ public class ProjectFilter {
     private String sortDirection;
     private int page;
     private int size;
+    private String cursor;
 
     public ProjectFilter() {
         // Default values
@@ -87,6 +88,19 @@ public class ProjectFilter {
         this.size = size > 0 ? size : 10;
     }
 
+    /**
+     * Get the cursor of the page to fetch; it takes precedence over the page number
+     *
+     * @return Cursor from a previous response, or null
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
     /**
      * Calculate the offset for pagination
      * 
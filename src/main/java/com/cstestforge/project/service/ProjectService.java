@@ -54,6 +54,13 @@ public interface ProjectService {
      */
     boolean delete(String id);
 
+    /**
+     * Get the IDs of all projects
+     * 
+     * @return Set of project IDs
+     */
+    Set<String> getAllProjectIds();
+
     /**
      * Get all unique tags across all projects
      * 
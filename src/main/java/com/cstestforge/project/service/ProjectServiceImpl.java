@@ -5,28 +5,18 @@ import com.cstestforge.project.model.Project;
 import com.cstestforge.project.model.ProjectFilter;
 import com.cstestforge.project.model.ProjectStatus;
 import com.cstestforge.project.model.ProjectType;
-import com.cstestforge.project.storage.FileLock;
 import com.cstestforge.project.storage.FileStorageService;
+import com.cstestforge.project.storage.IndexUpdate;
 import com.cstestforge.project.exception.ResourceNotFoundException;
-import com.cstestforge.project.exception.ConcurrencyException;
-import com.cstestforge.project.exception.StorageException;
+import com.cstestforge.storage.JournaledSortedIndex;
+import com.cstestforge.storage.SortedIndex;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -36,6 +26,7 @@ import java.util.Set;
 import java.util.UUID;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
 import java.util.stream.Collectors;
 
 /**
@@ -47,12 +38,17 @@ public class ProjectServiceImpl implements ProjectService {
     private final FileStorageService fileStorageService;
     private static final String PROJECTS_INDEX_PATH = "projects/_index.json";
     private static final String TAGS_INDEX_PATH = "tags/_index.json";
+    private static final String PROJECTS_SORT_INDEX_PATH = "projects/_sort.json";
+    private static final List<String> PROJECT_SORT_FIELDS = Arrays.asList(
+            "name", "status", "createdAt", "updatedAt", "lastRunDate", "successRate");
 
     @Autowired
     public ProjectServiceImpl(FileStorageService fileStorageService) {
         this.fileStorageService = fileStorageService;
         // Initialize indexes if they don't exist
         initIndexes();
+        // Keep the sort index current when projects are edited by hand or by another instance
+        fileStorageService.addChangeListener(this::onExternalChanges);
     }
 
     /**
@@ -72,39 +68,26 @@ public class ProjectServiceImpl implements ProjectService {
 
     @Override
     public PagedResponse<Project> findAll(ProjectFilter filter) {
-        // Get all project IDs from the index
-        Map<String, String> projectIndex = fileStorageService.readMapFromJson(
-                PROJECTS_INDEX_PATH, String.class, String.class);
+        JournaledSortedIndex sortIndex = getSortIndex();
+        String sortBy = filter.getSortBy() != null && sortIndex.isSortField(filter.getSortBy())
+                ? filter.getSortBy()
+                : "updatedAt";
 
-        // Load all projects
-        List<Project> allProjects = new ArrayList<>();
-        for (String projectId : projectIndex.keySet()) {
+        // Filter and sort on the index rows, then load only the projects on the page
+        SortedIndex.Page page = sortIndex.page(sortBy, "asc".equalsIgnoreCase(filter.getSortDirection()),
+                filter.getCursor(), filter.getOffset(), filter.getSize(), filterKey(filter), rowFilter(filter));
+
+        List<Project> pagedProjects = new ArrayList<>();
+        for (String projectId : page.getIds()) {
             String projectPath = String.format("projects/%s/project.json", projectId);
             Project project = fileStorageService.readFromJson(projectPath, Project.class);
             if (project != null) {
-                allProjects.add(project);
+                pagedProjects.add(project);
             }
         }
 
-        // Apply filtering
-        List<Project> filteredProjects = allProjects.stream()
-                .filter(p -> applyFilter(p, filter))
-                .collect(Collectors.toList());
-
-        // Apply sorting
-        sortProjects(filteredProjects, filter.getSortBy(), filter.getSortDirection());
-
-        // Apply pagination
-        int total = filteredProjects.size();
-        int offset = filter.getOffset();
-        int limit = filter.getSize();
-
-        List<Project> pagedProjects = filteredProjects.stream()
-                .skip(offset)
-                .limit(limit)
-                .collect(Collectors.toList());
-
-        return new PagedResponse<>(pagedProjects, filter.getPage(), filter.getSize(), total);
+        return new PagedResponse<>(pagedProjects, filter.getPage(), filter.getSize(), page.getTotal(),
+                page.getNextCursor());
     }
 
     @Override
@@ -149,14 +132,9 @@ public class ProjectServiceImpl implements ProjectService {
         fileStorageService.createDirectoryIfNotExists(projectDir);
         fileStorageService.createDirectoryIfNotExists(envDir);
 
-        // Update the project index - Using atomic update method
-        updateProjectIndexAtomically(project.getId(), project.getName());
-
-        // Update tags index
-        updateTagsIndex(project.getTags());
-
-        // Save the project
-        fileStorageService.saveToJson(projectPath, project);
+        // Save the project together with its project and tags index entries
+        saveProject(projectPath, project);
+        updateSortIndex(project);
 
         // Create environments index
         String envsIndexPath = String.format("projects/%s/environments/_index.json", project.getId());
@@ -190,15 +168,15 @@ public class ProjectServiceImpl implements ProjectService {
         Set<String> oldTags = new HashSet<>(existingProject.getTags());
         existingProject.setTags(project.getTags());
 
-        // Update project tags in the index
-        updateTagsIndex(existingProject.getTags());
-        removeUnusedTags(oldTags);
-
-        // Update project name in the index - Using atomic update method
-        updateProjectIndexAtomically(id, existingProject.getName());
+        // Save the updated project together with its project and tags index entries
+        saveProject(projectPath, existingProject);
+        updateSortIndex(existingProject);
 
-        // Save the updated project
-        fileStorageService.saveToJson(projectPath, existingProject);
+        // Drop old tags no other project uses, now that this project no longer holds them
+        if (existingProject.getTags() != null) {
+            oldTags.removeAll(existingProject.getTags());
+        }
+        removeUnusedTags(oldTags);
 
         return existingProject;
     }
@@ -214,18 +192,27 @@ public class ProjectServiceImpl implements ProjectService {
 
         // Load the project to get tags
         Project project = fileStorageService.readFromJson(projectPath, Project.class);
+
+        // Remove from project index first, so its tags no longer count as used
+        removeProjectFromIndex(id);
+        removeFromSortIndex(id);
+
         if (project != null) {
             // Remove project tags from the index
             removeUnusedTags(project.getTags());
         }
 
-        // Remove from project index - Using atomic update method
-        removeProjectFromIndexAtomically(id);
-
         // Delete project directory recursively
         return fileStorageService.deleteDirectory(projectDir);
     }
 
+    @Override
+    public Set<String> getAllProjectIds() {
+        Map<String, String> projectIndex = fileStorageService.readMapFromJson(
+                PROJECTS_INDEX_PATH, String.class, String.class);
+        return new HashSet<>(projectIndex.keySet());
+    }
+
     @Override
     public Set<String> getAllTags() {
         return fileStorageService.readFromJson(TAGS_INDEX_PATH, Set.class);
@@ -246,11 +233,9 @@ public class ProjectServiceImpl implements ProjectService {
             project.addTag(tag);
             project.setUpdatedAt(LocalDateTime.now());
 
-            // Update tags index
-            updateTagsIndex(Set.of(tag));
-
-            // Save the project
-            fileStorageService.saveToJson(projectPath, project);
+            // Save the project together with its tags index entries
+            saveProject(projectPath, project);
+            updateSortIndex(project);
         }
 
         return project;
@@ -271,156 +256,258 @@ public class ProjectServiceImpl implements ProjectService {
             project.removeTag(tag);
             project.setUpdatedAt(LocalDateTime.now());
 
-            // Remove from tags index if no longer used
-            removeUnusedTags(Set.of(tag));
-
             // Save the project
             fileStorageService.saveToJson(projectPath, project);
+            updateSortIndex(project);
+
+            // Remove from tags index if no longer used
+            removeUnusedTags(Set.of(tag));
         }
 
         return project;
     }
 
     /**
-     * Apply filter to a project
+     * Get the key under which the sort index caches the match count of a filter
+     *
+     * @param filter Project filter
+     * @return Key naming every filter criterion
+     */
+    private String filterKey(ProjectFilter filter) {
+        return String.join("|",
+                String.valueOf(filter.getSearch() != null ? filter.getSearch().toLowerCase() : null),
+                String.valueOf(filter.getStatuses()),
+                String.valueOf(filter.getTypes()),
+                String.valueOf(filter.getTags()));
+    }
+
+    /**
+     * Build a sort index row filter from the filter criteria
      *
-     * @param project Project to filter
      * @param filter Filter criteria
-     * @return True if project matches filter
+     * @return Predicate over project ID and sort index row
      */
-    private boolean applyFilter(Project project, ProjectFilter filter) {
-        // Search filter
-        if (filter.getSearch() != null && !filter.getSearch().isEmpty()) {
-            String search = filter.getSearch().toLowerCase();
-            boolean matchesSearch =
-                    (project.getName() != null && project.getName().toLowerCase().contains(search)) ||
-                            (project.getDescription() != null && project.getDescription().toLowerCase().contains(search));
-
-            if (!matchesSearch) {
-                return false;
+    private BiPredicate<String, Map<String, Object>> rowFilter(ProjectFilter filter) {
+        String search = filter.getSearch() != null && !filter.getSearch().isEmpty()
+                ? filter.getSearch().toLowerCase()
+                : null;
+        Set<String> statuses = filter.getStatuses() != null && !filter.getStatuses().isEmpty()
+                ? filter.getStatuses().stream().map(Enum::name).collect(Collectors.toSet())
+                : null;
+        Set<String> types = filter.getTypes() != null && !filter.getTypes().isEmpty()
+                ? filter.getTypes().stream().map(Enum::name).collect(Collectors.toSet())
+                : null;
+        List<String> tags = filter.getTags() != null && !filter.getTags().isEmpty() ? filter.getTags() : null;
+
+        return (id, row) -> {
+            // Search filter
+            if (search != null) {
+                Object name = row.get("name");
+                Object description = row.get("description");
+                boolean matchesSearch =
+                        (name != null && name.toString().toLowerCase().contains(search)) ||
+                                (description != null && description.toString().toLowerCase().contains(search));
+
+                if (!matchesSearch) {
+                    return false;
+                }
             }
-        }
-
-        // Status filter
-        if (filter.getStatuses() != null && !filter.getStatuses().isEmpty() &&
-                project.getStatus() != null &&
-                !filter.getStatuses().contains(project.getStatus())) {
-            return false;
-        }
 
-        // Type filter
-        if (filter.getTypes() != null && !filter.getTypes().isEmpty() &&
-                project.getType() != null &&
-                !filter.getTypes().contains(project.getType())) {
-            return false;
-        }
+            // Status filter
+            Object status = row.get("status");
+            if (statuses != null && status != null && !statuses.contains(status)) {
+                return false;
+            }
 
-        // Tags filter
-        if (filter.getTags() != null && !filter.getTags().isEmpty()) {
-            if (project.getTags() == null || project.getTags().isEmpty()) {
+            // Type filter
+            Object type = row.get("type");
+            if (types != null && type != null && !types.contains(type)) {
                 return false;
             }
 
-            boolean hasMatchingTag = false;
-            for (String tag : filter.getTags()) {
-                if (project.getTags().contains(tag)) {
-                    hasMatchingTag = true;
-                    break;
+            // Tags filter
+            if (tags != null) {
+                Object projectTags = row.get("tags");
+                if (!(projectTags instanceof List) || ((List<?>) projectTags).isEmpty()) {
+                    return false;
                 }
-            }
 
-            if (!hasMatchingTag) {
-                return false;
+                boolean hasMatchingTag = false;
+                for (String tag : tags) {
+                    if (((List<?>) projectTags).contains(tag)) {
+                        hasMatchingTag = true;
+                        break;
+                    }
+                }
+
+                if (!hasMatchingTag) {
+                    return false;
+                }
             }
-        }
 
-        return true;
+            return true;
+        };
     }
 
     /**
-     * Sort projects based on sort criteria
+     * Get the project sort index, building it from the projects on first use
      *
-     * @param projects List of projects to sort
-     * @param sortBy Sort field
-     * @param sortDirection Sort direction
+     * @return Sort index
      */
-    private void sortProjects(List<Project> projects, String sortBy, String sortDirection) {
-        if (sortBy == null || sortBy.isEmpty()) {
-            sortBy = "updatedAt";
+    private JournaledSortedIndex getSortIndex() {
+        JournaledSortedIndex index = fileStorageService.openSortedIndex(PROJECTS_SORT_INDEX_PATH, PROJECT_SORT_FIELDS);
+        if (index.isNew()) {
+            synchronized (index) {
+                if (index.isNew()) {
+                    // Build from the projects once; later changes are logged as projects are saved
+                    index.replaceAll(buildSortRows());
+                }
+            }
         }
+        return index;
+    }
 
-        boolean ascending = "asc".equalsIgnoreCase(sortDirection);
-
-        Comparator<Project> comparator = null;
-
-        switch (sortBy) {
-            case "name":
-                comparator = Comparator.comparing(Project::getName, Comparator.nullsLast(Comparator.naturalOrder()));
-                break;
-            case "createdAt":
-                comparator = Comparator.comparing(Project::getCreatedAt, Comparator.nullsLast(Comparator.naturalOrder()));
-                break;
-            case "lastRunDate":
-                comparator = Comparator.comparing(Project::getLastRunDate, Comparator.nullsLast(Comparator.naturalOrder()));
-                break;
-            case "successRate":
-                comparator = Comparator.comparing(Project::getSuccessRate);
-                break;
-            case "updatedAt":
-            default:
-                comparator = Comparator.comparing(Project::getUpdatedAt, Comparator.nullsLast(Comparator.naturalOrder()));
-                break;
+    /**
+     * Read the sort index rows of all projects in the project index
+     *
+     * @return Rows by project ID
+     */
+    private Map<String, Map<String, Object>> buildSortRows() {
+        Map<String, Map<String, Object>> rows = new HashMap<>();
+        Map<String, String> projectIndex = fileStorageService.readMapFromJson(
+                PROJECTS_INDEX_PATH, String.class, String.class);
+        for (String projectId : projectIndex.keySet()) {
+            if (projectId.startsWith("_")) {
+                continue;
+            }
+            String projectPath = String.format("projects/%s/project.json", projectId);
+            Project project = fileStorageService.readFromJson(projectPath, Project.class);
+            if (project != null) {
+                rows.put(projectId, toSortRow(project));
+            }
         }
+        return rows;
+    }
 
-        if (!ascending) {
-            comparator = comparator.reversed();
-        }
+    /**
+     * Get the sort index row of a project
+     *
+     * @param project Project
+     * @return Sortable and filterable fields
+     */
+    private Map<String, Object> toSortRow(Project project) {
+        Map<String, Object> row = new HashMap<>();
+        row.put("name", project.getName());
+        row.put("description", project.getDescription());
+        row.put("type", project.getType());
+        row.put("status", project.getStatus());
+        row.put("createdAt", project.getCreatedAt());
+        row.put("updatedAt", project.getUpdatedAt());
+        row.put("lastRunDate", project.getLastRunDate());
+        row.put("successRate", project.getSuccessRate());
+        row.put("tags", project.getTags());
+        return row;
+    }
 
-        projects.sort(comparator);
+    /**
+     * Add or replace a project in the sort index
+     *
+     * @param project Saved project
+     */
+    private void updateSortIndex(Project project) {
+        getSortIndex().put(project.getId(), toSortRow(project));
     }
 
     /**
-     * Update the tags index with new tags
+     * Remove a project from the sort index
      *
-     * @param tags Tags to add to the index
+     * @param projectId Project ID
      */
-    private void updateTagsIndex(Set<String> tags) {
-        if (tags == null || tags.isEmpty()) {
-            return;
-        }
+    private void removeFromSortIndex(String projectId) {
+        getSortIndex().remove(projectId);
+    }
 
-        // Use atomic update method for tags index
-        atomicFileUpdate(TAGS_INDEX_PATH, (fileData) -> {
-            Set<String> existingTags;
+    /**
+     * Bring the sort index up to date with projects changed outside this process
+     *
+     * @param paths Changed paths relative to the storage root
+     */
+    private void onExternalChanges(List<String> paths) {
+        for (String path : paths) {
+            String[] parts = path.split("/");
+            if (!path.isEmpty() && !"projects".equals(parts[0])) {
+                continue;
+            }
 
-            if (fileData == null || fileData.isEmpty()) {
-                existingTags = new HashSet<>();
-            } else {
-                try {
-                    // Parse existing tags from JSON
-                    existingTags = fileStorageService.readFromJson(TAGS_INDEX_PATH, Set.class);
-                    if (existingTags == null) {
-                        existingTags = new HashSet<>();
-                    }
-                } catch (Exception e) {
-                    // If parsing fails, create a new set
-                    existingTags = new HashSet<>();
+            if (parts.length == 2 && !parts[1].startsWith("_")
+                    || parts.length == 3 && "project.json".equals(parts[2])) {
+                // A project file or directory
+                String projectPath = String.format("projects/%s/project.json", parts[1]);
+                Project project = fileStorageService.fileExists(projectPath)
+                        ? fileStorageService.readFromJson(projectPath, Project.class)
+                        : null;
+                if (project != null) {
+                    updateSortIndex(project);
+                } else {
+                    removeFromSortIndex(parts[1]);
                 }
+            } else if (parts.length == 1) {
+                // The projects directory changed as a whole; rebuild the rows from the projects
+                getSortIndex().replaceAll(buildSortRows());
             }
+        }
+    }
 
-            // Add new tags
-            existingTags.addAll(tags);
+    /**
+     * Index update adding tags to the tags index
+     *
+     * @param tags Tags to add to the index
+     * @return Tags index update
+     */
+    @SuppressWarnings("unchecked")
+    private IndexUpdate<Set> addTagsUpdate(Set<String> tags) {
+        return IndexUpdate.of(TAGS_INDEX_PATH, Set.class, existingTags -> {
+            Set<String> allTags = existingTags != null ? existingTags : new HashSet<>();
+            allTags.addAll(tags);
+            return allTags;
+        });
+    }
 
-            // Convert back to JSON
-            return existingTags;
+    /**
+     * Index update setting a project name in the project index
+     *
+     * @param projectId Project ID
+     * @param projectName Project name
+     * @return Project index update
+     */
+    private IndexUpdate<Map<String, String>> putProjectUpdate(String projectId, String projectName) {
+        return IndexUpdate.ofMap(PROJECTS_INDEX_PATH, String.class, String.class, projectIndex -> {
+            projectIndex.put(projectId, projectName);
+            return projectIndex;
         });
     }
 
+    /**
+     * Save a project document together with its project and tags index entries
+     *
+     * @param projectPath Path to the project document
+     * @param project Project to save
+     */
+    private void saveProject(String projectPath, Project project) {
+        List<IndexUpdate<?>> indexUpdates = new ArrayList<>();
+        indexUpdates.add(putProjectUpdate(project.getId(), project.getName()));
+        if (project.getTags() != null && !project.getTags().isEmpty()) {
+            indexUpdates.add(addTagsUpdate(project.getTags()));
+        }
+        fileStorageService.writeAll(Collections.singletonMap(projectPath, project), indexUpdates);
+    }
+
     /**
      * Remove tags from the index if they are no longer used by any project
      *
      * @param tagsToCheck Tags to check and potentially remove
      */
+    @SuppressWarnings("unchecked")
     private void removeUnusedTags(Set<String> tagsToCheck) {
         if (tagsToCheck == null || tagsToCheck.isEmpty()) {
             return;
@@ -449,184 +536,26 @@ public class ProjectServiceImpl implements ProjectService {
             return;
         }
 
-        // Use atomic update method for tags index
-        atomicFileUpdate(TAGS_INDEX_PATH, (fileData) -> {
-            Set<String> existingTags;
-
-            try {
-                // Parse existing tags from JSON
-                existingTags = fileStorageService.readFromJson(TAGS_INDEX_PATH, Set.class);
-                if (existingTags == null) {
-                    return new HashSet<>();
-                }
-            } catch (Exception e) {
-                // If parsing fails, return empty set
-                return new HashSet<>();
-            }
-
-            // Remove unused tags
-            existingTags.removeAll(tagsToRemove);
-
-            return existingTags;
-        });
-    }
-
-    /**
-     * Atomically update the project index with a project name
-     *
-     * @param projectId Project ID
-     * @param projectName Project name
-     */
-    private void updateProjectIndexAtomically(String projectId, String projectName) {
-        atomicFileUpdate(PROJECTS_INDEX_PATH, (fileData) -> {
-            Map<String, String> projectIndex;
-
-            if (fileData == null || fileData.isEmpty()) {
-                projectIndex = new HashMap<>();
-            } else {
-                try {
-                    // Parse existing project index from JSON
-                    projectIndex = fileStorageService.readMapFromJson(
-                            PROJECTS_INDEX_PATH, String.class, String.class);
-                    if (projectIndex == null) {
-                        projectIndex = new HashMap<>();
+        fileStorageService.writeAll(Collections.emptyMap(), List.of(
+                IndexUpdate.of(TAGS_INDEX_PATH, Set.class, existingTags -> {
+                    if (existingTags == null) {
+                        return new HashSet<>();
                     }
-                } catch (Exception e) {
-                    // If parsing fails, create a new map
-                    projectIndex = new HashMap<>();
-                }
-            }
-
-            // Add or update project in index
-            projectIndex.put(projectId, projectName);
-
-            return projectIndex;
-        });
+                    existingTags.removeAll(tagsToRemove);
+                    return existingTags;
+                })));
     }
 
     /**
-     * Atomically remove a project from the index
+     * Remove a project from the project index
      *
      * @param projectId Project ID to remove
      */
-    private void removeProjectFromIndexAtomically(String projectId) {
-        atomicFileUpdate(PROJECTS_INDEX_PATH, (fileData) -> {
-            Map<String, String> projectIndex;
-
-            if (fileData == null || fileData.isEmpty()) {
-                return new HashMap<String, String>();
-            }
-
-            try {
-                // Parse existing project index from JSON
-                projectIndex = fileStorageService.readMapFromJson(
-                        PROJECTS_INDEX_PATH, String.class, String.class);
-                if (projectIndex == null) {
-                    return new HashMap<String, String>();
-                }
-            } catch (Exception e) {
-                // If parsing fails, return empty map
-                return new HashMap<String, String>();
-            }
-
-            // Remove project from index
-            projectIndex.remove(projectId);
-
-            return projectIndex;
-        });
-    }
-
-    /**
-     * Perform an atomic update on a file
-     *
-     * @param filePath Path to the file to update
-     * @param updateFunction Function that takes the current file content and returns the updated content
-     */
-    private <T> void atomicFileUpdate(String filePath, java.util.function.Function<String, T> updateFunction) {
-        String absolutePath = fileStorageService.getAbsolutePath(filePath);
-        Path path = Paths.get(absolutePath);
-
-        try {
-            // Create parent directories if they don't exist
-            Files.createDirectories(path.getParent());
-
-            // Create the file if it doesn't exist
-            if (!Files.exists(path)) {
-                Files.createFile(path);
-            }
-
-            // Open the file with exclusive lock for read/write
-            try (FileChannel channel = FileChannel.open(path,
-                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
-
-                // Lock the file
-                try (java.nio.channels.FileLock lock = channel.lock()) {
-                    // Read current content
-                    String content = readChannelContent(channel);
-
-                    // Apply update function
-                    T updatedData = updateFunction.apply(content);
-
-                    // Write updated content back to file
-                    writeUpdatedContent(channel, updatedData);
-                }
-            }
-        } catch (IOException e) {
-            throw new StorageException("Failed to update file", "update", filePath, e);
-        }
-    }
-
-    /**
-     * Read content from a file channel
-     *
-     * @param channel File channel to read from
-     * @return Content as string
-     * @throws IOException If read fails
-     */
-    private String readChannelContent(FileChannel channel) throws IOException {
-        channel.position(0);
-        long size = channel.size();
-
-        if (size == 0) {
-            return "";
-        }
-
-        ByteBuffer buffer = ByteBuffer.allocate((int) size);
-        channel.read(buffer);
-        buffer.flip();
-
-        return StandardCharsets.UTF_8.decode(buffer).toString();
-    }
-
-    /**
-     * Write updated content to a file channel
-     *
-     * @param channel File channel to write to
-     * @param data Data to write
-     * @throws IOException If write fails
-     */
-    private <T> void writeUpdatedContent(FileChannel channel, T data) throws IOException {
-        // Convert data to JSON using the same ObjectMapper as FileStorageService
-        String json;
-        if (data instanceof String) {
-            json = (String) data;
-        } else {
-            // Use a temporary file to serialize data to JSON
-            String tempPath = "temp_" + UUID.randomUUID().toString() + ".json";
-            fileStorageService.saveToJson(tempPath, data);
-
-            // Read the JSON content
-            String tempAbsPath = fileStorageService.getAbsolutePath(tempPath);
-            json = Files.readString(Paths.get(tempAbsPath));
-
-            // Delete the temporary file
-            Files.deleteIfExists(Paths.get(tempAbsPath));
-        }
-
-        // Write content to channel
-        ByteBuffer buffer = ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8));
-        channel.position(0);
-        channel.write(buffer);
-        channel.truncate(buffer.array().length);
+    private void removeProjectFromIndex(String projectId) {
+        fileStorageService.writeAll(Collections.emptyMap(), List.of(
+                IndexUpdate.ofMap(PROJECTS_INDEX_PATH, String.class, String.class, projectIndex -> {
+                    projectIndex.remove(projectId);
+                    return projectIndex;
+                })));
     }
 }
\ No newline at end of file
@@ -1,7 +1,8 @@
 package com.cstestforge.project.storage;
 
+import com.cstestforge.storage.EnhancedFileLock;
+
 import java.io.Closeable;
-import java.nio.channels.FileChannel;
 import java.util.List;
 
 /**
@@ -9,10 +10,10 @@ import java.util.List;
  * Implements Closeable to support try-with-resources pattern.
  */
 public class FileLock implements Closeable {
-    private List<java.nio.channels.FileLock> locks;
+    private List<EnhancedFileLock> locks;
     private List<String> lockedPaths;
 
-    public FileLock(List<java.nio.channels.FileLock> locks, List<String> lockedPaths) {
+    public FileLock(List<EnhancedFileLock> locks, List<String> lockedPaths) {
         this.locks = locks;
         this.lockedPaths = lockedPaths;
     }
@@ -36,8 +37,8 @@ public class FileLock implements Closeable {
             return false;
         }
         
-        for (java.nio.channels.FileLock lock : locks) {
-            if (lock == null || !lock.isValid()) {
+        for (EnhancedFileLock lock : locks) {
+            if (lock == null || !lock.isHeld()) {
                 return false;
             }
         }
@@ -46,14 +47,15 @@ public class FileLock implements Closeable {
     }
 
     /**
-     * Release all locks
+     * Release all locks in reverse acquisition order
      */
     @Override
     public void close() {
         if (locks != null) {
-            for (java.nio.channels.FileLock lock : locks) {
+            for (int i = locks.size() - 1; i >= 0; i--) {
+                EnhancedFileLock lock = locks.get(i);
                 try {
-                    if (lock != null && lock.isValid()) {
+                    if (lock != null) {
                         lock.release();
                     }
                 } catch (Exception e) {
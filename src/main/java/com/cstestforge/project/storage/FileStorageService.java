@@ -1,8 +1,12 @@
 package com.cstestforge.project.storage;
 
+import com.cstestforge.storage.JournaledSortedIndex;
+
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.function.BiFunction;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 
 /**
@@ -20,6 +24,17 @@ public interface FileStorageService {
      */
     <T> boolean saveToJson(String path, T data);
 
+    /**
+     * Save several documents and update shared index files as one unit. The files are
+     * locked once, each index file is read and written once however many updates it gets,
+     * and all changes become visible together.
+     * 
+     * @param documents Documents to save by path (relative to storage root)
+     * @param indexUpdates Updates of index files, applied in order to their content at
+     *                     commit time
+     */
+    void writeAll(Map<String, ?> documents, List<IndexUpdate<?>> indexUpdates);
+
     /**
      * Read an object from a JSON file
      * 
@@ -112,6 +127,15 @@ public interface FileStorageService {
      */
     String getAbsolutePath(String relativePath);
 
+    /**
+     * Open a sorted index whose changes are appended to a log instead of rewriting it
+     * 
+     * @param path Path to the index snapshot (relative to storage root)
+     * @param sortFields Row fields that pages can be sorted by
+     * @return Open index, shared by all callers of the same path
+     */
+    JournaledSortedIndex openSortedIndex(String path, Collection<String> sortFields);
+
     /**
      * Lock a file for exclusive access
      * 
@@ -127,4 +151,14 @@ public interface FileStorageService {
      * @return Combined lock object or null if unable to lock all files
      */
     FileLock lockFiles(List<String> paths);
+
+    /**
+     * Register a listener for files changed outside this process, e.g. edited by hand or
+     * by another instance sharing the storage
+     * 
+     * @param listener Receives the changed paths relative to the storage root with '/'
+     *                 separators; a directory path, or "" for the root, means anything
+     *                 below it may have changed
+     */
+    void addChangeListener(Consumer<List<String>> listener);
 } 
\ No newline at end of file
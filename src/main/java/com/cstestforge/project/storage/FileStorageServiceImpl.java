@@ -1,36 +1,37 @@
 package com.cstestforge.project.storage;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.cstestforge.storage.EnhancedFileLock;
+import com.cstestforge.storage.JournaledSortedIndex;
+import com.cstestforge.storage.StorageBatch;
+import com.cstestforge.storage.StorageEngine;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.type.TypeFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.function.BiFunction;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import com.cstestforge.project.exception.StorageException;
 import com.cstestforge.project.exception.ConcurrencyException;
 
 /**
  * Implementation of the FileStorageService for managing file-based storage operations.
+ * Resolves paths against the storage root and delegates to the shared {@link StorageEngine},
+ * so it shares its cache, locks and serializer with every other storage layer.
  */
 @Service
 public class FileStorageServiceImpl implements FileStorageService {
@@ -38,12 +39,10 @@ public class FileStorageServiceImpl implements FileStorageService {
     @Value("${app.storage.root:./storage}")
     private String storageRoot;
 
-    private final ObjectMapper objectMapper;
+    private final StorageEngine storageEngine;
 
-    public FileStorageServiceImpl() {
-        this.objectMapper = new ObjectMapper();
-        this.objectMapper.registerModule(new JavaTimeModule());
-        this.objectMapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
+    public FileStorageServiceImpl(StorageEngine storageEngine) {
+        this.storageEngine = storageEngine;
     }
 
     @Override
@@ -68,16 +67,8 @@ public class FileStorageServiceImpl implements FileStorageService {
                 }
             }
 
-            // Create a backup of the existing file if it exists
-            if (file.exists()) {
-                String backupPath = path + ".bak";
-                Files.copy(Paths.get(getAbsolutePath(path)), Paths.get(getAbsolutePath(backupPath)), 
-                        java.nio.file.StandardCopyOption.REPLACE_EXISTING);
-            }
-
-            // Write the data to the file
-            objectMapper.writerWithDefaultPrettyPrinter()
-                    .writeValue(file, data);
+            // Previous contents are kept by the engine's version history
+            storageEngine.write(file, data);
             
             return true;
         } catch (IOException e) {
@@ -86,29 +77,48 @@ public class FileStorageServiceImpl implements FileStorageService {
     }
 
     @Override
-    public <T> T readFromJson(String path, Class<T> type) {
-        File file = new File(getAbsolutePath(path));
-        if (!file.exists()) {
-            return null;
+    @SuppressWarnings("unchecked")
+    public void writeAll(Map<String, ?> documents, List<IndexUpdate<?>> indexUpdates) {
+        StorageBatch batch = new StorageBatch();
+        documents.forEach((path, data) -> batch.write(new File(getAbsolutePath(path)), data));
+
+        TypeFactory typeFactory = storageEngine.getObjectMapper().getTypeFactory();
+        for (IndexUpdate<?> indexUpdate : indexUpdates) {
+            UnaryOperator<Object> update = (UnaryOperator<Object>) indexUpdate.getUpdate();
+            if (indexUpdate.getKeyType() != null) {
+                // Map indexes start out empty, as with readMapFromJson
+                batch.update(new File(getAbsolutePath(indexUpdate.getPath())),
+                        typeFactory.constructMapType(Map.class, indexUpdate.getKeyType(), indexUpdate.getValueType()),
+                        current -> update.apply(current != null ? current : new HashMap<>()));
+            } else {
+                batch.update(new File(getAbsolutePath(indexUpdate.getPath())), indexUpdate.getType(), update);
+            }
         }
 
         try {
-            return objectMapper.readValue(file, type);
+            storageEngine.writeAll(batch);
         } catch (IOException e) {
-            throw new StorageException("Failed to read file", "read", path, e);
+            throw new StorageException("Failed to save files", "write",
+                    String.join(", ", batch.getFiles().keySet()), e);
         }
     }
 
     @Override
-    public <T> List<T> readListFromJson(String path, Class<T> type) {
-        File file = new File(getAbsolutePath(path));
-        if (!file.exists()) {
-            return Collections.emptyList();
+    public <T> T readFromJson(String path, Class<T> type) {
+        try {
+            return storageEngine.read(new File(getAbsolutePath(path)), type);
+        } catch (IOException e) {
+            throw new StorageException("Failed to read file", "read", path, e);
         }
+    }
 
+    @Override
+    public <T> List<T> readListFromJson(String path, Class<T> type) {
         try {
-            return objectMapper.readValue(file, 
-                    objectMapper.getTypeFactory().constructCollectionType(List.class, type));
+            JavaType listType = storageEngine.getObjectMapper().getTypeFactory()
+                    .constructCollectionType(List.class, type);
+            List<T> list = storageEngine.read(new File(getAbsolutePath(path)), listType);
+            return list != null ? list : Collections.emptyList();
         } catch (IOException e) {
             throw new StorageException("Failed to read list from file", "read", path, e);
         }
@@ -116,14 +126,9 @@ public class FileStorageServiceImpl implements FileStorageService {
 
     @Override
     public <K, V> Map<K, V> readMapFromJson(String path, Class<K> keyType, Class<V> valueType) {
-        File file = new File(getAbsolutePath(path));
-        if (!file.exists()) {
-            return new HashMap<>();
-        }
-
         try {
-            return objectMapper.readValue(file, 
-                    objectMapper.getTypeFactory().constructMapType(Map.class, keyType, valueType));
+            Map<K, V> map = readMap(new File(getAbsolutePath(path)), keyType, valueType);
+            return map != null ? map : new HashMap<>();
         } catch (IOException e) {
             throw new StorageException("Failed to read map from file", "read", path, e);
         }
@@ -132,31 +137,23 @@ public class FileStorageServiceImpl implements FileStorageService {
     @Override
     public boolean deleteFile(String path) {
         File file = new File(getAbsolutePath(path));
-        return !file.exists() || file.delete();
+        if (file.isDirectory()) {
+            return file.delete();
+        }
+        return storageEngine.delete(file);
     }
 
     @Override
     public boolean deleteDirectory(String path) {
-        Path directoryPath = Paths.get(getAbsolutePath(path));
-        if (!Files.exists(directoryPath)) {
+        File directory = new File(getAbsolutePath(path));
+        if (!directory.exists()) {
             return true; // Directory doesn't exist, so it's already "deleted"
         }
 
-        try {
-            // Walk through the directory tree and delete all files and subdirectories
-            Files.walk(directoryPath)
-                .sorted((p1, p2) -> -p1.compareTo(p2)) // Reverse order to delete children before parents
-                .forEach(p -> {
-                    try {
-                        Files.delete(p);
-                    } catch (IOException e) {
-                        throw new StorageException("Failed to delete path: " + p);
-                    }
-                });
-            return true;
-        } catch (IOException e) {
+        if (!storageEngine.delete(directory)) {
             throw new StorageException("Failed to delete directory: " + path);
         }
+        return true;
     }
 
     @Override
@@ -184,21 +181,7 @@ public class FileStorageServiceImpl implements FileStorageService {
 
     @Override
     public List<String> listFiles(String directoryPath, Predicate<String> predicate) {
-        File dir = new File(getAbsolutePath(directoryPath));
-        if (!dir.exists() || !dir.isDirectory()) {
-            return Collections.emptyList();
-        }
-
-        try (Stream<Path> stream = Files.list(dir.toPath())) {
-            return stream
-                    .filter(Files::isRegularFile)
-                    .map(Path::getFileName)
-                    .map(Path::toString)
-                    .filter(predicate)
-                    .collect(Collectors.toList());
-        } catch (IOException e) {
-            throw new StorageException("Failed to list files", "list", directoryPath, e);
-        }
+        return storageEngine.listFiles(new File(getAbsolutePath(directoryPath)), predicate);
     }
 
     @Override
@@ -207,176 +190,78 @@ public class FileStorageServiceImpl implements FileStorageService {
     }
 
     @Override
-    public FileLock lockFile(String path) {
-        return lockFiles(Collections.singletonList(path));
+    public void addChangeListener(Consumer<List<String>> listener) {
+        storageEngine.addChangeListener(files -> {
+            Path root = Paths.get(storageRoot).toAbsolutePath().normalize();
+            List<String> paths = new ArrayList<>();
+            for (File file : files) {
+                Path path = file.toPath().toAbsolutePath().normalize();
+                if (path.startsWith(root)) {
+                    paths.add(root.relativize(path).toString().replace(File.separatorChar, '/'));
+                } else if (root.startsWith(path)) {
+                    // A rescan above the root covers all of it
+                    paths.add("");
+                }
+            }
+            if (!paths.isEmpty()) {
+                listener.accept(paths);
+            }
+        });
     }
 
     @Override
-    public FileLock lockFiles(List<String> paths) {
-        List<FileChannel> channels = new ArrayList<>();
-        List<java.nio.channels.FileLock> locks = new ArrayList<>();
-
+    public JournaledSortedIndex openSortedIndex(String path, Collection<String> sortFields) {
         try {
-            // Open channels and acquire locks for all files
-            for (String path : paths) {
-                File file = new File(getAbsolutePath(path));
-                
-                // Create parent directories if needed
-                File parentDir = file.getParentFile();
-                if (!parentDir.exists()) {
-                    parentDir.mkdirs();
-                }
-                
-                // Create file if it doesn't exist
-                if (!file.exists()) {
-                    file.createNewFile();
-                }
-
-                // Open channel and acquire lock
-                FileChannel channel = FileChannel.open(
-                        file.toPath(),
-                        StandardOpenOption.READ,
-                        StandardOpenOption.WRITE
-                );
-                channels.add(channel);
-                
-                java.nio.channels.FileLock lock = channel.tryLock();
-                if (lock == null) {
-                    // Failed to acquire lock, so release all previous locks
-                    releaseChannelsAndLocks(channels, locks);
-                    throw new ConcurrencyException("File is locked by another process: " + path);
-                }
-                
-                locks.add(lock);
-            }
-
-            return new FileLock(locks, paths);
+            return storageEngine.openSortedIndex(new File(getAbsolutePath(path)), sortFields);
         } catch (IOException e) {
-            releaseChannelsAndLocks(channels, locks);
-            throw new StorageException("Failed to lock files", "lock", String.join(", ", paths), e);
+            throw new StorageException("Failed to open sorted index", "read", path, e);
         }
     }
 
-    /**
-     * Helper method to release channels and locks in case of failure
-     */
-    private void releaseChannelsAndLocks(List<FileChannel> channels, List<java.nio.channels.FileLock> locks) {
-        // Release locks
-        for (java.nio.channels.FileLock lock : locks) {
-            try {
-                if (lock != null && lock.isValid()) {
-                    lock.release();
-                }
-            } catch (IOException e) {
-                // Log error but continue releasing other resources
-                System.err.println("Error releasing lock: " + e.getMessage());
-            }
-        }
-        
-        // Close channels
-        for (FileChannel channel : channels) {
-            try {
-                if (channel != null && channel.isOpen()) {
-                    channel.close();
-                }
-            } catch (IOException e) {
-                // Log error but continue releasing other resources
-                System.err.println("Error closing channel: " + e.getMessage());
-            }
-        }
+    @Override
+    public FileLock lockFile(String path) {
+        return lockFiles(Collections.singletonList(path));
     }
 
-    /**
-     * Read a map from a JSON file using an existing file channel (for use with locks)
-     */
-    public <K, V> Map<K, V> readMapFromJson(FileChannel channel, Class<K> keyType, Class<V> valueType) throws IOException {
-        // Read the file content without closing the channel
-        ByteBuffer buffer = ByteBuffer.allocate((int)channel.size());
-        channel.position(0); // Reset position to beginning of file
-        channel.read(buffer);
-        buffer.flip();
-
-        String content = StandardCharsets.UTF_8.decode(buffer).toString();
-
-        // If file is empty or contains only whitespace, return empty map
-        if (content.trim().isEmpty() || content.trim().equals("{}")) {
-            return new HashMap<>();
-        }
+    @Override
+    public FileLock lockFiles(List<String> paths) {
+        List<File> files = paths.stream()
+                .map(path -> new File(getAbsolutePath(path)))
+                .collect(Collectors.toList());
 
         try {
-            return objectMapper.readValue(content,
-                    objectMapper.getTypeFactory().constructMapType(Map.class, keyType, valueType));
-        } catch (Exception e) {
-            throw new IOException("Failed to parse JSON content: " + e.getMessage(), e);
+            List<EnhancedFileLock> locks = storageEngine.lockAll(files);
+            return new FileLock(locks, paths);
+        } catch (RuntimeException e) {
+            throw new ConcurrencyException("Failed to lock files: " + String.join(", ", paths) + " (" + e.getMessage() + ")");
         }
     }
 
-    /**
-     * Write a map to a JSON file using an existing file channel (for use with locks)
-     */
-    public <K, V> void writeMapToJson(FileChannel channel, Map<K, V> data) throws IOException {
-        // Convert data to JSON
-        String json = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(data);
-
-        // Write to the channel
-        ByteBuffer buffer = ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8));
-        channel.position(0); // Reset position to beginning of file
-        channel.write(buffer);
-        channel.truncate(buffer.capacity()); // Truncate if new content is shorter
-    }
-
     @Override
     public <K, V> void updateMapInJsonFile(String path, BiFunction<Map<K, V>, Object, Map<K, V>> updateFunction,
                                            Class<K> keyType, Class<V> valueType, Object param) {
-        try (FileChannel channel = FileChannel.open(Paths.get(getAbsolutePath(path)),
-                StandardOpenOption.READ, StandardOpenOption.WRITE,
-                StandardOpenOption.CREATE)) {
-            try (java.nio.channels.FileLock lock = channel.lock()) {
-                // Read current map
-                Map<K, V> currentMap = readMapFromChannel(channel, keyType, valueType);
-
-                // Apply update function to get new map
-                Map<K, V> updatedMap = updateFunction.apply(currentMap, param);
-
-                // Write updated map
-                writeMapToChannel(channel, updatedMap);
+        File file = new File(getAbsolutePath(path));
+        try (FileLock lock = lockFile(path)) {
+            // Read current map
+            Map<K, V> currentMap = readMap(file, keyType, valueType);
+            if (currentMap == null) {
+                currentMap = new HashMap<>();
             }
+
+            // Apply update function to get new map
+            Map<K, V> updatedMap = updateFunction.apply(currentMap, param);
+
+            // Write updated map
+            storageEngine.write(file, updatedMap);
         } catch (IOException e) {
             throw new StorageException("Failed to update map in file", "update", path, e);
         }
     }
 
     // Private helper methods
-    private <K, V> Map<K, V> readMapFromChannel(FileChannel channel, Class<K> keyType, Class<V> valueType) throws IOException {
-        // Read file content
-        ByteBuffer buffer = ByteBuffer.allocate((int)channel.size());
-        channel.position(0);
-        channel.read(buffer);
-        buffer.flip();
-
-        String content = StandardCharsets.UTF_8.decode(buffer).toString();
-
-        // If file is empty or contains only whitespace, return empty map
-        if (content.trim().isEmpty() || content.trim().equals("{}")) {
-            return new HashMap<>();
-        }
-
-        try {
-            return objectMapper.readValue(content,
-                    objectMapper.getTypeFactory().constructMapType(Map.class, keyType, valueType));
-        } catch (Exception e) {
-            throw new IOException("Failed to parse JSON content", e);
-        }
-    }
-
-    private <K, V> void writeMapToChannel(FileChannel channel, Map<K, V> data) throws IOException {
-        // Convert to JSON
-        String json = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(data);
-
-        // Write to channel
-        ByteBuffer buffer = ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8));
-        channel.position(0);
-        channel.write(buffer);
-        channel.truncate(buffer.array().length);
+    private <K, V> Map<K, V> readMap(File file, Class<K> keyType, Class<V> valueType) throws IOException {
+        JavaType mapType = storageEngine.getObjectMapper().getTypeFactory()
+                .constructMapType(Map.class, keyType, valueType);
+        return storageEngine.read(file, mapType);
     }
-} 
\ No newline at end of file
+}
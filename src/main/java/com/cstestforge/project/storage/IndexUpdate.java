@@ -0,0 +1,78 @@
+package com.cstestforge.project.storage;
+
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * Read-modify-write update of a shared index file, applied by
+ * {@link FileStorageService#writeAll(Map, java.util.List)} to the content the file has
+ * at commit time
+ *
+ * @param <T> Type of the index content
+ */
+public class IndexUpdate<T> {
+
+    private final String path;
+    private final Class<?> type;
+    private final Class<?> keyType;
+    private final Class<?> valueType;
+    private final UnaryOperator<T> update;
+
+    private IndexUpdate(String path, Class<?> type, Class<?> keyType, Class<?> valueType, UnaryOperator<T> update) {
+        this.path = path;
+        this.type = type;
+        this.keyType = keyType;
+        this.valueType = valueType;
+        this.update = update;
+    }
+
+    /**
+     * Update an index file holding a single object
+     *
+     * @param <T> Type of the index content
+     * @param path Path to the file (relative to storage root)
+     * @param type Class of the index content
+     * @param update Receives the current content, or null if there is none, and returns
+     *               the new content
+     * @return Index update
+     */
+    public static <T> IndexUpdate<T> of(String path, Class<T> type, UnaryOperator<T> update) {
+        return new IndexUpdate<>(path, type, null, null, update);
+    }
+
+    /**
+     * Update an index file holding a map
+     *
+     * @param <K> Type of keys in the map
+     * @param <V> Type of values in the map
+     * @param path Path to the file (relative to storage root)
+     * @param keyType Class of keys
+     * @param valueType Class of values
+     * @param update Receives the current map, empty if there is none, and returns the new map
+     * @return Index update
+     */
+    public static <K, V> IndexUpdate<Map<K, V>> ofMap(String path, Class<K> keyType, Class<V> valueType,
+                                                      UnaryOperator<Map<K, V>> update) {
+        return new IndexUpdate<>(path, Map.class, keyType, valueType, update);
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public Class<?> getType() {
+        return type;
+    }
+
+    public Class<?> getKeyType() {
+        return keyType;
+    }
+
+    public Class<?> getValueType() {
+        return valueType;
+    }
+
+    public UnaryOperator<T> getUpdate() {
+        return update;
+    }
+}
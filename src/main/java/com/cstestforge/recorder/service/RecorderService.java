@@ -5,6 +5,7 @@ import com.cstestforge.recorder.model.LoopConfig;
 import com.cstestforge.recorder.model.events.LoopEvent;
 import com.cstestforge.recorder.storage.RecorderFileStorage;
 import com.cstestforge.recorder.repository.RecordingRepository;
+import com.cstestforge.search.service.SearchIndexService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
@@ -40,6 +41,9 @@ public class RecorderService {
     @Autowired(required = false)
     private RecordingRepository recordingRepository;
 
+    @Autowired
+    private SearchIndexService searchIndexService;
+
     /**
      * Create a new recording session
      *
@@ -66,6 +70,7 @@ public class RecorderService {
         // Persist the session
         try {
             fileStorage.saveSession(session);
+            searchIndexService.indexRecording(session);
 
             // If repository is available, also save there
             if (recordingRepository != null) {
@@ -310,10 +315,14 @@ public class RecorderService {
             RecordingSession session = activeSessions.remove(sessionId);
             if (session != null) {
                 sessionKeyMap.remove(session.getSessionKey());
+            } else {
+                // Load the stored session to find its project's search index
+                session = fileStorage.loadSession(sessionId);
             }
 
             // Remove from file storage
             fileStorage.deleteSession(sessionId);
+            searchIndexService.removeRecording(session);
 
             // If repository is available, also delete there
             if (recordingRepository != null) {
@@ -631,6 +640,7 @@ public class RecorderService {
         // Persist to storage
         try {
             fileStorage.saveSession(session);
+            searchIndexService.indexRecording(session);
         } catch (IOException e) {
             logger.error("Failed to persist session {}: {}", session.getId(), e.getMessage(), e);
         }
@@ -2,9 +2,7 @@ package com.cstestforge.recorder.storage;
 
 import com.cstestforge.recorder.model.RecordedEvent;
 import com.cstestforge.recorder.model.RecordingSession;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.cstestforge.storage.StorageEngine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -13,11 +11,9 @@ import org.springframework.stereotype.Component;
 import jakarta.annotation.PostConstruct;
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
@@ -40,12 +36,10 @@ public class RecorderFileStorage {
     
     private final Map<UUID, ReadWriteLock> sessionLocks = new ConcurrentHashMap<>();
     private final ReadWriteLock indexLock = new ReentrantReadWriteLock();
-    private final ObjectMapper objectMapper;
+    private final StorageEngine storageEngine;
     
-    public RecorderFileStorage() {
-        objectMapper = new ObjectMapper();
-        objectMapper.registerModule(new JavaTimeModule());
-        objectMapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
+    public RecorderFileStorage(StorageEngine storageEngine) {
+        this.storageEngine = storageEngine;
     }
     
     @PostConstruct
@@ -58,7 +52,9 @@ public class RecorderFileStorage {
             // Ensure index file exists
             Path indexPath = Paths.get(getRecordingsDirectory(), "_index.json");
             if (!Files.exists(indexPath)) {
-                Files.write(indexPath, "{\"sessions\": []}".getBytes(StandardCharsets.UTF_8));
+                Map<String, Object> index = new HashMap<>();
+                index.put("sessions", new ArrayList<>());
+                storageEngine.write(indexPath.toFile(), index);
             }
         } catch (IOException e) {
             logger.error("Failed to initialize storage directories", e);
@@ -88,7 +84,7 @@ public class RecorderFileStorage {
             
             // Save session data
             String sessionFilePath = getSessionFilePath(session.getId());
-            objectMapper.writerWithDefaultPrettyPrinter().writeValue(new File(sessionFilePath), session);
+            storageEngine.write(new File(sessionFilePath), session);
             
             // Update index
             updateIndex(session);
@@ -123,7 +119,7 @@ public class RecorderFileStorage {
                 return null;
             }
             
-            return objectMapper.readValue(sessionFile, RecordingSession.class);
+            return storageEngine.read(sessionFile, RecordingSession.class);
         } finally {
             readLock.unlock();
         }
@@ -142,9 +138,9 @@ public class RecorderFileStorage {
             readLock.lock();
             
             Path indexPath = Paths.get(getRecordingsDirectory(), "_index.json");
-            Map<String, List<Map<String, Object>>> index = objectMapper.readValue(indexPath.toFile(), Map.class);
+            Map<String, List<Map<String, Object>>> index = storageEngine.read(indexPath.toFile(), Map.class);
             
-            List<Map<String, Object>> sessions = index.get("sessions");
+            List<Map<String, Object>> sessions = index != null ? index.get("sessions") : null;
             List<RecordingSession> result = new ArrayList<>();
             
             if (sessions != null) {
@@ -193,8 +189,8 @@ public class RecorderFileStorage {
             String sessionDirPath = getSessionDirectory(sessionId);
             File sessionDir = new File(sessionDirPath);
             
-            if (sessionDir.exists()) {
-                deleteDirectory(sessionDir);
+            if (sessionDir.exists() && !storageEngine.delete(sessionDir)) {
+                throw new IOException("Failed to delete directory: " + sessionDir);
             }
             
         } finally {
@@ -297,11 +293,9 @@ public class RecorderFileStorage {
             writeLock.lock();
             
             Path indexPath = Paths.get(getRecordingsDirectory(), "_index.json");
-            Map<String, List<Map<String, Object>>> index;
+            Map<String, List<Map<String, Object>>> index = storageEngine.read(indexPath.toFile(), Map.class);
             
-            if (Files.exists(indexPath)) {
-                index = objectMapper.readValue(indexPath.toFile(), Map.class);
-            } else {
+            if (index == null) {
                 index = new HashMap<>();
                 index.put("sessions", new ArrayList<>());
             }
@@ -325,7 +319,7 @@ public class RecorderFileStorage {
             sessions.add(sessionEntry);
             
             // Write updated index
-            objectMapper.writerWithDefaultPrettyPrinter().writeValue(indexPath.toFile(), index);
+            storageEngine.write(indexPath.toFile(), index);
             
         } finally {
             writeLock.unlock();
@@ -350,14 +344,14 @@ public class RecorderFileStorage {
                 return;
             }
             
-            Map<String, List<Map<String, Object>>> index = objectMapper.readValue(indexPath.toFile(), Map.class);
-            List<Map<String, Object>> sessions = index.get("sessions");
+            Map<String, List<Map<String, Object>>> index = storageEngine.read(indexPath.toFile(), Map.class);
+            List<Map<String, Object>> sessions = index != null ? index.get("sessions") : null;
             
             if (sessions != null) {
                 sessions.removeIf(entry -> sessionId.toString().equals(entry.get("id")));
                 
                 // Write updated index
-                objectMapper.writerWithDefaultPrettyPrinter().writeValue(indexPath.toFile(), index);
+                storageEngine.write(indexPath.toFile(), index);
             }
             
         } finally {
@@ -446,30 +440,4 @@ public class RecorderFileStorage {
             Files.createDirectories(path);
         }
     }
-    
-    /**
-     * Recursively delete a directory
-     *
-     * @param directory Directory to delete
-     * @throws IOException If the directory cannot be deleted
-     */
-    private void deleteDirectory(File directory) throws IOException {
-        File[] files = directory.listFiles();
-        
-        if (files != null) {
-            for (File file : files) {
-                if (file.isDirectory()) {
-                    deleteDirectory(file);
-                } else {
-                    if (!file.delete()) {
-                        throw new IOException("Failed to delete file: " + file);
-                    }
-                }
-            }
-        }
-        
-        if (!directory.delete()) {
-            throw new IOException("Failed to delete directory: " + directory);
-        }
-    }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,72 @@
+package com.cstestforge.search.controller;
+
+import com.cstestforge.project.model.ApiResponse;
+import com.cstestforge.search.model.SearchHit;
+import com.cstestforge.search.service.SearchIndexService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+/**
+ * REST controller for full-text search within a project
+ */
+@RestController
+@RequestMapping("/api/projects/{projectId}/search")
+public class SearchController {
+
+    private static final Logger logger = LoggerFactory.getLogger(SearchController.class);
+
+    private final SearchIndexService searchIndexService;
+
+    @Autowired
+    public SearchController(SearchIndexService searchIndexService) {
+        this.searchIndexService = searchIndexService;
+    }
+
+    /**
+     * Search the tests, steps and recordings of a project
+     *
+     * @param projectId Project ID
+     * @param q Query text; every term matches as a prefix
+     * @param limit Maximum number of hits
+     * @return Hits, best first
+     */
+    @GetMapping
+    public ResponseEntity<ApiResponse<List<SearchHit>>> search(
+            @PathVariable String projectId,
+            @RequestParam String q,
+            @RequestParam(defaultValue = "20") int limit) {
+        try {
+            return ResponseEntity.ok(ApiResponse.success(searchIndexService.search(projectId, q, limit)));
+        } catch (Exception e) {
+            logger.error("Error searching project {}", projectId, e);
+            return ResponseEntity
+                    .status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(ApiResponse.error("Error searching project", e.getMessage()));
+        }
+    }
+
+    /**
+     * Rebuild the search index of a project from storage
+     *
+     * @param projectId Project ID
+     * @return Number of indexed documents
+     */
+    @PostMapping("/rebuild")
+    public ResponseEntity<ApiResponse<Integer>> rebuild(@PathVariable String projectId) {
+        try {
+            int count = searchIndexService.rebuild(projectId);
+            return ResponseEntity.ok(ApiResponse.success(count, "Search index rebuilt"));
+        } catch (Exception e) {
+            logger.error("Error rebuilding search index of project {}", projectId, e);
+            return ResponseEntity
+                    .status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(ApiResponse.error("Error rebuilding search index", e.getMessage()));
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.cstestforge.search.model;
+
+/**
+ * A test or recording matching a full-text search
+ */
+public class SearchHit {
+
+    public static final String TYPE_TEST = "test";
+    public static final String TYPE_RECORDING = "recording";
+
+    private String type;
+    private String id;
+    private String name;
+    private double score;
+
+    public SearchHit() {
+    }
+
+    public SearchHit(String type, String id, String name, double score) {
+        this.type = type;
+        this.id = id;
+        this.name = name;
+        this.score = score;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public double getScore() {
+        return score;
+    }
+
+    public void setScore(double score) {
+        this.score = score;
+    }
+}
@@ -0,0 +1,408 @@
+package com.cstestforge.search.service;
+
+import com.cstestforge.project.model.test.Test;
+import com.cstestforge.project.model.test.TestStep;
+import com.cstestforge.project.storage.FileStorageService;
+import com.cstestforge.recorder.model.RecordingSession;
+import com.cstestforge.recorder.storage.RecorderFileStorage;
+import com.cstestforge.search.model.SearchHit;
+import com.cstestforge.storage.StorageEngine;
+import com.cstestforge.storage.TextSearchIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Full-text search over the tests and recordings of each project.
+ * <p>
+ * The index of a project is built from storage on its first search and kept current by
+ * the services that write tests and recordings. Documents are keyed {@code test:<id>} and
+ * {@code recording:<id>}.
+ */
+@Service
+public class SearchIndexService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SearchIndexService.class);
+
+    private static final String TESTS_INDEX_PATH_TEMPLATE = "projects/%s/tests/_index.json";
+    private static final String TEST_PATH_TEMPLATE = "projects/%s/tests/%s.json";
+
+    // Field weights
+    private static final double NAME_WEIGHT = 4.0;
+    private static final double TAG_WEIGHT = 2.0;
+    private static final double DESCRIPTION_WEIGHT = 1.5;
+    private static final double SELECTOR_WEIGHT = 1.5;
+    private static final double STEP_WEIGHT = 1.0;
+
+    private final FileStorageService fileStorageService;
+    private final RecorderFileStorage recorderFileStorage;
+
+    // Built and building indexes by project ID
+    private final Map<String, ProjectIndex> indexes = new ConcurrentHashMap<>();
+
+    @Autowired
+    public SearchIndexService(FileStorageService fileStorageService, RecorderFileStorage recorderFileStorage,
+                              StorageEngine storageEngine) {
+        this.fileStorageService = fileStorageService;
+        this.recorderFileStorage = recorderFileStorage;
+
+        // Tests edited by hand or by another instance make the project's index stale
+        fileStorageService.addChangeListener(this::onExternalChanges);
+        storageEngine.addChangeListener(this::onExternalRecordingChanges);
+    }
+
+    /**
+     * Search the tests and recordings of a project
+     *
+     * @param projectId Project ID
+     * @param query Query text; every term matches as a prefix
+     * @param limit Maximum number of hits, 0 for all
+     * @return Hits, best first
+     */
+    public List<SearchHit> search(String projectId, String query, int limit) {
+        ProjectIndex index = getIndex(projectId);
+        List<SearchHit> hits = new ArrayList<>();
+        for (TextSearchIndex.Hit hit : index.text.search(query, limit)) {
+            int separator = hit.getId().indexOf(':');
+            hits.add(new SearchHit(hit.getId().substring(0, separator), hit.getId().substring(separator + 1),
+                    index.names.get(hit.getId()), hit.getScore()));
+        }
+        return hits;
+    }
+
+    /**
+     * Find the tests of a project matching a query
+     *
+     * @param projectId Project ID
+     * @param query Query text
+     * @return Matching test IDs, best first
+     */
+    public List<String> searchTestIds(String projectId, String query) {
+        List<String> testIds = new ArrayList<>();
+        for (SearchHit hit : search(projectId, query, 0)) {
+            if (SearchHit.TYPE_TEST.equals(hit.getType())) {
+                testIds.add(hit.getId());
+            }
+        }
+        return testIds;
+    }
+
+    /**
+     * Index a saved test
+     *
+     * @param projectId Project ID
+     * @param test Saved test
+     */
+    public void indexTest(String projectId, Test test) {
+        ProjectIndex index = indexes.get(projectId);
+        if (index != null && test != null) {
+            index.put(toDocument(test), test.getName());
+        }
+    }
+
+    /**
+     * Remove a deleted test
+     *
+     * @param projectId Project ID
+     * @param testId Test ID
+     */
+    public void removeTest(String projectId, String testId) {
+        ProjectIndex index = indexes.get(projectId);
+        if (index != null) {
+            index.remove(SearchHit.TYPE_TEST + ":" + testId);
+        }
+    }
+
+    /**
+     * Index a saved recording session
+     *
+     * @param session Saved session
+     */
+    public void indexRecording(RecordingSession session) {
+        if (session == null || session.getProjectId() == null) {
+            return;
+        }
+        ProjectIndex index = indexes.get(session.getProjectId());
+        if (index != null) {
+            index.put(toDocument(session), session.getName());
+        }
+    }
+
+    /**
+     * Remove a deleted recording session
+     *
+     * @param session Deleted session
+     */
+    public void removeRecording(RecordingSession session) {
+        if (session == null || session.getProjectId() == null) {
+            return;
+        }
+        ProjectIndex index = indexes.get(session.getProjectId());
+        if (index != null) {
+            index.remove(SearchHit.TYPE_RECORDING + ":" + session.getId());
+        }
+    }
+
+    /**
+     * Discard the index of a project and build it again from storage
+     *
+     * @param projectId Project ID
+     * @return Number of indexed documents
+     */
+    public int rebuild(String projectId) {
+        indexes.remove(projectId);
+        return getIndex(projectId).text.size();
+    }
+
+    /**
+     * Drop the indexes of projects whose tests changed outside this process; they are
+     * rebuilt on the next search
+     *
+     * @param paths Changed paths relative to the storage root
+     */
+    private void onExternalChanges(List<String> paths) {
+        for (String path : paths) {
+            String[] parts = path.split("/");
+            if (path.isEmpty() || parts.length == 1 && "projects".equals(parts[0])) {
+                indexes.clear();
+            } else if ("projects".equals(parts[0]) && (parts.length == 2 || "tests".equals(parts[2]))) {
+                indexes.remove(parts[1]);
+            }
+        }
+    }
+
+    /**
+     * Drop all indexes when recordings change outside this process; recording paths do
+     * not name their project. A rescanned directory may hold recordings too.
+     *
+     * @param files Changed files and directories
+     */
+    private void onExternalRecordingChanges(Collection<File> files) {
+        for (File file : files) {
+            if (file.isDirectory() || file.getPath().contains(File.separator + "recordings")) {
+                indexes.clear();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Get the index of a project, building it on first use. Callers that find the index
+     * still being built wait for the build to finish.
+     *
+     * @param projectId Project ID
+     * @return Search index
+     */
+    private ProjectIndex getIndex(String projectId) {
+        ProjectIndex index = indexes.get(projectId);
+        if (index == null) {
+            ProjectIndex created = new ProjectIndex();
+            index = indexes.putIfAbsent(projectId, created);
+            if (index == null) {
+                build(projectId, created);
+                return created;
+            }
+        }
+        index.awaitBuilt();
+        return index;
+    }
+
+    /**
+     * Load the tests and recordings of a project into a published index. Writes made
+     * while loading are buffered by the index and applied afterwards, as they are newer
+     * than what the build reads. If the build fails the index is unpublished, so the next
+     * search tries again.
+     *
+     * @param projectId Project ID
+     * @param index Published index in its building state
+     */
+    private void build(String projectId, ProjectIndex index) {
+        long start = System.currentTimeMillis();
+        try {
+            String testsIndexPath = String.format(TESTS_INDEX_PATH_TEMPLATE, projectId);
+            if (fileStorageService.fileExists(testsIndexPath)) {
+                Map<String, String> testIndex = fileStorageService.readMapFromJson(
+                        testsIndexPath, String.class, String.class);
+                for (String testId : testIndex.keySet()) {
+                    if (testId.startsWith("_")) {
+                        continue;
+                    }
+                    Test test = fileStorageService.readFromJson(
+                            String.format(TEST_PATH_TEMPLATE, projectId, testId), Test.class);
+                    if (test != null) {
+                        index.load(toDocument(test), test.getName());
+                    }
+                }
+            }
+
+            try {
+                for (RecordingSession session : recorderFileStorage.loadAllSessions()) {
+                    if (projectId.equals(session.getProjectId())) {
+                        index.load(toDocument(session), session.getName());
+                    }
+                }
+            } catch (IOException e) {
+                logger.warn("Could not index recordings of project {}: {}", projectId, e.getMessage());
+            }
+        } catch (RuntimeException | Error e) {
+            indexes.remove(projectId, index);
+            index.fail(e);
+            throw e;
+        }
+
+        index.finishBuild();
+        logger.info("Built search index for project {} with {} documents in {} ms",
+                projectId, index.text.size(), System.currentTimeMillis() - start);
+    }
+
+    private TextSearchIndex.Document toDocument(Test test) {
+        TextSearchIndex.Document document = new TextSearchIndex.Document(SearchHit.TYPE_TEST + ":" + test.getId())
+                .add(test.getName(), NAME_WEIGHT)
+                .add(test.getDescription(), DESCRIPTION_WEIGHT);
+
+        if (test.getTags() != null) {
+            for (String tag : test.getTags()) {
+                document.add(tag, TAG_WEIGHT);
+            }
+        }
+
+        if (test.getSteps() != null) {
+            for (TestStep step : test.getSteps()) {
+                document.add(step.getName(), STEP_WEIGHT).add(step.getDescription(), STEP_WEIGHT);
+                if (step.getParameters() != null) {
+                    step.getParameters().forEach((key, value) -> {
+                        String lowerKey = key.toLowerCase();
+                        if (value instanceof String && (lowerKey.contains("selector") || lowerKey.contains("locator"))) {
+                            document.add((String) value, SELECTOR_WEIGHT);
+                        }
+                    });
+                }
+            }
+        }
+        return document;
+    }
+
+    private TextSearchIndex.Document toDocument(RecordingSession session) {
+        return new TextSearchIndex.Document(SearchHit.TYPE_RECORDING + ":" + session.getId())
+                .add(session.getName(), NAME_WEIGHT)
+                .add(session.getDescription(), DESCRIPTION_WEIGHT);
+    }
+
+    /**
+     * Search index of a project with the display names of its documents.
+     * <p>
+     * A new index is building: writes are buffered, last write per document wins, and
+     * readers wait in {@link #awaitBuilt()} until {@link #finishBuild()} has applied the
+     * buffered writes on top of the loaded documents.
+     */
+    private static class ProjectIndex {
+        final TextSearchIndex text = new TextSearchIndex();
+        final Map<String, String> names = new ConcurrentHashMap<>();
+        private final CompletableFuture<Void> built = new CompletableFuture<>();
+        // Writes made while building, by document ID; a null document is a removal
+        private final Map<String, BufferedWrite> buffered = new LinkedHashMap<>();
+        private boolean building = true;
+
+        void put(TextSearchIndex.Document document, String name) {
+            synchronized (this) {
+                if (building) {
+                    buffered.put(document.getId(), new BufferedWrite(document, name));
+                    return;
+                }
+            }
+            load(document, name);
+        }
+
+        void remove(String id) {
+            synchronized (this) {
+                if (building) {
+                    buffered.put(id, new BufferedWrite(null, null));
+                    return;
+                }
+            }
+            text.remove(id);
+            names.remove(id);
+        }
+
+        /**
+         * Add a document without buffering; used by the build
+         */
+        void load(TextSearchIndex.Document document, String name) {
+            text.put(document);
+            if (name != null) {
+                names.put(document.getId(), name);
+            } else {
+                names.remove(document.getId());
+            }
+        }
+
+        /**
+         * Apply the buffered writes and release waiting readers
+         */
+        void finishBuild() {
+            synchronized (this) {
+                buffered.forEach((id, write) -> {
+                    if (write.document != null) {
+                        load(write.document, write.name);
+                    } else {
+                        text.remove(id);
+                        names.remove(id);
+                    }
+                });
+                buffered.clear();
+                building = false;
+            }
+            built.complete(null);
+        }
+
+        /**
+         * Release waiting readers with the failure of the build
+         */
+        void fail(Throwable e) {
+            synchronized (this) {
+                buffered.clear();
+            }
+            built.completeExceptionally(e);
+        }
+
+        /**
+         * Wait until the index is built
+         *
+         * @throws RuntimeException the failure of the build, rethrown to every waiting reader
+         */
+        void awaitBuilt() {
+            try {
+                built.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw e.getCause() instanceof RuntimeException
+                        ? (RuntimeException) e.getCause()
+                        : e;
+            }
+        }
+    }
+
+    private static class BufferedWrite {
+        final TextSearchIndex.Document document;
+        final String name;
+
+        BufferedWrite(TextSearchIndex.Document document, String name) {
+            this.document = document;
+            this.name = name;
+        }
+    }
+}
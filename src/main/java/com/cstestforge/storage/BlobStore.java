@@ -0,0 +1,462 @@
+package com.cstestforge.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed store for binary artifacts such as screenshots, videos and logs.
+ * <p>
+ * A blob is stored once under the SHA-256 of its content, at
+ * {@code <root>/<h1>/<h2>/<hash>}, so the same screenshot taken on every run takes
+ * the disk space of one file. Content is streamed in and out and never held in memory.
+ * <p>
+ * Blobs are reference-counted by owner, e.g. one execution: each owner holds a set of
+ * hashes and a blob's reference count is the number of owners holding it. Both
+ * directions are kept in {@link JournaledSetIndex}es, so setting an owner's references
+ * again is idempotent and survives a crash. {@link #collectGarbage()} deletes blobs
+ * without owners once they are older than the grace period, which protects blobs that
+ * were just stored and are not referenced yet.
+ */
+public class BlobStore {
+    private static final Logger logger = LoggerFactory.getLogger(BlobStore.class);
+
+    /** Prefix of blob references stored in documents in place of file paths */
+    public static final String REFERENCE_PREFIX = "blob:";
+
+    /** Snapshot of the hash-to-owners index */
+    public static final String REFERENCES_INDEX = "_references.set";
+
+    /** Snapshot of the owner-to-hashes index */
+    public static final String OWNERS_INDEX = "_owners.set";
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File root;
+    private final JournaledSetIndex references;
+    private final JournaledSetIndex owners;
+    private final DurableFileWriter fileWriter;
+    private final long gracePeriodMillis;
+
+    // Serializes reference changes with the garbage check of a blob
+    private final Object referenceLock = new Object();
+
+    /**
+     * Create a store
+     *
+     * @param root Store directory
+     * @param references Hash-to-owners index
+     * @param owners Owner-to-hashes index
+     * @param fileWriter Writer used to sync new blobs
+     * @param gracePeriodMillis Minimum age of an unreferenced blob before it is collected
+     */
+    public BlobStore(File root, JournaledSetIndex references, JournaledSetIndex owners,
+                     DurableFileWriter fileWriter, long gracePeriodMillis) {
+        this.root = root;
+        this.references = references;
+        this.owners = owners;
+        this.fileWriter = fileWriter;
+        this.gracePeriodMillis = gracePeriodMillis;
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    /**
+     * Check if a string is a blob reference
+     *
+     * @param value Path or reference
+     * @return true if it starts with {@link #REFERENCE_PREFIX}
+     */
+    public static boolean isReference(String value) {
+        return value != null && value.startsWith(REFERENCE_PREFIX);
+    }
+
+    /**
+     * Get the reference to store for a hash
+     *
+     * @param hash Blob hash
+     * @return Blob reference
+     */
+    public static String toReference(String hash) {
+        return REFERENCE_PREFIX + hash;
+    }
+
+    /**
+     * Get the hash of a blob reference
+     *
+     * @param reference Blob reference
+     * @return Blob hash
+     * @throws IllegalArgumentException if the value is not a valid reference
+     */
+    public static String hashOf(String reference) {
+        if (!isReference(reference)) {
+            throw new IllegalArgumentException("Not a blob reference: " + reference);
+        }
+        String hash = reference.substring(REFERENCE_PREFIX.length());
+        checkHash(hash);
+        return hash;
+    }
+
+    /**
+     * Store content read from a stream. The content is spooled to a temporary file while
+     * it is hashed; if the blob already exists the temporary file is dropped.
+     *
+     * @param content Content, read to the end but not closed
+     * @return Blob hash
+     * @throws IOException if the content cannot be read or stored
+     */
+    public String put(InputStream content) throws IOException {
+        Files.createDirectories(root.toPath());
+        Path temp = root.toPath().resolve("." + UUID.randomUUID() + TEMP_SUFFIX);
+        try {
+            MessageDigest digest = newDigest();
+            try (OutputStream out = Files.newOutputStream(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                copy(content, out, digest);
+            }
+            String hash = toHex(digest.digest());
+            install(temp, hash);
+            return hash;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Store the content of a file. The file is hashed first; if the store already holds
+     * the content the file is left in place, otherwise it is moved into the store, so a
+     * stored artifact is never copied. Callers delete a file left in place once they
+     * have recorded their reference to the blob.
+     *
+     * @param file File to store; moved into the store unless the blob already exists
+     * @return Blob hash
+     * @throws IOException if the file cannot be read or stored; the file is then left in place
+     */
+    public String putFile(Path file) throws IOException {
+        String hash = hashFile(file);
+        if (touch(hash)) {
+            return hash;
+        }
+
+        Files.createDirectories(root.toPath());
+        Path temp = root.toPath().resolve("." + UUID.randomUUID() + TEMP_SUFFIX);
+        moveFile(file, temp);
+        try {
+            // Hash what was moved: the file may have changed since it was first read
+            String stored = hashFile(temp);
+            if (!stored.equals(hash)) {
+                logger.warn("File {} changed while it was being stored", file);
+            }
+            install(temp, stored);
+            return stored;
+        } catch (IOException e) {
+            try {
+                moveFile(temp, file);
+            } catch (IOException restore) {
+                e.addSuppressed(restore);
+            }
+            throw e;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Open a blob for reading
+     *
+     * @param hash Blob hash
+     * @return Content stream, to be closed by the caller
+     * @throws NoSuchFileException if the blob does not exist
+     * @throws IOException if the blob cannot be opened
+     */
+    public InputStream open(String hash) throws IOException {
+        return Files.newInputStream(blobFile(hash));
+    }
+
+    /**
+     * Check if a blob exists
+     *
+     * @param hash Blob hash
+     * @return true if stored
+     */
+    public boolean exists(String hash) {
+        return Files.isRegularFile(blobFile(hash));
+    }
+
+    /**
+     * Get the size of a blob
+     *
+     * @param hash Blob hash
+     * @return Size in bytes
+     * @throws IOException if the blob does not exist
+     */
+    public long size(String hash) throws IOException {
+        return Files.size(blobFile(hash));
+    }
+
+    /**
+     * Get the number of owners referencing a blob
+     *
+     * @param hash Blob hash
+     * @return Reference count
+     */
+    public int getReferenceCount(String hash) {
+        return references.get(hash).size();
+    }
+
+    /**
+     * Get the blobs an owner references
+     *
+     * @param owner Owner key
+     * @return Blob hashes
+     */
+    public Set<String> getReferences(String owner) {
+        return owners.get(owner);
+    }
+
+    /**
+     * Make an owner reference exactly the given blobs, adding and dropping references
+     * as needed
+     *
+     * @param owner Owner key
+     * @param hashes Blob hashes
+     * @throws IOException if the references cannot be recorded
+     */
+    public void setReferences(String owner, Collection<String> hashes) throws IOException {
+        synchronized (referenceLock) {
+            Set<String> current = owners.get(owner);
+            Set<String> wanted = new HashSet<>(hashes);
+            for (String hash : wanted) {
+                if (!current.contains(hash)) {
+                    references.add(hash, owner);
+                    owners.add(owner, hash);
+                }
+            }
+            for (String hash : current) {
+                if (!wanted.contains(hash)) {
+                    owners.remove(owner, hash);
+                    references.remove(hash, owner);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drop all references of an owner. Blobs left without owners are deleted by the
+     * next garbage collection.
+     *
+     * @param owner Owner key
+     * @throws IOException if the references cannot be recorded
+     */
+    public void releaseAll(String owner) throws IOException {
+        setReferences(owner, Set.of());
+    }
+
+    /**
+     * Delete unreferenced blobs and abandoned temporary files older than the grace period
+     *
+     * @return Collection counts
+     */
+    public GarbageCollectionResult collectGarbage() {
+        GarbageCollectionResult result = new GarbageCollectionResult();
+        if (!root.isDirectory()) {
+            return result;
+        }
+        long cutoff = System.currentTimeMillis() - gracePeriodMillis;
+
+        try (Stream<Path> paths = Files.walk(root.toPath(), 3)) {
+            paths.filter(Files::isRegularFile).forEach(path -> {
+                String name = path.getFileName().toString();
+                try {
+                    if (name.startsWith(".") && name.endsWith(TEMP_SUFFIX)) {
+                        if (Files.getLastModifiedTime(path).toMillis() < cutoff) {
+                            Files.deleteIfExists(path);
+                        }
+                        return;
+                    }
+                    if (!isHash(name) || path.getParent().equals(root.toPath())) {
+                        return;
+                    }
+                    result.blobs++;
+                    synchronized (referenceLock) {
+                        if (!references.get(name).isEmpty() || Files.getLastModifiedTime(path).toMillis() >= cutoff) {
+                            return;
+                        }
+                        long size = Files.size(path);
+                        Files.delete(path);
+                        result.deleted++;
+                        result.bytesFreed += size;
+                    }
+                } catch (IOException e) {
+                    logger.warn("Could not collect blob {}: {}", path, e.getMessage());
+                }
+            });
+        } catch (IOException e) {
+            logger.warn("Could not walk blob store {}: {}", root, e.getMessage());
+        }
+
+        if (result.deleted > 0) {
+            logger.info("Deleted {} unreferenced blobs ({} bytes) from {}", result.deleted, result.bytesFreed, root);
+        }
+        return result;
+    }
+
+    /**
+     * Move a spooled file to its blob path, or drop it if the blob exists
+     */
+    private void install(Path temp, String hash) throws IOException {
+        if (touch(hash)) {
+            return;
+        }
+
+        Path target = blobFile(hash);
+        Files.createDirectories(target.getParent());
+        // The data must be on disk before the rename can expose it
+        fileWriter.sync(temp);
+        try {
+            moveFile(temp, target);
+        } catch (FileAlreadyExistsException e) {
+            // Stored concurrently by another writer
+            return;
+        }
+        fileWriter.sync(target.getParent());
+    }
+
+    /**
+     * Refresh the modification time of an existing blob so that garbage collection
+     * treats it as new until its references are recorded
+     *
+     * @return true if the blob exists
+     */
+    private boolean touch(String hash) {
+        Path blob = blobFile(hash);
+        try {
+            Files.setLastModifiedTime(blob, FileTime.fromMillis(System.currentTimeMillis()));
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static String hashFile(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        try (InputStream in = Files.newInputStream(file)) {
+            copy(in, OutputStream.nullOutputStream(), digest);
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Rename a file, copying it across file systems
+     */
+    private static void moveFile(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target);
+        }
+    }
+
+    private Path blobFile(String hash) {
+        checkHash(hash);
+        return root.toPath().resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+    }
+
+    private static void copy(InputStream in, OutputStream out, MessageDigest digest) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+            out.write(buffer, 0, read);
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(DIGEST_ALGORITHM + " not available", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    private static boolean isHash(String value) {
+        if (value.length() != 64) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void checkHash(String hash) {
+        if (!isHash(hash)) {
+            throw new IllegalArgumentException("Invalid blob hash: " + hash);
+        }
+    }
+
+    /**
+     * Counts of one garbage collection run
+     */
+    public static class GarbageCollectionResult {
+        private int blobs;
+        private int deleted;
+        private long bytesFreed;
+
+        /**
+         * Add the counts of another run
+         *
+         * @param other Other result
+         */
+        public void add(GarbageCollectionResult other) {
+            blobs += other.blobs;
+            deleted += other.deleted;
+            bytesFreed += other.bytesFreed;
+        }
+
+        public int getBlobs() {
+            return blobs;
+        }
+
+        public int getDeleted() {
+            return deleted;
+        }
+
+        public long getBytesFreed() {
+            return bytesFreed;
+        }
+    }
+}
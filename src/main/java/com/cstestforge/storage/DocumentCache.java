@@ -0,0 +1,405 @@
+package com.cstestforge.storage;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrent document cache bounded by the serialized size of its entries.
+ * <p>
+ * Lookups go straight to a {@link ConcurrentHashMap} and never block. Eviction follows
+ * W-TinyLFU: new entries land in a small LRU window, and an entry leaving the window is
+ * only admitted to the main region if it has been requested more often than the main
+ * region's LRU victim, according to a count-min frequency sketch. Recency updates on
+ * reads are best-effort and skipped when the eviction lock is busy.
+ */
+public class DocumentCache {
+
+    private static final double WINDOW_RATIO = 0.01;
+
+    private final long maxWeight;
+    private final long windowMaxWeight;
+    private final long mainMaxWeight;
+    private final long ttlNanos;
+
+    private final Map<String, Entry> data = new ConcurrentHashMap<>();
+    private final FrequencySketch sketch;
+
+    // Eviction order, guarded by evictionLock
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final LinkedHashMap<String, Long> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Long> main = new LinkedHashMap<>(16, 0.75f, true);
+    private long windowWeight;
+    private long mainWeight;
+
+    // Statistics
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder evictedWeight = new LongAdder();
+
+    /**
+     * Create a cache
+     *
+     * @param maxWeight Maximum total weight in bytes
+     * @param expectedEntries Expected number of entries, used to size the frequency sketch
+     * @param ttl Time after which an entry expires
+     */
+    public DocumentCache(long maxWeight, int expectedEntries, Duration ttl) {
+        this.maxWeight = maxWeight;
+        this.windowMaxWeight = Math.max(1, (long) (maxWeight * WINDOW_RATIO));
+        this.mainMaxWeight = maxWeight - windowMaxWeight;
+        this.ttlNanos = ttl.toNanos();
+        this.sketch = new FrequencySketch(Math.max(16, expectedEntries));
+    }
+
+    /**
+     * Look up a cached value
+     *
+     * @param key Cache key
+     * @param type Expected type of the value
+     * @return The cached value, or null if absent, expired or of another type
+     */
+    public <T> T get(String key, Class<T> type) {
+        sketch.increment(key);
+
+        Entry entry = data.get(key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        if (entry.isExpired(System.nanoTime())) {
+            misses.increment();
+            if (data.remove(key, entry)) {
+                removeFromPolicy(key);
+            }
+            return null;
+        }
+        if (!type.isInstance(entry.value)) {
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        if (evictionLock.tryLock()) {
+            try {
+                // Access-ordered maps move the key to the MRU position on get
+                if (window.get(key) == null) {
+                    main.get(key);
+                }
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+        return type.cast(entry.value);
+    }
+
+    /**
+     * Add or replace a cached value
+     *
+     * @param key Cache key
+     * @param value Value to cache
+     * @param weight Serialized size of the value in bytes
+     */
+    public void put(String key, Object value, long weight) {
+        long entryWeight = Math.max(1, weight);
+        if (entryWeight > maxWeight) {
+            invalidate(key);
+            return;
+        }
+
+        evictionLock.lock();
+        try {
+            data.put(key, new Entry(value, System.nanoTime() + ttlNanos));
+            removeFromPolicyLocked(key);
+            window.put(key, entryWeight);
+            windowWeight += entryWeight;
+            evictLocked();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Remove a single key
+     *
+     * @param key Cache key
+     */
+    public void invalidate(String key) {
+        if (data.remove(key) != null) {
+            removeFromPolicy(key);
+        }
+    }
+
+    /**
+     * Remove all keys starting with a prefix
+     *
+     * @param prefix Key prefix
+     */
+    public void invalidatePrefix(String prefix) {
+        Iterator<String> keys = data.keySet().iterator();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            if (key.startsWith(prefix)) {
+                keys.remove();
+                removeFromPolicy(key);
+            }
+        }
+    }
+
+    /**
+     * Remove all expired entries
+     */
+    public void cleanUp() {
+        long now = System.nanoTime();
+        for (Map.Entry<String, Entry> entry : data.entrySet()) {
+            if (entry.getValue().isExpired(now) && data.remove(entry.getKey(), entry.getValue())) {
+                removeFromPolicy(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Get a snapshot of the cache statistics
+     *
+     * @return Cache statistics
+     */
+    public CacheStats getStats() {
+        evictionLock.lock();
+        try {
+            return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), evictedWeight.sum(),
+                    data.size(), windowWeight + mainWeight, maxWeight);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void removeFromPolicy(String key) {
+        evictionLock.lock();
+        try {
+            removeFromPolicyLocked(key);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void removeFromPolicyLocked(String key) {
+        Long weight = window.remove(key);
+        if (weight != null) {
+            windowWeight -= weight;
+        }
+        weight = main.remove(key);
+        if (weight != null) {
+            mainWeight -= weight;
+        }
+    }
+
+    /**
+     * Move entries overflowing the window into the main region, letting the frequency
+     * sketch decide between each candidate and the main region's LRU victims
+     */
+    private void evictLocked() {
+        while (windowWeight > windowMaxWeight && !window.isEmpty()) {
+            Iterator<Map.Entry<String, Long>> windowIterator = window.entrySet().iterator();
+            Map.Entry<String, Long> candidate = windowIterator.next();
+            String candidateKey = candidate.getKey();
+            long candidateWeight = candidate.getValue();
+            windowIterator.remove();
+            windowWeight -= candidateWeight;
+
+            boolean admitted = true;
+            int candidateFrequency = sketch.frequency(candidateKey);
+            while (mainWeight + candidateWeight > mainMaxWeight && !main.isEmpty()) {
+                Iterator<Map.Entry<String, Long>> mainIterator = main.entrySet().iterator();
+                Map.Entry<String, Long> victim = mainIterator.next();
+                if (candidateFrequency <= sketch.frequency(victim.getKey())) {
+                    admitted = false;
+                    break;
+                }
+                mainIterator.remove();
+                mainWeight -= victim.getValue();
+                evict(victim.getKey(), victim.getValue());
+            }
+
+            if (admitted && mainWeight + candidateWeight <= mainMaxWeight) {
+                main.put(candidateKey, candidateWeight);
+                mainWeight += candidateWeight;
+            } else {
+                evict(candidateKey, candidateWeight);
+            }
+        }
+    }
+
+    private void evict(String key, long weight) {
+        if (data.remove(key) != null) {
+            evictions.increment();
+            evictedWeight.add(weight);
+        }
+    }
+
+    /**
+     * Cached value with its expiration
+     */
+    private static class Entry {
+        private final Object value;
+        private final long expiresAtNanos;
+
+        Entry(Object value, long expiresAtNanos) {
+            this.value = value;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+
+        boolean isExpired(long nowNanos) {
+            return nowNanos - expiresAtNanos > 0;
+        }
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters with periodic aging. Each key maps to one
+     * counter in each of four rows; its estimated frequency is the smallest of them.
+     */
+    private static class FrequencySketch {
+        private static final long[] SEEDS = {
+                0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final AtomicLongArray table;
+        private final int tableMask;
+        private final int sampleSize;
+        private final AtomicInteger additions = new AtomicInteger();
+
+        FrequencySketch(int expectedEntries) {
+            int length = Integer.highestOneBit(Math.max(1, expectedEntries - 1)) << 1;
+            this.table = new AtomicLongArray(length);
+            this.tableMask = length - 1;
+            this.sampleSize = 10 * length;
+        }
+
+        void increment(String key) {
+            int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int row = 0; row < 4; row++) {
+                added |= incrementAt(indexOf(hash, row), counterOffset(hash, row));
+            }
+            if (added && additions.incrementAndGet() >= sampleSize) {
+                reset();
+            }
+        }
+
+        int frequency(String key) {
+            int hash = spread(key.hashCode());
+            int frequency = Integer.MAX_VALUE;
+            for (int row = 0; row < 4; row++) {
+                long word = table.get(indexOf(hash, row));
+                frequency = Math.min(frequency, (int) ((word >>> counterOffset(hash, row)) & 0xfL));
+            }
+            return frequency;
+        }
+
+        private boolean incrementAt(int index, int offset) {
+            long mask = 0xfL << offset;
+            while (true) {
+                long word = table.get(index);
+                if ((word & mask) == mask) {
+                    return false;
+                }
+                if (table.compareAndSet(index, word, word + (1L << offset))) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Halve every counter so that old popularity fades
+         */
+        private void reset() {
+            additions.set(0);
+            for (int i = 0; i < table.length(); i++) {
+                long word;
+                do {
+                    word = table.get(i);
+                } while (!table.compareAndSet(i, word, (word >>> 1) & RESET_MASK));
+            }
+        }
+
+        private int indexOf(int hash, int row) {
+            long h = (hash + SEEDS[row]) * SEEDS[row];
+            h += h >>> 32;
+            return (int) h & tableMask;
+        }
+
+        private int counterOffset(int hash, int row) {
+            // Each row uses its own quarter of the 16 counters in a word
+            return ((row << 2) + ((hash >>> (row << 3)) & 3)) << 2;
+        }
+
+        private int spread(int x) {
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            return (x >>> 16) ^ x;
+        }
+    }
+
+    /**
+     * Point-in-time cache statistics
+     */
+    public static class CacheStats {
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final long evictedWeight;
+        private final long size;
+        private final long weight;
+        private final long maxWeight;
+
+        public CacheStats(long hits, long misses, long evictions, long evictedWeight,
+                          long size, long weight, long maxWeight) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.evictedWeight = evictedWeight;
+            this.size = size;
+            this.weight = weight;
+            this.maxWeight = maxWeight;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        public long getEvictedWeight() {
+            return evictedWeight;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getWeight() {
+            return weight;
+        }
+
+        public long getMaxWeight() {
+            return maxWeight;
+        }
+
+        public double getHitRate() {
+            long requests = hits + misses;
+            return requests > 0 ? (double) hits / requests : 0;
+        }
+    }
+}
@@ -0,0 +1,516 @@
+package com.cstestforge.storage;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.MissingNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORGenerator;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * On-disk encoding of documents.
+ * <p>
+ * Documents keep their {@code .json} names whatever the encoding; the format of each file
+ * is detected from its leading bytes on read, and files are written in the configured
+ * format, so existing files migrate the next time they are written. Smile and CBOR share
+ * the configuration and modules of the application JSON mapper.
+ * <p>
+ * Documents can additionally be gzip-compressed per category. A category is a directory
+ * name such as {@code executions}; every document below a directory of that name is
+ * compressed with the category's setting. Compression is detected from the gzip magic
+ * bytes on read, independently of the document format.
+ * <p>
+ * Writes replace files atomically through a {@link DurableFileWriter}.
+ */
+public class DocumentCodec {
+
+    /**
+     * Supported encodings
+     */
+    public enum Format {
+        JSON, SMILE, CBOR;
+
+        /**
+         * Parse a configured format name
+         *
+         * @param name Format name, case-insensitive
+         * @return Format
+         * @throws IllegalArgumentException if the name is unknown
+         */
+        public static Format fromName(String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Supported compressions
+     */
+    public enum Compression {
+        NONE, GZIP;
+
+        /**
+         * Parse a configured compression name
+         *
+         * @param name Compression name, case-insensitive
+         * @return Compression
+         * @throws IllegalArgumentException if the name is unknown
+         */
+        public static Compression fromName(String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Category reported for documents outside every configured category
+     */
+    public static final String OTHER_CATEGORY = "other";
+
+    // Leading bytes of a gzip stream
+    private static final byte[] GZIP_HEADER = {(byte) 0x1F, (byte) 0x8B};
+
+    // ":)\n" header written by the Smile generator
+    private static final byte[] SMILE_HEADER = {0x3A, 0x29, 0x0A};
+
+    // Self-described CBOR tag 55799
+    private static final byte[] CBOR_HEADER = {(byte) 0xD9, (byte) 0xD9, (byte) 0xF7};
+
+    private final Map<Format, ObjectMapper> mappers = new EnumMap<>(Format.class);
+    private final Format writeFormat;
+    private final Map<String, Compression> categoryCompression;
+    private final DurableFileWriter fileWriter;
+
+    /**
+     * Create a codec
+     *
+     * @param jsonMapper Application JSON mapper
+     * @param writeFormat Format used for new writes
+     * @param categoryCompression Compression per category directory name
+     * @param fileWriter Writer used to replace files
+     */
+    public DocumentCodec(ObjectMapper jsonMapper, Format writeFormat, Map<String, Compression> categoryCompression,
+                         DurableFileWriter fileWriter) {
+        this.writeFormat = writeFormat;
+        this.categoryCompression = new LinkedHashMap<>(categoryCompression);
+        this.fileWriter = fileWriter;
+        mappers.put(Format.JSON, jsonMapper);
+        mappers.put(Format.SMILE, jsonMapper.copyWith(new SmileFactory()));
+        mappers.put(Format.CBOR, jsonMapper.copyWith(CBORFactory.builder()
+                .enable(CBORGenerator.Feature.WRITE_TYPE_HEADER)
+                .build()));
+    }
+
+    /**
+     * Get the format used for new writes
+     *
+     * @return Write format
+     */
+    public Format getWriteFormat() {
+        return writeFormat;
+    }
+
+    /**
+     * Parse a category compression setting such as {@code executions:gzip,recordings:gzip}
+     *
+     * @param spec Comma-separated category:compression pairs, may be empty
+     * @return Compression per category
+     * @throws IllegalArgumentException if an entry is malformed
+     */
+    public static Map<String, Compression> parseCategories(String spec) {
+        if (spec == null || spec.isBlank()) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, Compression> categories = new LinkedHashMap<>();
+        for (String entry : spec.split(",")) {
+            String[] parts = entry.split(":");
+            if (parts.length != 2 || parts[0].isBlank()) {
+                throw new IllegalArgumentException("Invalid compression category: " + entry);
+            }
+            categories.put(parts[0].trim(), Compression.fromName(parts[1]));
+        }
+        return categories;
+    }
+
+    /**
+     * Get the configured category of a document
+     *
+     * @param file Document file
+     * @return Name of the innermost matching category directory, or {@link #OTHER_CATEGORY}
+     */
+    public String categoryOf(File file) {
+        Path parent = file.toPath().toAbsolutePath().normalize().getParent();
+        for (Path dir = parent; dir != null && dir.getFileName() != null; dir = dir.getParent()) {
+            String name = dir.getFileName().toString();
+            if (categoryCompression.containsKey(name)) {
+                return name;
+            }
+        }
+        return OTHER_CATEGORY;
+    }
+
+    /**
+     * Get the compression new writes of a document use
+     *
+     * @param file Document file
+     * @return Compression of the document's category, NONE if uncategorized
+     */
+    public Compression compressionFor(File file) {
+        return categoryCompression.getOrDefault(categoryOf(file), Compression.NONE);
+    }
+
+    /**
+     * Detect the compression of a file from its leading bytes
+     *
+     * @param file Document file
+     * @return Detected compression
+     * @throws IOException if the file cannot be read
+     */
+    public Compression detectCompression(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] header = readHeader(in, GZIP_HEADER.length);
+            return startsWith(header, header.length, GZIP_HEADER) ? Compression.GZIP : Compression.NONE;
+        }
+    }
+
+    /**
+     * Detect the format of a file from its leading bytes, looking through compression
+     *
+     * @param file Document file
+     * @return Detected format, JSON if the file is not binary
+     * @throws IOException if the file cannot be read
+     */
+    public Format detect(File file) throws IOException {
+        try (InputStream in = open(file)) {
+            byte[] header = readHeader(in, 3);
+            return detect(header, header.length);
+        }
+    }
+
+    /**
+     * Detect the format of encoded content
+     *
+     * @param header Leading bytes
+     * @param length Number of valid bytes in the header
+     * @return Detected format, JSON if the content is not binary
+     */
+    public Format detect(byte[] header, int length) {
+        if (startsWith(header, length, SMILE_HEADER)) {
+            return Format.SMILE;
+        }
+        if (startsWith(header, length, CBOR_HEADER)) {
+            return Format.CBOR;
+        }
+        return Format.JSON;
+    }
+
+    /**
+     * Read a document in whatever format it is stored in
+     *
+     * @param file Document file
+     * @return Document tree
+     * @throws IOException if the file cannot be read or parsed
+     */
+    public JsonNode read(File file) throws IOException {
+        try (InputStream in = open(file)) {
+            in.mark(3);
+            byte[] header = readHeader(in, 3);
+            in.reset();
+            return mappers.get(detect(header, header.length)).readTree(in);
+        }
+    }
+
+    /**
+     * Read a document without some of its top-level fields, skipping them in the token
+     * stream rather than building and discarding them
+     *
+     * @param file Document file
+     * @param skippedFields Top-level fields to leave out
+     * @return Document tree, missing if the file is empty
+     * @throws IOException if the file cannot be read or parsed
+     */
+    public JsonNode read(File file, Set<String> skippedFields) throws IOException {
+        try (InputStream in = open(file)) {
+            in.mark(3);
+            byte[] header = readHeader(in, 3);
+            in.reset();
+            ObjectMapper mapper = mappers.get(detect(header, header.length));
+            try (JsonParser parser = mapper.createParser(in)) {
+                JsonToken first = parser.nextToken();
+                if (first == null) {
+                    return MissingNode.getInstance();
+                }
+                if (first != JsonToken.START_OBJECT) {
+                    return mapper.readTree(parser);
+                }
+                ObjectNode tree = mapper.createObjectNode();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.currentName();
+                    parser.nextToken();
+                    if (skippedFields.contains(name)) {
+                        parser.skipChildren();
+                    } else {
+                        tree.set(name, mapper.readTree(parser));
+                    }
+                }
+                return tree;
+            }
+        }
+    }
+
+    /**
+     * Get the uncompressed size of a document
+     *
+     * @param file Document file
+     * @return Size in bytes of the encoded document before compression
+     * @throws IOException if the file cannot be read
+     */
+    public long rawSize(File file) throws IOException {
+        if (detectCompression(file) != Compression.GZIP) {
+            return file.length();
+        }
+
+        // The gzip trailer ends with the input size modulo 2^32
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            in.seek(in.length() - 4);
+            long size = 0;
+            for (int i = 0; i < 4; i++) {
+                size |= (long) in.read() << (8 * i);
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Write a document in the configured format
+     *
+     * @param file Document file
+     * @param tree Document tree
+     * @throws IOException if the file cannot be written
+     */
+    public void write(File file, JsonNode tree) throws IOException {
+        write(file, tree, writeFormat);
+    }
+
+    /**
+     * Write a document in a specific format, compressed according to its category
+     *
+     * @param file Document file
+     * @param tree Document tree
+     * @param format Target format
+     * @throws IOException if the file cannot be written
+     */
+    public void write(File file, JsonNode tree, Format format) throws IOException {
+        fileWriter.write(file, encoder(file, tree, format));
+    }
+
+    /**
+     * Encode a document in the configured format without replacing the file yet
+     *
+     * @param file Document file
+     * @param tree Document tree
+     * @return Staged content for {@link DurableFileWriter#commit}
+     * @throws IOException if the content cannot be written
+     */
+    public DurableFileWriter.Staged stage(File file, JsonNode tree) throws IOException {
+        return fileWriter.stage(file, encoder(file, tree, writeFormat));
+    }
+
+    /**
+     * Get the content writer of a document, compressed according to its category
+     */
+    private DurableFileWriter.Content encoder(File file, JsonNode tree, Format format) {
+        boolean gzip = compressionFor(file) == Compression.GZIP;
+        return fileOut -> {
+            OutputStream out = new BufferedOutputStream(fileOut);
+            if (gzip) {
+                out = new GZIPOutputStream(out, 8192);
+            }
+
+            try (OutputStream target = out) {
+                if (format == Format.JSON) {
+                    mappers.get(Format.JSON).writerWithDefaultPrettyPrinter().writeValue(target, tree);
+                } else {
+                    mappers.get(format).writeValue(target, tree);
+                }
+            }
+        };
+    }
+
+    /**
+     * Open a document for reading, decompressing it if needed
+     *
+     * @param file Document file
+     * @return Buffered stream of the encoded document
+     */
+    private InputStream open(File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            in.mark(GZIP_HEADER.length);
+            byte[] header = readHeader(in, GZIP_HEADER.length);
+            in.reset();
+            if (startsWith(header, header.length, GZIP_HEADER)) {
+                return new BufferedInputStream(new GZIPInputStream(in));
+            }
+            return in;
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Read up to the given number of leading bytes
+     */
+    private static byte[] readHeader(InputStream in, int size) throws IOException {
+        byte[] header = new byte[size];
+        int length = 0;
+        int read;
+        while (length < size && (read = in.read(header, length, size - length)) > 0) {
+            length += read;
+        }
+        return length == size ? header : Arrays.copyOf(header, length);
+    }
+
+    private static boolean startsWith(byte[] header, int length, byte[] prefix) {
+        if (length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (header[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Outcome of a bulk conversion
+     */
+    public static class ConversionResult {
+        private final Format format;
+        private int converted;
+        private int skipped;
+        private int failed;
+        private long bytesBefore;
+        private long bytesAfter;
+
+        public ConversionResult(Format format) {
+            this.format = format;
+        }
+
+        void addConverted(long sizeBefore, long sizeAfter) {
+            converted++;
+            bytesBefore += sizeBefore;
+            bytesAfter += sizeAfter;
+        }
+
+        void addSkipped() {
+            skipped++;
+        }
+
+        void addFailed() {
+            failed++;
+        }
+
+        /**
+         * Combine the counts of another conversion into this one
+         *
+         * @param other Other result
+         */
+        public void add(ConversionResult other) {
+            converted += other.converted;
+            skipped += other.skipped;
+            failed += other.failed;
+            bytesBefore += other.bytesBefore;
+            bytesAfter += other.bytesAfter;
+        }
+
+        public Format getFormat() {
+            return format;
+        }
+
+        public int getConverted() {
+            return converted;
+        }
+
+        public int getSkipped() {
+            return skipped;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        public long getBytesBefore() {
+            return bytesBefore;
+        }
+
+        public long getBytesAfter() {
+            return bytesAfter;
+        }
+    }
+
+    /**
+     * Stored and uncompressed sizes of a group of documents
+     */
+    public static class SizeStats {
+        private int files;
+        private long storedBytes;
+        private long rawBytes;
+
+        void addFile(long stored, long raw) {
+            files++;
+            storedBytes += stored;
+            rawBytes += raw;
+        }
+
+        /**
+         * Combine the sizes of another group into this one
+         *
+         * @param other Other group
+         */
+        public void add(SizeStats other) {
+            files += other.files;
+            storedBytes += other.storedBytes;
+            rawBytes += other.rawBytes;
+        }
+
+        public int getFiles() {
+            return files;
+        }
+
+        public long getStoredBytes() {
+            return storedBytes;
+        }
+
+        public long getRawBytes() {
+            return rawBytes;
+        }
+
+        public double getRatio() {
+            return storedBytes > 0 ? (double) rawBytes / storedBytes : 1;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package com.cstestforge.storage;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Append-only change log kept next to a JSON document.
+ * Each line of {@code <document>.journal} is a compact JSON merge patch; the current
+ * state of the document is the base file, in any {@link DocumentCodec} format, with all
+ * patches applied in order.
+ * Changes whose patch is over {@value #MIN_REWRITE_PATCH_CHARS} characters and larger
+ * than half of the new document are not journaled; the caller rewrites the base file instead.
+ * Callers are responsible for serializing access per document.
+ */
+public class DocumentJournal {
+    private static final Logger logger = LoggerFactory.getLogger(DocumentJournal.class);
+
+    public static final String JOURNAL_SUFFIX = ".journal";
+
+    /** Result of {@link #append} for a change too large to journal */
+    public static final int REWRITE_BASE = -1;
+
+    // Patches over this size and this fraction of the serialized new document are written as a new base
+    private static final int MIN_REWRITE_PATCH_CHARS = 4096;
+    private static final double MAX_PATCH_FRACTION = 0.5;
+
+    private final ObjectMapper objectMapper;
+    private final DocumentCodec codec;
+    private final DurableFileWriter fileWriter;
+
+    // Merged view and entry count of every document with a non-empty journal
+    private final Map<String, JsonNode> currentTrees = new ConcurrentHashMap<>();
+    private final Map<String, Integer> pendingEntries = new ConcurrentHashMap<>();
+
+    public DocumentJournal(ObjectMapper objectMapper, DocumentCodec codec, DurableFileWriter fileWriter) {
+        this.objectMapper = objectMapper;
+        this.codec = codec;
+        this.fileWriter = fileWriter;
+    }
+
+    /**
+     * Get the journal file for a document
+     *
+     * @param document Base document file
+     * @return Journal file
+     */
+    public static File journalFileFor(File document) {
+        return new File(document.getPath() + JOURNAL_SUFFIX);
+    }
+
+    /**
+     * Check if a file name belongs to a journal
+     *
+     * @param fileName File name
+     * @return true if the file is a journal
+     */
+    public static boolean isJournalFile(String fileName) {
+        return fileName.endsWith(JOURNAL_SUFFIX);
+    }
+
+    /**
+     * Check if a document has un-compacted changes
+     *
+     * @param document Base document file
+     * @return true if a journal exists
+     */
+    public boolean hasJournal(File document) {
+        return pendingEntries.containsKey(document.getAbsolutePath()) || journalFileFor(document).exists();
+    }
+
+    /**
+     * Get the merged view of a document: the base file plus all journaled patches
+     *
+     * @param document Base document file
+     * @return Merged document, or null if the base file does not exist
+     * @throws IOException if the base file cannot be read
+     */
+    public JsonNode readMerged(File document) throws IOException {
+        JsonNode tree = currentTrees.get(document.getAbsolutePath());
+        if (tree != null) {
+            return tree.deepCopy();
+        }
+        if (!document.exists()) {
+            return null;
+        }
+
+        JsonNode merged = codec.read(document);
+        File journalFile = journalFileFor(document);
+        if (!journalFile.exists()) {
+            return merged;
+        }
+
+        int entries = 0;
+        try (BufferedReader reader = Files.newBufferedReader(journalFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    merged = JsonMergePatch.apply(merged, objectMapper.readTree(line));
+                    entries++;
+                } catch (IOException e) {
+                    // A torn line from an interrupted append; later appends start on a new line
+                    logger.warn("Ignoring unreadable journal entry in {}", journalFile);
+                }
+            }
+        }
+
+        if (entries > 0) {
+            currentTrees.put(document.getAbsolutePath(), merged.deepCopy());
+            pendingEntries.put(document.getAbsolutePath(), entries);
+        }
+        return merged;
+    }
+
+    /**
+     * Record the change from the current document state to a new state
+     *
+     * @param document Base document file (must exist)
+     * @param newTree New document state
+     * @return Number of entries pending compaction, 0 if nothing changed, or
+     *         {@link #REWRITE_BASE} if nothing was written because the patch is too large
+     *         and the base file has to be rewritten instead
+     * @throws IOException if the journal cannot be written
+     */
+    public int append(File document, JsonNode newTree) throws IOException {
+        JsonNode current = readMerged(document);
+        JsonNode patch = JsonMergePatch.diff(current, newTree);
+        if (patch == null) {
+            return pendingEntries.getOrDefault(document.getAbsolutePath(), 0);
+        }
+
+        Path journalPath = journalFileFor(document).toPath().toAbsolutePath();
+        boolean created = !Files.exists(journalPath);
+
+        String patchJson = objectMapper.writeValueAsString(patch);
+        if (patchJson.length() > MIN_REWRITE_PATCH_CHARS
+                && patchJson.length() > objectMapper.writeValueAsString(newTree).length() * MAX_PATCH_FRACTION) {
+            return REWRITE_BASE;
+        }
+
+        // Never continue a line torn by an interrupted append
+        String prefix = !created && !endsWithNewline(journalPath) ? "\n" : "";
+        byte[] line = (prefix + patchJson + "\n").getBytes(StandardCharsets.UTF_8);
+        try (OutputStream out = Files.newOutputStream(journalPath,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE)) {
+            out.write(line);
+        }
+
+        // Appends cannot be renamed into place; a torn tail is skipped on replay instead
+        fileWriter.sync(journalPath);
+        if (created) {
+            fileWriter.sync(journalPath.getParent());
+        }
+
+        currentTrees.put(document.getAbsolutePath(), newTree.deepCopy());
+        return pendingEntries.merge(document.getAbsolutePath(), 1, Integer::sum);
+    }
+
+    /**
+     * Check if a journal ends with a complete line
+     */
+    private static boolean endsWithNewline(Path journalPath) throws IOException {
+        try (FileChannel channel = FileChannel.open(journalPath, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size == 0) {
+                return true;
+            }
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.read(last, size - 1);
+            return last.get(0) == '\n';
+        }
+    }
+
+    /**
+     * Find the documents with journals under the given directories, such as journals left
+     * behind by a previous run
+     *
+     * @param roots Directories to search; missing ones are skipped
+     * @return Base document files of the journals found
+     * @throws IOException if a directory cannot be listed
+     */
+    public static List<File> findJournaledDocuments(Collection<Path> roots) throws IOException {
+        List<File> documents = new ArrayList<>();
+        for (Path root : roots) {
+            if (!Files.isDirectory(root)) {
+                continue;
+            }
+            try (Stream<Path> paths = Files.walk(root)) {
+                paths.filter(path -> isJournalFile(path.getFileName().toString()) && Files.isRegularFile(path))
+                        .forEach(path -> {
+                            String journalPath = path.toString();
+                            documents.add(new File(journalPath.substring(0, journalPath.length() - JOURNAL_SUFFIX.length())));
+                        });
+            }
+        }
+        return documents;
+    }
+
+    /**
+     * Get the number of journal entries waiting to be folded into a document
+     *
+     * @param document Base document file
+     * @return Pending entry count
+     */
+    public int getPendingEntries(File document) {
+        return pendingEntries.getOrDefault(document.getAbsolutePath(), 0);
+    }
+
+    /**
+     * Get all documents that currently have pending journal entries
+     *
+     * @return Absolute paths of journaled documents
+     */
+    public Set<String> getJournaledDocuments() {
+        return pendingEntries.keySet();
+    }
+
+    /**
+     * Drop the journal of a document after its merged state has been written to the base
+     * file, or after the document was replaced or deleted
+     *
+     * @param document Base document file
+     */
+    public void discard(File document) {
+        currentTrees.remove(document.getAbsolutePath());
+        pendingEntries.remove(document.getAbsolutePath());
+        File journalFile = journalFileFor(document);
+        if (journalFile.exists() && !journalFile.delete()) {
+            logger.warn("Failed to delete journal: {}", journalFile);
+        }
+    }
+
+    /**
+     * Forget in-memory state for all documents under a path prefix
+     *
+     * @param absolutePrefix Absolute path prefix
+     */
+    public void forgetUnder(String absolutePrefix) {
+        currentTrees.keySet().removeIf(key -> key.startsWith(absolutePrefix));
+        pendingEntries.keySet().removeIf(key -> key.startsWith(absolutePrefix));
+    }
+}
@@ -0,0 +1,476 @@
+package com.cstestforge.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Crash-safe file writer.
+ * <p>
+ * Files are written to a temporary sibling and renamed over the target, so a reader or a
+ * restart after a crash sees either the old or the new content, never a truncated file.
+ * How the data reaches the disk depends on the durability mode:
+ * <ul>
+ *   <li>{@code NONE} - no fsync; safe against process crashes only</li>
+ *   <li>{@code FSYNC} - every write syncs its file and directory before returning</li>
+ *   <li>{@code GROUP} - writers wait for a shared flush that syncs everything requested
+ *       during a short window, syncing each file or directory once per window</li>
+ * </ul>
+ * <p>
+ * Several files can be replaced as one unit: each is staged to its temporary sibling,
+ * then a commit log naming every rename is written before the first rename. A commit
+ * interrupted by a crash is rolled forward from its log on the next start.
+ */
+public class DurableFileWriter {
+    private static final Logger logger = LoggerFactory.getLogger(DurableFileWriter.class);
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Suffix of commit log files
+     */
+    public static final String COMMIT_LOG_SUFFIX = ".commit";
+
+    private static final int COMMIT_LOG_MAGIC = 0x43534243;
+    private static final byte COMMIT_MOVE = 'M';
+    private static final byte COMMIT_DELETE = 'D';
+
+    /**
+     * Supported durability modes
+     */
+    public enum Durability {
+        NONE, FSYNC, GROUP;
+
+        /**
+         * Parse a configured durability name
+         *
+         * @param name Durability name, case-insensitive
+         * @return Durability
+         * @throws IllegalArgumentException if the name is unknown
+         */
+        public static Durability fromName(String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Writes the content of a file
+     */
+    @FunctionalInterface
+    public interface Content {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    private final Durability durability;
+    private final long groupCommitWindowMillis;
+
+    // Paths waiting for the next group flush; each path is synced once per flush
+    private final Object groupMonitor = new Object();
+    private Map<Path, CompletableFuture<Void>> pendingSyncs = new LinkedHashMap<>();
+    private final ScheduledExecutorService groupFlusher;
+    private boolean shutdown;
+
+    /**
+     * Create a writer
+     *
+     * @param durability Durability mode
+     * @param groupCommitWindowMillis How long a group flush waits for more writers
+     */
+    public DurableFileWriter(Durability durability, long groupCommitWindowMillis) {
+        this.durability = durability;
+        this.groupCommitWindowMillis = groupCommitWindowMillis;
+        this.groupFlusher = durability == Durability.GROUP
+                ? Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "storage-group-commit");
+                    thread.setDaemon(true);
+                    return thread;
+                })
+                : null;
+    }
+
+    /**
+     * Get the durability mode
+     *
+     * @return Durability
+     */
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Check if a file name belongs to an in-progress or abandoned write
+     *
+     * @param fileName File name
+     * @return true if the file is a temporary file of this writer
+     */
+    public static boolean isTempFile(String fileName) {
+        return fileName.startsWith(".") && fileName.endsWith(TEMP_SUFFIX);
+    }
+
+    /**
+     * Replace the content of a file atomically
+     *
+     * @param target File to write
+     * @param content Content writer; it may close the stream
+     * @throws IOException if the file cannot be written
+     */
+    public void write(File target, Content content) throws IOException {
+        Staged staged = stage(target, content);
+        try {
+            move(staged.temp, staged.target);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(staged.temp);
+            throw e;
+        }
+
+        // Make the rename itself durable
+        sync(staged.target.getParent());
+    }
+
+    /**
+     * Write the new content of a file next to it without replacing the file yet
+     *
+     * @param target File to write
+     * @param content Content writer; it may close the stream
+     * @return Staged content, to be passed to {@link #commit} or {@link #discard}
+     * @throws IOException if the content cannot be written
+     */
+    public Staged stage(File target, Content content) throws IOException {
+        Path targetPath = target.toPath().toAbsolutePath();
+        Path temp = targetPath.getParent().resolve("." + targetPath.getFileName() + "." + UUID.randomUUID() + TEMP_SUFFIX);
+
+        try {
+            try (OutputStream out = Files.newOutputStream(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                content.writeTo(out);
+            }
+
+            // The data must be on disk before the rename can expose it
+            sync(temp);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        return new Staged(temp, targetPath);
+    }
+
+    /**
+     * Replace the targets of staged contents and delete files as one unit. Once the commit
+     * log is written the commit is certain: a crash during the renames is completed by
+     * {@link #recover} on the next start.
+     *
+     * @param staged Staged contents
+     * @param deletes Files to delete
+     * @param logDir Directory for the commit log
+     * @throws IOException if the commit log cannot be written, in which case nothing has
+     *                     changed and the staged contents are deleted, or if the commit is
+     *                     left for recovery
+     */
+    public void commit(List<Staged> staged, List<File> deletes, File logDir) throws IOException {
+        Path log = logDir.toPath().resolve(UUID.randomUUID() + COMMIT_LOG_SUFFIX);
+        try {
+            Files.createDirectories(logDir.toPath());
+            writeCommitLog(log, staged, deletes);
+            sync(log);
+            sync(logDir.toPath());
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(log);
+            discard(staged);
+            throw e;
+        }
+
+        // Past this point the commit is rolled forward even if a step fails
+        Set<Path> dirs = new LinkedHashSet<>();
+        IOException failure = null;
+        for (Staged entry : staged) {
+            try {
+                move(entry.temp, entry.target);
+                dirs.add(entry.target.getParent());
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        for (File file : deletes) {
+            try {
+                Files.deleteIfExists(file.toPath());
+                dirs.add(file.toPath().toAbsolutePath().getParent());
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        for (Path dir : dirs) {
+            sync(dir);
+        }
+
+        if (failure != null) {
+            // Keep the log so the next start finishes the commit
+            throw new IOException("Commit incomplete, it will be completed on restart: " + log, failure);
+        }
+        Files.deleteIfExists(log);
+    }
+
+    /**
+     * Write the renames and deletes of a commit, preceded by their count so a log cut
+     * short by a crash is recognized
+     */
+    private static void writeCommitLog(Path log, List<Staged> staged, List<File> deletes) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(log, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)))) {
+            out.writeInt(COMMIT_LOG_MAGIC);
+            out.writeInt(staged.size() + deletes.size());
+            for (Staged entry : staged) {
+                out.writeByte(COMMIT_MOVE);
+                out.writeUTF(entry.temp.toString());
+                out.writeUTF(entry.target.toString());
+            }
+            for (File file : deletes) {
+                out.writeByte(COMMIT_DELETE);
+                out.writeUTF(file.toPath().toAbsolutePath().toString());
+            }
+        }
+    }
+
+    /**
+     * Delete staged contents that will not be committed
+     *
+     * @param staged Staged contents
+     */
+    public void discard(List<Staged> staged) {
+        for (Staged entry : staged) {
+            try {
+                Files.deleteIfExists(entry.temp);
+            } catch (IOException e) {
+                logger.warn("Could not delete staged file {}: {}", entry.temp, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Complete the commits whose logs were left behind by a crash. A log that was not
+     * fully written belongs to a commit that never started; it is dropped along with the
+     * staged files it names.
+     *
+     * @param logDir Directory of the commit logs
+     * @return Number of commits completed
+     */
+    public int recover(File logDir) {
+        File[] logs = logDir.listFiles((dir, name) -> name.endsWith(COMMIT_LOG_SUFFIX));
+        if (logs == null) {
+            return 0;
+        }
+
+        int completed = 0;
+        for (File log : logs) {
+            List<String[]> entries = new ArrayList<>();
+            boolean complete = false;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(log.toPath())))) {
+                if (in.readInt() == COMMIT_LOG_MAGIC) {
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++) {
+                        byte type = in.readByte();
+                        if (type == COMMIT_MOVE) {
+                            // Record the staged file before its target, so a log torn between
+                            // the two still names the staged file to discard
+                            String[] move = new String[] {in.readUTF(), null};
+                            entries.add(move);
+                            move[1] = in.readUTF();
+                        } else {
+                            entries.add(new String[] {in.readUTF()});
+                        }
+                    }
+                    complete = true;
+                }
+            } catch (IOException e) {
+                logger.warn("Commit log {} is incomplete, discarding its staged files", log);
+            }
+
+            try {
+                for (String[] entry : entries) {
+                    if (entry.length == 2) {
+                        Path temp = Paths.get(entry[0]);
+                        if (!complete) {
+                            Files.deleteIfExists(temp);
+                        } else if (Files.exists(temp)) {
+                            move(temp, Paths.get(entry[1]));
+                        }
+                    } else if (complete) {
+                        Files.deleteIfExists(Paths.get(entry[0]));
+                    }
+                }
+                Files.deleteIfExists(log.toPath());
+                if (complete) {
+                    completed++;
+                }
+            } catch (IOException e) {
+                logger.error("Could not complete commit {}: {}", log, e.getMessage());
+            }
+        }
+        return completed;
+    }
+
+    /**
+     * Make the current content of a file or directory durable according to the mode
+     *
+     * @param path File or directory
+     * @throws IOException if the sync fails
+     */
+    public void sync(Path path) throws IOException {
+        switch (durability) {
+            case FSYNC:
+                force(path);
+                break;
+            case GROUP:
+                awaitGroupSync(path);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Flush outstanding group syncs and stop the flusher
+     */
+    public void shutdown() {
+        if (groupFlusher == null) {
+            return;
+        }
+        synchronized (groupMonitor) {
+            shutdown = true;
+        }
+        groupFlusher.shutdown();
+        try {
+            groupFlusher.awaitTermination(groupCommitWindowMillis + 1000, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushGroup();
+    }
+
+    /**
+     * Rename a file over another, atomically where the file system supports it
+     */
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Wait until a group flush that started after this call has synced the path
+     */
+    private void awaitGroupSync(Path path) throws IOException {
+        CompletableFuture<Void> sync = null;
+        synchronized (groupMonitor) {
+            if (!shutdown) {
+                // The first request of a window schedules the flush that serves the whole window
+                if (pendingSyncs.isEmpty()) {
+                    groupFlusher.schedule(this::flushGroup, groupCommitWindowMillis, TimeUnit.MILLISECONDS);
+                }
+                sync = pendingSyncs.computeIfAbsent(path, key -> new CompletableFuture<>());
+            }
+        }
+        if (sync == null) {
+            force(path);
+            return;
+        }
+
+        try {
+            sync.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for sync of " + path, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to sync " + path, e.getCause());
+        }
+    }
+
+    /**
+     * Sync every path requested since the last flush
+     */
+    private void flushGroup() {
+        Map<Path, CompletableFuture<Void>> batch;
+        synchronized (groupMonitor) {
+            if (pendingSyncs.isEmpty()) {
+                return;
+            }
+            batch = pendingSyncs;
+            pendingSyncs = new LinkedHashMap<>();
+        }
+
+        for (Map.Entry<Path, CompletableFuture<Void>> entry : batch.entrySet()) {
+            try {
+                force(entry.getKey());
+                entry.getValue().complete(null);
+            } catch (IOException | RuntimeException e) {
+                entry.getValue().completeExceptionally(e);
+            }
+        }
+        logger.trace("Group commit synced {} paths", batch.size());
+    }
+
+    /**
+     * fsync a file or directory
+     */
+    private static void force(Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            // Directories cannot be opened for sync on every platform; the rename is still atomic
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                channel.force(true);
+            } catch (IOException e) {
+                logger.debug("Could not sync directory {}: {}", path, e.getMessage());
+            }
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Content written next to its target, waiting to replace it
+     */
+    public static class Staged {
+        private final Path temp;
+        private final Path target;
+
+        Staged(Path temp, Path target) {
+            this.temp = temp;
+            this.target = target;
+        }
+
+        public Path getTarget() {
+            return target;
+        }
+    }
+}
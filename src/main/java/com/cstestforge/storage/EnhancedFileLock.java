@@ -7,19 +7,26 @@ import java.nio.channels.FileLock;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Map;
-import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * Enhanced file locking mechanism with timeout, retry logic, and deadlock detection.
+ * Enhanced file locking mechanism with timeout, retry logic, and per-thread reentrancy.
+ * In-process exclusion is delegated to the striped {@link LockManager}; the OS-level
+ * file lock is only taken by the outermost acquisition of a path on a thread.
+ * <p>
+ * The OS-level lock is held on a sidecar, {@code <name>.lock}, not on the file itself.
+ * Writers replace files by renaming a temporary file over them, which would leave a
+ * lock on the old inode on POSIX systems and fail while the file is open on Windows.
+ * Sidecars are never renamed or deleted, so every process locks the same file.
  */
 public class EnhancedFileLock implements AutoCloseable {
-    private static final Map<String, String> ACTIVE_LOCKS = new ConcurrentHashMap<>();
-    private static final Map<String, Thread> LOCK_OWNERS = new ConcurrentHashMap<>();
-    private static final ReentrantLock GLOBAL_LOCK = new ReentrantLock();
+    /** Suffix of the sidecar files holding the OS-level locks */
+    public static final String LOCK_SUFFIX = ".lock";
+    
+    // Reentrancy depth per locked path, guarded by the path's stripe in LockManager
+    private static final Map<String, Integer> HOLD_DEPTH = new ConcurrentHashMap<>();
     
     private final File file;
     private final String lockId;
@@ -27,8 +34,9 @@ public class EnhancedFileLock implements AutoCloseable {
     private RandomAccessFile randomAccessFile;
     private FileChannel channel;
     private FileLock lock;
+    private boolean nested;
+    private final AtomicBoolean acquired = new AtomicBoolean(false);
     private final AtomicBoolean released = new AtomicBoolean(false);
-    private final String threadId = UUID.randomUUID().toString();
     
     /**
      * Constructor for EnhancedFileLock with configurable timeout
@@ -38,7 +46,7 @@ public class EnhancedFileLock implements AutoCloseable {
      */
     public EnhancedFileLock(File file, long timeoutMs) {
         this.file = file;
-        this.lockId = file.getAbsolutePath();
+        this.lockId = LockManager.keyFor(file);
         this.timeoutMs = timeoutMs;
     }
     
@@ -52,7 +60,46 @@ public class EnhancedFileLock implements AutoCloseable {
     }
     
     /**
-     * Acquires the lock with retry logic and deadlock detection
+     * Get the sidecar file the OS-level lock of a file is held on
+     * 
+     * @param file Locked file
+     * @return Sidecar file
+     */
+    public static File lockFileFor(File file) {
+        return new File(file.getAbsoluteFile().getParentFile(), file.getName() + LOCK_SUFFIX);
+    }
+    
+    /**
+     * Check if a file name belongs to a lock sidecar
+     * 
+     * @param fileName File name
+     * @return true if the file is a lock sidecar
+     */
+    public static boolean isLockFile(String fileName) {
+        return fileName.endsWith(LOCK_SUFFIX);
+    }
+    
+    /**
+     * Get the canonical key this lock is registered under
+     * 
+     * @return Lock key
+     */
+    public String getLockId() {
+        return lockId;
+    }
+    
+    /**
+     * Check whether the lock has been acquired and not yet released
+     * 
+     * @return true if held
+     */
+    public boolean isHeld() {
+        return acquired.get() && !released.get();
+    }
+    
+    /**
+     * Acquires the lock with retry logic. Re-acquiring a path already locked by the
+     * current thread succeeds immediately without touching the file system.
      * 
      * @return true if lock acquired successfully
      * @throws Exception if lock acquisition fails
@@ -61,59 +108,32 @@ public class EnhancedFileLock implements AutoCloseable {
         if (released.get()) {
             throw new IllegalStateException("Lock has been released and cannot be reacquired");
         }
+        if (!acquired.compareAndSet(false, true)) {
+            throw new IllegalStateException("Lock has already been acquired");
+        }
         
-        // Check for potential deadlock
-        checkForDeadlock();
-        
-        // Try to acquire the global synchronization lock
-        if (!GLOBAL_LOCK.tryLock(timeoutMs, TimeUnit.MILLISECONDS)) {
-            throw new TimeoutException("Timed out acquiring global lock");
+        LockManager lockManager = LockManager.getInstance();
+        if (!lockManager.tryLock(lockId, timeoutMs)) {
+            acquired.set(false);
+            throw new TimeoutException("Timed out acquiring lock for " + lockId + " after " + timeoutMs + "ms");
         }
         
         try {
-            // Check if this thread already owns the lock (reentrant)
-            String currentOwner = ACTIVE_LOCKS.get(lockId);
-            if (currentOwner != null && currentOwner.equals(threadId)) {
-                // Already own this lock, just return
+            // Reentrant acquisition by the thread that already holds the file lock
+            Integer depth = HOLD_DEPTH.get(lockId);
+            if (depth != null) {
+                HOLD_DEPTH.put(lockId, depth + 1);
+                nested = true;
                 return true;
             }
             
-            // Check if another thread holds the lock
-            if (currentOwner != null) {
-                throw new LockConflictException("Lock already held by another thread");
-            }
-            
-            // Try to acquire with retries
-            return acquireWithRetry();
-        } finally {
-            GLOBAL_LOCK.unlock();
-        }
-    }
-    
-    /**
-     * Checks for potential deadlock scenarios
-     */
-    private void checkForDeadlock() {
-        Thread currentThread = Thread.currentThread();
-        
-        // Simple deadlock detection - if this thread already holds locks
-        // and is trying to acquire a lock held by another thread holding locks by this thread
-        for (Map.Entry<String, Thread> entry : LOCK_OWNERS.entrySet()) {
-            if (entry.getValue().equals(currentThread)) {
-                String otherLockId = entry.getKey();
-                String otherLockOwner = ACTIVE_LOCKS.get(otherLockId);
-                
-                if (otherLockOwner != null && !otherLockOwner.equals(threadId)) {
-                    Thread otherThread = LOCK_OWNERS.get(otherLockId);
-                    if (otherThread != null) {
-                        // Potential deadlock detected
-                        throw new PotentialDeadlockException(
-                                "Potential deadlock detected: Thread " + currentThread.getName() +
-                                " is attempting to lock " + lockId + " while holding " + otherLockId +
-                                " which is wanted by thread " + otherThread.getName());
-                    }
-                }
-            }
+            acquireWithRetry();
+            HOLD_DEPTH.put(lockId, 1);
+            return true;
+        } catch (Exception e) {
+            acquired.set(false);
+            lockManager.unlock(lockId);
+            throw e;
         }
     }
     
@@ -125,31 +145,30 @@ public class EnhancedFileLock implements AutoCloseable {
         int attempts = 0;
         long backoffMs = 50;  // Start with 50ms backoff
         
+        File lockFile = lockFileFor(file);
+        
         while (Duration.between(startTime, Instant.now()).toMillis() < timeoutMs) {
             attempts++;
             
             try {
                 // Create parent directory if it doesn't exist
-                File parentDir = file.getParentFile();
+                File parentDir = lockFile.getParentFile();
                 if (parentDir != null && !parentDir.exists()) {
                     parentDir.mkdirs();
                 }
                 
-                // Create lock file if it doesn't exist
-                if (!file.exists()) {
-                    file.createNewFile();
-                }
-                
-                randomAccessFile = new RandomAccessFile(file, "rw");
+                // Opening in "rw" mode creates the sidecar if it doesn't exist
+                randomAccessFile = new RandomAccessFile(lockFile, "rw");
                 channel = randomAccessFile.getChannel();
                 lock = channel.tryLock();
                 
                 if (lock != null) {
                     // Lock acquired successfully
-                    ACTIVE_LOCKS.put(lockId, threadId);
-                    LOCK_OWNERS.put(lockId, Thread.currentThread());
                     return true;
                 }
+                
+                // Held by another process, retry after backoff
+                closeResources();
             } catch (Exception e) {
                 // Close resources if there was an exception
                 closeResources();
@@ -169,13 +188,17 @@ public class EnhancedFileLock implements AutoCloseable {
     }
     
     /**
-     * Releases the lock and cleans up resources
+     * Releases the lock and cleans up resources. Must be called on the acquiring thread.
      */
     public void release() {
-        if (released.compareAndSet(false, true)) {
-            closeResources();
-            ACTIVE_LOCKS.remove(lockId);
-            LOCK_OWNERS.remove(lockId);
+        if (released.compareAndSet(false, true) && acquired.get()) {
+            if (nested) {
+                HOLD_DEPTH.computeIfPresent(lockId, (key, depth) -> depth - 1);
+            } else {
+                closeResources();
+                HOLD_DEPTH.remove(lockId);
+            }
+            LockManager.getInstance().unlock(lockId);
         }
     }
     
@@ -227,22 +250,4 @@ public class EnhancedFileLock implements AutoCloseable {
             super(message);
         }
     }
-    
-    /**
-     * Exception thrown when a lock conflict is detected
-     */
-    public static class LockConflictException extends RuntimeException {
-        public LockConflictException(String message) {
-            super(message);
-        }
-    }
-    
-    /**
-     * Exception thrown when a potential deadlock is detected
-     */
-    public static class PotentialDeadlockException extends RuntimeException {
-        public PotentialDeadlockException(String message) {
-            super(message);
-        }
-    }
-} 
\ No newline at end of file
+}
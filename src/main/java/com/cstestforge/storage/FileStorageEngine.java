@@ -0,0 +1,1405 @@
+package com.cstestforge.storage;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * File system storage engine.
+ * <p>
+ * Documents are cached as parsed JSON trees keyed by absolute path and materialized into
+ * objects on every read, so callers never share mutable instances and a single entry serves
+ * every requested type. Files are encoded, and compressed per category, with the configured
+ * {@link DocumentCodec} and replaced atomically. Writes go through the journal and
+ * version history when enabled.
+ */
+@Service
+public class FileStorageEngine implements StorageEngine, InitializingBean, DisposableBean {
+    private static final Logger logger = LoggerFactory.getLogger(FileStorageEngine.class);
+
+    private static final String DOCUMENT_SUFFIX = ".json";
+
+    // How long the stamp of a file written by this process is kept to recognize its watch events
+    private static final long OWN_CHANGE_TTL_MILLIS = 30_000;
+
+    @Value("${cstestforge.storage.cache.max-size:1000}")
+    private int maxCacheSize;
+
+    @Value("${cstestforge.storage.cache.ttl-minutes:15}")
+    private int cacheTtlMinutes;
+
+    @Value("${cstestforge.storage.cache.max-weight-bytes:67108864}")
+    private long maxCacheWeightBytes;
+
+    @Value("${cstestforge.storage.codec:json}")
+    private String codecName;
+
+    @Value("${cstestforge.storage.compression.categories:}")
+    private String compressionCategories;
+
+    @Value("${cstestforge.storage.durability:none}")
+    private String durabilityName;
+
+    @Value("${cstestforge.storage.group-commit-window-ms:10}")
+    private long groupCommitWindowMillis;
+
+    @Value("${cstestforge.storage.index.flush-interval-seconds:5}")
+    private int indexFlushIntervalSeconds;
+
+    @Value("${cstestforge.storage.blobs.gc-interval-minutes:60}")
+    private int blobGcIntervalMinutes;
+
+    @Value("${cstestforge.storage.blobs.gc-grace-minutes:60}")
+    private int blobGcGraceMinutes;
+
+    @Value("${cstestforge.storage.batch.log-dir:${cstestforge.data.directory:./data}/_batches}")
+    private String batchLogDir;
+
+    @Value("${cstestforge.storage.watch.enabled:true}")
+    private boolean watchEnabled;
+
+    @Value("${cstestforge.storage.watch.roots:${cstestforge.storage.base-dir:./storage},${app.storage.root:./storage},${app.data.directory:./data},${cstestforge.storage.base-path:./data}}")
+    private String watchRoots;
+
+    @Value("${cstestforge.storage.watch.settle-ms:100}")
+    private long watchSettleMillis;
+
+    @Value("${cstestforge.storage.lock.timeout-seconds:30}")
+    private int lockTimeoutSeconds;
+
+    @Value("${cstestforge.storage.versioning.enabled:true}")
+    private boolean versioningEnabled;
+
+    @Value("${cstestforge.storage.versioning.snapshot-interval:20}")
+    private int versionSnapshotInterval;
+
+    @Value("${cstestforge.storage.versioning.max-bytes-per-document:1048576}")
+    private long versionMaxBytes;
+
+    @Value("${cstestforge.storage.journal.enabled:false}")
+    private boolean journalEnabled;
+
+    @Value("${cstestforge.storage.journal.compact-threshold:64}")
+    private int journalCompactThreshold;
+
+    @Value("${cstestforge.storage.journal.compact-interval-seconds:30}")
+    private int journalCompactIntervalSeconds;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    // Parsed document trees keyed by absolute path
+    private DocumentCache cache;
+
+    // Disk loads in progress keyed by absolute path; concurrent misses share one load
+    private final ConcurrentHashMap<String, CompletableFuture<JsonNode>> inFlightReads = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService cacheCleanupService =
+            Executors.newSingleThreadScheduledExecutor();
+
+    private final ScheduledExecutorService journalCompactor =
+            Executors.newSingleThreadScheduledExecutor();
+
+    private final ScheduledExecutorService indexFlusher =
+            Executors.newSingleThreadScheduledExecutor();
+
+    // Open hash indexes keyed by absolute path
+    private final Map<String, MappedHashIndex> hashIndexes = new ConcurrentHashMap<>();
+    // Open journaled set indexes keyed by absolute snapshot path
+    private final Map<String, JournaledSetIndex> setIndexes = new ConcurrentHashMap<>();
+    // Open sorted indexes keyed by absolute path
+    private final Map<String, JournaledSortedIndex> sortedIndexes = new ConcurrentHashMap<>();
+    // Open blob stores keyed by absolute directory path
+    private final Map<String, BlobStore> blobStores = new ConcurrentHashMap<>();
+    // Open pack files keyed by absolute path
+    private final Map<String, PackFile> packs = new ConcurrentHashMap<>();
+
+    private DurableFileWriter fileWriter;
+
+    private DocumentCodec codec;
+
+    private DocumentJournal journal;
+
+    private VersionHistoryStore versionHistory;
+
+    private StorageWatcher watcher;
+
+    private final Set<String> watchRootKeys = new HashSet<>();
+
+    // Stamps of files this process recently wrote or deleted, so the watch events they
+    // cause are not mistaken for external changes
+    private final Map<String, FileStamp> ownChanges = new ConcurrentHashMap<>();
+
+    // Writes and deletes in progress by path; their events may arrive before the stamp
+    private final Map<String, Integer> pendingOwnChanges = new ConcurrentHashMap<>();
+
+    private final List<StorageChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void afterPropertiesSet() {
+        cache = new DocumentCache(maxCacheWeightBytes, maxCacheSize, Duration.ofMinutes(cacheTtlMinutes));
+
+        // Schedule cache cleanup
+        cacheCleanupService.scheduleAtFixedRate(
+                this::cleanupCache,
+                cacheTtlMinutes,
+                cacheTtlMinutes,
+                TimeUnit.MINUTES);
+
+        // Schedule blob garbage collection
+        cacheCleanupService.scheduleWithFixedDelay(
+                this::collectBlobGarbage,
+                blobGcIntervalMinutes,
+                blobGcIntervalMinutes,
+                TimeUnit.MINUTES);
+
+        versionHistory = new VersionHistoryStore(objectMapper, versionSnapshotInterval, versionMaxBytes);
+
+        fileWriter = new DurableFileWriter(DurableFileWriter.Durability.fromName(durabilityName), groupCommitWindowMillis);
+        codec = new DocumentCodec(objectMapper, DocumentCodec.Format.fromName(codecName),
+                DocumentCodec.parseCategories(compressionCategories), fileWriter);
+
+        // Finish batches interrupted by a crash before anything reads their files
+        int recovered = fileWriter.recover(new File(batchLogDir));
+        if (recovered > 0) {
+            logger.warn("Completed {} interrupted batch commits", recovered);
+        }
+
+        // Schedule journal compaction, starting with journals left by a previous run
+        journal = new DocumentJournal(objectMapper, codec, fileWriter);
+        journalCompactor.execute(this::compactExistingJournals);
+        if (journalEnabled) {
+            journalCompactor.scheduleWithFixedDelay(
+                    this::compactJournals,
+                    journalCompactIntervalSeconds,
+                    journalCompactIntervalSeconds,
+                    TimeUnit.SECONDS);
+        }
+
+        // Schedule hash index flushes
+        indexFlusher.scheduleWithFixedDelay(
+                this::flushHashIndexes,
+                indexFlushIntervalSeconds,
+                indexFlushIntervalSeconds,
+                TimeUnit.SECONDS);
+
+        // Watch for changes made by hand or by other instances
+        if (watchEnabled) {
+            startWatcher();
+        }
+    }
+
+    /**
+     * Flush pending journals and version history on shutdown
+     */
+    @Override
+    public void destroy() {
+        if (watcher != null) {
+            watcher.stop();
+        }
+        journalCompactor.shutdown();
+        if (journalEnabled) {
+            compactJournals();
+        }
+        indexFlusher.shutdown();
+        hashIndexes.values().forEach(MappedHashIndex::close);
+        hashIndexes.clear();
+        setIndexes.values().forEach(JournaledSetIndex::close);
+        setIndexes.clear();
+        sortedIndexes.values().forEach(JournaledSortedIndex::close);
+        sortedIndexes.clear();
+        packs.values().forEach(this::closePack);
+        packs.clear();
+        versionHistory.shutdown(TimeUnit.SECONDS.toMillis(lockTimeoutSeconds));
+        fileWriter.shutdown();
+        cacheCleanupService.shutdown();
+    }
+
+    @Override
+    public ObjectMapper getObjectMapper() {
+        return objectMapper;
+    }
+
+    @Override
+    public JsonNode readTree(File file) throws IOException {
+        JsonNode tree = readCurrentTree(file);
+        return tree != null ? tree.deepCopy() : null;
+    }
+
+    @Override
+    public JsonNode readTree(File file, Set<String> skippedFields) throws IOException {
+        JsonNode cached = cache.get(keyFor(file), JsonNode.class);
+        if (cached != null) {
+            return withoutFields(cached, skippedFields);
+        }
+
+        // Under the journal lock, so a journal cannot appear between the check and the read
+        return withJournalLock(file, () -> {
+            if (journal.hasJournal(file)) {
+                // The journal patches the whole tree
+                JsonNode merged = journal.readMerged(file);
+                return merged == null || merged.isMissingNode() ? null : withoutFields(merged, skippedFields);
+            }
+            // Empty files are no documents, as in loadTree
+            if (!file.isFile() || file.length() == 0) {
+                return null;
+            }
+            JsonNode tree = codec.read(file, skippedFields);
+            return tree.isMissingNode() ? null : tree;
+        });
+    }
+
+    /**
+     * Copy a tree without some of its top-level fields
+     */
+    private static JsonNode withoutFields(JsonNode tree, Set<String> skippedFields) {
+        if (!tree.isObject()) {
+            return tree.deepCopy();
+        }
+        ObjectNode copy = ((ObjectNode) tree).objectNode();
+        tree.fields().forEachRemaining(field -> {
+            if (!skippedFields.contains(field.getKey())) {
+                copy.set(field.getKey(), field.getValue().deepCopy());
+            }
+        });
+        return copy;
+    }
+
+    @Override
+    public <T> T read(File file, Class<T> type) throws IOException {
+        return read(file, objectMapper.constructType(type));
+    }
+
+    @Override
+    public <T> T read(File file, JavaType type) throws IOException {
+        JsonNode tree = readCurrentTree(file);
+        if (tree == null) {
+            return null;
+        }
+        if (type.isTypeOrSubTypeOf(JsonNode.class)) {
+            // Never hand out the cached tree itself
+            tree = tree.deepCopy();
+        }
+        return objectMapper.treeToValue(tree, type);
+    }
+
+    @Override
+    public void write(File file, Object data) throws IOException {
+        writeTree(file, objectMapper.valueToTree(data));
+    }
+
+    @Override
+    public void writeTree(File file, JsonNode tree) throws IOException {
+        beginOwnChange(file);
+        try {
+            File parentDir = file.getParentFile();
+
+            // Create parent directory if needed
+            if (parentDir != null && !parentDir.exists()) {
+                parentDir.mkdirs();
+            }
+
+            // Record the new version in the background history
+            if (versioningEnabled) {
+                versionHistory.record(file, tree, () -> readCurrentTree(file));
+            }
+
+            // Append the change to the document journal instead of rewriting the file,
+            // unless the change is too large to be worth journaling
+            if (journalEnabled && file.length() > 0 && tree.isObject() && appendToJournal(file, tree)) {
+                recordOwnChange(file);
+                replaceCached(file, tree);
+                return;
+            }
+
+            // Write to file in the configured format, migrating files stored in another one.
+            // A full rewrite supersedes any journaled changes; both happen under the journal
+            // lock so a concurrent compaction cannot fold the old journal over the new file
+            withJournalLock(file, () -> {
+                codec.write(file, tree);
+                if (journal.hasJournal(file)) {
+                    journal.discard(file);
+                }
+                return null;
+            });
+            recordOwnChange(file);
+
+            // Replace the cached entry for this path
+            replaceCached(file, tree);
+        } finally {
+            endOwnChange(file);
+        }
+    }
+
+    @Override
+    public void writeAll(StorageBatch batch) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        Map<String, File> files = batch.getFiles();
+        files.values().forEach(this::beginOwnChange);
+        List<EnhancedFileLock> locks = lockAll(files.values());
+        List<DurableFileWriter.Staged> staged = new ArrayList<>();
+        boolean committing = false;
+        try {
+            // Fold the operations on each file into its final tree; null means deleted
+            Map<String, JsonNode> results = new LinkedHashMap<>();
+            for (StorageBatch.Operation operation : batch.getOperations()) {
+                String key = LockManager.keyFor(operation.getFile());
+                switch (operation.getKind()) {
+                    case WRITE:
+                        results.put(key, objectMapper.valueToTree(operation.getData()));
+                        break;
+                    case DELETE:
+                        results.put(key, null);
+                        break;
+                    default:
+                        JsonNode current = results.containsKey(key) ? results.get(key) : readCurrentTree(operation.getFile());
+                        Object value = current != null
+                                ? objectMapper.treeToValue(current, objectMapper.constructType(operation.getType()))
+                                : null;
+                        Object updated = operation.getUpdate().apply(value);
+                        results.put(key, updated != null ? objectMapper.valueToTree(updated) : null);
+                        break;
+                }
+            }
+
+            // Stage every new document next to its target
+            List<File> deletes = new ArrayList<>();
+            for (Map.Entry<String, JsonNode> result : results.entrySet()) {
+                File file = files.get(result.getKey());
+                JsonNode tree = result.getValue();
+                if (tree == null) {
+                    deletes.add(file);
+                    continue;
+                }
+                if (versioningEnabled) {
+                    versionHistory.record(file, tree, () -> readCurrentTree(file));
+                }
+                file.getParentFile().mkdirs();
+                staged.add(codec.stage(file, tree));
+            }
+
+            // Rename all staged files and delete the rest as one unit; the writer cleans up
+            // after a failed commit itself
+            committing = true;
+            fileWriter.commit(staged, deletes, new File(batchLogDir));
+
+            for (Map.Entry<String, JsonNode> result : results.entrySet()) {
+                File file = files.get(result.getKey());
+                if (journal.hasJournal(file)) {
+                    withJournalLock(file, () -> {
+                        journal.discard(file);
+                        return null;
+                    });
+                }
+                if (result.getValue() == null) {
+                    versionHistory.delete(file);
+                    inFlightReads.remove(keyFor(file));
+                    cache.invalidate(keyFor(file));
+                } else {
+                    replaceCached(file, result.getValue());
+                }
+                recordOwnChange(file);
+            }
+            logger.debug("Committed batch of {} operations on {} files", batch.getOperations().size(), files.size());
+        } catch (IOException | RuntimeException e) {
+            if (!committing) {
+                fileWriter.discard(staged);
+            }
+            // A failed commit may have replaced some of the files
+            for (File file : files.values()) {
+                inFlightReads.remove(keyFor(file));
+                cache.invalidate(keyFor(file));
+            }
+            throw e;
+        } finally {
+            release(locks);
+            files.values().forEach(this::endOwnChange);
+        }
+    }
+
+    @Override
+    public boolean delete(File file) {
+        String key = keyFor(file);
+        inFlightReads.remove(key);
+        cache.invalidate(key);
+        closeHashIndexes(key);
+        if (!file.exists()) {
+            return true; // Already doesn't exist
+        }
+
+        // Delete the file or directory
+        beginOwnChange(file);
+        try {
+            if (file.isDirectory()) {
+                inFlightReads.keySet().removeIf(path -> path.startsWith(key + File.separator));
+                cache.invalidatePrefix(key + File.separator);
+                journal.forgetUnder(file.getAbsolutePath());
+                versionHistory.forgetUnder(file.getAbsolutePath());
+                boolean deleted = deleteDirectory(file);
+                recordOwnChange(file);
+                return deleted;
+            } else {
+                journal.discard(file);
+                versionHistory.delete(file);
+                boolean deleted = file.delete();
+                recordOwnChange(file);
+                return deleted;
+            }
+        } finally {
+            endOwnChange(file);
+        }
+    }
+
+    @Override
+    public void move(File source, File target) throws IOException {
+        if (!source.exists()) {
+            throw new NoSuchFileException(source.getPath());
+        }
+
+        // Fold journals into their base files so the moved documents are complete
+        String sourceKey = keyFor(source);
+        if (source.isDirectory()) {
+            for (String documentPath : new ArrayList<>(journal.getJournaledDocuments())) {
+                if (documentPath.startsWith(source.getAbsolutePath() + File.separator)) {
+                    compactJournal(new File(documentPath));
+                }
+            }
+        } else if (journal.hasJournal(source)) {
+            compactJournal(source);
+        }
+
+        beginOwnChange(source);
+        beginOwnChange(target);
+        try {
+            inFlightReads.remove(sourceKey);
+            inFlightReads.keySet().removeIf(path -> path.startsWith(sourceKey + File.separator));
+            cache.invalidate(sourceKey);
+            cache.invalidatePrefix(sourceKey + File.separator);
+            closeHashIndexes(sourceKey);
+
+            Files.createDirectories(target.getAbsoluteFile().getParentFile().toPath());
+            try {
+                Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(source.toPath(), target.toPath());
+            }
+
+            if (target.isDirectory()) {
+                // History files moved with the directory
+                journal.forgetUnder(source.getAbsolutePath());
+                versionHistory.forgetUnder(source.getAbsolutePath());
+            } else {
+                versionHistory.move(source, target);
+            }
+            fileWriter.sync(target.getAbsoluteFile().getParentFile().toPath());
+            fileWriter.sync(source.getAbsoluteFile().getParentFile().toPath());
+            recordOwnChange(source);
+            recordOwnChange(target);
+        } finally {
+            endOwnChange(target);
+            endOwnChange(source);
+        }
+    }
+
+    @Override
+    public List<String> listFiles(File directory, Predicate<String> filter) {
+        if (!directory.exists() || !directory.isDirectory()) {
+            return Collections.emptyList();
+        }
+
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return Collections.emptyList();
+        }
+
+        return Arrays.stream(files)
+                .filter(File::isFile)
+                .map(File::getName)
+                .filter(name -> !DocumentJournal.isJournalFile(name))
+                .filter(name -> !DurableFileWriter.isTempFile(name))
+                .filter(name -> !EnhancedFileLock.isLockFile(name))
+                .filter(filter != null ? filter : name -> true)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public EnhancedFileLock lock(File file) {
+        EnhancedFileLock lock = new EnhancedFileLock(file, TimeUnit.SECONDS.toMillis(lockTimeoutSeconds));
+
+        try {
+            if (lock.acquire()) {
+                return lock;
+            } else {
+                throw new RuntimeException("Failed to acquire lock on: " + file);
+            }
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted acquiring lock on: " + file, e);
+        } catch (Exception e) {
+            throw new RuntimeException("Error acquiring lock on: " + file, e);
+        }
+    }
+
+    @Override
+    public List<EnhancedFileLock> lockAll(Collection<File> files) {
+        // Order by lock key so every thread acquires stripes in the same sequence
+        Map<String, File> filesByKey = new HashMap<>();
+        for (File file : files) {
+            filesByKey.putIfAbsent(LockManager.keyFor(file), file);
+        }
+        List<String> orderedKeys = LockManager.getInstance().order(filesByKey.keySet());
+
+        // Acquire locks in order
+        List<EnhancedFileLock> locks = new ArrayList<>();
+        try {
+            for (String key : orderedKeys) {
+                locks.add(lock(filesByKey.get(key)));
+            }
+            return locks;
+        } catch (RuntimeException e) {
+            release(locks);
+            throw e;
+        }
+    }
+
+    @Override
+    public <R> R executeLocked(Collection<File> files, Supplier<R> action) {
+        List<EnhancedFileLock> locks = lockAll(files);
+        try {
+            return action.get();
+        } finally {
+            release(locks);
+        }
+    }
+
+    @Override
+    public DocumentCodec.ConversionResult convertAll(File root, DocumentCodec.Format format) throws IOException {
+        DocumentCodec.ConversionResult result = new DocumentCodec.ConversionResult(format);
+        if (!root.isDirectory()) {
+            return result;
+        }
+
+        for (File file : listDocuments(root)) {
+            try (EnhancedFileLock lock = lock(file)) {
+                if (file.length() == 0
+                        || (codec.detect(file) == format
+                            && codec.detectCompression(file) == codec.compressionFor(file)
+                            && !journal.hasJournal(file))) {
+                    result.addSkipped();
+                    continue;
+                }
+
+                JsonNode tree = readCurrentTree(file);
+                if (tree == null) {
+                    result.addSkipped();
+                    continue;
+                }
+                long bytesBefore = weightOf(file);
+                withJournalLock(file, () -> {
+                    codec.write(file, tree, format);
+                    journal.discard(file);
+                    return null;
+                });
+                recordOwnChange(file);
+                replaceCached(file, tree);
+                result.addConverted(bytesBefore, file.length());
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Could not convert {} to {}: {}", file, format, e.getMessage());
+                result.addFailed();
+            }
+        }
+
+        logger.info("Converted {} documents under {} to {} ({} skipped, {} failed)",
+                result.getConverted(), root, format, result.getSkipped(), result.getFailed());
+        return result;
+    }
+
+    @Override
+    public MappedHashIndex openHashIndex(File file, int maxKeyBytes, int maxValueBytes) throws IOException {
+        String key = keyFor(file);
+        MappedHashIndex index = hashIndexes.get(key);
+        if (index != null) {
+            return index;
+        }
+
+        synchronized (hashIndexes) {
+            index = hashIndexes.get(key);
+            if (index == null) {
+                index = new MappedHashIndex(file, maxKeyBytes, maxValueBytes);
+                hashIndexes.put(key, index);
+            }
+            return index;
+        }
+    }
+
+    @Override
+    public JournaledSetIndex openSetIndex(File file) throws IOException {
+        String key = keyFor(file);
+        JournaledSetIndex index = setIndexes.get(key);
+        if (index != null) {
+            return index;
+        }
+
+        synchronized (hashIndexes) {
+            index = setIndexes.get(key);
+            if (index == null) {
+                index = new JournaledSetIndex(file, objectMapper, fileWriter);
+                setIndexes.put(key, index);
+            }
+            return index;
+        }
+    }
+
+    @Override
+    public JournaledSortedIndex openSortedIndex(File file, Collection<String> sortFields) throws IOException {
+        String key = keyFor(file);
+        JournaledSortedIndex index = sortedIndexes.get(key);
+        if (index != null) {
+            return index;
+        }
+
+        synchronized (hashIndexes) {
+            index = sortedIndexes.get(key);
+            if (index == null) {
+                index = new JournaledSortedIndex(file, sortFields, objectMapper, fileWriter);
+                sortedIndexes.put(key, index);
+            }
+            return index;
+        }
+    }
+
+    @Override
+    public BlobStore openBlobStore(File directory) throws IOException {
+        String key = keyFor(directory);
+        BlobStore store = blobStores.get(key);
+        if (store != null) {
+            return store;
+        }
+
+        synchronized (blobStores) {
+            store = blobStores.get(key);
+            if (store == null) {
+                store = new BlobStore(directory,
+                        openSetIndex(new File(directory, BlobStore.REFERENCES_INDEX)),
+                        openSetIndex(new File(directory, BlobStore.OWNERS_INDEX)),
+                        fileWriter,
+                        TimeUnit.MINUTES.toMillis(blobGcGraceMinutes));
+                blobStores.put(key, store);
+            }
+            return store;
+        }
+    }
+
+    @Override
+    public PackFile openPack(File file) throws IOException {
+        String key = keyFor(file);
+        PackFile pack = packs.get(key);
+        if (pack != null) {
+            return pack;
+        }
+
+        synchronized (packs) {
+            pack = packs.get(key);
+            if (pack == null) {
+                pack = PackFile.open(file);
+                packs.put(key, pack);
+            }
+            return pack;
+        }
+    }
+
+    @Override
+    public void writePack(File file, PackFile.Source source, long maxBytes) throws IOException {
+        beginOwnChange(file);
+        try {
+            Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+            fileWriter.write(file, PackFile.content(source, maxBytes));
+            recordOwnChange(file);
+
+            // Readers of the old content reopen the new one
+            synchronized (packs) {
+                PackFile replaced = packs.remove(keyFor(file));
+                if (replaced != null) {
+                    closePack(replaced);
+                }
+            }
+        } finally {
+            endOwnChange(file);
+        }
+    }
+
+    @Override
+    public BlobStore.GarbageCollectionResult collectBlobGarbage() {
+        BlobStore.GarbageCollectionResult result = new BlobStore.GarbageCollectionResult();
+        for (BlobStore store : blobStores.values()) {
+            try {
+                result.add(store.collectGarbage());
+            } catch (Exception e) {
+                logger.warn("Error collecting blobs of {}", store.getRoot(), e);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, DocumentCodec.SizeStats> getSizeReport(File root) throws IOException {
+        Map<String, DocumentCodec.SizeStats> report = new TreeMap<>();
+        if (!root.isDirectory()) {
+            return report;
+        }
+
+        for (File file : listDocuments(root)) {
+            try {
+                report.computeIfAbsent(codec.categoryOf(file), category -> new DocumentCodec.SizeStats())
+                        .addFile(file.length(), codec.rawSize(file));
+            } catch (IOException e) {
+                logger.warn("Could not measure {}: {}", file, e.getMessage());
+            }
+        }
+        return report;
+    }
+
+    @Override
+    public List<VersionHistoryStore.VersionInfo> getVersionHistory(File file) {
+        return versionHistory.listVersions(file);
+    }
+
+    @Override
+    public JsonNode readVersion(File file, long sequence) {
+        return versionHistory.reconstruct(file, sequence);
+    }
+
+    @Override
+    public void addChangeListener(StorageChangeListener listener) {
+        changeListeners.add(listener);
+    }
+
+    @Override
+    public DocumentCache.CacheStats getCacheStats() {
+        return cache.getStats();
+    }
+
+    @Override
+    public LockManager.LockMetrics getLockMetrics() {
+        return LockManager.getInstance().getMetrics();
+    }
+
+    /**
+     * Get the cache key of a file
+     *
+     * @param file File
+     * @return Normalized absolute path
+     */
+    private String keyFor(File file) {
+        return file.toPath().toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * Get the configured storage roots
+     *
+     * @return Absolute, normalized root directories
+     */
+    private Set<Path> storageRoots() {
+        Set<Path> roots = new LinkedHashSet<>();
+        for (String root : watchRoots.split(",")) {
+            if (!root.trim().isEmpty()) {
+                roots.add(Paths.get(root.trim()).toAbsolutePath().normalize());
+            }
+        }
+        return roots;
+    }
+
+    /**
+     * Start watching the configured storage roots
+     */
+    private void startWatcher() {
+        Set<Path> roots = storageRoots();
+        roots.forEach(root -> watchRootKeys.add(root.toString()));
+
+        watcher = new StorageWatcher(roots, this::isUnwatchedPath, watchSettleMillis, this::handleChanges);
+        try {
+            watcher.start();
+        } catch (IOException e) {
+            logger.warn("Storage watcher unavailable, external changes will not be detected: {}", e.getMessage());
+            watcher = null;
+        }
+    }
+
+    /**
+     * Check if changes to a path are irrelevant to readers: in-progress writes, lock
+     * sidecars, version history and memory-mapped indexes, which are owned by a single process
+     */
+    private boolean isUnwatchedPath(Path path) {
+        String name = path.getFileName().toString();
+        return DurableFileWriter.isTempFile(name)
+                || EnhancedFileLock.isLockFile(name)
+                || name.endsWith(DurableFileWriter.COMMIT_LOG_SUFFIX)
+                || name.equals(VersionHistoryStore.HISTORY_DIR)
+                || name.endsWith(MappedHashIndex.RESIZE_SUFFIX)
+                || hashIndexes.containsKey(keyFor(path.toFile()))
+                || isSetIndexFile(path.toFile())
+                || isBlobStorePath(path.toFile());
+    }
+
+    /**
+     * Invalidate cached state for externally changed paths and notify listeners
+     *
+     * @param paths Paths reported by the watcher
+     */
+    private void handleChanges(Collection<Path> paths) {
+        long now = System.currentTimeMillis();
+        ownChanges.values().removeIf(stamp -> now - stamp.recordedAt > OWN_CHANGE_TTL_MILLIS);
+
+        List<File> external = new ArrayList<>();
+        for (Path path : paths) {
+            // A journal change is a change of its document
+            String name = path.getFileName().toString();
+            File file = DocumentJournal.isJournalFile(name)
+                    ? new File(path.toString().substring(0, path.toString().length() - DocumentJournal.JOURNAL_SUFFIX.length()))
+                    : path.toFile();
+            String key = keyFor(file);
+            if (isOwnChange(file) || isPendingOwnChange(key)) {
+                continue;
+            }
+
+            inFlightReads.remove(key);
+            inFlightReads.keySet().removeIf(inFlight -> inFlight.startsWith(key + File.separator));
+            cache.invalidate(key);
+            cache.invalidatePrefix(key + File.separator);
+            external.add(file);
+        }
+
+        if (external.isEmpty()) {
+            return;
+        }
+        logger.debug("Invalidated {} externally changed storage paths", external.size());
+        for (StorageChangeListener listener : changeListeners) {
+            try {
+                listener.onExternalChanges(Collections.unmodifiableList(external));
+            } catch (RuntimeException e) {
+                logger.error("Storage change listener failed", e);
+            }
+        }
+    }
+
+    /**
+     * Remember the current state of a file this process changed, of its journal and of
+     * the directories up to the watch root, which the write may have created
+     *
+     * @param file Written or deleted document or directory
+     */
+    private void recordOwnChange(File file) {
+        if (watcher == null) {
+            return;
+        }
+        ownChanges.put(keyFor(file), new FileStamp(file));
+        File journalFile = DocumentJournal.journalFileFor(file);
+        ownChanges.put(keyFor(journalFile), new FileStamp(journalFile));
+
+        for (File parent = file.getParentFile(); parent != null; parent = parent.getParentFile()) {
+            String key = keyFor(parent);
+            if (watchRootKeys.contains(key)) {
+                break;
+            }
+            ownChanges.put(key, new FileStamp(parent));
+        }
+    }
+
+    /**
+     * Mark a path as being written or deleted by this process
+     */
+    private void beginOwnChange(File file) {
+        if (watcher != null) {
+            pendingOwnChanges.merge(keyFor(file), 1, Integer::sum);
+        }
+    }
+
+    private void endOwnChange(File file) {
+        if (watcher != null) {
+            pendingOwnChanges.computeIfPresent(keyFor(file), (key, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    /**
+     * Check if a path is being changed by this process: the path itself, a directory
+     * created for it, or a file in a directory being deleted
+     */
+    private boolean isPendingOwnChange(String key) {
+        for (String pending : pendingOwnChanges.keySet()) {
+            if (pending.equals(key) || pending.startsWith(key + File.separator)
+                    || key.startsWith(pending + File.separator)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check if a file is still in the state this process left it in, directly or because
+     * this process deleted a directory containing it
+     */
+    private boolean isOwnChange(File file) {
+        FileStamp stamp = ownChanges.get(keyFor(file));
+        if (stamp != null && stamp.matches(file)) {
+            return true;
+        }
+        for (File parent = file.getParentFile(); parent != null; parent = parent.getParentFile()) {
+            FileStamp parentStamp = ownChanges.get(keyFor(parent));
+            if (parentStamp != null && parentStamp.deleted && !parent.exists()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the current tree of a document from the cache or from disk. The returned
+     * tree is shared and must not be modified.
+     * <p>
+     * Concurrent misses for the same path are coalesced: the first caller loads and
+     * parses the file and the others wait for its result.
+     *
+     * @param file Document file
+     * @return Document tree, or null if the file does not exist or is empty
+     */
+    private JsonNode readCurrentTree(File file) throws IOException {
+        String key = keyFor(file);
+        JsonNode cached = cache.get(key, JsonNode.class);
+        if (cached != null) {
+            logger.debug("Cache hit for: {}", file);
+            return cached;
+        }
+
+        CompletableFuture<JsonNode> load = new CompletableFuture<>();
+        CompletableFuture<JsonNode> inFlight = inFlightReads.putIfAbsent(key, load);
+        if (inFlight != null) {
+            logger.debug("Joining in-flight read of: {}", file);
+            return awaitLoad(inFlight, file);
+        }
+
+        try {
+            JsonNode tree = loadTree(file);
+            // Cache the result unless a write or delete replaced the document during the load
+            inFlightReads.computeIfPresent(key, (path, current) -> {
+                if (current != load) {
+                    return current;
+                }
+                if (tree != null) {
+                    cache.put(key, tree, weightOf(file));
+                }
+                return null;
+            });
+            load.complete(tree);
+            return tree;
+        } catch (IOException | RuntimeException e) {
+            inFlightReads.remove(key, load);
+            load.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Load and parse a document from disk
+     *
+     * @param file Document file
+     * @return Document tree, or null if the file does not exist or is empty
+     */
+    private JsonNode loadTree(File file) throws IOException {
+        // Locking used to create documents empty; treat those as missing
+        if (!file.isFile() || file.length() == 0) {
+            return null;
+        }
+
+        JsonNode tree;
+        if (journal.hasJournal(file)) {
+            // Base file plus journaled changes
+            tree = withJournalLock(file, () -> journal.readMerged(file));
+        } else {
+            tree = codec.read(file);
+        }
+        return tree == null || tree.isMissingNode() ? null : tree;
+    }
+
+    /**
+     * Wait for another caller's load of a document
+     *
+     * @param load Load in progress
+     * @param file Document file
+     * @return Loaded tree, or null if the document does not exist
+     */
+    private JsonNode awaitLoad(CompletableFuture<JsonNode> load, File file) throws IOException {
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for read of " + file, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("Failed to read " + file, e.getCause());
+        }
+    }
+
+    /**
+     * Replace the cached tree of a document after a write. Loads still in flight for
+     * the path read the old content and will not be cached.
+     *
+     * @param file Document file
+     * @param tree New document tree
+     */
+    private void replaceCached(File file, JsonNode tree) {
+        String key = keyFor(file);
+        inFlightReads.remove(key);
+        cache.put(key, tree, weightOf(file));
+    }
+
+    /**
+     * Append a document change to its journal, scheduling compaction once the
+     * journal grows past the configured threshold
+     *
+     * @param file Document file
+     * @param tree New document state
+     * @return false if the change is too large to journal and was not written
+     */
+    private boolean appendToJournal(File file, JsonNode tree) throws IOException {
+        int pending = withJournalLock(file, () -> journal.append(file, tree));
+        if (pending == DocumentJournal.REWRITE_BASE) {
+            return false;
+        }
+        if (pending >= journalCompactThreshold) {
+            journalCompactor.execute(() -> compactJournal(file));
+        }
+        return true;
+    }
+
+    /**
+     * Fold the journals left on disk by a previous run into their base documents; until
+     * a document is read its journal is not known to the periodic compaction
+     */
+    private void compactExistingJournals() {
+        try {
+            List<File> documents = DocumentJournal.findJournaledDocuments(storageRoots());
+            for (File document : documents) {
+                compactJournal(document);
+            }
+            if (!documents.isEmpty()) {
+                logger.info("Compacted {} journals left by a previous run", documents.size());
+            }
+        } catch (Exception e) {
+            logger.error("Error compacting existing journals", e);
+        }
+    }
+
+    /**
+     * Fold all pending journals into their base documents
+     */
+    private void compactJournals() {
+        try {
+            for (String documentPath : new ArrayList<>(journal.getJournaledDocuments())) {
+                compactJournal(new File(documentPath));
+            }
+        } catch (Exception e) {
+            logger.error("Error during journal compaction", e);
+        }
+    }
+
+    /**
+     * Fold the journal of a document into its base file. Takes the document lock before
+     * the journal lock, the same order as writers, so a batch commit holding the document
+     * lock cannot be overwritten by a stale merge.
+     *
+     * @param file Document file
+     */
+    private void compactJournal(File file) {
+        if (!journal.hasJournal(file)) {
+            return;
+        }
+        try (EnhancedFileLock lock = lock(file)) {
+            withJournalLock(file, () -> {
+                if (!journal.hasJournal(file)) {
+                    return null;
+                }
+
+                JsonNode merged = journal.readMerged(file);
+                if (merged != null) {
+                    codec.write(file, merged);
+                }
+
+                // The base is written before the journal goes away; replaying a merge
+                // patch journal over its own result is harmless if we crash in between
+                journal.discard(file);
+                recordOwnChange(file);
+                return null;
+            });
+        } catch (Exception e) {
+            logger.error("Error compacting journal for: {}", file, e);
+        }
+    }
+
+    /**
+     * Run an action while holding the in-process lock for a document's journal
+     *
+     * @param file Document file
+     * @param action Action to run
+     * @return Result of the action
+     */
+    private <R> R withJournalLock(File file, Callable<R> action) throws IOException {
+        String key = LockManager.keyFor(DocumentJournal.journalFileFor(file));
+        LockManager lockManager = LockManager.getInstance();
+        try {
+            if (!lockManager.tryLock(key, TimeUnit.SECONDS.toMillis(lockTimeoutSeconds))) {
+                throw new IOException("Timed out acquiring journal lock for: " + file);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted acquiring journal lock for: " + file, e);
+        }
+
+        try {
+            return action.call();
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        } finally {
+            lockManager.unlock(key);
+        }
+    }
+
+    /**
+     * Clean up expired cache entries
+     */
+    private void cleanupCache() {
+        try {
+            logger.debug("Starting cache cleanup");
+            cache.cleanUp();
+            logger.debug("Cache cleanup complete. Current size: {}", cache.getStats().getSize());
+        } catch (Exception e) {
+            logger.error("Error during cache cleanup", e);
+        }
+    }
+
+    /**
+     * Estimate the serialized size of a document for cache weighting
+     *
+     * @param file Base document file
+     * @return Uncompressed size in bytes of the file, plus its journal
+     */
+    private long weightOf(File file) {
+        long size;
+        try {
+            size = codec.rawSize(file);
+        } catch (IOException e) {
+            size = file.length();
+        }
+        return size + DocumentJournal.journalFileFor(file).length();
+    }
+
+    /**
+     * Write pending hash index changes to disk
+     */
+    private void flushHashIndexes() {
+        for (MappedHashIndex index : hashIndexes.values()) {
+            try {
+                index.flush();
+            } catch (Exception e) {
+                logger.warn("Error flushing hash index {}", index.getPath(), e);
+            }
+        }
+        setIndexes.values().forEach(JournaledSetIndex::flush);
+        sortedIndexes.values().forEach(JournaledSortedIndex::flush);
+    }
+
+    /**
+     * Check if a file is the snapshot or log of an open set or sorted index
+     */
+    private boolean isSetIndexFile(File file) {
+        String key = keyFor(file);
+        if (key.endsWith(JournaledSetIndex.LOG_SUFFIX)) {
+            key = key.substring(0, key.length() - JournaledSetIndex.LOG_SUFFIX.length());
+        }
+        return setIndexes.containsKey(key) || sortedIndexes.containsKey(key);
+    }
+
+    private void closePack(PackFile pack) {
+        try {
+            pack.close();
+        } catch (IOException e) {
+            logger.debug("Error closing pack {}: {}", pack.getFile(), e.getMessage());
+        }
+    }
+
+    /**
+     * Check if a file is inside an open blob store, whose files never change once written
+     */
+    private boolean isBlobStorePath(File file) {
+        String key = keyFor(file);
+        for (String root : blobStores.keySet()) {
+            if (key.startsWith(root + File.separator)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Close the open hash indexes, set and sorted indexes, blob stores and packs at or below a path
+     *
+     * @param key Cache key of the deleted file or directory
+     */
+    private void closeHashIndexes(String key) {
+        blobStores.keySet().removeIf(root -> root.equals(key) || root.startsWith(key + File.separator));
+        synchronized (packs) {
+            packs.entrySet().removeIf(entry -> {
+                if (entry.getKey().equals(key) || entry.getKey().startsWith(key + File.separator)) {
+                    closePack(entry.getValue());
+                    return true;
+                }
+                return false;
+            });
+        }
+        synchronized (hashIndexes) {
+            hashIndexes.entrySet().removeIf(entry -> {
+                if (entry.getKey().equals(key) || entry.getKey().startsWith(key + File.separator)) {
+                    entry.getValue().close();
+                    return true;
+                }
+                return false;
+            });
+            setIndexes.entrySet().removeIf(entry -> {
+                if (entry.getKey().equals(key) || entry.getKey().startsWith(key + File.separator)) {
+                    entry.getValue().close();
+                    return true;
+                }
+                return false;
+            });
+            sortedIndexes.entrySet().removeIf(entry -> {
+                if (entry.getKey().equals(key) || entry.getKey().startsWith(key + File.separator)) {
+                    entry.getValue().close();
+                    return true;
+                }
+                return false;
+            });
+        }
+    }
+
+    /**
+     * Find all documents below a directory, excluding version history
+     *
+     * @param root Root directory
+     * @return Document files
+     */
+    private List<File> listDocuments(File root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root.toPath())) {
+            return paths
+                    .filter(path -> path.getFileName().toString().endsWith(DOCUMENT_SUFFIX))
+                    .filter(path -> !EnhancedFileLock.isLockFile(path.getFileName().toString()))
+                    .filter(path -> !path.toString().contains(File.separator + VersionHistoryStore.HISTORY_DIR + File.separator))
+                    .filter(Files::isRegularFile)
+                    .map(Path::toFile)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Recursively delete a directory
+     *
+     * @param directory Directory to delete
+     * @return True if deleted successfully
+     */
+    private boolean deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteDirectory(file);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        return directory.delete();
+    }
+
+    /**
+     * Release locks in reverse acquisition order
+     *
+     * @param locks Locks to release
+     */
+    private void release(List<EnhancedFileLock> locks) {
+        for (int i = locks.size() - 1; i >= 0; i--) {
+            locks.get(i).release();
+        }
+    }
+
+    /**
+     * Modification time and size of a file at the time this process changed it
+     */
+    private static class FileStamp {
+        private final long lastModified;
+        private final long length;
+        private final boolean deleted;
+        private final long recordedAt = System.currentTimeMillis();
+
+        FileStamp(File file) {
+            this.deleted = !file.exists();
+            this.lastModified = file.lastModified();
+            this.length = file.length();
+        }
+
+        boolean matches(File file) {
+            return deleted ? !file.exists() : file.lastModified() == lastModified && file.length() == length;
+        }
+    }
+}
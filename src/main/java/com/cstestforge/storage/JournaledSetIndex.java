@@ -0,0 +1,397 @@
+package com.cstestforge.storage;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent key-to-set index, such as test ID to execution IDs, held in memory and
+ * persisted as a snapshot file plus an append-only log of added and removed members.
+ * <p>
+ * An update appends one small record to the log instead of rewriting the whole index.
+ * When the log holds half as many records as the index has members, the index is written
+ * to a new snapshot and the log is emptied. Snapshots are then at least as far apart as
+ * they are large, so the amortized cost of an update does not grow with the index.
+ * <p>
+ * Opening the index loads the snapshot and replays the log. Each record carries a
+ * checksum; a torn record at the end of the log, left by a crash during an append, is
+ * cut off. Replaying records that are already in the snapshot is harmless because every
+ * record sets the membership of one member.
+ */
+public class JournaledSetIndex implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(JournaledSetIndex.class);
+
+    /** Suffix of the delta log next to the snapshot file */
+    public static final String LOG_SUFFIX = ".log";
+
+    private static final byte OP_ADD = '+';
+    private static final byte OP_REMOVE = '-';
+    private static final int MIN_COMPACT_RECORDS = 1024;
+    private static final TypeReference<Map<String, Set<String>>> SNAPSHOT_TYPE =
+            new TypeReference<Map<String, Set<String>>>() {};
+
+    private final Path snapshotPath;
+    private final Path logPath;
+    private final ObjectMapper objectMapper;
+    private final DurableFileWriter fileWriter;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<String, Set<String>> sets = new HashMap<>();
+    private FileChannel log;
+    private int members;
+    private int logRecords;
+
+    /**
+     * Open an index, loading its snapshot and replaying its log
+     *
+     * @param file Snapshot file; the log is the same path with {@link #LOG_SUFFIX}
+     * @param objectMapper Mapper for the snapshot
+     * @param fileWriter Writer for snapshots and log syncs
+     * @throws IOException if the snapshot cannot be read or the log cannot be opened
+     */
+    public JournaledSetIndex(File file, ObjectMapper objectMapper, DurableFileWriter fileWriter) throws IOException {
+        this.snapshotPath = file.toPath().toAbsolutePath();
+        this.logPath = logFileFor(file).toPath().toAbsolutePath();
+        this.objectMapper = objectMapper;
+        this.fileWriter = fileWriter;
+
+        Files.createDirectories(snapshotPath.getParent());
+        if (Files.exists(snapshotPath) && Files.size(snapshotPath) > 0) {
+            Map<String, Set<String>> snapshot = objectMapper.readValue(snapshotPath.toFile(), SNAPSHOT_TYPE);
+            snapshot.forEach((key, values) -> {
+                if (values != null && !values.isEmpty()) {
+                    sets.put(key, new HashSet<>(values));
+                    members += values.size();
+                }
+            });
+        }
+
+        log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        replayLog();
+    }
+
+    /**
+     * Get the log file of an index
+     *
+     * @param file Snapshot file
+     * @return Log file
+     */
+    public static File logFileFor(File file) {
+        return new File(file.getPath() + LOG_SUFFIX);
+    }
+
+    /**
+     * Get the members of a key
+     *
+     * @param key Key
+     * @return Copy of the members, empty if the key is not present
+     */
+    public Set<String> get(String key) {
+        lock.readLock().lock();
+        try {
+            Set<String> values = sets.get(key);
+            return values != null ? new LinkedHashSet<>(values) : Collections.emptySet();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Check if a key has a member
+     *
+     * @param key Key
+     * @param member Member
+     * @return true if present
+     */
+    public boolean contains(String key, String member) {
+        lock.readLock().lock();
+        try {
+            Set<String> values = sets.get(key);
+            return values != null && values.contains(member);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Add a member to a key
+     *
+     * @param key Key
+     * @param member Member
+     * @throws IOException if the change cannot be logged
+     */
+    public void add(String key, String member) throws IOException {
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            if (sets.computeIfAbsent(key, k -> new HashSet<>()).add(member)) {
+                members++;
+                try {
+                    append(OP_ADD, key, member);
+                } catch (IOException e) {
+                    // Keep memory consistent with the log
+                    removeMember(key, member);
+                    throw e;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove a member from a key; the key goes away with its last member
+     *
+     * @param key Key
+     * @param member Member
+     * @throws IOException if the change cannot be logged
+     */
+    public void remove(String key, String member) throws IOException {
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            if (removeMember(key, member)) {
+                try {
+                    append(OP_REMOVE, key, member);
+                } catch (IOException e) {
+                    sets.computeIfAbsent(key, k -> new HashSet<>()).add(member);
+                    members++;
+                    throw e;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replace the whole content, e.g. when importing an older index format
+     *
+     * @param content Members by key
+     * @throws IOException if the snapshot cannot be written
+     */
+    public void replaceAll(Map<String, ? extends Set<String>> content) throws IOException {
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            sets.clear();
+            members = 0;
+            content.forEach((key, values) -> {
+                if (values != null && !values.isEmpty()) {
+                    sets.put(key, new HashSet<>(values));
+                    members += values.size();
+                }
+            });
+            snapshot();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Check if the index has no members
+     *
+     * @return true if empty
+     */
+    public boolean isEmpty() {
+        lock.readLock().lock();
+        try {
+            return sets.isEmpty();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the number of records waiting in the log for the next snapshot
+     *
+     * @return Log record count
+     */
+    public int getLogRecords() {
+        lock.readLock().lock();
+        try {
+            return logRecords;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Sync the logged changes to disk; appends are synced only as the durability mode requires
+     */
+    public void flush() {
+        lock.writeLock().lock();
+        try {
+            if (log != null && logRecords > 0) {
+                log.force(false);
+            }
+        } catch (IOException e) {
+            logger.warn("Could not sync index log {}: {}", logPath, e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Flush and close the log. The index cannot be used afterwards.
+     */
+    @Override
+    public void close() {
+        flush();
+        lock.writeLock().lock();
+        try {
+            if (log != null) {
+                log.close();
+                log = null;
+            }
+        } catch (IOException e) {
+            logger.debug("Error closing index log {}: {}", logPath, e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Get the snapshot file
+     *
+     * @return Absolute path of the snapshot file
+     */
+    public Path getPath() {
+        return snapshotPath;
+    }
+
+    /**
+     * Append one record to the log and take a snapshot once the log holds half as many
+     * records as the index has members (caller holds the write lock)
+     */
+    private void append(byte op, String key, String member) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + key.length() + member.length());
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(op);
+        out.writeUTF(key);
+        out.writeUTF(member);
+        byte[] body = bytes.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        ByteBuffer record = ByteBuffer.allocate(8 + body.length);
+        record.putInt(body.length).put(body).putInt((int) crc.getValue()).flip();
+        while (record.hasRemaining()) {
+            log.write(record, log.size());
+        }
+        fileWriter.sync(logPath);
+        logRecords++;
+
+        if (logRecords >= Math.max(MIN_COMPACT_RECORDS, members / 2)) {
+            snapshot();
+        }
+    }
+
+    /**
+     * Write the index to a new snapshot and empty the log (caller holds the write lock)
+     */
+    private void snapshot() throws IOException {
+        fileWriter.write(snapshotPath.toFile(), out -> objectMapper.writeValue(out, sets));
+        // A crash before the truncation replays records the snapshot already contains
+        log.truncate(0);
+        log.force(true);
+        logRecords = 0;
+    }
+
+    /**
+     * Apply the log records to the loaded snapshot and cut off a torn tail
+     */
+    private void replayLog() throws IOException {
+        long valid = 0;
+        log.position(0);
+        DataInputStream in = new DataInputStream(Channels.newInputStream(log));
+        try {
+            while (true) {
+                int length = in.readInt();
+                if (length <= 0 || length > 2 * 65536 + 1) {
+                    break;
+                }
+                byte[] body = new byte[length];
+                in.readFully(body);
+                int checksum = in.readInt();
+
+                CRC32 crc = new CRC32();
+                crc.update(body);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                applyRecord(body);
+                valid += 8 + length;
+                logRecords++;
+            }
+        } catch (EOFException e) {
+            // End of the log, possibly inside a torn record
+        }
+
+        if (valid < log.size()) {
+            logger.warn("Discarding {} bytes of incomplete records at the end of {}", log.size() - valid, logPath);
+            log.truncate(valid);
+            log.force(true);
+        }
+        if (logRecords > 0) {
+            logger.info("Replayed {} records of index log {}", logRecords, logPath);
+        }
+    }
+
+    private void applyRecord(byte[] body) throws IOException {
+        DataInputStream record = new DataInputStream(new ByteArrayInputStream(body));
+        byte op = record.readByte();
+        String key = record.readUTF();
+        String member = record.readUTF();
+        if (op == OP_ADD) {
+            if (sets.computeIfAbsent(key, k -> new HashSet<>()).add(member)) {
+                members++;
+            }
+        } else if (op == OP_REMOVE) {
+            removeMember(key, member);
+        }
+    }
+
+    private boolean removeMember(String key, String member) {
+        Set<String> values = sets.get(key);
+        if (values == null || !values.remove(member)) {
+            return false;
+        }
+        members--;
+        if (values.isEmpty()) {
+            sets.remove(key);
+        }
+        return true;
+    }
+
+    private void checkOpen() {
+        if (log == null) {
+            throw new IllegalStateException("Set index is closed: " + snapshotPath);
+        }
+    }
+}
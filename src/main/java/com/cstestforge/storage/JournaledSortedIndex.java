@@ -0,0 +1,329 @@
+package com.cstestforge.storage;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * {@link SortedIndex} persisted as a snapshot of all rows plus an append-only log of
+ * changed and removed rows.
+ * <p>
+ * A change appends the new row of one document instead of rewriting every row. When the
+ * log holds half as many records as the index has rows, the rows are written to a new
+ * snapshot and the log is emptied, as {@link JournaledSetIndex} does for sets. The
+ * snapshot is a JSON map of document ID to row, so indexes saved as a plain rows
+ * document load unchanged.
+ * <p>
+ * Opening the index loads the snapshot and replays the log; a torn record at the end of
+ * the log is cut off. Every record holds the whole row, so replaying records that are
+ * already in the snapshot is harmless.
+ */
+public class JournaledSortedIndex extends SortedIndex implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(JournaledSortedIndex.class);
+
+    /** Suffix of the delta log next to the snapshot file */
+    public static final String LOG_SUFFIX = ".log";
+
+    private static final int MIN_COMPACT_RECORDS = 256;
+    private static final int MAX_RECORD_BYTES = 1 << 20;
+    private static final TypeReference<Map<String, Map<String, Object>>> ROWS_TYPE =
+            new TypeReference<Map<String, Map<String, Object>>>() {};
+
+    private final Path snapshotPath;
+    private final Path logPath;
+    private final ObjectMapper objectMapper;
+    private final DurableFileWriter fileWriter;
+    private volatile boolean created;
+
+    private FileChannel log;
+    private int logRecords;
+
+    /**
+     * Open an index, loading its snapshot and replaying its log
+     *
+     * @param file Snapshot file; the log is the same path with {@link #LOG_SUFFIX}
+     * @param sortFields Row fields that pages can be sorted by
+     * @param objectMapper Mapper for the snapshot and log records
+     * @param fileWriter Writer for snapshots and log syncs
+     * @throws IOException if the log cannot be opened
+     */
+    public JournaledSortedIndex(File file, Collection<String> sortFields, ObjectMapper objectMapper,
+                                DurableFileWriter fileWriter) throws IOException {
+        super(sortFields);
+        this.snapshotPath = file.toPath().toAbsolutePath();
+        this.logPath = logFileFor(file).toPath().toAbsolutePath();
+        this.objectMapper = objectMapper;
+        this.fileWriter = fileWriter;
+
+        Files.createDirectories(snapshotPath.getParent());
+        boolean loaded = false;
+        if (Files.exists(snapshotPath) && Files.size(snapshotPath) > 0) {
+            try {
+                Map<String, Map<String, Object>> snapshot = objectMapper.readValue(snapshotPath.toFile(), ROWS_TYPE);
+                snapshot.forEach((id, row) -> {
+                    if (!id.startsWith("_") && row != null) {
+                        super.put(id, row);
+                    }
+                });
+                loaded = true;
+            } catch (IOException e) {
+                // Treated as a new index, which its owner rebuilds from the documents
+                logger.warn("Unreadable sort index snapshot {}: {}", snapshotPath, e.getMessage());
+            }
+        }
+
+        boolean logExists = Files.exists(logPath);
+        log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        replayLog();
+        this.created = !loaded && !logExists;
+    }
+
+    /**
+     * Get the log file of an index
+     *
+     * @param file Snapshot file
+     * @return Log file
+     */
+    public static File logFileFor(File file) {
+        return new File(file.getPath() + LOG_SUFFIX);
+    }
+
+    /**
+     * Check if the index had no snapshot or log when it was opened and its rows have not
+     * been replaced since, so they still have to be built from the documents
+     *
+     * @return true if the rows still have to be built
+     */
+    public boolean isNew() {
+        return created;
+    }
+
+    /**
+     * Add or replace the row of a document and log the change
+     *
+     * @param id Document ID
+     * @param row Field values
+     * @throws UncheckedIOException if the change cannot be logged; the index is unchanged
+     */
+    @Override
+    public synchronized void put(String id, Map<String, ?> row) {
+        checkOpen();
+        Map<String, Object> previous = getRow(id);
+        super.put(id, row);
+        try {
+            append(id, getRow(id));
+        } catch (IOException e) {
+            restore(id, previous);
+            throw new UncheckedIOException("Failed to log sort index change: " + logPath, e);
+        }
+    }
+
+    /**
+     * Remove the row of a document and log the change
+     *
+     * @param id Document ID
+     * @throws UncheckedIOException if the change cannot be logged; the index is unchanged
+     */
+    @Override
+    public synchronized void remove(String id) {
+        checkOpen();
+        Map<String, Object> previous = getRow(id);
+        if (previous == null) {
+            return;
+        }
+        super.remove(id);
+        try {
+            append(id, null);
+        } catch (IOException e) {
+            restore(id, previous);
+            throw new UncheckedIOException("Failed to log sort index change: " + logPath, e);
+        }
+    }
+
+    /**
+     * Replace all rows and write them to a new snapshot
+     *
+     * @param content Rows by document ID
+     * @throws UncheckedIOException if the snapshot cannot be written
+     */
+    @Override
+    public synchronized void replaceAll(Map<String, ? extends Map<String, ?>> content) {
+        checkOpen();
+        super.replaceAll(content);
+        created = false;
+        try {
+            writeSnapshot();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write sort index snapshot: " + snapshotPath, e);
+        }
+    }
+
+    /**
+     * Get the number of records waiting in the log for the next snapshot
+     *
+     * @return Log record count
+     */
+    public synchronized int getLogRecords() {
+        return logRecords;
+    }
+
+    /**
+     * Sync the logged changes to disk; appends are synced only as the durability mode requires
+     */
+    public synchronized void flush() {
+        try {
+            if (log != null && logRecords > 0) {
+                log.force(false);
+            }
+        } catch (IOException e) {
+            logger.warn("Could not sync sort index log {}: {}", logPath, e.getMessage());
+        }
+    }
+
+    /**
+     * Flush and close the log. The index cannot be changed afterwards.
+     */
+    @Override
+    public synchronized void close() {
+        flush();
+        try {
+            if (log != null) {
+                log.close();
+                log = null;
+            }
+        } catch (IOException e) {
+            logger.debug("Error closing sort index log {}: {}", logPath, e.getMessage());
+        }
+    }
+
+    /**
+     * Get the snapshot file
+     *
+     * @return Absolute path of the snapshot file
+     */
+    public Path getPath() {
+        return snapshotPath;
+    }
+
+    /**
+     * Append one record to the log and take a snapshot once the log holds half as many
+     * records as the index has rows
+     */
+    private void append(String id, Map<String, Object> row) throws IOException {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("id", id);
+        if (row != null) {
+            record.put("row", row);
+        }
+        byte[] body = objectMapper.writeValueAsBytes(record);
+
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        ByteBuffer buffer = ByteBuffer.allocate(8 + body.length);
+        buffer.putInt(body.length).put(body).putInt((int) crc.getValue()).flip();
+        while (buffer.hasRemaining()) {
+            log.write(buffer, log.size());
+        }
+        fileWriter.sync(logPath);
+        logRecords++;
+
+        if (logRecords >= Math.max(MIN_COMPACT_RECORDS, size() / 2)) {
+            writeSnapshot();
+        }
+    }
+
+    /**
+     * Write all rows to a new snapshot and empty the log
+     */
+    private void writeSnapshot() throws IOException {
+        Map<String, Map<String, Object>> rows = snapshot();
+        fileWriter.write(snapshotPath.toFile(), out -> objectMapper.writeValue(out, rows));
+        // A crash before the truncation replays records the snapshot already contains
+        log.truncate(0);
+        log.force(true);
+        logRecords = 0;
+    }
+
+    /**
+     * Apply the log records to the loaded snapshot and cut off a torn tail
+     */
+    @SuppressWarnings("unchecked")
+    private void replayLog() throws IOException {
+        long valid = 0;
+        log.position(0);
+        DataInputStream in = new DataInputStream(Channels.newInputStream(log));
+        try {
+            while (true) {
+                int length = in.readInt();
+                if (length <= 0 || length > MAX_RECORD_BYTES) {
+                    break;
+                }
+                byte[] body = new byte[length];
+                in.readFully(body);
+                int checksum = in.readInt();
+
+                CRC32 crc = new CRC32();
+                crc.update(body);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                Map<String, Object> record = objectMapper.readValue(body, Map.class);
+                String id = (String) record.get("id");
+                Object row = record.get("row");
+                if (row instanceof Map) {
+                    super.put(id, (Map<String, Object>) row);
+                } else {
+                    super.remove(id);
+                }
+                valid += 8 + length;
+                logRecords++;
+            }
+        } catch (EOFException e) {
+            // End of the log, possibly inside a torn record
+        }
+
+        if (valid < log.size()) {
+            logger.warn("Discarding {} bytes of incomplete records at the end of {}", log.size() - valid, logPath);
+            log.truncate(valid);
+            log.force(true);
+        }
+        if (logRecords > 0) {
+            logger.info("Replayed {} records of sort index log {}", logRecords, logPath);
+        }
+    }
+
+    /**
+     * Put back the row a failed change replaced
+     */
+    private void restore(String id, Map<String, Object> previous) {
+        if (previous != null) {
+            super.put(id, previous);
+        } else {
+            super.remove(id);
+        }
+    }
+
+    private void checkOpen() {
+        if (log == null) {
+            throw new IllegalStateException("Sort index is closed: " + snapshotPath);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.cstestforge.storage;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * JSON merge patch helpers used to record document changes as small deltas.
+ * <p>
+ * Patches follow JSON Merge Patch (RFC 7386) except for removals: RFC 7386 removes a
+ * member whose patch value is null, which cannot tell a removed member from one set to
+ * null. Patches from {@link #diff} instead list removed member names in a
+ * {@value #REMOVED} array at each object level and carry nulls as values. Nested objects
+ * holding that array are patches of the member; any other value, objects included,
+ * replaces it as a whole.
+ * <p>
+ * An array that only grew is patched with an object holding its previous length in
+ * {@value #APPEND_AT} and the new elements in {@value #APPENDED}. Applying it keeps the
+ * first elements up to that length and appends the rest, so applying it again to its
+ * own result changes nothing, like every other patch.
+ */
+public final class JsonMergePatch {
+
+    /** Member of a patch object listing the members it removes */
+    public static final String REMOVED = "$removed";
+
+    /** Member of an array patch holding the elements appended to the array */
+    public static final String APPENDED = "$appended";
+
+    /** Member of an array patch holding the length of the array before the append */
+    public static final String APPEND_AT = "$appendAt";
+
+    private JsonMergePatch() {
+    }
+
+    /**
+     * Compute the patch that turns the source document into the target document
+     *
+     * @param source Current document (may be null)
+     * @param target Desired document
+     * @return Patch to apply, or null if the documents are equal
+     */
+    public static JsonNode diff(JsonNode source, JsonNode target) {
+        if (source != null && source.equals(target)) {
+            return null;
+        }
+        if (target == null || !target.isObject()) {
+            return target;
+        }
+        JsonNode base = source != null && source.isObject() ? source : JsonNodeFactory.instance.objectNode();
+        return diffObjects(base, target);
+    }
+
+    private static ObjectNode diffObjects(JsonNode source, JsonNode target) {
+        ObjectNode patch = JsonNodeFactory.instance.objectNode();
+        ArrayNode removed = patch.putArray(REMOVED);
+
+        // Members removed from the target
+        Iterator<String> sourceNames = source.fieldNames();
+        while (sourceNames.hasNext()) {
+            String name = sourceNames.next();
+            if (!target.has(name)) {
+                removed.add(name);
+            }
+        }
+
+        // Members added or changed in the target, nulls included
+        Iterator<Map.Entry<String, JsonNode>> targetFields = target.fields();
+        while (targetFields.hasNext()) {
+            Map.Entry<String, JsonNode> field = targetFields.next();
+            JsonNode sourceValue = source.get(field.getKey());
+            JsonNode targetValue = field.getValue();
+
+            if (sourceValue == null || !sourceValue.equals(targetValue)) {
+                if (sourceValue != null && sourceValue.isObject() && targetValue.isObject()) {
+                    patch.set(field.getKey(), diffObjects(sourceValue, targetValue));
+                } else if (isAppend(sourceValue, targetValue)) {
+                    patch.set(field.getKey(), appendPatch(sourceValue, targetValue));
+                } else {
+                    patch.set(field.getKey(), targetValue);
+                }
+            }
+        }
+
+        return patch;
+    }
+
+    /**
+     * Apply a patch to a document. The target is modified in place when it is an object.
+     *
+     * @param target Document to patch (may be null)
+     * @param patch Patch from {@link #diff}; any other value replaces the document
+     * @return Patched document
+     */
+    public static JsonNode apply(JsonNode target, JsonNode patch) {
+        if (patch == null) {
+            return target;
+        }
+        if (!isPatch(patch)) {
+            return patch.deepCopy();
+        }
+
+        ObjectNode result = target != null && target.isObject()
+                ? (ObjectNode) target
+                : JsonNodeFactory.instance.objectNode();
+
+        for (JsonNode name : patch.get(REMOVED)) {
+            result.remove(name.asText());
+        }
+        Iterator<Map.Entry<String, JsonNode>> fields = patch.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            if (REMOVED.equals(field.getKey())) {
+                continue;
+            }
+            if (isPatch(field.getValue())) {
+                result.set(field.getKey(), apply(result.get(field.getKey()), field.getValue()));
+            } else if (isAppendPatch(field.getValue())) {
+                result.set(field.getKey(), applyAppend(result.get(field.getKey()), field.getValue()));
+            } else {
+                result.set(field.getKey(), field.getValue().deepCopy());
+            }
+        }
+
+        return result;
+    }
+
+    private static boolean isPatch(JsonNode node) {
+        return node.isObject() && node.path(REMOVED).isArray();
+    }
+
+    /**
+     * Check if the target array keeps all elements of the source array and adds more
+     */
+    private static boolean isAppend(JsonNode source, JsonNode target) {
+        if (source == null || !source.isArray() || !target.isArray() || target.size() <= source.size()) {
+            return false;
+        }
+        for (int i = 0; i < source.size(); i++) {
+            if (!source.get(i).equals(target.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ObjectNode appendPatch(JsonNode source, JsonNode target) {
+        ObjectNode patch = JsonNodeFactory.instance.objectNode();
+        patch.put(APPEND_AT, source.size());
+        ArrayNode appended = patch.putArray(APPENDED);
+        for (int i = source.size(); i < target.size(); i++) {
+            appended.add(target.get(i));
+        }
+        return patch;
+    }
+
+    private static boolean isAppendPatch(JsonNode node) {
+        return node.isObject() && node.size() == 2 && node.path(APPENDED).isArray() && node.path(APPEND_AT).isInt();
+    }
+
+    /**
+     * Keep the elements before the append position and add the appended ones
+     */
+    private static ArrayNode applyAppend(JsonNode current, JsonNode patch) {
+        ArrayNode result = JsonNodeFactory.instance.arrayNode();
+        if (current != null && current.isArray()) {
+            int keep = Math.min(patch.get(APPEND_AT).asInt(), current.size());
+            for (int i = 0; i < keep; i++) {
+                result.add(current.get(i));
+            }
+        }
+        for (JsonNode element : patch.get(APPENDED)) {
+            result.add(element.deepCopy());
+        }
+        return result;
+    }
+}
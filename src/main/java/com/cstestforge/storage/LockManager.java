@@ -0,0 +1,207 @@
+package com.cstestforge.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-process lock manager that guards files with striped, per-thread reentrant locks.
+ * Paths are canonicalized and hashed onto a fixed set of stripes so that writers to
+ * unrelated files proceed in parallel instead of queueing behind a single global lock.
+ */
+public final class LockManager {
+
+    private static final int DEFAULT_STRIPES = 256;
+    private static final LockManager INSTANCE = new LockManager(DEFAULT_STRIPES);
+
+    private final ReentrantLock[] stripes;
+    private final int mask;
+
+    // Lock wait metrics
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder contendedAcquisitions = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    /**
+     * Create a lock manager with the given number of stripes
+     *
+     * @param stripeCount Number of stripes, rounded up to a power of two
+     */
+    LockManager(int stripeCount) {
+        int size = Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1;
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * Get the shared lock manager used by all storage locks in this JVM
+     *
+     * @return Lock manager instance
+     */
+    public static LockManager getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Resolve the key under which a file is locked
+     *
+     * @param file File to lock
+     * @return Canonical path of the file, or its normalized absolute path if it cannot be canonicalized
+     */
+    public static String keyFor(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            return file.toPath().toAbsolutePath().normalize().toString();
+        }
+    }
+
+    /**
+     * Acquire the lock for a key, waiting at most the given timeout.
+     * The lock is reentrant: a thread that already holds it acquires it again immediately.
+     *
+     * @param key Lock key (see {@link #keyFor(File)})
+     * @param timeoutMs Timeout in milliseconds
+     * @return true if the lock was acquired
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean tryLock(String key, long timeoutMs) throws InterruptedException {
+        ReentrantLock lock = stripeFor(key);
+
+        if (lock.tryLock()) {
+            acquisitions.increment();
+            return true;
+        }
+
+        long start = System.nanoTime();
+        boolean acquired = lock.tryLock(timeoutMs, TimeUnit.MILLISECONDS);
+        long waited = System.nanoTime() - start;
+
+        totalWaitNanos.add(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        contendedAcquisitions.increment();
+
+        if (acquired) {
+            acquisitions.increment();
+        } else {
+            timeouts.increment();
+        }
+        return acquired;
+    }
+
+    /**
+     * Release the lock for a key. Must be called by the thread that acquired it.
+     *
+     * @param key Lock key
+     */
+    public void unlock(String key) {
+        ReentrantLock lock = stripeFor(key);
+        if (lock.isHeldByCurrentThread()) {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Check whether the current thread holds the lock guarding a key
+     *
+     * @param key Lock key
+     * @return true if held by the current thread
+     */
+    public boolean isHeldByCurrentThread(String key) {
+        return stripeFor(key).isHeldByCurrentThread();
+    }
+
+    /**
+     * Sort keys into the global acquisition order. Acquiring several locks in this
+     * order from every thread rules out lock-order deadlocks, including between
+     * different paths that share a stripe.
+     *
+     * @param keys Lock keys
+     * @return Distinct keys in acquisition order
+     */
+    public List<String> order(Collection<String> keys) {
+        List<String> ordered = new ArrayList<>(new LinkedHashSet<>(keys));
+        ordered.sort(Comparator.comparingInt(this::stripeIndex).thenComparing(Comparator.naturalOrder()));
+        return ordered;
+    }
+
+    /**
+     * Get a snapshot of the lock wait metrics
+     *
+     * @return Lock metrics
+     */
+    public LockMetrics getMetrics() {
+        return new LockMetrics(
+                acquisitions.sum(),
+                contendedAcquisitions.sum(),
+                timeouts.sum(),
+                TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.sum()),
+                TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get()));
+    }
+
+    private int stripeIndex(String key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private ReentrantLock stripeFor(String key) {
+        return stripes[stripeIndex(key)];
+    }
+
+    /**
+     * Point-in-time lock wait statistics
+     */
+    public static class LockMetrics {
+        private final long acquisitions;
+        private final long contendedAcquisitions;
+        private final long timeouts;
+        private final long totalWaitMs;
+        private final long maxWaitMs;
+
+        public LockMetrics(long acquisitions, long contendedAcquisitions, long timeouts,
+                           long totalWaitMs, long maxWaitMs) {
+            this.acquisitions = acquisitions;
+            this.contendedAcquisitions = contendedAcquisitions;
+            this.timeouts = timeouts;
+            this.totalWaitMs = totalWaitMs;
+            this.maxWaitMs = maxWaitMs;
+        }
+
+        public long getAcquisitions() {
+            return acquisitions;
+        }
+
+        public long getContendedAcquisitions() {
+            return contendedAcquisitions;
+        }
+
+        public long getTimeouts() {
+            return timeouts;
+        }
+
+        public long getTotalWaitMs() {
+            return totalWaitMs;
+        }
+
+        public long getMaxWaitMs() {
+            return maxWaitMs;
+        }
+
+        public double getAverageWaitMs() {
+            return contendedAcquisitions > 0 ? (double) totalWaitMs / contendedAcquisitions : 0;
+        }
+    }
+}
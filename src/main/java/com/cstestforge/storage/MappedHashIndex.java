@@ -0,0 +1,512 @@
+package com.cstestforge.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Persistent string-to-string hash table in a memory-mapped file.
+ * <p>
+ * Records have a fixed size given by the maximum key and value lengths, and are placed by
+ * open addressing with linear probing, so a lookup touches a handful of records and an
+ * update rewrites one record in place, whatever the number of entries. The table doubles
+ * when it is 70% full. Entries live in the page cache rather than on the heap.
+ * <p>
+ * The header carries a dirty flag that is set before the first change after a flush and
+ * cleared by {@link #flush()}. An index opened with the flag set was not closed cleanly;
+ * {@link #wasDirty()} tells the owner to rebuild it from the source documents.
+ */
+public class MappedHashIndex implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(MappedHashIndex.class);
+
+    /** Suffix of the temporary file a resize is built in */
+    public static final String RESIZE_SUFFIX = ".resize";
+
+    private static final int MAGIC = 0x43534849; // "CSHI"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 4;
+    private static final int OFFSET_KEY_BYTES = 8;
+    private static final int OFFSET_VALUE_BYTES = 12;
+    private static final int OFFSET_CAPACITY = 16;
+    private static final int OFFSET_SIZE = 20;
+    private static final int OFFSET_TOMBSTONES = 24;
+    private static final int OFFSET_DIRTY = 28;
+
+    private static final byte SLOT_EMPTY = 0;
+    private static final byte SLOT_USED = 1;
+    private static final byte SLOT_DELETED = 2;
+
+    // Record layout: state, key hash, key length, key bytes, value length, value bytes
+    private static final int RECORD_OVERHEAD = 1 + 4 + 2 + 2;
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final double MAX_LOAD = 0.7;
+
+    private final Path path;
+    private final int keyBytes;
+    private final int valueBytes;
+    private final int recordSize;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int size;
+    private int tombstones;
+    private boolean dirty;
+    private final boolean openedDirty;
+
+    /**
+     * Open an index file, creating it if it does not exist
+     *
+     * @param file Index file
+     * @param maxKeyBytes Maximum UTF-8 length of a key
+     * @param maxValueBytes Maximum UTF-8 length of a value
+     * @throws IOException if the file cannot be opened or has a different layout
+     */
+    public MappedHashIndex(File file, int maxKeyBytes, int maxValueBytes) throws IOException {
+        if (maxKeyBytes <= 0 || maxKeyBytes > 0xFFFF || maxValueBytes < 0 || maxValueBytes > 0xFFFF) {
+            throw new IllegalArgumentException("Key and value sizes must fit in 16 bits");
+        }
+        this.path = file.toPath().toAbsolutePath();
+        this.keyBytes = maxKeyBytes;
+        this.valueBytes = maxValueBytes;
+        this.recordSize = RECORD_OVERHEAD + maxKeyBytes + maxValueBytes;
+
+        Files.createDirectories(path.getParent());
+        if (Files.exists(path) && Files.size(path) > 0) {
+            buffer = map(path, Files.size(path));
+            if (buffer.getInt(OFFSET_MAGIC) != MAGIC || buffer.getInt(OFFSET_VERSION) != FORMAT_VERSION) {
+                throw new IOException("Not a hash index: " + path);
+            }
+            if (buffer.getInt(OFFSET_KEY_BYTES) != keyBytes || buffer.getInt(OFFSET_VALUE_BYTES) != valueBytes) {
+                throw new IOException("Hash index " + path + " was created with a different record layout");
+            }
+            capacity = buffer.getInt(OFFSET_CAPACITY);
+            size = buffer.getInt(OFFSET_SIZE);
+            tombstones = buffer.getInt(OFFSET_TOMBSTONES);
+            openedDirty = buffer.getInt(OFFSET_DIRTY) != 0;
+            dirty = openedDirty;
+        } else {
+            Path created = createTable(path, INITIAL_CAPACITY);
+            move(created, path);
+            buffer = map(path, fileSize(INITIAL_CAPACITY));
+            capacity = INITIAL_CAPACITY;
+            openedDirty = false;
+        }
+    }
+
+    /**
+     * Check if the index was not closed cleanly before it was opened
+     *
+     * @return true if the contents may be incomplete and should be rebuilt
+     */
+    public boolean wasDirty() {
+        return openedDirty;
+    }
+
+    /**
+     * Get the value stored for a key
+     *
+     * @param key Key
+     * @return Value, or null if the key is not present
+     */
+    public String get(String key) {
+        byte[] keyData = encodeKey(key);
+        int hash = hash(keyData);
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            int slot = find(keyData, hash);
+            return slot >= 0 ? readValue(slot) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Check if a key is present
+     *
+     * @param key Key
+     * @return true if the key is present
+     */
+    public boolean containsKey(String key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Insert or replace the value of a key
+     *
+     * @param key Key
+     * @param value Value
+     * @throws IOException if the table has to grow and the file cannot be resized
+     * @throws IllegalArgumentException if the key or value is longer than the record allows
+     */
+    public void put(String key, String value) throws IOException {
+        byte[] keyData = encodeKey(key);
+        byte[] valueData = value.getBytes(StandardCharsets.UTF_8);
+        if (valueData.length > valueBytes) {
+            throw new IllegalArgumentException("Value of " + key + " exceeds " + valueBytes + " bytes");
+        }
+        int hash = hash(keyData);
+
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            int slot = find(keyData, hash);
+            if (slot >= 0) {
+                markDirty();
+                writeValue(slot, valueData);
+                return;
+            }
+
+            if (size + tombstones + 1 > capacity * MAX_LOAD) {
+                // Rebuild in place when deletions, rather than entries, filled the table
+                resize(size + 1 > capacity * MAX_LOAD / 2 ? capacity * 2 : capacity);
+            }
+            markDirty();
+            insert(buffer, capacity, keyData, hash, valueData);
+            size++;
+            writeCounts();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove a key
+     *
+     * @param key Key
+     * @return true if the key was present
+     */
+    public boolean remove(String key) {
+        byte[] keyData = encodeKey(key);
+        int hash = hash(keyData);
+
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            int slot = find(keyData, hash);
+            if (slot < 0) {
+                return false;
+            }
+            markDirty();
+            buffer.put(offset(slot), SLOT_DELETED);
+            size--;
+            tombstones++;
+            writeCounts();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove all entries
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            markDirty();
+            for (int slot = 0; slot < capacity; slot++) {
+                buffer.put(offset(slot), SLOT_EMPTY);
+            }
+            size = 0;
+            tombstones = 0;
+            writeCounts();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Get the number of entries
+     *
+     * @return Entry count
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Visit every entry in table order. The index must not be modified by the action.
+     *
+     * @param action Receives each key and value
+     */
+    public void forEach(BiConsumer<String, String> action) {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            for (int slot = 0; slot < capacity; slot++) {
+                if (buffer.get(offset(slot)) == SLOT_USED) {
+                    action.accept(readKey(slot), readValue(slot));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Write all changes to disk and mark the index clean
+     */
+    public void flush() {
+        lock.writeLock().lock();
+        try {
+            if (buffer == null || !dirty) {
+                return;
+            }
+            buffer.force();
+            buffer.putInt(OFFSET_DIRTY, 0);
+            buffer.force();
+            dirty = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Flush and release the mapping. The index cannot be used afterwards.
+     */
+    @Override
+    public void close() {
+        flush();
+        lock.writeLock().lock();
+        try {
+            buffer = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Get the index file
+     *
+     * @return Absolute path of the index file
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    private void checkOpen() {
+        if (buffer == null) {
+            throw new IllegalStateException("Hash index is closed: " + path);
+        }
+    }
+
+    private void markDirty() {
+        if (!dirty) {
+            // The flag must be durable before any record changes
+            buffer.putInt(OFFSET_DIRTY, 1);
+            buffer.force();
+            dirty = true;
+        }
+    }
+
+    private void writeCounts() {
+        buffer.putInt(OFFSET_SIZE, size);
+        buffer.putInt(OFFSET_TOMBSTONES, tombstones);
+    }
+
+    /**
+     * Find the slot holding a key
+     *
+     * @return Slot number, or -1 if the key is not present
+     */
+    private int find(byte[] keyData, int hash) {
+        int mask = capacity - 1;
+        for (int probe = 0, slot = hash & mask; probe < capacity; probe++, slot = (slot + 1) & mask) {
+            int offset = offset(slot);
+            byte state = buffer.get(offset);
+            if (state == SLOT_EMPTY) {
+                return -1;
+            }
+            if (state == SLOT_USED && buffer.getInt(offset + 1) == hash && keyEquals(offset, keyData)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private boolean keyEquals(int offset, byte[] keyData) {
+        int length = Short.toUnsignedInt(buffer.getShort(offset + 5));
+        if (length != keyData.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(offset + 7 + i) != keyData[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String readKey(int slot) {
+        int offset = offset(slot);
+        byte[] data = new byte[Short.toUnsignedInt(buffer.getShort(offset + 5))];
+        buffer.get(offset + 7, data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    private String readValue(int slot) {
+        int valueOffset = offset(slot) + 7 + keyBytes;
+        byte[] data = new byte[Short.toUnsignedInt(buffer.getShort(valueOffset))];
+        buffer.get(valueOffset + 2, data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    private void writeValue(int slot, byte[] valueData) {
+        int valueOffset = offset(slot) + 7 + keyBytes;
+        buffer.put(valueOffset + 2, valueData);
+        buffer.putShort(valueOffset, (short) valueData.length);
+    }
+
+    /**
+     * Place a new key in the first free slot of its probe sequence
+     */
+    private void insert(MappedByteBuffer target, int targetCapacity, byte[] keyData, int hash, byte[] valueData) {
+        int mask = targetCapacity - 1;
+        int slot = hash & mask;
+        while (target.get(HEADER_SIZE + slot * recordSize) == SLOT_USED) {
+            slot = (slot + 1) & mask;
+        }
+        if (target == buffer && target.get(offset(slot)) == SLOT_DELETED) {
+            tombstones--;
+        }
+
+        int offset = HEADER_SIZE + slot * recordSize;
+        target.putInt(offset + 1, hash);
+        target.putShort(offset + 5, (short) keyData.length);
+        target.put(offset + 7, keyData);
+        target.putShort(offset + 7 + keyBytes, (short) valueData.length);
+        target.put(offset + 9 + keyBytes, valueData);
+        // Publish the record last so a torn write leaves the slot free
+        target.put(offset, SLOT_USED);
+    }
+
+    /**
+     * Copy all entries into a new table and swap it in
+     */
+    private void resize(int newCapacity) throws IOException {
+        if (fileSize(newCapacity) > Integer.MAX_VALUE) {
+            throw new IOException("Hash index " + path + " cannot grow beyond " + capacity + " slots");
+        }
+
+        Path temp = createTable(path, newCapacity);
+        MappedByteBuffer target = map(temp, fileSize(newCapacity));
+        for (int slot = 0; slot < capacity; slot++) {
+            int offset = offset(slot);
+            if (buffer.get(offset) == SLOT_USED) {
+                byte[] keyData = new byte[Short.toUnsignedInt(buffer.getShort(offset + 5))];
+                buffer.get(offset + 7, keyData);
+                byte[] valueData = new byte[Short.toUnsignedInt(buffer.getShort(offset + 7 + keyBytes))];
+                buffer.get(offset + 9 + keyBytes, valueData);
+                insert(target, newCapacity, keyData, buffer.getInt(offset + 1), valueData);
+            }
+        }
+        target.putInt(OFFSET_SIZE, size);
+        target.putInt(OFFSET_DIRTY, dirty ? 1 : 0);
+        target.force();
+
+        move(temp, path);
+        buffer = target;
+        capacity = newCapacity;
+        tombstones = 0;
+        logger.debug("Resized hash index {} to {} slots", path, newCapacity);
+    }
+
+    /**
+     * Write an empty table next to the index file
+     *
+     * @return Path of the new table
+     */
+    private Path createTable(Path target, int tableCapacity) throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + RESIZE_SUFFIX);
+        Files.deleteIfExists(temp);
+        try (FileChannel channel = FileChannel.open(temp,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize(tableCapacity));
+            header.putInt(OFFSET_MAGIC, MAGIC);
+            header.putInt(OFFSET_VERSION, FORMAT_VERSION);
+            header.putInt(OFFSET_KEY_BYTES, keyBytes);
+            header.putInt(OFFSET_VALUE_BYTES, valueBytes);
+            header.putInt(OFFSET_CAPACITY, tableCapacity);
+            header.force();
+        }
+        return temp;
+    }
+
+    private long fileSize(int tableCapacity) {
+        return HEADER_SIZE + (long) tableCapacity * recordSize;
+    }
+
+    private int offset(int slot) {
+        return HEADER_SIZE + slot * recordSize;
+    }
+
+    private byte[] encodeKey(String key) {
+        byte[] keyData = key.getBytes(StandardCharsets.UTF_8);
+        if (keyData.length == 0 || keyData.length > keyBytes) {
+            throw new IllegalArgumentException("Key must be 1 to " + keyBytes + " bytes: " + key);
+        }
+        return keyData;
+    }
+
+    private static MappedByteBuffer map(Path file, long length) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+        }
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * FNV-1a over the key bytes with a final avalanche, so sequential ids spread out
+     */
+    private static int hash(byte[] data) {
+        int h = 0x811C9DC5;
+        for (byte b : data) {
+            h ^= b & 0xFF;
+            h *= 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return "MappedHashIndex[" + path + ", size=" + size + ", capacity=" + capacity + "]";
+    }
+}
@@ -0,0 +1,323 @@
+package com.cstestforge.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Immutable archive file holding many small documents, each compressed on its own, with
+ * an offset index at the end.
+ * <p>
+ * Layout: a header ({@code CSPK}, format version), the deflated entries back to back,
+ * the index (entry count, then key, offset, stored and raw length per entry) and a
+ * trailer holding the index offset, the index CRC-32 and the magic again. Opening a
+ * pack reads only the trailer and the index; reading an entry is one positional read
+ * and an inflate, so a pack of thousands of entries is as cheap to query as one file.
+ * <p>
+ * Packs are never modified. Adding or removing entries means writing a new pack, which
+ * {@link StorageEngine#writePack(File, Source, long)} does atomically. Entries are streamed
+ * into a pack from a {@link Source}, and entries of other packs are copied still compressed,
+ * so rewriting packs never holds more than one entry in memory.
+ */
+public class PackFile implements Closeable {
+
+    /** File name suffix of packs */
+    public static final String SUFFIX = ".pack";
+
+    private static final int MAGIC = 0x4353504B;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int TRAILER_BYTES = 16;
+
+    private final File file;
+    private final FileChannel channel;
+    private final Map<String, Entry> index;
+
+    private PackFile(File file, FileChannel channel, Map<String, Entry> index) {
+        this.file = file;
+        this.channel = channel;
+        this.index = index;
+    }
+
+    /**
+     * Open a pack and load its index
+     *
+     * @param file Pack file
+     * @return Open pack
+     * @throws IOException if the file cannot be read or is not a valid pack
+     */
+    public static PackFile open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < HEADER_BYTES + TRAILER_BYTES) {
+                throw new IOException("Truncated pack file: " + file);
+            }
+            ByteBuffer header = readFully(channel, 0, HEADER_BYTES);
+            ByteBuffer trailer = readFully(channel, size - TRAILER_BYTES, TRAILER_BYTES);
+            long indexOffset = trailer.getLong();
+            int indexCrc = trailer.getInt();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION || trailer.getInt() != MAGIC
+                    || indexOffset < HEADER_BYTES || indexOffset > size - TRAILER_BYTES) {
+                throw new IOException("Not a pack file: " + file);
+            }
+
+            byte[] indexBytes = readFully(channel, indexOffset, (int) (size - TRAILER_BYTES - indexOffset)).array();
+            CRC32 crc = new CRC32();
+            crc.update(indexBytes);
+            if ((int) crc.getValue() != indexCrc) {
+                throw new IOException("Corrupt pack index: " + file);
+            }
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(indexBytes));
+            int count = in.readInt();
+            Map<String, Entry> index = new LinkedHashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                index.put(key, new Entry(in.readLong(), in.readInt(), in.readInt()));
+            }
+            return new PackFile(file, channel, index);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Write the content of a pack, taking entries from a source until it is exhausted or
+     * the pack has reached a size. The index only holds keys and offsets, so a pack of
+     * any size is written with one entry in memory at a time.
+     *
+     * @param source Entries to write, in order; left at the first entry not written
+     * @param maxBytes Size after which no further entry is taken
+     * @return Content writer for {@link DurableFileWriter#write}
+     */
+    public static DurableFileWriter.Content content(Source source, long maxBytes) {
+        return stream -> {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 64 * 1024));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            // Offsets are counted here; DataOutputStream.size() stops at Integer.MAX_VALUE
+            Map<String, Entry> index = new LinkedHashMap<>();
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            long[] position = {HEADER_BYTES};
+            Sink sink = new Sink() {
+                @Override
+                public void add(String key, byte[] raw) throws IOException {
+                    put(key, deflate(deflater, raw), raw.length);
+                }
+
+                @Override
+                public void copy(PackFile pack, String key) throws IOException {
+                    Entry entry = pack.index.get(key);
+                    if (entry == null) {
+                        throw new IOException("No entry " + key + " in " + pack.file);
+                    }
+                    put(key, readFully(pack.channel, entry.offset, entry.storedLength).array(), entry.rawLength);
+                }
+
+                private void put(String key, byte[] stored, int rawLength) throws IOException {
+                    if (index.containsKey(key)) {
+                        return;
+                    }
+                    index.put(key, new Entry(position[0], stored.length, rawLength));
+                    out.write(stored);
+                    position[0] += stored.length;
+                }
+            };
+            try {
+                while (position[0] < maxBytes && source.hasNext()) {
+                    source.writeNext(sink);
+                }
+            } finally {
+                deflater.end();
+            }
+
+            ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+            DataOutputStream indexOut = new DataOutputStream(indexBytes);
+            indexOut.writeInt(index.size());
+            for (Map.Entry<String, Entry> entry : index.entrySet()) {
+                indexOut.writeUTF(entry.getKey());
+                indexOut.writeLong(entry.getValue().offset);
+                indexOut.writeInt(entry.getValue().storedLength);
+                indexOut.writeInt(entry.getValue().rawLength);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(indexBytes.toByteArray());
+
+            long indexOffset = position[0];
+            indexBytes.writeTo(out);
+            out.writeLong(indexOffset);
+            out.writeInt((int) crc.getValue());
+            out.writeInt(MAGIC);
+            out.flush();
+        };
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Get the keys of all entries
+     *
+     * @return Keys in pack order
+     */
+    public Set<String> keys() {
+        return Collections.unmodifiableSet(index.keySet());
+    }
+
+    /**
+     * Check if the pack holds an entry
+     *
+     * @param key Entry key
+     * @return true if present
+     */
+    public boolean contains(String key) {
+        return index.containsKey(key);
+    }
+
+    /**
+     * Get the number of entries
+     *
+     * @return Entry count
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Read an entry
+     *
+     * @param key Entry key
+     * @return Uncompressed content, or null if the pack has no such entry
+     * @throws IOException if the entry cannot be read
+     */
+    public byte[] read(String key) throws IOException {
+        Entry entry = index.get(key);
+        if (entry == null) {
+            return null;
+        }
+        byte[] stored = readFully(channel, entry.offset, entry.storedLength).array();
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(stored);
+            byte[] raw = new byte[entry.rawLength];
+            int length = 0;
+            while (length < raw.length && !inflater.finished()) {
+                length += inflater.inflate(raw, length, raw.length - length);
+                if (inflater.needsInput() && length < raw.length) {
+                    break;
+                }
+            }
+            if (length != raw.length) {
+                throw new IOException("Corrupt pack entry " + key + " in " + file);
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt pack entry " + key + " in " + file, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static byte[] deflate(Deflater deflater, byte[] raw) {
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, raw.length / 4));
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        return out.toByteArray();
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of pack file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Entries to write into packs, taken one at a time
+     */
+    public interface Source {
+        /**
+         * Check if an entry is left to write
+         *
+         * @return true if {@link #writeNext} has an entry to write
+         */
+        boolean hasNext() throws IOException;
+
+        /**
+         * Write the next entry
+         *
+         * @param sink Pack being written
+         */
+        void writeNext(Sink sink) throws IOException;
+    }
+
+    /**
+     * Receives the entries of a pack being written. A key already in the pack is ignored.
+     */
+    public interface Sink {
+        /**
+         * Add an entry
+         *
+         * @param key Entry key
+         * @param raw Uncompressed content
+         */
+        void add(String key, byte[] raw) throws IOException;
+
+        /**
+         * Copy an entry of another pack without recompressing it
+         *
+         * @param pack Open pack holding the entry
+         * @param key Entry key
+         */
+        void copy(PackFile pack, String key) throws IOException;
+    }
+
+    /**
+     * Location of one entry
+     */
+    private static class Entry {
+        private final long offset;
+        private final int storedLength;
+        private final int rawLength;
+
+        private Entry(long offset, int storedLength, int rawLength) {
+            this.offset = offset;
+            this.storedLength = storedLength;
+            this.rawLength = rawLength;
+        }
+    }
+}
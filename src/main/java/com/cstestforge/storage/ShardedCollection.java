@@ -0,0 +1,22 @@
+package com.cstestforge.storage;
+
+/**
+ * A stored collection kept in a {@link ShardedLayout}. Implementations are picked up by
+ * the storage maintenance endpoint, which migrates them all in one call.
+ */
+public interface ShardedCollection {
+
+    /**
+     * Get the collection name shown in migration reports
+     *
+     * @return Collection name
+     */
+    String getCollectionName();
+
+    /**
+     * Move every entry still stored in a flat directory into its bucket
+     *
+     * @return Number of entries moved
+     */
+    int migrateToShards();
+}
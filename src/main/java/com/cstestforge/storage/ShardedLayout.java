@@ -0,0 +1,224 @@
+package com.cstestforge.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32;
+
+/**
+ * Two-level hash-bucketed layout for a collection of entries (files or directories)
+ * that would otherwise pile up in one flat directory.
+ * <p>
+ * An entry named {@code name} lives at {@code <root>/<h1>/<h2>/<name>}, where
+ * {@code h1} and {@code h2} are the first two bytes, in lower-case hex, of the CRC-32
+ * of the name. That gives 65,536 buckets, so a million entries average about fifteen
+ * per directory and no listing, lookup or create touches a large directory.
+ * <p>
+ * Collections written before the layout was introduced keep their entries directly in
+ * the root. {@link #locate(String)} finds such entries until {@link #migrate(Mover)}
+ * has moved them, and iteration yields both kinds. Other files in the root, such as
+ * indexes, are told apart from entries by the entry filter.
+ */
+public class ShardedLayout implements Iterable<File> {
+    private static final Logger logger = LoggerFactory.getLogger(ShardedLayout.class);
+
+    /**
+     * Moves an entry, normally {@link StorageEngine#move(File, File)}
+     */
+    @FunctionalInterface
+    public interface Mover {
+        void move(File source, File target) throws IOException;
+    }
+
+    private final File root;
+    private final Predicate<String> entryFilter;
+
+    /**
+     * Create a layout
+     *
+     * @param root Collection directory
+     * @param entryFilter Accepts the names of entries; other names in the root, and lock
+     *                    sidecars, are ignored
+     */
+    public ShardedLayout(File root, Predicate<String> entryFilter) {
+        this.root = root;
+        this.entryFilter = entryFilter.and(name -> !EnhancedFileLock.isLockFile(name));
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    /**
+     * Get the bucket of an entry name
+     *
+     * @param name Entry name
+     * @return Relative bucket path, e.g. {@code 3f/a0}
+     */
+    public static String bucketOf(String name) {
+        CRC32 crc = new CRC32();
+        crc.update(name.getBytes(StandardCharsets.UTF_8));
+        String hex = String.format("%08x", crc.getValue());
+        return hex.substring(0, 2) + "/" + hex.substring(2, 4);
+    }
+
+    /**
+     * Check if a directory name is a bucket name
+     *
+     * @param name Directory name
+     * @return true for two lower-case hex digits
+     */
+    public static boolean isBucketName(String name) {
+        return name.length() == 2 && isHexDigit(name.charAt(0)) && isHexDigit(name.charAt(1));
+    }
+
+    /**
+     * Get the sharded path of an entry, whether or not it exists. New entries are
+     * always created here.
+     *
+     * @param name Entry name
+     * @return Entry path inside its bucket
+     */
+    public File resolve(String name) {
+        return new File(new File(root, bucketOf(name)), name);
+    }
+
+    /**
+     * Find an existing entry in its bucket or, before migration, in the root
+     *
+     * @param name Entry name
+     * @return Existing entry, or the sharded path if there is none
+     */
+    public File locate(String name) {
+        File sharded = resolve(name);
+        if (sharded.exists()) {
+            return sharded;
+        }
+        File flat = new File(root, name);
+        return flat.exists() && entryFilter.test(name) ? flat : sharded;
+    }
+
+    /**
+     * Iterate all entries: unmigrated entries in the root first, then the buckets in
+     * order. Each bucket directory is listed only when the iteration reaches it.
+     *
+     * @return Entry iterator
+     */
+    @Override
+    public Iterator<File> iterator() {
+        return new EntryIterator();
+    }
+
+    /**
+     * Stream all entries in iteration order
+     *
+     * @return Entry stream
+     */
+    public Stream<File> stream() {
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(iterator(), Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Move the entries still in the root into their buckets. Safe to run repeatedly and
+     * to resume after an interruption; entries already in a bucket are left alone.
+     *
+     * @param mover Moves one entry
+     * @return Number of entries moved
+     */
+    public int migrate(Mover mover) {
+        int moved = 0;
+        for (File entry : flatEntries()) {
+            File target = resolve(entry.getName());
+            if (target.exists()) {
+                logger.warn("Not migrating {}: {} already exists", entry, target);
+                continue;
+            }
+            try {
+                mover.move(entry, target);
+                moved++;
+            } catch (IOException e) {
+                logger.warn("Failed to migrate {} to {}: {}", entry, target, e.getMessage());
+            }
+        }
+        if (moved > 0) {
+            logger.info("Migrated {} entries of {} to the sharded layout", moved, root);
+        }
+        return moved;
+    }
+
+    /**
+     * List the entries stored directly in the root
+     */
+    private File[] flatEntries() {
+        File[] entries = root.listFiles((dir, name) -> !isBucketName(name) && entryFilter.test(name));
+        if (entries == null) {
+            return new File[0];
+        }
+        Arrays.sort(entries);
+        return entries;
+    }
+
+    private static File[] listBuckets(File dir) {
+        File[] buckets = dir.listFiles(file -> isBucketName(file.getName()) && file.isDirectory());
+        if (buckets == null) {
+            return new File[0];
+        }
+        Arrays.sort(buckets);
+        return buckets;
+    }
+
+    private static boolean isHexDigit(char c) {
+        return c >= '0' && c <= '9' || c >= 'a' && c <= 'f';
+    }
+
+    /**
+     * Walks the root entries, then each second-level bucket one at a time
+     */
+    private class EntryIterator implements Iterator<File> {
+        private final Deque<File> pendingBuckets = new ArrayDeque<>();
+        private final Deque<File> firstLevel = new ArrayDeque<>(Arrays.asList(listBuckets(root)));
+        private File[] current = flatEntries();
+        private int position;
+
+        @Override
+        public boolean hasNext() {
+            while (position >= current.length) {
+                if (pendingBuckets.isEmpty()) {
+                    if (firstLevel.isEmpty()) {
+                        return false;
+                    }
+                    pendingBuckets.addAll(Arrays.asList(listBuckets(firstLevel.poll())));
+                    continue;
+                }
+                File bucket = pendingBuckets.poll();
+                File[] entries = bucket.listFiles((dir, name) -> entryFilter.test(name));
+                current = entries != null ? entries : new File[0];
+                Arrays.sort(current);
+                position = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public File next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current[position++];
+        }
+    }
+}
@@ -0,0 +1,505 @@
+package com.cstestforge.storage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiPredicate;
+import java.util.function.LongSupplier;
+
+/**
+ * In-memory sorted index over the summary rows of a document collection.
+ * <p>
+ * Each row holds the sortable and filterable fields of one document. A sorted key set is
+ * kept per sort field, so a page is a seek plus a short scan over rows and only the
+ * documents on the page need to be read. Pages are addressed either by offset or by an
+ * opaque cursor naming the last row of the previous page; seeking to a cursor costs the
+ * same at any depth.
+ * <p>
+ * Row values are normalized to strings, doubles or string lists. Dates sort correctly as
+ * ISO-8601 strings. Null values sort last in ascending order.
+ * <p>
+ * Callers that name their filter get its match count cached until the next change, and
+ * checkpoints every {@value #CHECKPOINT_INTERVAL} matches in each ordering, so an offset
+ * page seeks to the nearest checkpoint instead of scanning from the first row.
+ */
+public class SortedIndex {
+
+    private static final Comparator<Object> VALUE_ORDER = Comparator.nullsLast(SortedIndex::compareValues);
+    private static final int CHECKPOINT_INTERVAL = 256;
+    private static final int MAX_CACHED_FILTERS = 64;
+    // Filter key of unfiltered pages
+    private static final String ALL_ROWS = "";
+
+    // Document ID -> row
+    private final Map<String, Map<String, Object>> rows = new HashMap<>();
+    // Sort field -> keys ordered by field value, then document ID
+    private final Map<String, NavigableSet<Key>> sortedKeys = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // Changes since creation; cached filter statistics are valid for one version
+    private long version;
+    // Filter key -> match count and offset checkpoints, least recently used first
+    private final Map<String, FilterStats> filterStats = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, FilterStats> eldest) {
+            return size() > MAX_CACHED_FILTERS;
+        }
+    };
+
+    /**
+     * Create an index
+     *
+     * @param sortFields Row fields that pages can be sorted by
+     */
+    public SortedIndex(Collection<String> sortFields) {
+        for (String field : sortFields) {
+            sortedKeys.put(field, new TreeSet<>());
+        }
+    }
+
+    /**
+     * Check if a field can be sorted by
+     *
+     * @param field Field name
+     * @return true if the index keeps the field sorted
+     */
+    public boolean isSortField(String field) {
+        return sortedKeys.containsKey(field);
+    }
+
+    /**
+     * Add or replace the row of a document
+     *
+     * @param id Document ID
+     * @param row Field values
+     */
+    public void put(String id, Map<String, ?> row) {
+        Map<String, Object> normalized = normalizeRow(row);
+        lock.writeLock().lock();
+        try {
+            putNormalized(id, normalized);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove the row of a document
+     *
+     * @param id Document ID
+     */
+    public void remove(String id) {
+        lock.writeLock().lock();
+        try {
+            removeKeys(id);
+            version++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replace all rows
+     *
+     * @param content Rows by document ID
+     */
+    public void replaceAll(Map<String, ? extends Map<String, ?>> content) {
+        lock.writeLock().lock();
+        try {
+            rows.clear();
+            sortedKeys.values().forEach(NavigableSet::clear);
+            content.forEach((id, row) -> putNormalized(id, normalizeRow(row)));
+            version++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Get the row of a document
+     *
+     * @param id Document ID
+     * @return Read-only row, or null if the document is not indexed
+     */
+    public Map<String, Object> getRow(String id) {
+        lock.readLock().lock();
+        try {
+            Map<String, Object> row = rows.get(id);
+            return row != null ? Collections.unmodifiableMap(new LinkedHashMap<>(row)) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the number of rows
+     *
+     * @return Row count
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return rows.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Copy all rows, e.g. for persisting the index
+     *
+     * @return Rows by document ID
+     */
+    public Map<String, Map<String, Object>> snapshot() {
+        lock.readLock().lock();
+        try {
+            Map<String, Map<String, Object>> copy = new LinkedHashMap<>();
+            rows.forEach((id, row) -> copy.put(id, new LinkedHashMap<>(row)));
+            return copy;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get one page of document IDs in sort order
+     *
+     * @param field Sort field
+     * @param ascending Sort direction
+     * @param cursor Cursor returned with the previous page, or null to start at the offset
+     * @param offset Number of matching rows to skip; ignored when a cursor is given
+     * @param limit Page size
+     * @param filter Row filter taking the document ID and row, or null for all rows
+     * @return Page of IDs with the total match count and the cursor of the next page
+     * @throws IllegalArgumentException if the field is not sorted or the cursor is invalid
+     */
+    public Page page(String field, boolean ascending, String cursor, int offset, int limit,
+                     BiPredicate<String, Map<String, Object>> filter) {
+        return page(field, ascending, cursor, offset, limit, filter == null ? ALL_ROWS : null, filter);
+    }
+
+    /**
+     * Get one page of document IDs in sort order, caching the match count and offset
+     * checkpoints of the filter under a key
+     *
+     * @param field Sort field
+     * @param ascending Sort direction
+     * @param cursor Cursor returned with the previous page, or null to start at the offset
+     * @param offset Number of matching rows to skip; ignored when a cursor is given
+     * @param limit Page size
+     * @param filterKey Key identifying what the filter matches, or null to cache nothing
+     * @param filter Row filter taking the document ID and row, or null for all rows
+     * @return Page of IDs with the total match count and the cursor of the next page
+     * @throws IllegalArgumentException if the field is not sorted or the cursor is invalid
+     */
+    public Page page(String field, boolean ascending, String cursor, int offset, int limit,
+                     String filterKey, BiPredicate<String, Map<String, Object>> filter) {
+        lock.readLock().lock();
+        try {
+            NavigableSet<Key> keys = sortedKeys.get(field);
+            if (keys == null) {
+                throw new IllegalArgumentException("Not a sort field: " + field);
+            }
+            FilterStats stats = filterKey != null ? statsFor(filterKey) : null;
+            String ordering = field + (ascending ? "+" : "-");
+
+            NavigableSet<Key> view;
+            int skip = offset;
+            // Match number of the first row of the view, while it is known
+            int position = -1;
+            if (cursor != null && !cursor.isEmpty()) {
+                Key after = decodeCursor(cursor, field, ascending);
+                view = ascending ? keys.tailSet(after, false) : keys.headSet(after, false).descendingSet();
+                skip = 0;
+            } else {
+                view = ascending ? keys : keys.descendingSet();
+                position = 0;
+                Key checkpoint = stats != null ? stats.checkpointBefore(ordering, offset) : null;
+                if (checkpoint != null) {
+                    int checkpointPosition = (offset / CHECKPOINT_INTERVAL) * CHECKPOINT_INTERVAL;
+                    view = ascending ? keys.tailSet(checkpoint, true) : keys.headSet(checkpoint, true).descendingSet();
+                    skip = offset - checkpointPosition;
+                    position = checkpointPosition;
+                }
+            }
+
+            List<String> ids = new ArrayList<>();
+            Map<Integer, Key> newCheckpoints = new LinkedHashMap<>();
+            Key last = null;
+            boolean more = false;
+            for (Iterator<Key> it = view.iterator(); it.hasNext(); ) {
+                Key key = it.next();
+                if (filter != null && !filter.test(key.id, Collections.unmodifiableMap(rows.get(key.id)))) {
+                    continue;
+                }
+                if (position >= 0) {
+                    if (position % CHECKPOINT_INTERVAL == 0) {
+                        newCheckpoints.put(position / CHECKPOINT_INTERVAL, key);
+                    }
+                    position++;
+                }
+                if (skip > 0) {
+                    skip--;
+                    continue;
+                }
+                if (ids.size() >= limit) {
+                    more = last != null;
+                    break;
+                }
+                ids.add(key.id);
+                last = key;
+            }
+
+            long total;
+            if (stats != null) {
+                stats.addCheckpoints(ordering, newCheckpoints);
+                total = stats.total(() -> countMatches(filter));
+            } else {
+                total = countMatches(filter);
+            }
+            String nextCursor = more ? encodeCursor(field, ascending, last) : null;
+            return new Page(ids, total, nextCursor);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the cached statistics of a filter for the current version (caller holds the read lock)
+     */
+    private FilterStats statsFor(String filterKey) {
+        synchronized (filterStats) {
+            FilterStats stats = filterStats.get(filterKey);
+            if (stats == null || stats.version != version) {
+                stats = new FilterStats(version);
+                filterStats.put(filterKey, stats);
+            }
+            return stats;
+        }
+    }
+
+    private long countMatches(BiPredicate<String, Map<String, Object>> filter) {
+        if (filter == null) {
+            return rows.size();
+        }
+        long count = 0;
+        for (Map.Entry<String, Map<String, Object>> entry : rows.entrySet()) {
+            if (filter.test(entry.getKey(), Collections.unmodifiableMap(entry.getValue()))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static Map<String, Object> normalizeRow(Map<String, ?> row) {
+        Map<String, Object> normalized = new LinkedHashMap<>();
+        row.forEach((field, value) -> {
+            Object normalizedValue = normalize(value);
+            if (normalizedValue != null) {
+                normalized.put(field, normalizedValue);
+            }
+        });
+        return normalized;
+    }
+
+    /**
+     * Add or replace a normalized row (caller holds the write lock)
+     */
+    private void putNormalized(String id, Map<String, Object> normalized) {
+        removeKeys(id);
+        version++;
+        rows.put(id, normalized);
+        sortedKeys.forEach((field, keys) -> keys.add(new Key(normalized.get(field), id)));
+    }
+
+    private void removeKeys(String id) {
+        Map<String, Object> previous = rows.remove(id);
+        if (previous != null) {
+            sortedKeys.forEach((field, keys) -> keys.remove(new Key(previous.get(field), id)));
+        }
+    }
+
+    private static Object normalize(Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof String) {
+            return value;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof Enum) {
+            return ((Enum<?>) value).name();
+        }
+        if (value instanceof Collection) {
+            List<String> values = new ArrayList<>();
+            for (Object element : (Collection<?>) value) {
+                if (element != null) {
+                    values.add(element.toString());
+                }
+            }
+            return values;
+        }
+        // Dates and other values sort by their string form
+        return value.toString();
+    }
+
+    private static int compareValues(Object a, Object b) {
+        if (a instanceof Double && b instanceof Double) {
+            return Double.compare((Double) a, (Double) b);
+        }
+        if (a instanceof Double) {
+            return -1;
+        }
+        if (b instanceof Double) {
+            return 1;
+        }
+        return a.toString().compareTo(b.toString());
+    }
+
+    /**
+     * Encode a cursor as field, direction, document ID and typed value
+     */
+    private static String encodeCursor(String field, boolean ascending, Key key) {
+        String value;
+        if (key.value == null) {
+            value = "-";
+        } else if (key.value instanceof Double) {
+            value = "n" + key.value;
+        } else {
+            value = "s" + key.value;
+        }
+        String raw = field + "\n" + (ascending ? "a" : "d") + "\n" + key.id + "\n" + value;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Key decodeCursor(String cursor, String field, boolean ascending) {
+        String[] parts;
+        try {
+            parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\n", 4);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor", e);
+        }
+        if (parts.length != 4 || parts[3].isEmpty()) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        // A cursor only continues the ordering it was issued for
+        if (!parts[0].equals(field) || !parts[1].equals(ascending ? "a" : "d")) {
+            throw new IllegalArgumentException("Cursor does not match sort " + field);
+        }
+
+        Object value;
+        switch (parts[3].charAt(0)) {
+            case '-':
+                value = null;
+                break;
+            case 'n':
+                try {
+                    value = Double.parseDouble(parts[3].substring(1));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid cursor", e);
+                }
+                break;
+            case 's':
+                value = parts[3].substring(1);
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid cursor");
+        }
+        return new Key(value, parts[2]);
+    }
+
+    /**
+     * Sort key of a row: field value, then document ID for a stable total order
+     */
+    private static class Key implements Comparable<Key> {
+        private final Object value;
+        private final String id;
+
+        Key(Object value, String id) {
+            this.value = value instanceof List ? value.toString() : value;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            int result = VALUE_ORDER.compare(value, other.value);
+            return result != 0 ? result : id.compareTo(other.id);
+        }
+    }
+
+    /**
+     * Match count and offset checkpoints of one filter at one index version
+     */
+    private static class FilterStats {
+        private final long version;
+        private long total = -1;
+        // Ordering -> key of every CHECKPOINT_INTERVAL-th match, in order
+        private final Map<String, List<Key>> checkpoints = new HashMap<>();
+
+        FilterStats(long version) {
+            this.version = version;
+        }
+
+        synchronized long total(LongSupplier count) {
+            if (total < 0) {
+                total = count.getAsLong();
+            }
+            return total;
+        }
+
+        synchronized Key checkpointBefore(String ordering, int offset) {
+            List<Key> keys = checkpoints.get(ordering);
+            int index = offset / CHECKPOINT_INTERVAL;
+            return keys != null && index > 0 && index < keys.size() ? keys.get(index) : null;
+        }
+
+        synchronized void addCheckpoints(String ordering, Map<Integer, Key> found) {
+            List<Key> keys = checkpoints.computeIfAbsent(ordering, k -> new ArrayList<>());
+            found.forEach((index, key) -> {
+                if (index == keys.size()) {
+                    keys.add(key);
+                }
+            });
+        }
+    }
+
+    /**
+     * One page of document IDs
+     */
+    public static class Page {
+        private final List<String> ids;
+        private final long total;
+        private final String nextCursor;
+
+        public Page(List<String> ids, long total, String nextCursor) {
+            this.ids = ids;
+            this.total = total;
+            this.nextCursor = nextCursor;
+        }
+
+        public List<String> getIds() {
+            return ids;
+        }
+
+        public long getTotal() {
+            return total;
+        }
+
+        public String getNextCursor() {
+            return nextCursor;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.cstestforge.storage;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.File;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * Document writes, deletes and read-modify-write updates applied as one unit by
+ * {@link StorageEngine#writeAll(StorageBatch)}.
+ * <p>
+ * The files of a batch are locked once, in the global lock order, and committed together.
+ * Operations on the same file are applied in the order they were added, so many small
+ * changes to a shared index file cost one read and one write.
+ */
+public class StorageBatch {
+
+    private final List<Operation> operations = new ArrayList<>();
+
+    /**
+     * Write an object as a document
+     *
+     * @param file Document file
+     * @param data Object to write
+     * @return This batch
+     */
+    public StorageBatch write(File file, Object data) {
+        operations.add(new Operation(Operation.Kind.WRITE, file, data, null, null));
+        return this;
+    }
+
+    /**
+     * Write a document tree
+     *
+     * @param file Document file
+     * @param tree Document tree
+     * @return This batch
+     */
+    public StorageBatch writeTree(File file, JsonNode tree) {
+        return write(file, tree);
+    }
+
+    /**
+     * Update a document from its content at commit time, including earlier operations of
+     * this batch on the same file
+     *
+     * @param <T> Type of the document
+     * @param file Document file
+     * @param type Class, or Jackson type for generic documents
+     * @param update Receives the current document, or null if there is none, and returns
+     *               the new document, or null to delete it
+     * @return This batch
+     */
+    @SuppressWarnings("unchecked")
+    public <T> StorageBatch update(File file, Type type, UnaryOperator<T> update) {
+        operations.add(new Operation(Operation.Kind.UPDATE, file, null, type, (UnaryOperator<Object>) update));
+        return this;
+    }
+
+    /**
+     * Delete a document
+     *
+     * @param file Document file
+     * @return This batch
+     */
+    public StorageBatch delete(File file) {
+        operations.add(new Operation(Operation.Kind.DELETE, file, null, null, null));
+        return this;
+    }
+
+    /**
+     * Check if the batch has no operations
+     *
+     * @return true if empty
+     */
+    public boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+    /**
+     * Get the operations in the order they were added
+     *
+     * @return Read-only operations
+     */
+    public List<Operation> getOperations() {
+        return Collections.unmodifiableList(operations);
+    }
+
+    /**
+     * Get the distinct files of the batch
+     *
+     * @return Files by lock key, in order of first use
+     */
+    public Map<String, File> getFiles() {
+        Map<String, File> files = new LinkedHashMap<>();
+        for (Operation operation : operations) {
+            files.putIfAbsent(LockManager.keyFor(operation.file), operation.file);
+        }
+        return files;
+    }
+
+    /**
+     * One staged operation
+     */
+    public static class Operation {
+        /**
+         * Operation kinds
+         */
+        public enum Kind {
+            WRITE, UPDATE, DELETE
+        }
+
+        private final Kind kind;
+        private final File file;
+        private final Object data;
+        private final Type type;
+        private final UnaryOperator<Object> update;
+
+        Operation(Kind kind, File file, Object data, Type type, UnaryOperator<Object> update) {
+            this.kind = kind;
+            this.file = file;
+            this.data = data;
+            this.type = type;
+            this.update = update;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public Object getData() {
+            return data;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public UnaryOperator<Object> getUpdate() {
+            return update;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.cstestforge.storage;
+
+import java.io.File;
+import java.util.Collection;
+
+/**
+ * Listener for storage changes made outside this process.
+ * <p>
+ * The engine has already invalidated its own cache for the changed paths when the
+ * listener is called; listeners drop or refresh whatever they derived from them.
+ */
+@FunctionalInterface
+public interface StorageChangeListener {
+
+    /**
+     * Handle externally changed paths
+     *
+     * @param files Changed or deleted files, and directories whose content may have
+     *              changed entirely (after a rescan)
+     */
+    void onExternalChanges(Collection<File> files);
+}
@@ -0,0 +1,294 @@
+package com.cstestforge.storage;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Storage engine shared by every persistence layer in the application.
+ * <p>
+ * Owns the document cache, the lock model and the serializer configuration, so that a
+ * document written through one service is immediately visible to readers of any other.
+ * Callers resolve their own root directories and pass absolute files; mapping I/O failures
+ * onto service-specific errors is left to the caller.
+ */
+public interface StorageEngine {
+
+    /**
+     * Get the object mapper used to serialize documents
+     *
+     * @return Shared object mapper
+     */
+    ObjectMapper getObjectMapper();
+
+    /**
+     * Read the current state of a document
+     *
+     * @param file Document file
+     * @return Copy of the document tree, or null if the file does not exist or is empty
+     * @throws IOException if the file cannot be read
+     */
+    JsonNode readTree(File file) throws IOException;
+
+    /**
+     * Read a document as an object
+     *
+     * @param <T> Type of object
+     * @param file Document file
+     * @param type Class of the object
+     * @return The object, or null if the file does not exist or is empty
+     * @throws IOException if the file cannot be read or converted
+     */
+    <T> T read(File file, Class<T> type) throws IOException;
+
+    /**
+     * Read a document as an object of a generic type
+     *
+     * @param <T> Type of object
+     * @param file Document file
+     * @param type Full type of the object
+     * @return The object, or null if the file does not exist or is empty
+     * @throws IOException if the file cannot be read or converted
+     */
+    <T> T read(File file, JavaType type) throws IOException;
+
+    /**
+     * Read the current state of a document without some of its top-level fields. The
+     * parser passes over the skipped fields instead of building them, so reading the
+     * summary of a document with a large nested part costs little more than the summary.
+     *
+     * @param file Document file
+     * @param skippedFields Top-level fields to leave out
+     * @return Copy of the document tree without the skipped fields, or null if the file
+     *         does not exist or is empty
+     * @throws IOException if the file cannot be read
+     */
+    JsonNode readTree(File file, Set<String> skippedFields) throws IOException;
+
+    /**
+     * Write an object as a document, creating parent directories as needed
+     *
+     * @param file Document file
+     * @param data Object to write
+     * @throws IOException if the file cannot be written
+     */
+    void write(File file, Object data) throws IOException;
+
+    /**
+     * Write a document tree, creating parent directories as needed
+     *
+     * @param file Document file
+     * @param tree Document tree
+     * @throws IOException if the file cannot be written
+     */
+    void writeTree(File file, JsonNode tree) throws IOException;
+
+    /**
+     * Apply the writes, updates and deletes of a batch as one unit. The files are locked
+     * once, each file is read and written at most once, and all new contents become
+     * visible together; a commit interrupted by a crash is completed on the next start.
+     *
+     * @param batch Staged operations
+     * @throws IOException if the batch cannot be committed; nothing has changed unless the
+     *                     failure happened while renaming, in which case it is completed on
+     *                     restart
+     */
+    void writeAll(StorageBatch batch) throws IOException;
+
+    /**
+     * Delete a document or a directory with everything below it
+     *
+     * @param file File or directory
+     * @return True if nothing is left at the path
+     */
+    boolean delete(File file);
+
+    /**
+     * Move a document or a directory with everything below it. Pending journal entries
+     * are folded in first and version history moves with the document.
+     *
+     * @param source Existing file or directory
+     * @param target New path; must not exist
+     * @throws IOException if the source is missing, the target exists or the move fails
+     */
+    void move(File source, File target) throws IOException;
+
+    /**
+     * List the document names in a directory, excluding storage bookkeeping files
+     *
+     * @param directory Directory
+     * @param filter Optional filter on file names
+     * @return File names
+     */
+    List<String> listFiles(File directory, Predicate<String> filter);
+
+    /**
+     * Lock a file for exclusive access
+     *
+     * @param file File to lock
+     * @return Acquired lock
+     * @throws RuntimeException if the lock cannot be acquired in time
+     */
+    EnhancedFileLock lock(File file);
+
+    /**
+     * Lock several files in the global lock order
+     *
+     * @param files Files to lock
+     * @return Acquired locks, to be released in reverse order
+     * @throws RuntimeException if any lock cannot be acquired in time
+     */
+    List<EnhancedFileLock> lockAll(Collection<File> files);
+
+    /**
+     * Run an action while holding the locks of several files
+     *
+     * @param <R> Result type
+     * @param files Files to lock
+     * @param action Action to run
+     * @return Result of the action
+     */
+    <R> R executeLocked(Collection<File> files, Supplier<R> action);
+
+    /**
+     * Re-encode every document below a directory in the given format. Documents with
+     * pending journal entries are folded into their base file in the process.
+     *
+     * @param root Root directory
+     * @param format Target format
+     * @return Conversion counts and sizes
+     * @throws IOException if the directory cannot be walked
+     */
+    DocumentCodec.ConversionResult convertAll(File root, DocumentCodec.Format format) throws IOException;
+
+    /**
+     * Open a memory-mapped hash index, shared by all callers of the same file.
+     * Open indexes are flushed periodically and closed when their file or a parent
+     * directory is deleted through this engine.
+     *
+     * @param file Index file
+     * @param maxKeyBytes Maximum UTF-8 length of a key
+     * @param maxValueBytes Maximum UTF-8 length of a value
+     * @return Open index
+     * @throws IOException if the index cannot be opened
+     */
+    MappedHashIndex openHashIndex(File file, int maxKeyBytes, int maxValueBytes) throws IOException;
+
+    /**
+     * Open a journaled sorted index, shared by all callers of the same file.
+     * Open indexes have their logs synced periodically and are closed when their file
+     * or a parent directory is deleted through this engine.
+     *
+     * @param file Snapshot file of the index
+     * @param sortFields Row fields that pages can be sorted by; only used when the index
+     *                   is not open yet
+     * @return Open index
+     * @throws IOException if the index cannot be opened
+     */
+    JournaledSortedIndex openSortedIndex(File file, Collection<String> sortFields) throws IOException;
+
+    /**
+     * Open a journaled key-to-set index, shared by all callers of the same file.
+     * Open indexes have their logs synced periodically and are closed when their file
+     * or a parent directory is deleted through this engine.
+     *
+     * @param file Snapshot file of the index
+     * @return Open index
+     * @throws IOException if the index cannot be opened
+     */
+    JournaledSetIndex openSetIndex(File file) throws IOException;
+
+    /**
+     * Open a content-addressed blob store, shared by all callers of the same directory.
+     * Its reference indexes are opened with {@link #openSetIndex(File)} and its
+     * unreferenced blobs are collected periodically.
+     *
+     * @param directory Store directory
+     * @return Open store
+     * @throws IOException if the reference indexes cannot be opened
+     */
+    BlobStore openBlobStore(File directory) throws IOException;
+
+    /**
+     * Open a pack file, shared by all callers of the same file until it is rewritten
+     * or deleted through this engine
+     *
+     * @param file Pack file
+     * @return Open pack with its index loaded
+     * @throws IOException if the file cannot be read or is not a pack
+     */
+    PackFile openPack(File file) throws IOException;
+
+    /**
+     * Write a pack file atomically, replacing any previous content
+     *
+     * @param file Pack file
+     * @param source Entries to write; left at the first entry not written
+     * @param maxBytes Size after which the pack takes no further entries
+     * @throws IOException if the pack cannot be written
+     */
+    void writePack(File file, PackFile.Source source, long maxBytes) throws IOException;
+
+    /**
+     * Delete unreferenced blobs of all open blob stores
+     *
+     * @return Combined collection counts
+     */
+    BlobStore.GarbageCollectionResult collectBlobGarbage();
+
+    /**
+     * Measure stored and uncompressed document sizes below a directory
+     *
+     * @param root Root directory
+     * @return Sizes per compression category
+     * @throws IOException if the directory cannot be walked
+     */
+    Map<String, DocumentCodec.SizeStats> getSizeReport(File root) throws IOException;
+
+    /**
+     * List the recorded versions of a document, oldest first
+     *
+     * @param file Document file
+     * @return Version descriptors
+     */
+    List<VersionHistoryStore.VersionInfo> getVersionHistory(File file);
+
+    /**
+     * Reconstruct a previous version of a document
+     *
+     * @param file Document file
+     * @param sequence Version sequence number
+     * @return Document tree as of that version, or null if not retained
+     */
+    JsonNode readVersion(File file, long sequence);
+
+    /**
+     * Get hit, miss and eviction statistics of the document cache
+     *
+     * @return Cache statistics snapshot
+     */
+    DocumentCache.CacheStats getCacheStats();
+
+    /**
+     * Get lock wait statistics
+     *
+     * @return Lock metrics snapshot
+     */
+    LockManager.LockMetrics getLockMetrics();
+
+    /**
+     * Register a listener for changes made to storage outside this process
+     *
+     * @param listener Listener, called on the watcher thread
+     */
+    void addChangeListener(StorageChangeListener listener);
+}
@@ -12,17 +12,17 @@ import org.springframework.beans.factory.InitializingBean;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Instant;
 import java.util.*;
-import java.util.concurrent.*;
 import java.util.function.Function;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
 /**
  * Enhanced storage manager with caching, versioning, and transaction support.
+ * Resolves paths against the storage base directory and delegates to the shared {@link StorageEngine}.
  */
 @Service
 public class StorageManager implements InitializingBean {
@@ -30,40 +30,16 @@ public class StorageManager implements InitializingBean {
     
     private static final String VERSION_FIELD = "_version";
     private static final String TIMESTAMP_FIELD = "_lastModified";
-    private static final String HISTORY_DIR = "_history";
+    private static final String ARTIFACT_STORE_DIRECTORY = "blobs";
     
     @Value("${cstestforge.storage.base-dir:./storage}")
     private String baseStorageDirectory;
     
-    @Value("${cstestforge.storage.cache.max-size:1000}")
-    private int maxCacheSize;
-    
-    @Value("${cstestforge.storage.cache.ttl-minutes:15}")
-    private int cacheTtlMinutes;
-    
-    @Value("${cstestforge.storage.lock.timeout-seconds:30}")
-    private int lockTimeoutSeconds;
-    
     @Value("${cstestforge.storage.versioning.enabled:true}")
     private boolean versioningEnabled;
     
-    @Value("${cstestforge.storage.versioning.max-versions:10}")
-    private int maxVersions;
-    
     @Autowired
-    private ObjectMapper objectMapper;
-    
-    // LRU cache with time-based eviction
-    private final Map<String, CacheEntry<?>> cache = Collections.synchronizedMap(
-            new LinkedHashMap<String, CacheEntry<?>>(16, 0.75f, true) {
-                @Override
-                protected boolean removeEldestEntry(Map.Entry<String, CacheEntry<?>> eldest) {
-                    return size() > maxCacheSize;
-                }
-            });
-    
-    private final ScheduledExecutorService cacheCleanupService = 
-            Executors.newSingleThreadScheduledExecutor();
+    private StorageEngine storageEngine;
     
     /**
      * Initialize the storage system. Called after properties are set.
@@ -78,37 +54,6 @@ public class StorageManager implements InitializingBean {
                 throw new RuntimeException("Failed to initialize storage system");
             }
         }
-        
-        // Schedule cache cleanup
-        cacheCleanupService.scheduleAtFixedRate(
-                this::cleanupCache, 
-                cacheTtlMinutes, 
-                cacheTtlMinutes, 
-                TimeUnit.MINUTES);
-    }
-    
-    /**
-     * Clean up expired cache entries
-     */
-    private void cleanupCache() {
-        try {
-            logger.debug("Starting cache cleanup");
-            Instant now = Instant.now();
-            
-            synchronized (cache) {
-                Iterator<Map.Entry<String, CacheEntry<?>>> iterator = cache.entrySet().iterator();
-                while (iterator.hasNext()) {
-                    Map.Entry<String, CacheEntry<?>> entry = iterator.next();
-                    if (entry.getValue().isExpired(now)) {
-                        iterator.remove();
-                    }
-                }
-            }
-            
-            logger.debug("Cache cleanup complete. Current size: {}", cache.size());
-        } catch (Exception e) {
-            logger.error("Error during cache cleanup", e);
-        }
     }
     
     /**
@@ -142,34 +87,15 @@ public class StorageManager implements InitializingBean {
      * @param transformFunction Optional function to transform the object
      * @return The object or null if not found
      */
-    @SuppressWarnings("unchecked")
     public <T> T read(String path, Class<T> type, Function<T, T> transformFunction) {
-        String cacheKey = path + "#" + type.getName();
-        
-        // Try to get from cache
-        CacheEntry<T> cacheEntry = (CacheEntry<T>) cache.get(cacheKey);
-        if (cacheEntry != null && !cacheEntry.isExpired(Instant.now())) {
-            logger.debug("Cache hit for: {}", path);
-            return cacheEntry.getData();
-        }
-        
-        // Not in cache, read from file
-        File file = new File(getAbsolutePath(path));
-        if (!file.exists() || !file.isFile()) {
-            return null;
-        }
-        
         try {
-            T data = objectMapper.readValue(file, type);
+            T data = storageEngine.read(new File(getAbsolutePath(path)), type);
             
             // Apply transformation if provided
-            if (transformFunction != null) {
+            if (data != null && transformFunction != null) {
                 data = transformFunction.apply(data);
             }
             
-            // Update cache
-            cache.put(cacheKey, new CacheEntry<>(data));
-            
             return data;
         } catch (IOException e) {
             logger.error("Error reading file: {}", path, e);
@@ -187,34 +113,7 @@ public class StorageManager implements InitializingBean {
      */
     public <T> boolean write(String path, T data) {
         try {
-            File file = new File(getAbsolutePath(path));
-            File parentDir = file.getParentFile();
-            
-            // Create parent directory if needed
-            if (parentDir != null && !parentDir.exists()) {
-                parentDir.mkdirs();
-            }
-            
-            // Add versioning info if enabled
-            if (versioningEnabled && data instanceof Map) {
-                ObjectNode node = objectMapper.valueToTree(data);
-                node.put(VERSION_FIELD, UUID.randomUUID().toString());
-                node.put(TIMESTAMP_FIELD, Instant.now().toString());
-                data = (T) objectMapper.treeToValue(node, data.getClass());
-            }
-            
-            // Create a backup before writing if the file exists and versioning is enabled
-            if (versioningEnabled && file.exists()) {
-                createVersionBackup(path);
-            }
-            
-            // Write to file
-            objectMapper.writerWithDefaultPrettyPrinter().writeValue(file, data);
-            
-            // Update cache
-            String cacheKey = path + "#" + data.getClass().getName();
-            cache.put(cacheKey, new CacheEntry<>(data));
-            
+            storageEngine.writeTree(new File(getAbsolutePath(path)), toTree(data));
             return true;
         } catch (IOException e) {
             logger.error("Error writing to file: {}", path, e);
@@ -223,63 +122,72 @@ public class StorageManager implements InitializingBean {
     }
     
     /**
-     * Create a version backup of a file
-     * 
-     * @param path Path to the file to backup
+     * Convert an object to the tree to store, stamping maps with version info if enabled
      */
-    private void createVersionBackup(String path) throws IOException {
-        File sourceFile = new File(getAbsolutePath(path));
-        if (!sourceFile.exists()) {
-            return;
-        }
+    private JsonNode toTree(Object data) {
+        JsonNode tree = storageEngine.getObjectMapper().valueToTree(data);
         
-        // Read the current version information
-        JsonNode rootNode = objectMapper.readTree(sourceFile);
-        String version = rootNode.has(VERSION_FIELD) ? 
-                rootNode.get(VERSION_FIELD).asText() : 
-                UUID.randomUUID().toString();
-        
-        // Create history directory if it doesn't exist
-        Path historyDir = Paths.get(sourceFile.getParent(), HISTORY_DIR);
-        if (!Files.exists(historyDir)) {
-            Files.createDirectories(historyDir);
+        // Add versioning info if enabled
+        if (versioningEnabled && data instanceof Map) {
+            ObjectNode node = (ObjectNode) tree;
+            node.put(VERSION_FIELD, UUID.randomUUID().toString());
+            node.put(TIMESTAMP_FIELD, Instant.now().toString());
         }
-        
-        // Create versioned backup
-        String timestamp = Instant.now().toString().replace(":", "-");
-        String fileName = sourceFile.getName();
-        String backupFileName = fileName.substring(0, fileName.lastIndexOf('.')) + 
-                "_" + version + "_" + timestamp + ".json";
-        
-        Path backupPath = historyDir.resolve(backupFileName);
-        Files.copy(sourceFile.toPath(), backupPath);
-        
-        // Clean up old versions if needed
-        cleanupOldVersions(historyDir.toFile(), fileName.substring(0, fileName.lastIndexOf('.')));
+        return tree;
+    }
+    
+    /**
+     * Stamp a map with version info if enabled
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T stamp(T map) {
+        if (!versioningEnabled) {
+            return map;
+        }
+        Map<String, Object> stamped = new LinkedHashMap<>((Map<String, Object>) map);
+        stamped.put(VERSION_FIELD, UUID.randomUUID().toString());
+        stamped.put(TIMESTAMP_FIELD, Instant.now().toString());
+        return (T) stamped;
     }
     
     /**
-     * Clean up old versions, keeping only the most recent ones
+     * Start a batch of writes that is committed as one unit
      * 
-     * @param historyDir Directory containing version history
-     * @param filePrefix Prefix of the file name
+     * @return Empty batch
      */
-    private void cleanupOldVersions(File historyDir, String filePrefix) {
-        if (!historyDir.exists() || !historyDir.isDirectory()) {
-            return;
+    public Batch batch() {
+        return new Batch();
+    }
+    
+    /**
+     * List the recorded versions of a document, oldest first
+     * 
+     * @param path Relative path
+     * @return Version descriptors
+     */
+    public List<VersionHistoryStore.VersionInfo> getVersionHistory(String path) {
+        return storageEngine.getVersionHistory(new File(getAbsolutePath(path)));
+    }
+    
+    /**
+     * Reconstruct a previous version of a document
+     * 
+     * @param <T> Type of object
+     * @param path Relative path
+     * @param sequence Version sequence number from {@link #getVersionHistory(String)}
+     * @param type Class of the object
+     * @return The object as of that version, or null if the version is not retained
+     */
+    public <T> T readVersion(String path, long sequence, Class<T> type) {
+        JsonNode tree = storageEngine.readVersion(new File(getAbsolutePath(path)), sequence);
+        if (tree == null) {
+            return null;
         }
-        
-        File[] versionFiles = historyDir.listFiles((dir, name) -> 
-                name.startsWith(filePrefix) && name.endsWith(".json"));
-        
-        if (versionFiles != null && versionFiles.length > maxVersions) {
-            // Sort by last modified time (oldest first)
-            Arrays.sort(versionFiles, Comparator.comparingLong(File::lastModified));
-            
-            // Delete oldest files beyond the max limit
-            for (int i = 0; i < versionFiles.length - maxVersions; i++) {
-                versionFiles[i].delete();
-            }
+        try {
+            return storageEngine.getObjectMapper().treeToValue(tree, type);
+        } catch (IOException e) {
+            logger.error("Error reading version {} of: {}", sequence, path, e);
+            return null;
         }
     }
     
@@ -290,49 +198,44 @@ public class StorageManager implements InitializingBean {
      * @return True if deleted successfully
      */
     public boolean delete(String path) {
-        File file = new File(getAbsolutePath(path));
-        if (!file.exists()) {
-            return true; // Already doesn't exist
-        }
-        
-        // Clear from cache
-        synchronized (cache) {
-            cache.entrySet().removeIf(entry -> entry.getKey().startsWith(path));
-        }
-        
-        // Delete the file or directory
-        if (file.isDirectory()) {
-            return deleteDirectory(file);
-        } else {
-            return file.delete();
-        }
+        return storageEngine.delete(new File(getAbsolutePath(path)));
     }
     
     /**
-     * Recursively delete a directory
+     * Get the hash-sharded layout of a collection directory
      * 
-     * @param directory Directory to delete
-     * @return True if deleted successfully
+     * @param path Relative collection directory
+     * @param entryFilter Accepts the names of collection entries
+     * @return Layout rooted at the directory
      */
-    private boolean deleteDirectory(File directory) {
-        if (directory.exists()) {
-            File[] files = directory.listFiles();
-            if (files != null) {
-                for (File file : files) {
-                    if (file.isDirectory()) {
-                        deleteDirectory(file);
-                    } else {
-                        file.delete();
-                    }
-                }
-            }
-        }
-        return directory.delete();
+    public ShardedLayout shardedLayout(String path, java.util.function.Predicate<String> entryFilter) {
+        return new ShardedLayout(new File(getAbsolutePath(path)), entryFilter);
     }
     
     /**
-     * Check if a file exists
+     * Move the unmigrated entries of a collection into their buckets
+     * 
+     * @param layout Collection layout
+     * @return Number of entries moved
+     */
+    public int migrate(ShardedLayout layout) {
+        return layout.migrate(storageEngine::move);
+    }
+    
+    /**
+     * Get the path of a file relative to the storage root
      * 
+     * @param file File below the storage root
+     * @return Relative path with forward slashes
+     */
+    public String relativePath(File file) {
+        Path base = Paths.get(baseStorageDirectory).toAbsolutePath().normalize();
+        return base.relativize(file.toPath().toAbsolutePath().normalize()).toString().replace(File.separatorChar, '/');
+    }
+    
+    /**
+     * Check if a file exists
+     *
      * @param path Relative path
      * @return True if file exists
      */
@@ -362,22 +265,7 @@ public class StorageManager implements InitializingBean {
      * @return List of file names
      */
     public List<String> listFiles(String directoryPath, java.util.function.Predicate<String> filter) {
-        File dir = new File(getAbsolutePath(directoryPath));
-        
-        if (!dir.exists() || !dir.isDirectory()) {
-            return Collections.emptyList();
-        }
-        
-        File[] files = dir.listFiles();
-        if (files == null) {
-            return Collections.emptyList();
-        }
-        
-        return Arrays.stream(files)
-                .filter(File::isFile)
-                .map(File::getName)
-                .filter(filter != null ? filter : name -> true)
-                .collect(Collectors.toList());
+        return storageEngine.listFiles(new File(getAbsolutePath(directoryPath)), filter);
     }
     
     /**
@@ -387,18 +275,7 @@ public class StorageManager implements InitializingBean {
      * @return Lock object
      */
     public EnhancedFileLock lock(String path) {
-        File file = new File(getAbsolutePath(path));
-        EnhancedFileLock lock = new EnhancedFileLock(file, TimeUnit.SECONDS.toMillis(lockTimeoutSeconds));
-        
-        try {
-            if (lock.acquire()) {
-                return lock;
-            } else {
-                throw new RuntimeException("Failed to acquire lock on: " + path);
-            }
-        } catch (Exception e) {
-            throw new RuntimeException("Error acquiring lock on: " + path, e);
-        }
+        return storageEngine.lock(new File(getAbsolutePath(path)));
     }
     
     /**
@@ -410,47 +287,186 @@ public class StorageManager implements InitializingBean {
      * @return Result of the function
      */
     public <T> T executeInTransaction(List<String> paths, Function<Void, T> function) {
-        // Sort paths to prevent deadlocks
-        List<String> sortedPaths = new ArrayList<>(paths);
-        Collections.sort(sortedPaths);
-        
-        // Acquire locks in order
-        List<EnhancedFileLock> locks = new ArrayList<>();
-        
+        List<File> files = paths.stream()
+                .map(path -> new File(getAbsolutePath(path)))
+                .collect(Collectors.toList());
+        return storageEngine.executeLocked(files, () -> function.apply(null));
+    }
+    
+    /**
+     * Open a memory-mapped hash index
+     * 
+     * @param path Relative path of the index file
+     * @param maxKeyBytes Maximum UTF-8 length of a key
+     * @param maxValueBytes Maximum UTF-8 length of a value
+     * @return Open index, shared by all callers of the same path
+     */
+    public MappedHashIndex openHashIndex(String path, int maxKeyBytes, int maxValueBytes) {
         try {
-            for (String path : sortedPaths) {
-                EnhancedFileLock lock = lock(path);
-                locks.add(lock);
-            }
-            
-            // Execute function
-            return function.apply(null);
-        } finally {
-            // Release locks in reverse order
-            for (int i = locks.size() - 1; i >= 0; i--) {
-                locks.get(i).release();
-            }
+            return storageEngine.openHashIndex(new File(getAbsolutePath(path)), maxKeyBytes, maxValueBytes);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open hash index: " + path, e);
         }
     }
     
     /**
-     * Cache entry with expiration
+     * Open a journaled key-to-set index
+     * 
+     * @param path Relative path of the index snapshot
+     * @return Open index, shared by all callers of the same path
      */
-    private static class CacheEntry<T> {
-        private final T data;
-        private final Instant expirationTime;
+    public JournaledSetIndex openSetIndex(String path) {
+        try {
+            return storageEngine.openSetIndex(new File(getAbsolutePath(path)));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open set index: " + path, e);
+        }
+    }
+    
+    /**
+     * Open a pack file
+     * 
+     * @param path Relative path of the pack
+     * @return Open pack, shared by all callers until the pack is rewritten or deleted
+     * @throws IOException if the pack cannot be read
+     */
+    public PackFile openPack(String path) throws IOException {
+        return storageEngine.openPack(new File(getAbsolutePath(path)));
+    }
+    
+    /**
+     * Write a pack file atomically
+     * 
+     * @param path Relative path of the pack
+     * @param source Entries to write; left at the first entry not written
+     * @param maxBytes Size after which the pack takes no further entries
+     * @return True if successful
+     */
+    public boolean writePack(String path, PackFile.Source source, long maxBytes) {
+        try {
+            storageEngine.writePack(new File(getAbsolutePath(path)), source, maxBytes);
+            return true;
+        } catch (IOException e) {
+            logger.error("Error writing pack: {}", path, e);
+            return false;
+        }
+    }
+    
+    /**
+     * Open a content-addressed blob store
+     * 
+     * @param path Relative store directory
+     * @return Open store, shared by all callers of the same path
+     */
+    public BlobStore openBlobStore(String path) {
+        try {
+            return storageEngine.openBlobStore(new File(getAbsolutePath(path)));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open blob store: " + path, e);
+        }
+    }
+    
+    /**
+     * Get the blob store shared by all execution artifacts (screenshots, videos and logs)
+     * 
+     * @return Artifact blob store
+     */
+    public BlobStore getArtifactStore() {
+        return openBlobStore(ARTIFACT_STORE_DIRECTORY);
+    }
+    
+    /**
+     * Get the shared object mapper used for stored documents
+     * 
+     * @return Object mapper
+     */
+    public ObjectMapper getObjectMapper() {
+        return storageEngine.getObjectMapper();
+    }
+    
+    /**
+     * Get lock wait statistics for all storage locks in this JVM
+     * 
+     * @return Lock metrics snapshot
+     */
+    public LockManager.LockMetrics getLockMetrics() {
+        return storageEngine.getLockMetrics();
+    }
+    
+    /**
+     * Get hit, miss and eviction statistics of the document cache
+     * 
+     * @return Cache statistics snapshot
+     */
+    public DocumentCache.CacheStats getCacheStats() {
+        return storageEngine.getCacheStats();
+    }
+    
+    /**
+     * Writes, updates and deletes by relative path, committed together with
+     * {@link #commit()}. Index files updated by many operations are read and written once.
+     */
+    public class Batch {
+        private final StorageBatch batch = new StorageBatch();
         
-        public CacheEntry(T data) {
-            this.data = data;
-            this.expirationTime = Instant.now().plusSeconds(TimeUnit.MINUTES.toSeconds(15)); // Default 15 minutes
+        private Batch() {
         }
         
-        public T getData() {
-            return data;
+        /**
+         * Stage a write
+         * 
+         * @param <T> Type of object
+         * @param path Relative path
+         * @param data Data to write
+         * @return This batch
+         */
+        public <T> Batch write(String path, T data) {
+            batch.writeTree(new File(getAbsolutePath(path)), toTree(data));
+            return this;
+        }
+        
+        /**
+         * Stage an update of a document from its content at commit time
+         * 
+         * @param <T> Type of object
+         * @param path Relative path
+         * @param type Class of the object
+         * @param update Receives the current object, or null if there is none, and returns
+         *               the new object, or null to delete it
+         * @return This batch
+         */
+        public <T> Batch update(String path, Class<T> type, UnaryOperator<T> update) {
+            batch.update(new File(getAbsolutePath(path)), type, (T current) -> {
+                T updated = update.apply(current);
+                return updated instanceof Map ? stamp(updated) : updated;
+            });
+            return this;
         }
         
-        public boolean isExpired(Instant now) {
-            return now.isAfter(expirationTime);
+        /**
+         * Stage a delete
+         * 
+         * @param path Relative path
+         * @return This batch
+         */
+        public Batch delete(String path) {
+            batch.delete(new File(getAbsolutePath(path)));
+            return this;
+        }
+        
+        /**
+         * Commit the staged operations
+         * 
+         * @return True if successful
+         */
+        public boolean commit() {
+            try {
+                storageEngine.writeAll(batch);
+                return true;
+            } catch (IOException e) {
+                logger.error("Error committing batch of {} operations", batch.getOperations().size(), e);
+                return false;
+            }
         }
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,211 @@
+package com.cstestforge.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Watches storage directory trees for changes made outside this process, such as hand
+ * edits, restores or another instance on a shared volume.
+ * <p>
+ * Every directory under the roots is registered with a {@link WatchService}; directories
+ * created later are registered as they appear. Events are collected for a short settle
+ * period and delivered in one batch of distinct paths. When the watch service drops
+ * events (overflow), the affected directory is rescanned and reported as changed, so the
+ * listener must treat a directory path as "anything below may have changed".
+ */
+public class StorageWatcher {
+    private static final Logger logger = LoggerFactory.getLogger(StorageWatcher.class);
+
+    /**
+     * Receives changed paths
+     */
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * Handle a batch of changes
+         *
+         * @param paths Changed files, deleted files, or directories whose content may
+         *              have changed entirely
+         */
+        void onChanges(Collection<Path> paths);
+    }
+
+    private final List<Path> roots;
+    private final Predicate<Path> ignored;
+    private final long settleMillis;
+    private final Listener listener;
+
+    // Watched directory of each key
+    private final Map<WatchKey, Path> watchedDirs = new ConcurrentHashMap<>();
+    private WatchService watchService;
+    private Thread thread;
+    private volatile boolean running;
+
+    /**
+     * Create a watcher
+     *
+     * @param roots Directory trees to watch; missing roots are created
+     * @param ignored Paths whose changes are not reported, e.g. temporary files
+     * @param settleMillis How long to collect further events before delivering a batch
+     * @param listener Change listener, called on the watcher thread
+     */
+    public StorageWatcher(Collection<Path> roots, Predicate<Path> ignored, long settleMillis, Listener listener) {
+        this.roots = new ArrayList<>(roots);
+        this.ignored = ignored;
+        this.settleMillis = settleMillis;
+        this.listener = listener;
+    }
+
+    /**
+     * Register the roots and start the watcher thread
+     *
+     * @throws IOException if the watch service cannot be created
+     */
+    public void start() throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+        for (Path root : roots) {
+            Files.createDirectories(root);
+            registerTree(root);
+        }
+
+        running = true;
+        thread = new Thread(this::run, "storage-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        logger.info("Watching {} storage roots ({} directories) for external changes", roots.size(), watchedDirs.size());
+    }
+
+    /**
+     * Stop the watcher thread
+     */
+    public void stop() {
+        running = false;
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                logger.debug("Error closing watch service: {}", e.getMessage());
+            }
+        }
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                WatchKey key = watchService.take();
+                Set<Path> changes = new LinkedHashSet<>();
+                handle(key, changes);
+
+                // Collect the rest of the burst before delivering
+                long deadline = System.currentTimeMillis() + settleMillis;
+                long remaining;
+                while ((remaining = deadline - System.currentTimeMillis()) > 0) {
+                    key = watchService.poll(remaining, TimeUnit.MILLISECONDS);
+                    if (key == null) {
+                        break;
+                    }
+                    handle(key, changes);
+                }
+
+                if (!changes.isEmpty()) {
+                    listener.onChanges(changes);
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                break;
+            } catch (RuntimeException e) {
+                logger.error("Error handling storage changes", e);
+            }
+        }
+    }
+
+    /**
+     * Collect the events of a key and re-arm it
+     */
+    private void handle(WatchKey key, Set<Path> changes) {
+        Path dir = watchedDirs.get(key);
+        if (dir == null) {
+            key.cancel();
+            return;
+        }
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // Events were lost; report the whole directory and pick up new subdirectories
+                logger.warn("Storage watch overflow in {}, rescanning", dir);
+                registerTree(dir);
+                changes.add(dir);
+                continue;
+            }
+
+            Path path = dir.resolve((Path) event.context());
+            if (ignored.test(path)) {
+                continue;
+            }
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                // Files may have been written before the directory was registered
+                registerTree(path);
+            }
+            changes.add(path);
+        }
+
+        if (!key.reset()) {
+            // The directory is gone
+            watchedDirs.remove(key);
+        }
+    }
+
+    /**
+     * Register a directory and all its subdirectories
+     */
+    private void registerTree(Path start) {
+        try {
+            Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    if (!dir.equals(start) && ignored.test(dir)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    WatchKey key = dir.register(watchService,
+                            StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY,
+                            StandardWatchEventKinds.ENTRY_DELETE);
+                    watchedDirs.put(key, dir);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    // Deleted while walking
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            logger.warn("Could not watch {}: {}", start, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.cstestforge.storage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory inverted index for full-text search.
+ * <p>
+ * Text is split into lower-case tokens on non-alphanumeric characters and camelCase
+ * boundaries. Every query term matches as a prefix, all terms must match, and hits are
+ * ranked by field weight, saturated term frequency and inverse document frequency, with
+ * exact token matches ranked above prefix matches. The sorted token dictionary makes a
+ * prefix lookup a range scan.
+ */
+public class TextSearchIndex {
+
+    private static final int MAX_TOKEN_LENGTH = 64;
+
+    // Score factor for a token that only starts with the query term
+    private static final double PREFIX_MATCH_FACTOR = 0.6;
+
+    // Token -> document ID -> summed field weight of the token in the document
+    private final NavigableMap<String, Map<String, Double>> postings = new TreeMap<>();
+    private final Map<String, Map<String, Double>> documentTerms = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Split text into search tokens
+     *
+     * @param text Text, may be null
+     * @return Lower-case tokens in order of appearance
+     */
+    public static List<String> tokenize(String text) {
+        if (text == null || text.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<String> tokens = new ArrayList<>();
+        StringBuilder token = new StringBuilder();
+        char previous = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (!Character.isLetterOrDigit(c)) {
+                addToken(tokens, token);
+            } else {
+                // Split camelCase identifiers such as loginButton
+                if (Character.isUpperCase(c) && Character.isLowerCase(previous)) {
+                    addToken(tokens, token);
+                }
+                token.append(Character.toLowerCase(c));
+            }
+            previous = c;
+        }
+        addToken(tokens, token);
+        return tokens;
+    }
+
+    private static void addToken(List<String> tokens, StringBuilder token) {
+        if (token.length() > 0) {
+            tokens.add(token.length() > MAX_TOKEN_LENGTH ? token.substring(0, MAX_TOKEN_LENGTH) : token.toString());
+            token.setLength(0);
+        }
+    }
+
+    /**
+     * Add or replace a document
+     *
+     * @param document Document to index
+     */
+    public void put(Document document) {
+        lock.writeLock().lock();
+        try {
+            removeTerms(document.id);
+            addTerms(document);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove a document
+     *
+     * @param id Document ID
+     * @return true if the document was indexed
+     */
+    public boolean remove(String id) {
+        lock.writeLock().lock();
+        try {
+            return removeTerms(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Get the number of indexed documents
+     *
+     * @return Document count
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return documentTerms.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Find the documents matching every term of a query
+     *
+     * @param query Query text
+     * @param limit Maximum number of hits, 0 for all
+     * @return Hits, best first
+     */
+    public List<Hit> search(String query, int limit) {
+        List<String> terms = tokenize(query);
+        if (terms.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        lock.readLock().lock();
+        try {
+            Map<String, Double> scores = null;
+            for (String term : terms.stream().distinct().toArray(String[]::new)) {
+                Map<String, Double> termScores = scoreTerm(term, scores);
+                if (termScores.isEmpty()) {
+                    return Collections.emptyList();
+                }
+                if (scores == null) {
+                    scores = termScores;
+                } else {
+                    // Keep documents matching all terms so far
+                    Map<String, Double> combined = new HashMap<>();
+                    for (Map.Entry<String, Double> entry : termScores.entrySet()) {
+                        Double previous = scores.get(entry.getKey());
+                        if (previous != null) {
+                            combined.put(entry.getKey(), previous + entry.getValue());
+                        }
+                    }
+                    if (combined.isEmpty()) {
+                        return Collections.emptyList();
+                    }
+                    scores = combined;
+                }
+            }
+
+            List<Hit> hits = new ArrayList<>(scores.size());
+            scores.forEach((id, score) -> hits.add(new Hit(id, score)));
+            hits.sort(Comparator.comparingDouble(Hit::getScore).reversed().thenComparing(Hit::getId));
+            return limit > 0 && hits.size() > limit ? new ArrayList<>(hits.subList(0, limit)) : hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Score the documents containing a token that starts with a term
+     *
+     * @param term Query term
+     * @param candidates Documents matched by earlier terms, or null for all
+     * @return Best score per matching document
+     */
+    private Map<String, Double> scoreTerm(String term, Map<String, Double> candidates) {
+        Map<String, Double> termScores = new HashMap<>();
+        double documentCount = documentTerms.size();
+
+        for (Map.Entry<String, Map<String, Double>> tokenEntry
+                : postings.subMap(term, true, term + Character.MAX_VALUE, false).entrySet()) {
+            Map<String, Double> documents = tokenEntry.getValue();
+            double idf = Math.log(1 + documentCount / documents.size());
+            double matchFactor = tokenEntry.getKey().equals(term) ? 1 : PREFIX_MATCH_FACTOR;
+
+            for (Map.Entry<String, Double> posting : documents.entrySet()) {
+                if (candidates != null && !candidates.containsKey(posting.getKey())) {
+                    continue;
+                }
+                double weight = posting.getValue();
+                double score = idf * matchFactor * weight / (weight + 1.2);
+                termScores.merge(posting.getKey(), score, Math::max);
+            }
+        }
+        return termScores;
+    }
+
+    private void addTerms(Document document) {
+        if (document.termWeights.isEmpty()) {
+            return;
+        }
+        documentTerms.put(document.id, document.termWeights);
+        document.termWeights.forEach((token, weight) ->
+                postings.computeIfAbsent(token, key -> new HashMap<>()).put(document.id, weight));
+    }
+
+    private boolean removeTerms(String id) {
+        Map<String, Double> terms = documentTerms.remove(id);
+        if (terms == null) {
+            return false;
+        }
+        for (String token : terms.keySet()) {
+            Map<String, Double> documents = postings.get(token);
+            if (documents != null) {
+                documents.remove(id);
+                if (documents.isEmpty()) {
+                    postings.remove(token);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Text of a document to index, as weighted fields
+     */
+    public static class Document {
+        private final String id;
+        private final Map<String, Double> termWeights = new LinkedHashMap<>();
+
+        public Document(String id) {
+            this.id = id;
+        }
+
+        /**
+         * Add a field
+         *
+         * @param text Field text, may be null
+         * @param weight Weight of each token occurrence
+         * @return This document
+         */
+        public Document add(String text, double weight) {
+            for (String token : tokenize(text)) {
+                termWeights.merge(token, weight, Double::sum);
+            }
+            return this;
+        }
+
+        public String getId() {
+            return id;
+        }
+    }
+
+    /**
+     * A matching document and its relevance
+     */
+    public static class Hit {
+        private final String id;
+        private final double score;
+
+        public Hit(String id, double score) {
+            this.id = id;
+            this.score = score;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public double getScore() {
+            return score;
+        }
+    }
+}
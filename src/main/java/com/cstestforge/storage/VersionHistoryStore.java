@@ -0,0 +1,422 @@
+package com.cstestforge.storage;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Version history for stored documents, kept as a periodic full snapshot followed by
+ * JSON merge patch deltas in {@code _history/<file>.history}.
+ * All history I/O runs on a single background thread; writers only enqueue the new
+ * document state. Retention is bounded by bytes per document and old records are
+ * dropped at snapshot boundaries so every kept version stays reconstructable.
+ */
+public class VersionHistoryStore {
+    private static final Logger logger = LoggerFactory.getLogger(VersionHistoryStore.class);
+
+    public static final String HISTORY_DIR = "_history";
+    private static final String HISTORY_SUFFIX = ".history";
+    private static final String VERSION_FIELD = "_version";
+    private static final int MAX_TRACKED_DOCUMENTS = 256;
+
+    private final ObjectMapper objectMapper;
+    private final int snapshotInterval;
+    private final long maxBytesPerDocument;
+
+    // Single writer thread; callers run the task themselves when the queue is full
+    private final ThreadPoolExecutor writer = new ThreadPoolExecutor(
+            1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(10_000),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+
+    // Documents known to have a history file, to avoid a stat on every write
+    private final Set<String> knownDocuments = ConcurrentHashMap.newKeySet();
+
+    // Latest recorded state per document; accessed only from the writer thread
+    private final Map<String, HistoryState> states = new LinkedHashMap<String, HistoryState>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, HistoryState> eldest) {
+            return size() > MAX_TRACKED_DOCUMENTS;
+        }
+    };
+
+    /**
+     * Create a history store
+     *
+     * @param objectMapper Object mapper for history records
+     * @param snapshotInterval Number of deltas between full snapshots
+     * @param maxBytesPerDocument Maximum history size per document
+     */
+    public VersionHistoryStore(ObjectMapper objectMapper, int snapshotInterval, long maxBytesPerDocument) {
+        this.objectMapper = objectMapper;
+        this.snapshotInterval = Math.max(1, snapshotInterval);
+        this.maxBytesPerDocument = maxBytesPerDocument;
+    }
+
+    /**
+     * Record a new state of a document. Must be called before the document is overwritten:
+     * the first time a document is seen its current state is captured as the initial snapshot.
+     *
+     * @param document Document file
+     * @param newState State about to be written
+     * @param currentState Supplier of the state currently on disk, used only to seed the history
+     */
+    public void record(File document, JsonNode newState, Callable<JsonNode> currentState) {
+        String key = document.getAbsolutePath();
+        Instant now = Instant.now();
+
+        if (!knownDocuments.contains(key)) {
+            if (!historyFileFor(document).exists() && document.exists()) {
+                try {
+                    JsonNode seed = currentState.call();
+                    if (seed != null) {
+                        writer.execute(() -> append(document, seed, now));
+                    }
+                } catch (Exception e) {
+                    logger.warn("Could not capture initial version of {}: {}", document, e.getMessage());
+                }
+            }
+            knownDocuments.add(key);
+        }
+
+        writer.execute(() -> append(document, newState, now));
+    }
+
+    /**
+     * List the recorded versions of a document, oldest first
+     *
+     * @param document Document file
+     * @return Version descriptors
+     */
+    public List<VersionInfo> listVersions(File document) {
+        return onWriter(() -> {
+            List<VersionInfo> versions = new ArrayList<>();
+            for (JsonNode record : readRecords(historyFileFor(document))) {
+                versions.add(new VersionInfo(
+                        record.path("seq").asLong(),
+                        record.path("timestamp").asText(null),
+                        record.path("version").asText(null),
+                        record.path("snapshot").asBoolean()));
+            }
+            return versions;
+        });
+    }
+
+    /**
+     * Reconstruct a document as of a recorded version
+     *
+     * @param document Document file
+     * @param sequence Version sequence number
+     * @return Document state, or null if the version is not retained
+     */
+    public JsonNode reconstruct(File document, long sequence) {
+        return onWriter(() -> {
+            JsonNode state = null;
+            boolean found = false;
+            for (JsonNode record : readRecords(historyFileFor(document))) {
+                long seq = record.path("seq").asLong();
+                if (seq > sequence) {
+                    break;
+                }
+                JsonNode data = record.get("data");
+                state = record.path("snapshot").asBoolean()
+                        ? data.deepCopy()
+                        : JsonMergePatch.apply(state, data);
+                found = seq == sequence;
+            }
+            return found ? state : null;
+        });
+    }
+
+    /**
+     * Drop the history of a document
+     *
+     * @param document Document file
+     */
+    public void delete(File document) {
+        knownDocuments.remove(document.getAbsolutePath());
+        writer.execute(() -> {
+            states.remove(document.getAbsolutePath());
+            File historyFile = historyFileFor(document);
+            if (historyFile.exists() && !historyFile.delete()) {
+                logger.warn("Failed to delete history file: {}", historyFile);
+            }
+        });
+    }
+
+    /**
+     * Move the history of a document that was moved to another file
+     *
+     * @param document Old document file
+     * @param target New document file
+     */
+    public void move(File document, File target) {
+        knownDocuments.remove(document.getAbsolutePath());
+        writer.execute(() -> {
+            states.remove(document.getAbsolutePath());
+            File historyFile = historyFileFor(document);
+            if (!historyFile.exists()) {
+                return;
+            }
+            try {
+                File targetHistory = historyFileFor(target);
+                Files.createDirectories(targetHistory.getParentFile().toPath());
+                Files.move(historyFile.toPath(), targetHistory.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                logger.warn("Failed to move history of {} to {}: {}", document, target, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Forget tracked state for all documents under a directory that was deleted or moved
+     *
+     * @param absolutePrefix Absolute path prefix
+     */
+    public void forgetUnder(String absolutePrefix) {
+        knownDocuments.removeIf(key -> key.startsWith(absolutePrefix));
+        writer.execute(() -> states.keySet().removeIf(key -> key.startsWith(absolutePrefix)));
+    }
+
+    /**
+     * Wait for queued history records to be written and stop the writer thread
+     *
+     * @param timeoutMs Maximum time to wait
+     */
+    public void shutdown(long timeoutMs) {
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS)) {
+                logger.warn("Version history writer did not finish within {}ms", timeoutMs);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Get the number of history records waiting to be written
+     *
+     * @return Queue length
+     */
+    public int getPendingRecords() {
+        return writer.getQueue().size();
+    }
+
+    private File historyFileFor(File document) {
+        return new File(new File(document.getParentFile(), HISTORY_DIR), document.getName() + HISTORY_SUFFIX);
+    }
+
+    /**
+     * Append a state to the history of a document (writer thread only)
+     */
+    private void append(File document, JsonNode newState, Instant timestamp) {
+        File historyFile = historyFileFor(document);
+        try {
+            HistoryState state = states.get(document.getAbsolutePath());
+            if (state == null) {
+                state = loadState(historyFile);
+                states.put(document.getAbsolutePath(), state);
+            }
+
+            if (state.lastState != null && state.lastState.equals(newState)) {
+                return;
+            }
+
+            JsonNode delta = state.lastState != null && state.deltasSinceSnapshot < snapshotInterval
+                    ? JsonMergePatch.diff(state.lastState, newState)
+                    : null;
+            boolean snapshot = delta == null || !delta.isObject();
+
+            ObjectNode record = objectMapper.createObjectNode();
+            record.put("seq", state.lastSequence + 1);
+            record.put("timestamp", timestamp.toString());
+            if (newState.has(VERSION_FIELD)) {
+                record.put("version", newState.get(VERSION_FIELD).asText());
+            }
+            record.put("snapshot", snapshot);
+            record.set("data", snapshot ? newState : delta);
+
+            byte[] line = (objectMapper.writeValueAsString(record) + "\n").getBytes(StandardCharsets.UTF_8);
+            Files.createDirectories(historyFile.getParentFile().toPath());
+            try (OutputStream out = Files.newOutputStream(historyFile.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE)) {
+                out.write(line);
+            }
+
+            state.lastSequence++;
+            state.lastState = newState;
+            state.deltasSinceSnapshot = snapshot ? 0 : state.deltasSinceSnapshot + 1;
+            state.sizeBytes += line.length;
+
+            if (state.sizeBytes > maxBytesPerDocument) {
+                prune(historyFile, state);
+            }
+        } catch (Exception e) {
+            logger.error("Error recording version history for {}", document, e);
+            states.remove(document.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Rebuild the in-memory state of a history file
+     */
+    private HistoryState loadState(File historyFile) throws IOException {
+        HistoryState state = new HistoryState();
+        for (JsonNode record : readRecords(historyFile)) {
+            JsonNode data = record.get("data");
+            if (record.path("snapshot").asBoolean()) {
+                state.lastState = data;
+                state.deltasSinceSnapshot = 0;
+            } else {
+                state.lastState = JsonMergePatch.apply(state.lastState, data);
+                state.deltasSinceSnapshot++;
+            }
+            state.lastSequence = record.path("seq").asLong();
+        }
+        state.sizeBytes = historyFile.exists() ? historyFile.length() : 0;
+        return state;
+    }
+
+    /**
+     * Drop the oldest records, cutting at the oldest snapshot that keeps the file within budget.
+     * The latest snapshot and its deltas are always retained.
+     */
+    private void prune(File historyFile, HistoryState state) throws IOException {
+        List<String> lines = Files.readAllLines(historyFile.toPath(), StandardCharsets.UTF_8);
+        long[] suffixBytes = new long[lines.size() + 1];
+        for (int i = lines.size() - 1; i >= 0; i--) {
+            suffixBytes[i] = suffixBytes[i + 1] + lines.get(i).getBytes(StandardCharsets.UTF_8).length + 1;
+        }
+
+        int cut = -1;
+        for (int i = 0; i < lines.size(); i++) {
+            if (!objectMapper.readTree(lines.get(i)).path("snapshot").asBoolean()) {
+                continue;
+            }
+            cut = i;
+            if (suffixBytes[i] <= maxBytesPerDocument) {
+                break;
+            }
+        }
+        if (cut <= 0) {
+            return;
+        }
+
+        Path temp = historyFile.toPath().resolveSibling(historyFile.getName() + ".tmp");
+        Files.write(temp, lines.subList(cut, lines.size()), StandardCharsets.UTF_8);
+        Files.move(temp, historyFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        state.sizeBytes = suffixBytes[cut];
+    }
+
+    private List<JsonNode> readRecords(File historyFile) throws IOException {
+        if (!historyFile.exists()) {
+            return Collections.emptyList();
+        }
+
+        List<JsonNode> records = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(historyFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    records.add(objectMapper.readTree(line));
+                } catch (IOException e) {
+                    logger.warn("Ignoring unreadable history record in {}", historyFile);
+                    break;
+                }
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Run a read on the writer thread so it observes every previously queued record
+     */
+    private <R> R onWriter(Callable<R> task) {
+        try {
+            if (writer.isShutdown()) {
+                // A shut-down executor silently drops submissions; nothing more gets queued
+                return task.call();
+            }
+            return writer.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted reading version history", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Error reading version history", e.getCause());
+        } catch (Exception e) {
+            throw new IllegalStateException("Error reading version history", e);
+        }
+    }
+
+    /**
+     * In-memory tail of a document history
+     */
+    private static class HistoryState {
+        private JsonNode lastState;
+        private long lastSequence;
+        private int deltasSinceSnapshot;
+        private long sizeBytes;
+    }
+
+    /**
+     * Descriptor of a recorded document version
+     */
+    public static class VersionInfo {
+        private final long sequence;
+        private final String timestamp;
+        private final String version;
+        private final boolean snapshot;
+
+        public VersionInfo(long sequence, String timestamp, String version, boolean snapshot) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.version = version;
+            this.snapshot = snapshot;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public String getTimestamp() {
+            return timestamp;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+
+        public boolean isSnapshot() {
+            return snapshot;
+        }
+    }
+}
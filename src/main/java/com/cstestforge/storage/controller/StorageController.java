@@ -0,0 +1,193 @@
+package com.cstestforge.storage.controller;
+
+import com.cstestforge.project.model.ApiResponse;
+import com.cstestforge.storage.BlobStore;
+import com.cstestforge.storage.DocumentCodec;
+import com.cstestforge.storage.ShardedCollection;
+import com.cstestforge.storage.StorageEngine;
+import com.cstestforge.storage.StorageManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * REST controller for storage engine maintenance
+ */
+@RestController
+@RequestMapping("/api/storage")
+public class StorageController {
+
+    private static final Logger logger = LoggerFactory.getLogger(StorageController.class);
+
+    private final StorageEngine storageEngine;
+    private final StorageManager storageManager;
+    private final List<ShardedCollection> shardedCollections;
+    private final Set<File> storageRoots = new LinkedHashSet<>();
+
+    @Autowired
+    public StorageController(StorageEngine storageEngine,
+                             StorageManager storageManager,
+                             List<ShardedCollection> shardedCollections,
+                             @Value("${cstestforge.storage.base-dir:./storage}") String baseStorageDirectory,
+                             @Value("${app.storage.root:./storage}") String storageRoot,
+                             @Value("${app.data.directory:./data}") String dataDirectory) {
+        this.storageEngine = storageEngine;
+        this.storageManager = storageManager;
+        this.shardedCollections = shardedCollections;
+        for (String root : new String[] {baseStorageDirectory, storageRoot, dataDirectory}) {
+            storageRoots.add(new File(root).getAbsoluteFile().toPath().normalize().toFile());
+        }
+    }
+
+    /**
+     * Get cache and lock statistics
+     *
+     * @return Storage statistics
+     */
+    @GetMapping("/stats")
+    public ResponseEntity<ApiResponse<Map<String, Object>>> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("cache", storageEngine.getCacheStats());
+        stats.put("locks", storageEngine.getLockMetrics());
+        return ResponseEntity.ok(ApiResponse.success(stats));
+    }
+
+    /**
+     * Get stored and uncompressed sizes per compression category
+     *
+     * @return Size report by category
+     */
+    @GetMapping("/report")
+    public ResponseEntity<ApiResponse<Map<String, DocumentCodec.SizeStats>>> getSizeReport() {
+        try {
+            Map<String, DocumentCodec.SizeStats> report = new TreeMap<>();
+            for (File root : storageRoots) {
+                storageEngine.getSizeReport(root).forEach((category, stats) ->
+                        report.computeIfAbsent(category, key -> new DocumentCodec.SizeStats()).add(stats));
+            }
+            return ResponseEntity.ok(ApiResponse.success(report));
+        } catch (Exception e) {
+            logger.error("Error building storage size report", e);
+            return ResponseEntity
+                    .status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(ApiResponse.error("Error building storage report", e.getMessage()));
+        }
+    }
+
+    /**
+     * Re-encode every stored document in the given format and apply the configured
+     * category compression. Writes keep using the configured cstestforge.storage.codec,
+     * so set it to the same format first.
+     *
+     * @param format Target format (json, smile or cbor)
+     * @return Conversion counts and sizes
+     */
+    @PostMapping("/convert")
+    public ResponseEntity<ApiResponse<DocumentCodec.ConversionResult>> convert(@RequestParam String format) {
+        DocumentCodec.Format target;
+        try {
+            target = DocumentCodec.Format.fromName(format);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity
+                    .status(HttpStatus.BAD_REQUEST)
+                    .body(ApiResponse.error("Unknown storage format", format));
+        }
+
+        try {
+            DocumentCodec.ConversionResult result = new DocumentCodec.ConversionResult(target);
+            for (File root : storageRoots) {
+                result.add(storageEngine.convertAll(root, target));
+            }
+            return ResponseEntity.ok(ApiResponse.success(result, "Storage converted to " + target));
+        } catch (Exception e) {
+            logger.error("Error converting storage to {}", target, e);
+            return ResponseEntity
+                    .status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(ApiResponse.error("Error converting storage", e.getMessage()));
+        }
+    }
+
+    /**
+     * Move every entry of the sharded collections that is still stored flat into its
+     * hash bucket. Safe to run repeatedly; collections also migrate on first use unless
+     * cstestforge.storage.sharding.migrate-on-first-use is false.
+     *
+     * @return Number of entries moved per collection
+     */
+    @PostMapping("/shard")
+    public ResponseEntity<ApiResponse<Map<String, Integer>>> migrateToShards() {
+        try {
+            Map<String, Integer> moved = new LinkedHashMap<>();
+            for (ShardedCollection collection : shardedCollections) {
+                moved.put(collection.getCollectionName(), collection.migrateToShards());
+            }
+            return ResponseEntity.ok(ApiResponse.success(moved, "Storage migrated to the sharded layout"));
+        } catch (Exception e) {
+            logger.error("Error migrating storage to the sharded layout", e);
+            return ResponseEntity
+                    .status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(ApiResponse.error("Error migrating storage", e.getMessage()));
+        }
+    }
+
+    /**
+     * Download a stored execution artifact
+     *
+     * @param hash Blob hash, the part of an artifact reference after "blob:"
+     * @return Artifact content
+     */
+    @GetMapping("/blobs/{hash}")
+    public ResponseEntity<Resource> getBlob(@PathVariable String hash) {
+        BlobStore artifactStore = storageManager.getArtifactStore();
+        try {
+            if (!artifactStore.exists(hash)) {
+                return ResponseEntity.notFound().build();
+            }
+            return ResponseEntity.ok()
+                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                    .contentLength(artifactStore.size(hash))
+                    .body(new InputStreamResource(artifactStore.open(hash)));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (Exception e) {
+            logger.error("Error reading blob {}", hash, e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * Delete the blobs no execution references any more. Runs periodically as well, every
+     * cstestforge.storage.blobs.gc-interval-minutes.
+     *
+     * @return Collection counts
+     */
+    @PostMapping("/blobs/gc")
+    public ResponseEntity<ApiResponse<BlobStore.GarbageCollectionResult>> collectBlobGarbage() {
+        try {
+            // Open the artifact store so it is collected even before its first use
+            storageManager.getArtifactStore();
+            BlobStore.GarbageCollectionResult result = storageEngine.collectBlobGarbage();
+            return ResponseEntity.ok(ApiResponse.success(result, "Deleted " + result.getDeleted() + " unreferenced blobs"));
+        } catch (Exception e) {
+            logger.error("Error collecting unreferenced blobs", e);
+            return ResponseEntity
+                    .status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(ApiResponse.error("Error collecting blobs", e.getMessage()));
+        }
+    }
+}
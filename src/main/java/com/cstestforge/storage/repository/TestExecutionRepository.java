@@ -2,19 +2,24 @@ package com.cstestforge.storage.repository;
 
 import com.cstestforge.project.model.execution.TestExecution;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
 /**
  * Repository for managing test executions.
- * Test executions are stored at "projects/{projectId}/executions/"
+ * Test executions are stored at "projects/{projectId}/executions/" as a summary document
+ * plus detail chunks holding the step executions and screenshots. Only
+ * {@link #findByIdWithDetails(String, String)} loads the details; every other query
+ * returns summaries with empty step and screenshot lists.
  */
 public interface TestExecutionRepository {
 
     /**
-     * Find a test execution by its ID
+     * Find a test execution summary by its ID
      *
      * @param projectId Project ID
      * @param executionId Execution ID
@@ -22,6 +27,15 @@ public interface TestExecutionRepository {
      */
     Optional<TestExecution> findById(String projectId, String executionId);
 
+    /**
+     * Find a test execution by its ID, including its step executions and screenshots
+     *
+     * @param projectId Project ID
+     * @param executionId Execution ID
+     * @return Optional containing the full execution if found
+     */
+    Optional<TestExecution> findByIdWithDetails(String projectId, String executionId);
+
     /**
      * Find all executions for a project
      *
@@ -49,7 +63,8 @@ public interface TestExecutionRepository {
     TestExecution create(String projectId, TestExecution execution);
     
     /**
-     * Update an existing test execution
+     * Update an existing test execution. The stored details are kept when the execution
+     * has no step executions and no screenshots, e.g. when only its status changed.
      *
      * @param projectId Project ID
      * @param executionId Execution ID
@@ -128,4 +143,31 @@ public interface TestExecutionRepository {
      * @return Number of executions deleted
      */
     int deleteOlderThan(String projectId, LocalDateTime cutoffDate);
+    
+    /**
+     * Move executions older than a date out of the hot directories into monthly archive
+     * packs. Archived executions stay indexed and are still returned by every query.
+     *
+     * @param projectId Project ID
+     * @param cutoffDate Archive executions started before this date
+     * @return Number of executions archived
+     */
+    int archiveOlderThan(String projectId, LocalDateTime cutoffDate);
+    
+    /**
+     * Get the typical duration of tests from their past runs
+     *
+     * @param projectId Project ID
+     * @param testIds Test IDs
+     * @return Smoothed duration by test ID, for the tests that have run before
+     */
+    Map<String, Duration> findTestDurations(String projectId, Collection<String> testIds);
+    
+    /**
+     * Record the durations of tests that just ran into their history
+     *
+     * @param projectId Project ID
+     * @param durations Duration by test ID
+     */
+    void recordTestDurations(String projectId, Map<String, Duration> durations);
 } 
\ No newline at end of file
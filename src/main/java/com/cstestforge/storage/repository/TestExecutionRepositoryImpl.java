@@ -2,68 +2,156 @@ package com.cstestforge.storage.repository;
 
 import com.cstestforge.project.model.execution.TestExecution;
 import com.cstestforge.project.model.execution.TestExecutionStatus;
+import com.cstestforge.project.model.execution.TestStepExecution;
+import com.cstestforge.storage.BlobStore;
+import com.cstestforge.storage.JournaledSetIndex;
+import com.cstestforge.storage.MappedHashIndex;
+import com.cstestforge.storage.PackFile;
+import com.cstestforge.storage.ShardedCollection;
+import com.cstestforge.storage.ShardedLayout;
 import com.cstestforge.storage.StorageManager;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.YearMonth;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 /**
  * Implementation of TestExecutionRepository using StorageManager.
- * Test executions are stored at "projects/{projectId}/executions/"
+ * Test executions are stored at "projects/{projectId}/executions/{h1}/{h2}/{executionId}/"
+ * in a {@link ShardedLayout} and summarized in a memory-mapped hash index keyed by
+ * execution ID. Executions saved before sharding sit directly in the executions directory
+ * until the project is migrated. Each execution directory holds a summary document and,
+ * under "details/", the step executions in chunks plus the screenshot list, which only
+ * {@link #findByIdWithDetails(String, String)} reads. The test and run lookups are {@link JournaledSetIndex}es,
+ * so an update appends a record instead of rewriting them. Artifact files named by an
+ * execution are kept in the shared content-addressed {@link BlobStore} and referenced by hash.
+ * Old executions can be archived into monthly {@link PackFile} segments under "_archive/"; they
+ * stay in the indexes and reads fall through to the packs when the hot directory is gone. Each
+ * archive run adds new segments instead of rewriting the month, and small segments of a month
+ * are merged once it has too many.
+ * The smoothed run time of every test is kept in "_durations.json" for test scheduling.
  */
 @Repository
-public class TestExecutionRepositoryImpl implements TestExecutionRepository {
+public class TestExecutionRepositoryImpl implements TestExecutionRepository, ShardedCollection {
 
     private static final Logger logger = LoggerFactory.getLogger(TestExecutionRepositoryImpl.class);
     private static final String EXECUTIONS_DIRECTORY = "projects/%s/executions";
-    private static final String EXECUTION_FILE = "projects/%s/executions/%s/execution.json";
-    private static final String EXECUTION_INDEX_FILE = "projects/%s/executions/_index.json";
-    private static final String TEST_EXECUTIONS_INDEX_FILE = "projects/%s/executions/by_test/_index.json";
-    private static final String TEST_RUN_EXECUTIONS_INDEX_FILE = "projects/%s/executions/by_run/_index.json";
+    private static final String EXECUTION_FILE_NAME = "execution.json";
+    private static final String DETAILS_DIRECTORY = "details";
+    private static final String STEP_CHUNK_PREFIX = "steps-";
+    private static final String ARTIFACTS_FILE_NAME = "artifacts.json";
+    private static final int STEP_CHUNK_SIZE = 100;
+    private static final String EXECUTION_INDEX_FILE = "projects/%s/executions/_index.idx";
+    private static final String LEGACY_EXECUTION_INDEX_FILE = "projects/%s/executions/_index.json";
+    private static final String TEST_EXECUTIONS_INDEX_FILE = "projects/%s/executions/by_test/_index.set";
+    private static final String TEST_RUN_EXECUTIONS_INDEX_FILE = "projects/%s/executions/by_run/_index.set";
+    private static final String LEGACY_TEST_EXECUTIONS_INDEX_FILE = "projects/%s/executions/by_test/_index.json";
+    private static final String ARCHIVE_DIRECTORY = "projects/%s/executions/_archive";
+    private static final String ARCHIVE_CATALOG_FILE_NAME = "catalog.json";
+    private static final String LEGACY_TEST_RUN_EXECUTIONS_INDEX_FILE = "projects/%s/executions/by_run/_index.json";
+    private static final String TEST_DURATIONS_FILE = "projects/%s/executions/_durations.json";
+    
+    // Weight of the latest run in a test's smoothed duration, once it has a few runs
+    private static final double DURATION_SMOOTHING = 0.3;
+
+    // Execution IDs are UUIDs; summaries are compact JSON with the name shortened to fit
+    private static final int INDEX_KEY_BYTES = 64;
+    private static final int INDEX_VALUE_BYTES = 320;
 
     private final StorageManager storageManager;
+    private final ObjectMapper objectMapper;
+    // Serializes executions without their detail fields
+    private final ObjectMapper summaryMapper;
+    private final boolean migrateOnFirstUse;
+    // Size at which an archive segment takes no more executions
+    private final long archiveSegmentMaxBytes;
+    // Segments a month may have before its small ones are merged
+    private final int archiveMaxSegmentsPerMonth;
+
+    // Projects whose execution index has been migrated or recovered in this process
+    private final Set<String> preparedIndexes = ConcurrentHashMap.newKeySet();
+    // Projects whose executions have been moved into the sharded layout in this process
+    private final Set<String> migratedProjects = ConcurrentHashMap.newKeySet();
+    
+    // Serializes archive runs and archive deletions, which rewrite packs and the catalog
+    private final Object archiveLock = new Object();
+    private long lastArchiveGeneration;
+    
+    // Serializes read-modify-write of the test duration histories
+    private final Object durationLock = new Object();
 
     @Autowired
-    public TestExecutionRepositoryImpl(StorageManager storageManager) {
+    public TestExecutionRepositoryImpl(StorageManager storageManager,
+                                       @Value("${cstestforge.storage.sharding.migrate-on-first-use:true}") boolean migrateOnFirstUse,
+                                       @Value("${cstestforge.storage.archive.segment-max-bytes:268435456}") long archiveSegmentMaxBytes,
+                                       @Value("${cstestforge.storage.archive.max-segments-per-month:8}") int archiveMaxSegmentsPerMonth) {
         this.storageManager = storageManager;
+        this.objectMapper = storageManager.getObjectMapper();
+        this.summaryMapper = objectMapper.copy().addMixIn(TestExecution.class, ExecutionSummaryMixin.class);
+        this.migrateOnFirstUse = migrateOnFirstUse;
+        this.archiveSegmentMaxBytes = archiveSegmentMaxBytes;
+        this.archiveMaxSegmentsPerMonth = archiveMaxSegmentsPerMonth;
     }
 
     @Override
     public Optional<TestExecution> findById(String projectId, String executionId) {
-        String executionPath = String.format(EXECUTION_FILE, projectId, executionId);
+        String executionDir = executionDirectory(projectId, executionId);
+        String executionPath = executionDir + "/" + EXECUTION_FILE_NAME;
         if (!storageManager.exists(executionPath)) {
-            return Optional.empty();
+            return findArchived(projectId, executionId, false);
         }
         
         TestExecution execution = storageManager.read(executionPath, TestExecution.class);
+        if (execution != null && hasDetails(execution)) {
+            // Stored before executions were split; move the details out once
+            writeExecution(projectId, executionDir, execution);
+            execution.setStepExecutions(new ArrayList<>());
+            execution.setScreenshotPaths(new ArrayList<>());
+        }
         return Optional.ofNullable(execution);
     }
 
     @Override
-    public List<TestExecution> findAll(String projectId) {
-        // Get the execution index
-        String indexPath = String.format(EXECUTION_INDEX_FILE, projectId);
-        if (!storageManager.exists(indexPath)) {
-            // Create empty index if it doesn't exist
-            createEmptyIndexes(projectId);
-            return Collections.emptyList();
+    public Optional<TestExecution> findByIdWithDetails(String projectId, String executionId) {
+        if (!isHot(projectId, executionId)) {
+            return findArchived(projectId, executionId, true);
         }
-        
+        Optional<TestExecution> execution = findById(projectId, executionId);
+        execution.ifPresent(found -> loadDetails(executionDirectory(projectId, executionId), found));
+        return execution;
+    }
+
+    @Override
+    public List<TestExecution> findAll(String projectId) {
         // Read execution IDs from index
-        Map<String, ExecutionIndexEntry> executionIndex = storageManager.read(indexPath, Map.class);
-        if (executionIndex == null || executionIndex.isEmpty()) {
+        Set<String> executionIds = indexedIds(executionIndex(projectId));
+        if (executionIds.isEmpty()) {
             return Collections.emptyList();
         }
         
         // Load each execution
         List<TestExecution> executions = new ArrayList<>();
-        for (String executionId : executionIndex.keySet()) {
+        for (String executionId : executionIds) {
             findById(projectId, executionId).ifPresent(executions::add);
         }
         
@@ -84,18 +172,13 @@ public class TestExecutionRepositoryImpl implements TestExecutionRepository {
         }
         
         // Get index to filter efficiently
-        String indexPath = String.format(EXECUTION_INDEX_FILE, projectId);
-        if (!storageManager.exists(indexPath)) {
-            return Collections.emptyList();
-        }
-        
-        Map<String, ExecutionIndexEntry> executionIndex = storageManager.read(indexPath, Map.class);
-        if (executionIndex == null || executionIndex.isEmpty()) {
+        MappedHashIndex executionIndex = executionIndex(projectId);
+        if (executionIndex.size() == 0) {
             return Collections.emptyList();
         }
         
         // Filter executions by index metadata first when possible
-        Set<String> filteredIds = new HashSet<>(executionIndex.keySet());
+        Set<String> filteredIds = indexedIds(executionIndex);
         
         // Apply test ID filter if present (using index)
         if (filters.containsKey("testId")) {
@@ -189,13 +272,11 @@ public class TestExecutionRepositoryImpl implements TestExecutionRepository {
         execution.setProjectId(projectId);
         
         // Ensure directories exist
-        String executionsDir = String.format(EXECUTIONS_DIRECTORY, projectId);
-        String executionDir = executionsDir + "/" + execution.getId();
+        String executionDir = executionDirectory(projectId, execution.getId());
         storageManager.createDirectory(executionDir);
         
-        // Save the execution
-        String executionPath = String.format(EXECUTION_FILE, projectId, execution.getId());
-        storageManager.write(executionPath, execution);
+        // Save the summary and details
+        writeExecution(projectId, executionDir, execution);
         
         // Update indexes
         updateIndexes(projectId, execution);
@@ -211,13 +292,21 @@ public class TestExecutionRepositoryImpl implements TestExecutionRepository {
             throw new IllegalArgumentException("Execution not found with ID: " + executionId);
         }
         
+        // Bring an archived execution back with its details, so a summary-only update keeps them
+        if (!isHot(projectId, executionId)) {
+            String executionDir = executionDirectory(projectId, executionId);
+            findArchived(projectId, executionId, true).ifPresent(archived -> {
+                storageManager.createDirectory(executionDir);
+                writeExecution(projectId, executionDir, archived);
+            });
+        }
+        
         // Preserve the ID and project ID
         execution.setId(executionId);
         execution.setProjectId(projectId);
         
         // Save updated execution
-        String executionPath = String.format(EXECUTION_FILE, projectId, executionId);
-        storageManager.write(executionPath, execution);
+        writeExecution(projectId, executionDirectory(projectId, executionId), execution);
         
         // Update indexes
         updateIndexes(projectId, execution);
@@ -235,14 +324,14 @@ public class TestExecutionRepositoryImpl implements TestExecutionRepository {
         
         TestExecution execution = existingExecution.get();
         
-        // Delete execution directory and contents
-        String executionDir = String.format(EXECUTIONS_DIRECTORY, projectId) + "/" + executionId;
-        boolean deleted = storageManager.delete(executionDir);
+        // Delete execution directory and contents, or its archive entry
+        boolean deleted = isHot(projectId, executionId)
+                ? storageManager.delete(executionDirectory(projectId, executionId))
+                : removeFromArchive(projectId, Collections.singleton(executionId));
         
-        // If directory deleted successfully, update indexes
+        // If deleted successfully, update indexes
         if (deleted) {
-            // Remove from indexes
-            removeFromIndexes(projectId, execution);
+            forgetExecution(projectId, execution);
         }
         
         return deleted;
@@ -290,13 +379,7 @@ public class TestExecutionRepositoryImpl implements TestExecutionRepository {
 
     @Override
     public int count(String projectId) {
-        String indexPath = String.format(EXECUTION_INDEX_FILE, projectId);
-        if (!storageManager.exists(indexPath)) {
-            return 0;
-        }
-        
-        Map<String, ?> executionIndex = storageManager.read(indexPath, Map.class);
-        return executionIndex != null ? executionIndex.size() : 0;
+        return executionIndex(projectId).size();
     }
 
     @Override
@@ -396,157 +479,704 @@ public class TestExecutionRepositoryImpl implements TestExecutionRepository {
 
     @Override
     public int deleteOlderThan(String projectId, LocalDateTime cutoffDate) {
-        // Get all executions
-        String indexPath = String.format(EXECUTION_INDEX_FILE, projectId);
-        if (!storageManager.exists(indexPath)) {
-            return 0;
-        }
-        
-        Map<String, ExecutionIndexEntry> executionIndex = storageManager.read(indexPath, Map.class);
-        if (executionIndex == null || executionIndex.isEmpty()) {
-            return 0;
-        }
-        
         // Find executions older than the cutoff date
         List<String> toDelete = new ArrayList<>();
         
-        for (Map.Entry<String, ExecutionIndexEntry> entry : executionIndex.entrySet()) {
-            ExecutionIndexEntry indexEntry = entry.getValue();
-            if (indexEntry.startTime != null && indexEntry.startTime.isBefore(cutoffDate)) {
-                toDelete.add(entry.getKey());
+        executionIndex(projectId).forEach((executionId, summary) -> {
+            ExecutionIndexEntry indexEntry = decodeIndexEntry(executionId, summary);
+            if (indexEntry != null && indexEntry.startTime != null && indexEntry.startTime.isBefore(cutoffDate)) {
+                toDelete.add(executionId);
             }
-        }
+        });
         
-        // Delete each execution
+        // Delete each hot execution; archived ones are dropped with one rewrite per pack
         int deletedCount = 0;
+        List<TestExecution> archived = new ArrayList<>();
         for (String executionId : toDelete) {
-            if (delete(projectId, executionId)) {
+            if (!isHot(projectId, executionId)) {
+                findArchived(projectId, executionId, false).ifPresent(archived::add);
+            } else if (delete(projectId, executionId)) {
                 deletedCount++;
             }
         }
         
+        if (!archived.isEmpty() && removeFromArchive(projectId,
+                archived.stream().map(TestExecution::getId).collect(Collectors.toSet()))) {
+            for (TestExecution execution : archived) {
+                forgetExecution(projectId, execution);
+            }
+            deletedCount += archived.size();
+        }
+        
         return deletedCount;
     }
 
+    @Override
+    public int archiveOlderThan(String projectId, LocalDateTime cutoffDate) {
+        synchronized (archiveLock) {
+            // Group the old executions still in the hot directories by month
+            Map<String, List<String>> byMonth = new TreeMap<>();
+            executionIndex(projectId).forEach((executionId, summary) -> {
+                ExecutionIndexEntry indexEntry = decodeIndexEntry(executionId, summary);
+                if (indexEntry != null && indexEntry.startTime != null && indexEntry.startTime.isBefore(cutoffDate)
+                        && isHot(projectId, executionId)) {
+                    byMonth.computeIfAbsent(YearMonth.from(indexEntry.startTime).toString(), month -> new ArrayList<>())
+                            .add(executionId);
+                }
+            });
+            if (byMonth.isEmpty()) {
+                return 0;
+            }
+            
+            ArchiveCatalog catalog = readCatalog(projectId);
+            ArchiveCatalog updated = catalog.copy();
+            List<String> written = new ArrayList<>();
+            List<String> archived = new ArrayList<>();
+            lastArchiveGeneration = Math.max(System.currentTimeMillis(), lastArchiveGeneration + 1);
+            for (Map.Entry<String, List<String>> month : byMonth.entrySet()) {
+                // New executions go into new segments; the month's existing segments are left alone
+                List<String> segments = updated.segments.computeIfAbsent(month.getKey(), key -> new ArrayList<>());
+                segments.addAll(writeSegments(projectId, month.getKey(),
+                        new HotExecutionSource(projectId, month.getValue(), archived), written));
+                if (segments.size() > archiveMaxSegmentsPerMonth) {
+                    updated.segments.put(month.getKey(), mergeSmallSegments(projectId, month.getKey(), segments, written));
+                }
+            }
+            
+            commitArchive(projectId, updated, written);
+            
+            // The packs are committed; the hot copies can go
+            for (String executionId : archived) {
+                storageManager.delete(executionDirectory(projectId, executionId));
+            }
+            
+            logger.info("Archived {} executions of project {} into {} months", archived.size(), projectId, byMonth.size());
+            return archived.size();
+        }
+    }
+
+    @Override
+    public Map<String, Duration> findTestDurations(String projectId, Collection<String> testIds) {
+        TestDurationHistory history = storageManager.read(String.format(TEST_DURATIONS_FILE, projectId),
+                TestDurationHistory.class);
+        Map<String, Duration> durations = new HashMap<>();
+        if (history == null || history.tests == null) {
+            return durations;
+        }
+        for (String testId : testIds) {
+            TestDurationStats stats = history.tests.get(testId);
+            if (stats != null && stats.samples > 0) {
+                durations.put(testId, Duration.ofMillis(stats.averageMillis));
+            }
+        }
+        return durations;
+    }
+
+    @Override
+    public void recordTestDurations(String projectId, Map<String, Duration> durations) {
+        if (durations.isEmpty()) {
+            return;
+        }
+        String path = String.format(TEST_DURATIONS_FILE, projectId);
+        synchronized (durationLock) {
+            TestDurationHistory history = storageManager.read(path, TestDurationHistory.class);
+            if (history == null || history.tests == null) {
+                history = new TestDurationHistory();
+            }
+            LocalDateTime now = LocalDateTime.now();
+            for (Map.Entry<String, Duration> entry : durations.entrySet()) {
+                TestDurationStats stats = history.tests.computeIfAbsent(entry.getKey(), testId -> new TestDurationStats());
+                // Plain mean over the first runs, then an exponential moving average
+                double weight = Math.max(DURATION_SMOOTHING, 1.0 / (stats.samples + 1));
+                stats.averageMillis += Math.round(weight * (entry.getValue().toMillis() - stats.averageMillis));
+                stats.samples++;
+                stats.lastRun = now;
+            }
+            if (!storageManager.write(path, history)) {
+                logger.warn("Failed to save test durations for project {}", projectId);
+            }
+        }
+    }
+
     /**
-     * Create empty index files for a new project
+     * Write the summary of an execution and, if it carries any, its details in one batch.
+     * Artifact files are moved into the artifact store first and their paths replaced by
+     * blob references; files whose content the store already held are deleted once the
+     * execution references the blobs.
      * 
      * @param projectId Project ID
+     * @param executionDir Relative execution directory
+     * @param execution Execution to write
      */
-    private void createEmptyIndexes(String projectId) {
-        String indexPath = String.format(EXECUTION_INDEX_FILE, projectId);
-        String testIndexPath = String.format(TEST_EXECUTIONS_INDEX_FILE, projectId);
-        String runIndexPath = String.format(TEST_RUN_EXECUTIONS_INDEX_FILE, projectId);
+    private void writeExecution(String projectId, String executionDir, TestExecution execution) {
+        BlobStore artifactStore = storageManager.getArtifactStore();
+        // Stored files by path, so a file listed twice is stored once
+        Map<String, String> interned = new HashMap<>();
+        Set<String> summaryBlobs = new HashSet<>();
+        execution.setVideoPath(internArtifact(artifactStore, execution.getVideoPath(), summaryBlobs, interned));
+        execution.setLogPath(internArtifact(artifactStore, execution.getLogPath(), summaryBlobs, interned));
+        
+        Set<String> detailBlobs = new HashSet<>();
+        if (hasDetails(execution)) {
+            execution.setScreenshotPaths(internArtifacts(artifactStore, execution.getScreenshotPaths(), detailBlobs, interned));
+            if (execution.getStepExecutions() != null) {
+                for (TestStepExecution step : execution.getStepExecutions()) {
+                    step.setScreenshotPaths(internArtifacts(artifactStore, step.getScreenshotPaths(), detailBlobs, interned));
+                }
+            }
+        }
+        
+        StorageManager.Batch batch = storageManager.batch()
+                .write(executionDir + "/" + EXECUTION_FILE_NAME, summaryMapper.valueToTree(execution));
+        
+        if (hasDetails(execution)) {
+            String detailsDir = executionDir + "/" + DETAILS_DIRECTORY;
+            List<TestStepExecution> steps = execution.getStepExecutions() != null
+                    ? execution.getStepExecutions() : Collections.emptyList();
+            int chunks = (steps.size() + STEP_CHUNK_SIZE - 1) / STEP_CHUNK_SIZE;
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                int from = chunk * STEP_CHUNK_SIZE;
+                batch.write(detailsDir + "/" + stepChunkName(chunk),
+                        new ArrayList<>(steps.subList(from, Math.min(from + STEP_CHUNK_SIZE, steps.size()))));
+            }
+            
+            // Drop the chunks of a previously longer step list
+            for (String name : storageManager.listFiles(detailsDir, name -> name.startsWith(STEP_CHUNK_PREFIX))) {
+                if (name.compareTo(stepChunkName(chunks)) >= 0) {
+                    batch.delete(detailsDir + "/" + name);
+                }
+            }
+            
+            ExecutionArtifacts artifacts = new ExecutionArtifacts();
+            artifacts.screenshotPaths = execution.getScreenshotPaths();
+            batch.write(detailsDir + "/" + ARTIFACTS_FILE_NAME, artifacts);
+        }
         
-        if (!storageManager.exists(indexPath)) {
-            storageManager.write(indexPath, new HashMap<String, ExecutionIndexEntry>());
+        if (!batch.commit()) {
+            throw new IllegalStateException("Failed to save execution " + execution.getId());
         }
         
-        if (!storageManager.exists(testIndexPath)) {
-            storageManager.write(testIndexPath, new HashMap<String, Set<String>>());
+        try {
+            artifactStore.setReferences(artifactOwner(projectId, execution.getId(), false), summaryBlobs);
+            if (hasDetails(execution)) {
+                artifactStore.setReferences(artifactOwner(projectId, execution.getId(), true), detailBlobs);
+            }
+        } catch (IOException e) {
+            // Keep the source files: the blobs may be collected without references
+            logger.warn("Could not record artifact references of execution {}: {}", execution.getId(), e.getMessage());
+            return;
         }
         
-        if (!storageManager.exists(runIndexPath)) {
-            storageManager.write(runIndexPath, new HashMap<String, Set<String>>());
+        for (String path : interned.keySet()) {
+            try {
+                Files.deleteIfExists(Paths.get(path));
+            } catch (IOException e) {
+                logger.warn("Could not delete stored artifact {}: {}", path, e.getMessage());
+            }
         }
     }
-
+    
+    /**
+     * Store the artifact files of a path list
+     * 
+     * @param artifactStore Artifact store
+     * @param paths Artifact paths or blob references, may be null
+     * @param blobs Receives the hashes of all referenced blobs
+     * @param interned Blob references of the files stored so far, by path
+     * @return Paths with stored files replaced by blob references
+     */
+    private List<String> internArtifacts(BlobStore artifactStore, List<String> paths, Set<String> blobs,
+                                         Map<String, String> interned) {
+        if (paths == null) {
+            return null;
+        }
+        List<String> references = new ArrayList<>(paths.size());
+        for (String path : paths) {
+            references.add(internArtifact(artifactStore, path, blobs, interned));
+        }
+        return references;
+    }
+    
+    /**
+     * Store an artifact file, unless the path is already a blob reference or not a local file
+     * 
+     * @param artifactStore Artifact store
+     * @param path Artifact path or blob reference, may be null
+     * @param blobs Receives the hash of the referenced blob
+     * @param interned Blob references of the files stored so far, by path; receives the
+     *                 path if its file is stored
+     * @return Blob reference, or the path unchanged if it does not name a local file
+     */
+    private String internArtifact(BlobStore artifactStore, String path, Set<String> blobs,
+                                  Map<String, String> interned) {
+        if (path == null || path.isEmpty()) {
+            return path;
+        }
+        if (BlobStore.isReference(path)) {
+            blobs.add(BlobStore.hashOf(path));
+            return path;
+        }
+        String reference = interned.get(path);
+        if (reference != null) {
+            blobs.add(BlobStore.hashOf(reference));
+            return reference;
+        }
+        
+        try {
+            Path file = Paths.get(path);
+            if (!Files.isRegularFile(file)) {
+                return path;
+            }
+            String hash = artifactStore.putFile(file);
+            blobs.add(hash);
+            interned.put(path, BlobStore.toReference(hash));
+            return BlobStore.toReference(hash);
+        } catch (InvalidPathException e) {
+            return path;
+        } catch (IOException e) {
+            logger.warn("Could not store artifact {}: {}", path, e.getMessage());
+            return path;
+        }
+    }
+    
     /**
-     * Update index files when an execution is created or updated
+     * Get the owner key under which an execution references artifact blobs. Summary and
+     * details reference separately because an update may rewrite only the summary.
      * 
      * @param projectId Project ID
-     * @param execution Execution to index
+     * @param executionId Execution ID
+     * @param details true for the detail artifacts
+     * @return Owner key
      */
-    private void updateIndexes(String projectId, TestExecution execution) {
-        final String indexPath = String.format(EXECUTION_INDEX_FILE, projectId);
-        final String testIndexPath = String.format(TEST_EXECUTIONS_INDEX_FILE, projectId);
-        final String runIndexPath = String.format(TEST_RUN_EXECUTIONS_INDEX_FILE, projectId);
+    private String artifactOwner(String projectId, String executionId, boolean details) {
+        return projectId + "/" + executionId + (details ? "#details" : "#summary");
+    }
+    
+    /**
+     * Remove a deleted execution from the indexes and release its artifacts
+     * 
+     * @param projectId Project ID
+     * @param execution Deleted execution
+     */
+    private void forgetExecution(String projectId, TestExecution execution) {
+        removeFromIndexes(projectId, execution);
+        
+        // Release the artifacts; blobs no other execution uses are collected later
+        try {
+            BlobStore artifactStore = storageManager.getArtifactStore();
+            artifactStore.releaseAll(artifactOwner(projectId, execution.getId(), false));
+            artifactStore.releaseAll(artifactOwner(projectId, execution.getId(), true));
+        } catch (IOException e) {
+            logger.warn("Could not release artifacts of execution {}: {}", execution.getId(), e.getMessage());
+        }
+    }
+    
+    /**
+     * Check if an execution is stored in the hot directories rather than the archive
+     * 
+     * @param projectId Project ID
+     * @param executionId Execution ID
+     * @return true if its summary document exists
+     */
+    private boolean isHot(String projectId, String executionId) {
+        return storageManager.exists(executionDirectory(projectId, executionId) + "/" + EXECUTION_FILE_NAME);
+    }
+    
+    /**
+     * Read an execution from the archive packs of a project
+     * 
+     * @param projectId Project ID
+     * @param executionId Execution ID
+     * @param withDetails true to keep the step executions and screenshots
+     * @return Optional containing the archived execution if found
+     */
+    private Optional<TestExecution> findArchived(String projectId, String executionId, boolean withDetails) {
+        ArchiveCatalog catalog = readCatalog(projectId);
+        if (catalog.segments.isEmpty()) {
+            return Optional.empty();
+        }
         
-        List<String> pathsToLock = Arrays.asList(indexPath, testIndexPath, runIndexPath);
+        byte[] content;
+        try {
+            content = readArchived(projectId, executionId, catalog);
+        } catch (IOException e) {
+            // The pack may have been replaced since the catalog was read
+            ArchiveCatalog current = readCatalog(projectId);
+            if (current.segments.equals(catalog.segments)) {
+                logger.warn("Could not read archived execution {}: {}", executionId, e.getMessage());
+                return Optional.empty();
+            }
+            try {
+                content = readArchived(projectId, executionId, current);
+            } catch (IOException retryError) {
+                logger.warn("Could not read archived execution {}: {}", executionId, retryError.getMessage());
+                return Optional.empty();
+            }
+        }
+        if (content == null) {
+            return Optional.empty();
+        }
         
-        storageManager.executeInTransaction(pathsToLock, unused -> {
-            // Update main execution index
-            Map<String, ExecutionIndexEntry> executionIndex = storageManager.exists(indexPath) 
-                ? storageManager.read(indexPath, Map.class) 
-                : new HashMap<>();
-            
-            if (executionIndex == null) {
-                executionIndex = new HashMap<>();
+        try {
+            TestExecution execution = objectMapper.readValue(content, TestExecution.class);
+            if (!withDetails) {
+                execution.setStepExecutions(new ArrayList<>());
+                execution.setScreenshotPaths(new ArrayList<>());
             }
-            
-            // Create index entry
-            ExecutionIndexEntry indexEntry = new ExecutionIndexEntry();
-            indexEntry.name = execution.getName();
-            indexEntry.testId = execution.getTestId();
-            indexEntry.testRunId = execution.getTestRunId();
-            indexEntry.status = execution.getStatus();
-            indexEntry.startTime = execution.getStartTime();
-            indexEntry.environment = execution.getEnvironment();
-            indexEntry.browser = execution.getBrowser();
-            
-            executionIndex.put(execution.getId(), indexEntry);
-            storageManager.write(indexPath, executionIndex);
-            
-            // Update test index if test ID is present
-            if (execution.getTestId() != null) {
-                updateTestIndex(testIndexPath, execution);
+            return Optional.of(execution);
+        } catch (IOException e) {
+            logger.warn("Unreadable archived execution {}: {}", executionId, e.getMessage());
+            return Optional.empty();
+        }
+    }
+    
+    /**
+     * Find the archived content of an execution. The segments of the month of its indexed
+     * start time are tried first, newest first; the others only if that fails.
+     * 
+     * @param projectId Project ID
+     * @param executionId Execution ID
+     * @param catalog Archive catalog
+     * @return Serialized execution, or null if not archived
+     */
+    private byte[] readArchived(String projectId, String executionId, ArchiveCatalog catalog) throws IOException {
+        List<String> packNames = new ArrayList<>();
+        // Opened without preparing the index, which may itself be rebuilding through here
+        ExecutionIndexEntry indexEntry = decodeIndexEntry(executionId, openExecutionIndex(projectId).get(executionId));
+        if (indexEntry != null && indexEntry.startTime != null) {
+            List<String> segments = new ArrayList<>(catalog.segments.getOrDefault(
+                    YearMonth.from(indexEntry.startTime).toString(), Collections.emptyList()));
+            Collections.reverse(segments);
+            packNames.addAll(segments);
+        }
+        for (String packName : catalog.allSegments()) {
+            if (!packNames.contains(packName)) {
+                packNames.add(packName);
             }
-            
-            // Update run index if test run ID is present
-            if (execution.getTestRunId() != null) {
-                updateRunIndex(runIndexPath, execution);
+        }
+        
+        for (String packName : packNames) {
+            byte[] content = storageManager.openPack(archivePath(projectId, packName)).read(executionId);
+            if (content != null) {
+                return content;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Drop executions from the archive, rewriting each affected segment once
+     * 
+     * @param projectId Project ID
+     * @param executionIds Execution IDs
+     * @return true if any segment held one of them
+     */
+    private boolean removeFromArchive(String projectId, Set<String> executionIds) {
+        synchronized (archiveLock) {
+            ArchiveCatalog catalog = readCatalog(projectId);
+            ArchiveCatalog updated = catalog.copy();
+            List<String> written = new ArrayList<>();
+            boolean changed = false;
+            lastArchiveGeneration = Math.max(System.currentTimeMillis(), lastArchiveGeneration + 1);
+            for (Map.Entry<String, List<String>> month : updated.segments.entrySet()) {
+                List<String> segments = new ArrayList<>();
+                for (String packName : month.getValue()) {
+                    PackFile pack;
+                    try {
+                        pack = storageManager.openPack(archivePath(projectId, packName));
+                    } catch (IOException e) {
+                        logger.warn("Could not open archive pack {}: {}", packName, e.getMessage());
+                        segments.add(packName);
+                        continue;
+                    }
+                    if (executionIds.stream().noneMatch(pack::contains)) {
+                        segments.add(packName);
+                        continue;
+                    }
+                    
+                    // Copy the remaining entries; a segment left empty is dropped
+                    segments.addAll(writeSegments(projectId, month.getKey(),
+                            new PackCopySource(List.of(pack), executionIds), written));
+                    changed = true;
+                }
+                month.setValue(segments);
+            }
+            if (!changed) {
+                return false;
             }
             
-            return null;
-        });
+            commitArchive(projectId, updated, written);
+            return true;
+        }
     }
     
     /**
-     * Update the test-to-executions index
+     * Write the entries of a source into new segments of a month, each holding up to the
+     * configured segment size
      * 
-     * @param testIndexPath Path to the test index file
-     * @param execution Execution to index
+     * @param projectId Project ID
+     * @param month Month, e.g. "2024-03"
+     * @param source Entries to write
+     * @param written Packs written by the current archive run, for rollback
+     * @return Names of the new segments, none if the source is empty
+     */
+    private List<String> writeSegments(String projectId, String month, PackFile.Source source, List<String> written) {
+        List<String> segments = new ArrayList<>();
+        try {
+            while (source.hasNext()) {
+                // Each run writes segments under new names, so readers of the old ones are not disturbed
+                String packName = month + "." + lastArchiveGeneration + "-" + written.size() + PackFile.SUFFIX;
+                if (!storageManager.writePack(archivePath(projectId, packName), source, archiveSegmentMaxBytes)) {
+                    throw new IllegalStateException("Failed to write archive pack " + packName);
+                }
+                written.add(packName);
+                segments.add(packName);
+            }
+        } catch (IOException | RuntimeException e) {
+            written.forEach(name -> storageManager.delete(archivePath(projectId, name)));
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            }
+            throw new RuntimeException("Failed to write archive of month " + month, e);
+        }
+        return segments;
+    }
+    
+    /**
+     * Merge the segments of a month that are below the segment size into as few segments
+     * as possible, copying their entries still compressed. Segments are ordered oldest first.
+     * 
+     * @param projectId Project ID
+     * @param month Month, e.g. "2024-03"
+     * @param segments Current segments of the month
+     * @param written Packs written by the current archive run, for rollback
+     * @return New segments of the month
+     */
+    private List<String> mergeSmallSegments(String projectId, String month, List<String> segments, List<String> written) {
+        List<String> merged = new ArrayList<>();
+        List<PackFile> small = new ArrayList<>();
+        Set<String> stale = new HashSet<>();
+        Set<String> fullKeys = new HashSet<>();
+        Set<String> claimed = new HashSet<>();
+        
+        // Newest first, so each execution is taken from its latest copy and dropped if a
+        // newer segment that stays unmerged already holds it
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            String packName = segments.get(i);
+            PackFile pack;
+            try {
+                pack = storageManager.openPack(archivePath(projectId, packName));
+            } catch (IOException e) {
+                logger.warn("Could not open archive pack {}, leaving it unmerged: {}", packName, e.getMessage());
+                merged.add(0, packName);
+                continue;
+            }
+            if (pack.getFile().length() >= archiveSegmentMaxBytes) {
+                merged.add(0, packName);
+                fullKeys.addAll(pack.keys());
+                continue;
+            }
+            small.add(pack);
+            for (String key : pack.keys()) {
+                if (claimed.add(key) && fullKeys.contains(key)) {
+                    stale.add(key);
+                }
+            }
+        }
+        if (small.size() < 2) {
+            return segments;
+        }
+        
+        // The merged segments hold the newest copies of their executions, so they go last
+        merged.addAll(writeSegments(projectId, month, new PackCopySource(small, stale), written));
+        return merged;
+    }
+    
+    /**
+     * Switch the catalog to new segments in one write. Packs the catalog no longer names,
+     * including any left by an interrupted run, are deleted afterwards.
+     * 
+     * @param projectId Project ID
+     * @param updated New catalog
+     * @param written Packs written for the new catalog, deleted if it cannot be saved
      */
-    private void updateTestIndex(String testIndexPath, TestExecution execution) {
-        Map<String, Set<String>> testIndex = storageManager.exists(testIndexPath)
-            ? storageManager.read(testIndexPath, Map.class)
-            : new HashMap<>();
+    private void commitArchive(String projectId, ArchiveCatalog updated, List<String> written) {
+        updated.segments.values().removeIf(List::isEmpty);
         
-        if (testIndex == null) {
-            testIndex = new HashMap<>();
+        // The single index update that makes the new packs visible
+        if (!storageManager.write(archivePath(projectId, ARCHIVE_CATALOG_FILE_NAME), updated)) {
+            written.forEach(name -> storageManager.delete(archivePath(projectId, name)));
+            throw new IllegalStateException("Failed to update the execution archive of project " + projectId);
         }
         
-        String testId = execution.getTestId();
-        if (!testIndex.containsKey(testId)) {
-            testIndex.put(testId, new HashSet<>());
+        Set<String> current = new HashSet<>(updated.allSegments());
+        for (String name : storageManager.listFiles(String.format(ARCHIVE_DIRECTORY, projectId),
+                name -> name.endsWith(PackFile.SUFFIX))) {
+            if (!current.contains(name)) {
+                storageManager.delete(archivePath(projectId, name));
+            }
+        }
+    }
+    
+    /**
+     * Read the archive catalog of a project
+     * 
+     * @param projectId Project ID
+     * @return Catalog, empty if nothing is archived
+     */
+    private ArchiveCatalog readCatalog(String projectId) {
+        ArchiveCatalog catalog = storageManager.read(archivePath(projectId, ARCHIVE_CATALOG_FILE_NAME), ArchiveCatalog.class);
+        if (catalog == null) {
+            return new ArchiveCatalog();
+        }
+        if (catalog.segments == null) {
+            catalog.segments = new TreeMap<>();
         }
         
-        testIndex.get(testId).add(execution.getId());
-        storageManager.write(testIndexPath, testIndex);
+        // Written with a single pack per month before segments
+        if (catalog.packs != null) {
+            catalog.packs.forEach((month, packName) -> catalog.segments
+                    .computeIfAbsent(month, key -> new ArrayList<>()).add(0, packName));
+            catalog.packs = null;
+        }
+        return catalog;
+    }
+    
+    private String archivePath(String projectId, String fileName) {
+        return String.format(ARCHIVE_DIRECTORY, projectId) + "/" + fileName;
     }
     
     /**
-     * Update the run-to-executions index
+     * Read the detail chunks of an execution into it
      * 
-     * @param runIndexPath Path to the run index file
-     * @param execution Execution to index
+     * @param executionDir Relative execution directory
+     * @param execution Execution summary to complete
+     */
+    private void loadDetails(String executionDir, TestExecution execution) {
+        String detailsDir = executionDir + "/" + DETAILS_DIRECTORY;
+        List<String> chunkNames = new ArrayList<>(storageManager.listFiles(detailsDir,
+                name -> name.startsWith(STEP_CHUNK_PREFIX) && name.endsWith(".json")));
+        Collections.sort(chunkNames);
+        
+        List<TestStepExecution> steps = new ArrayList<>();
+        for (String name : chunkNames) {
+            TestStepExecution[] chunk = storageManager.read(detailsDir + "/" + name, TestStepExecution[].class);
+            if (chunk != null) {
+                steps.addAll(Arrays.asList(chunk));
+            }
+        }
+        execution.setStepExecutions(steps);
+        
+        ExecutionArtifacts artifacts = storageManager.read(detailsDir + "/" + ARTIFACTS_FILE_NAME, ExecutionArtifacts.class);
+        execution.setScreenshotPaths(artifacts != null && artifacts.screenshotPaths != null
+                ? new ArrayList<>(artifacts.screenshotPaths) : new ArrayList<>());
+    }
+    
+    /**
+     * Check if an execution carries detail data
+     * 
+     * @param execution Execution
+     * @return true if it has step executions or screenshots
+     */
+    private boolean hasDetails(TestExecution execution) {
+        return execution.getStepExecutions() != null && !execution.getStepExecutions().isEmpty()
+                || execution.getScreenshotPaths() != null && !execution.getScreenshotPaths().isEmpty();
+    }
+    
+    private String stepChunkName(int chunk) {
+        return String.format("%s%05d.json", STEP_CHUNK_PREFIX, chunk);
+    }
+    
+    /**
+     * Import the JSON test and run indexes of older versions into the set indexes
+     * 
+     * @param projectId Project ID
      */
-    private void updateRunIndex(String runIndexPath, TestExecution execution) {
-        Map<String, Set<String>> runIndex = storageManager.exists(runIndexPath)
-            ? storageManager.read(runIndexPath, Map.class)
-            : new HashMap<>();
+    private void importLegacySetIndexes(String projectId) {
+        importLegacySetIndex(String.format(LEGACY_TEST_EXECUTIONS_INDEX_FILE, projectId), testIndex(projectId));
+        importLegacySetIndex(String.format(LEGACY_TEST_RUN_EXECUTIONS_INDEX_FILE, projectId), runIndex(projectId));
+    }
+    
+    /**
+     * Copy a JSON key-to-IDs index into a set index and remove it
+     * 
+     * @param legacyPath Path to the JSON index
+     * @param index Set index
+     */
+    private void importLegacySetIndex(String legacyPath, JournaledSetIndex index) {
+        if (!storageManager.exists(legacyPath)) {
+            return;
+        }
         
-        if (runIndex == null) {
-            runIndex = new HashMap<>();
+        Map<String, Object> legacyIndex = storageManager.read(legacyPath, Map.class);
+        Map<String, Set<String>> content = new HashMap<>();
+        if (legacyIndex != null) {
+            for (Map.Entry<String, Object> entry : legacyIndex.entrySet()) {
+                // Skip the _version and _lastModified stamps of the storage manager
+                if (entry.getKey().startsWith("_") || !(entry.getValue() instanceof Collection)) {
+                    continue;
+                }
+                Set<String> ids = new HashSet<>();
+                for (Object id : (Collection<?>) entry.getValue()) {
+                    ids.add(String.valueOf(id));
+                }
+                content.put(entry.getKey(), ids);
+            }
         }
         
-        String runId = execution.getTestRunId();
-        if (!runIndex.containsKey(runId)) {
-            runIndex.put(runId, new HashSet<>());
+        try {
+            index.replaceAll(content);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to import execution index " + legacyPath, e);
         }
+        storageManager.delete(legacyPath);
+        logger.info("Migrated {} keys from {} to a journaled index", content.size(), legacyPath);
+    }
+    
+    /**
+     * Get the test-to-executions index of a project
+     * 
+     * @param projectId Project ID
+     * @return Set index keyed by test ID
+     */
+    private JournaledSetIndex testIndex(String projectId) {
+        return storageManager.openSetIndex(String.format(TEST_EXECUTIONS_INDEX_FILE, projectId));
+    }
+    
+    /**
+     * Get the run-to-executions index of a project
+     * 
+     * @param projectId Project ID
+     * @return Set index keyed by test run ID
+     */
+    private JournaledSetIndex runIndex(String projectId) {
+        return storageManager.openSetIndex(String.format(TEST_RUN_EXECUTIONS_INDEX_FILE, projectId));
+    }
+
+    /**
+     * Update the indexes when an execution is created or updated. Each index changes
+     * in place, so the cost does not depend on the number of executions.
+     * 
+     * @param projectId Project ID
+     * @param execution Execution to index
+     */
+    private void updateIndexes(String projectId, TestExecution execution) {
+        // Update main execution index in place
+        putIndexEntry(executionIndex(projectId), execution);
         
-        runIndex.get(runId).add(execution.getId());
-        storageManager.write(runIndexPath, runIndex);
+        try {
+            // Update test index if test ID is present
+            if (execution.getTestId() != null) {
+                testIndex(projectId).add(execution.getTestId(), execution.getId());
+            }
+            
+            // Update run index if test run ID is present
+            if (execution.getTestRunId() != null) {
+                runIndex(projectId).add(execution.getTestRunId(), execution.getId());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to update execution index for " + execution.getId(), e);
+        }
     }
     
     /**
@@ -556,58 +1186,22 @@ public class TestExecutionRepositoryImpl implements TestExecutionRepository {
      * @param execution Execution to remove
      */
     private void removeFromIndexes(String projectId, TestExecution execution) {
-        final String indexPath = String.format(EXECUTION_INDEX_FILE, projectId);
-        final String testIndexPath = String.format(TEST_EXECUTIONS_INDEX_FILE, projectId);
-        final String runIndexPath = String.format(TEST_RUN_EXECUTIONS_INDEX_FILE, projectId);
-        
-        List<String> pathsToLock = Arrays.asList(indexPath, testIndexPath, runIndexPath);
-        
-        storageManager.executeInTransaction(pathsToLock, unused -> {
-            // Remove from main execution index
-            if (storageManager.exists(indexPath)) {
-                Map<String, ExecutionIndexEntry> executionIndex = storageManager.read(indexPath, Map.class);
-                if (executionIndex != null) {
-                    executionIndex.remove(execution.getId());
-                    storageManager.write(indexPath, executionIndex);
-                }
-            }
-            
+        // Remove from main execution index
+        executionIndex(projectId).remove(execution.getId());
+        
+        try {
             // Remove from test index if test ID is present
-            if (execution.getTestId() != null && storageManager.exists(testIndexPath)) {
-                Map<String, Set<String>> testIndex = storageManager.read(testIndexPath, Map.class);
-                if (testIndex != null) {
-                    String testId = execution.getTestId();
-                    if (testIndex.containsKey(testId)) {
-                        testIndex.get(testId).remove(execution.getId());
-                        
-                        if (testIndex.get(testId).isEmpty()) {
-                            testIndex.remove(testId);
-                        }
-                        
-                        storageManager.write(testIndexPath, testIndex);
-                    }
-                }
+            if (execution.getTestId() != null) {
+                testIndex(projectId).remove(execution.getTestId(), execution.getId());
             }
             
             // Remove from run index if test run ID is present
-            if (execution.getTestRunId() != null && storageManager.exists(runIndexPath)) {
-                Map<String, Set<String>> runIndex = storageManager.read(runIndexPath, Map.class);
-                if (runIndex != null) {
-                    String runId = execution.getTestRunId();
-                    if (runIndex.containsKey(runId)) {
-                        runIndex.get(runId).remove(execution.getId());
-                        
-                        if (runIndex.get(runId).isEmpty()) {
-                            runIndex.remove(runId);
-                        }
-                        
-                        storageManager.write(runIndexPath, runIndex);
-                    }
-                }
+            if (execution.getTestRunId() != null) {
+                runIndex(projectId).remove(execution.getTestRunId(), execution.getId());
             }
-            
-            return null;
-        });
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to update execution index for " + execution.getId(), e);
+        }
     }
     
     /**
@@ -619,17 +1213,7 @@ public class TestExecutionRepositoryImpl implements TestExecutionRepository {
      * @return Filtered execution IDs
      */
     private Set<String> filterByTestId(String projectId, String testId, Set<String> executionIds) {
-        String testIndexPath = String.format(TEST_EXECUTIONS_INDEX_FILE, projectId);
-        if (!storageManager.exists(testIndexPath)) {
-            return Collections.emptySet();
-        }
-        
-        Map<String, Set<String>> testIndex = storageManager.read(testIndexPath, Map.class);
-        if (testIndex == null || !testIndex.containsKey(testId)) {
-            return Collections.emptySet();
-        }
-        
-        Set<String> testExecutionIds = testIndex.get(testId);
+        Set<String> testExecutionIds = testIndex(projectId).get(testId);
         return executionIds.stream()
                 .filter(testExecutionIds::contains)
                 .collect(Collectors.toSet());
@@ -644,17 +1228,7 @@ public class TestExecutionRepositoryImpl implements TestExecutionRepository {
      * @return Filtered execution IDs
      */
     private Set<String> filterByTestRunId(String projectId, String testRunId, Set<String> executionIds) {
-        String runIndexPath = String.format(TEST_RUN_EXECUTIONS_INDEX_FILE, projectId);
-        if (!storageManager.exists(runIndexPath)) {
-            return Collections.emptySet();
-        }
-        
-        Map<String, Set<String>> runIndex = storageManager.read(runIndexPath, Map.class);
-        if (runIndex == null || !runIndex.containsKey(testRunId)) {
-            return Collections.emptySet();
-        }
-        
-        Set<String> runExecutionIds = runIndex.get(testRunId);
+        Set<String> runExecutionIds = runIndex(projectId).get(testRunId);
         return executionIds.stream()
                 .filter(runExecutionIds::contains)
                 .collect(Collectors.toSet());
@@ -669,11 +1243,11 @@ public class TestExecutionRepositoryImpl implements TestExecutionRepository {
      * @param endDate End date (inclusive)
      * @return Filtered execution IDs
      */
-    private Set<String> filterByDateRange(Map<String, ExecutionIndexEntry> executionIndex, Set<String> executionIds, 
+    private Set<String> filterByDateRange(MappedHashIndex executionIndex, Set<String> executionIds, 
                                           LocalDateTime startDate, LocalDateTime endDate) {
         return executionIds.stream()
                 .filter(id -> {
-                    ExecutionIndexEntry entry = executionIndex.get(id);
+                    ExecutionIndexEntry entry = decodeIndexEntry(id, executionIndex.get(id));
                     if (entry == null || entry.startTime == null) {
                         return false;
                     }
@@ -682,9 +1256,387 @@ public class TestExecutionRepositoryImpl implements TestExecutionRepository {
                 .collect(Collectors.toSet());
     }
     
+    @Override
+    public String getCollectionName() {
+        return "executions";
+    }
+    
+    @Override
+    public int migrateToShards() {
+        File[] projectDirs = new File(storageManager.getAbsolutePath("projects")).listFiles(File::isDirectory);
+        if (projectDirs == null) {
+            return 0;
+        }
+        
+        int moved = 0;
+        for (File projectDir : projectDirs) {
+            moved += storageManager.migrate(executionLayout(projectDir.getName()));
+        }
+        return moved;
+    }
+    
+    /**
+     * Get the sharded layout of a project's executions. Entries are execution
+     * directories; the index files and directories in the root start with "_" or "by_".
+     * 
+     * @param projectId Project ID
+     * @return Executions layout
+     */
+    private ShardedLayout executionLayout(String projectId) {
+        return storageManager.shardedLayout(String.format(EXECUTIONS_DIRECTORY, projectId),
+                name -> !name.startsWith("_") && !name.startsWith("by_") && !name.startsWith("."));
+    }
+    
+    /**
+     * Get the directory of an execution, in its bucket or, before migration, in the
+     * executions directory
+     * 
+     * @param projectId Project ID
+     * @param executionId Execution ID
+     * @return Relative directory path
+     */
+    private String executionDirectory(String projectId, String executionId) {
+        ensureMigrated(projectId);
+        return storageManager.relativePath(executionLayout(projectId).locate(executionId));
+    }
+    
+    /**
+     * Move the flat executions of a project into their buckets once per process, before
+     * any of them is resolved
+     * 
+     * @param projectId Project ID
+     */
+    private void ensureMigrated(String projectId) {
+        if (!migrateOnFirstUse || migratedProjects.contains(projectId)) {
+            return;
+        }
+        synchronized (migratedProjects) {
+            if (!migratedProjects.contains(projectId)) {
+                storageManager.migrate(executionLayout(projectId));
+                migratedProjects.add(projectId);
+            }
+        }
+    }
+    
+    /**
+     * Open the execution index of a project, migrating the legacy JSON index or
+     * rebuilding after an unclean shutdown the first time it is used
+     * 
+     * @param projectId Project ID
+     * @return Execution index
+     */
+    private MappedHashIndex executionIndex(String projectId) {
+        MappedHashIndex index = openExecutionIndex(projectId);
+        if (preparedIndexes.contains(projectId)) {
+            return index;
+        }
+        
+        synchronized (preparedIndexes) {
+            if (!preparedIndexes.contains(projectId)) {
+                ensureMigrated(projectId);
+                importLegacySetIndexes(projectId);
+                String legacyPath = String.format(LEGACY_EXECUTION_INDEX_FILE, projectId);
+                if (index.wasDirty()) {
+                    rebuildExecutionIndex(projectId, index);
+                } else if (storageManager.exists(legacyPath)) {
+                    importLegacyIndex(legacyPath, index);
+                }
+                preparedIndexes.add(projectId);
+            }
+        }
+        return index;
+    }
+    
+    /**
+     * Open the execution index of a project as it is on disk
+     * 
+     * @param projectId Project ID
+     * @return Execution index
+     */
+    private MappedHashIndex openExecutionIndex(String projectId) {
+        return storageManager.openHashIndex(String.format(EXECUTION_INDEX_FILE, projectId), INDEX_KEY_BYTES, INDEX_VALUE_BYTES);
+    }
+    
+    /**
+     * Copy the entries of a JSON execution index into the hash index and remove it
+     * 
+     * @param legacyPath Path to the JSON index
+     * @param index Hash index
+     */
+    private void importLegacyIndex(String legacyPath, MappedHashIndex index) {
+        Map<String, Object> legacyIndex = storageManager.read(legacyPath, Map.class);
+        if (legacyIndex != null) {
+            for (Map.Entry<String, Object> entry : legacyIndex.entrySet()) {
+                // Skip the _version and _lastModified stamps of the storage manager
+                if (entry.getKey().startsWith("_") || !(entry.getValue() instanceof Map)) {
+                    continue;
+                }
+                try {
+                    ExecutionIndexEntry indexEntry = objectMapper.convertValue(entry.getValue(), ExecutionIndexEntry.class);
+                    index.put(entry.getKey(), encodeIndexEntry(indexEntry));
+                } catch (IOException | IllegalArgumentException e) {
+                    logger.warn("Skipping legacy index entry for execution {}: {}", entry.getKey(), e.getMessage());
+                }
+            }
+        }
+        storageManager.delete(legacyPath);
+        logger.info("Migrated {} executions from {} to the hash index", index.size(), legacyPath);
+    }
+    
+    /**
+     * Rebuild the execution index from the stored executions
+     * 
+     * @param projectId Project ID
+     * @param index Hash index
+     */
+    private void rebuildExecutionIndex(String projectId, MappedHashIndex index) {
+        logger.warn("Execution index of project {} was not closed cleanly, rebuilding", projectId);
+        index.clear();
+        
+        for (File executionDir : executionLayout(projectId)) {
+            findById(projectId, executionDir.getName()).ifPresent(execution -> {
+                try {
+                    putIndexEntry(index, execution);
+                } catch (RuntimeException e) {
+                    logger.warn("Could not index execution {}: {}", execution.getId(), e.getMessage());
+                }
+            });
+        }
+        
+        // Archived executions stay indexed; a hot copy takes precedence
+        for (String packName : readCatalog(projectId).allSegments()) {
+            try {
+                PackFile pack = storageManager.openPack(archivePath(projectId, packName));
+                for (String executionId : pack.keys()) {
+                    if (!index.containsKey(executionId)) {
+                        putIndexEntry(index, objectMapper.readValue(pack.read(executionId), TestExecution.class));
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Could not index archive pack {}: {}", packName, e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Get all execution IDs in an index
+     * 
+     * @param index Execution index
+     * @return Mutable set of execution IDs
+     */
+    private Set<String> indexedIds(MappedHashIndex index) {
+        Set<String> ids = new HashSet<>();
+        index.forEach((executionId, summary) -> ids.add(executionId));
+        return ids;
+    }
+    
+    /**
+     * Store the summary of an execution in the index
+     * 
+     * @param index Execution index
+     * @param execution Execution to index
+     */
+    private void putIndexEntry(MappedHashIndex index, TestExecution execution) {
+        ExecutionIndexEntry indexEntry = new ExecutionIndexEntry();
+        indexEntry.name = execution.getName();
+        indexEntry.testId = execution.getTestId();
+        indexEntry.testRunId = execution.getTestRunId();
+        indexEntry.status = execution.getStatus();
+        indexEntry.startTime = execution.getStartTime();
+        indexEntry.environment = execution.getEnvironment();
+        indexEntry.browser = execution.getBrowser();
+        
+        try {
+            index.put(execution.getId(), encodeIndexEntry(indexEntry));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to update execution index for " + execution.getId(), e);
+        }
+    }
+    
+    /**
+     * Serialize an index entry, shortening the name if the summary does not fit a record
+     * 
+     * @param indexEntry Index entry
+     * @return Compact JSON summary
+     */
+    private String encodeIndexEntry(ExecutionIndexEntry indexEntry) throws JsonProcessingException {
+        String summary = objectMapper.writeValueAsString(indexEntry);
+        int overflow = summary.getBytes(StandardCharsets.UTF_8).length - INDEX_VALUE_BYTES;
+        while (overflow > 0 && indexEntry.name != null && !indexEntry.name.isEmpty()) {
+            indexEntry.name = indexEntry.name.substring(0, Math.max(0, indexEntry.name.length() - overflow));
+            summary = objectMapper.writeValueAsString(indexEntry);
+            overflow = summary.getBytes(StandardCharsets.UTF_8).length - INDEX_VALUE_BYTES;
+        }
+        return summary;
+    }
+    
+    /**
+     * Parse an index entry
+     * 
+     * @param executionId Execution ID
+     * @param summary Stored summary, may be null
+     * @return Index entry, or null if missing or unreadable
+     */
+    private ExecutionIndexEntry decodeIndexEntry(String executionId, String summary) {
+        if (summary == null) {
+            return null;
+        }
+        try {
+            return objectMapper.readValue(summary, ExecutionIndexEntry.class);
+        } catch (JsonProcessingException e) {
+            logger.warn("Unreadable index entry for execution {}: {}", executionId, e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Excludes the detail fields when serializing an execution summary
+     */
+    @JsonIgnoreProperties({"stepExecutions", "screenshotPaths"})
+    private abstract static class ExecutionSummaryMixin {
+    }
+    
+    /**
+     * Execution-level artifacts stored with the details
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private static class ExecutionArtifacts {
+        public List<String> screenshotPaths;
+    }
+    
+    /**
+     * Current pack segments of each archived month, e.g. "2024-03" to
+     * ["2024-03.1711929600000-0.pack"]
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private static class ArchiveCatalog {
+        public Map<String, List<String>> segments = new TreeMap<>();
+        // Single pack of each month, as written before segments; read only
+        public Map<String, String> packs;
+        
+        ArchiveCatalog copy() {
+            ArchiveCatalog copy = new ArchiveCatalog();
+            segments.forEach((month, names) -> copy.segments.put(month, new ArrayList<>(names)));
+            return copy;
+        }
+        
+        // Segments of every month, newest first within a month
+        List<String> allSegments() {
+            List<String> names = new ArrayList<>();
+            for (List<String> monthSegments : segments.values()) {
+                for (int i = monthSegments.size() - 1; i >= 0; i--) {
+                    names.add(monthSegments.get(i));
+                }
+            }
+            return names;
+        }
+    }
+    
+    /**
+     * Streams hot executions into archive segments, loading one at a time
+     */
+    private class HotExecutionSource implements PackFile.Source {
+        private final String projectId;
+        private final Iterator<String> executionIds;
+        private final List<String> archived;
+        private String nextId;
+        private byte[] nextContent;
+        
+        HotExecutionSource(String projectId, List<String> executionIds, List<String> archived) {
+            this.projectId = projectId;
+            this.executionIds = executionIds.iterator();
+            this.archived = archived;
+        }
+        
+        @Override
+        public boolean hasNext() {
+            while (nextContent == null && executionIds.hasNext()) {
+                String executionId = executionIds.next();
+                Optional<TestExecution> execution = findByIdWithDetails(projectId, executionId);
+                if (execution.isEmpty()) {
+                    continue;
+                }
+                try {
+                    nextContent = objectMapper.writeValueAsBytes(execution.get());
+                    nextId = executionId;
+                } catch (JsonProcessingException e) {
+                    logger.warn("Could not archive execution {}: {}", executionId, e.getMessage());
+                }
+            }
+            return nextContent != null;
+        }
+        
+        @Override
+        public void writeNext(PackFile.Sink sink) throws IOException {
+            sink.add(nextId, nextContent);
+            archived.add(nextId);
+            nextContent = null;
+        }
+    }
+    
+    /**
+     * Streams the entries of existing segments into new ones, skipping some keys. A key
+     * held by several segments is taken from the first that has it.
+     */
+    private static class PackCopySource implements PackFile.Source {
+        private final Iterator<PackFile> packs;
+        private final Set<String> skipped;
+        private final Set<String> seen = new HashSet<>();
+        private PackFile pack;
+        private Iterator<String> keys = Collections.emptyIterator();
+        private String nextKey;
+        
+        PackCopySource(List<PackFile> packs, Set<String> skipped) {
+            this.packs = packs.iterator();
+            this.skipped = skipped;
+        }
+        
+        @Override
+        public boolean hasNext() {
+            while (nextKey == null) {
+                if (keys.hasNext()) {
+                    String key = keys.next();
+                    // An execution archived twice after an interrupted run is kept once
+                    if (!skipped.contains(key) && seen.add(key)) {
+                        nextKey = key;
+                    }
+                } else if (packs.hasNext()) {
+                    pack = packs.next();
+                    keys = pack.keys().iterator();
+                } else {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        @Override
+        public void writeNext(PackFile.Sink sink) throws IOException {
+            sink.copy(pack, nextKey);
+            nextKey = null;
+        }
+    }
+    
+    /**
+     * Smoothed run time of each test of a project, by test ID
+     */
+    private static class TestDurationHistory {
+        public Map<String, TestDurationStats> tests = new HashMap<>();
+    }
+    
+    /**
+     * Run time history of one test
+     */
+    private static class TestDurationStats {
+        public long averageMillis;
+        public int samples;
+        public LocalDateTime lastRun;
+    }
+    
     /**
      * Index entry for an execution
      */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
     private static class ExecutionIndexEntry {
         public String name;
         public String testId;
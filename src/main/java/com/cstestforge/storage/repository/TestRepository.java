@@ -47,6 +47,15 @@ public interface TestRepository {
      */
     Test create(String projectId, Test test);
     
+    /**
+     * Create several tests, writing each index file once for all of them
+     *
+     * @param projectId Project ID
+     * @param tests Tests to create
+     * @return Created tests with IDs
+     */
+    List<Test> createAll(String projectId, List<Test> tests);
+    
     /**
      * Update an existing test
      *
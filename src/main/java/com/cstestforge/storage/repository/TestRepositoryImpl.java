@@ -3,12 +3,14 @@ package com.cstestforge.storage.repository;
 import com.cstestforge.project.model.test.Test;
 import com.cstestforge.project.model.test.TestStatus;
 import com.cstestforge.storage.EnhancedFileLock;
+import com.cstestforge.storage.JournaledSetIndex;
 import com.cstestforge.storage.StorageManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
+import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.function.Predicate;
@@ -17,6 +19,9 @@ import java.util.stream.Collectors;
 /**
  * Implementation of TestRepository using StorageManager.
  * Tests are stored at "projects/{projectId}/tests/"
+ * with secondary indexes over name, tags, status, type and timestamps kept next to them.
+ * The status, type and timestamp indexes are {@link JournaledSetIndex}es, one per filter
+ * key, built from the tests the first time a filter needs them.
  */
 @Repository
 public class TestRepositoryImpl implements TestRepository {
@@ -26,6 +31,12 @@ public class TestRepositoryImpl implements TestRepository {
     private static final String TEST_FILE = "projects/%s/tests/%s/test.json";
     private static final String TEST_INDEX_FILE = "projects/%s/tests/_index.json";
     private static final String TAGS_INDEX_FILE = "projects/%s/tests/_tags.json";
+    private static final String STATUS_INDEX_FILE = "projects/%s/tests/_by_status.set";
+    private static final String TYPE_INDEX_FILE = "projects/%s/tests/_by_type.set";
+    private static final String CREATED_AT_INDEX_FILE = "projects/%s/tests/_created_at.set";
+    // Built last, so its snapshot marks the filter indexes as built
+    private static final String UPDATED_AT_INDEX_FILE = "projects/%s/tests/_updated_at.set";
+    private static final String LEGACY_FILTER_INDEX_FILE = "projects/%s/tests/_filters.json";
 
     private final StorageManager storageManager;
 
@@ -83,7 +94,11 @@ public class TestRepositoryImpl implements TestRepository {
             return findAll(projectId);
         }
         
-        List<Test> allTests = findAll(projectId);
+        // Narrow down the candidate IDs with the secondary indexes
+        Set<String> candidateIds = findCandidateIds(projectId, filters);
+        if (candidateIds.isEmpty()) {
+            return Collections.emptyList();
+        }
         
         // Apply filters
         Predicate<Test> predicate = test -> true;
@@ -138,13 +153,97 @@ public class TestRepositoryImpl implements TestRepository {
                 test.getUpdatedAt().isAfter(dateFilter));
         }
         
-        return allTests.stream()
-                .filter(predicate)
-                .collect(Collectors.toList());
+        // Load only the candidates; the predicate re-checks them against the documents
+        List<Test> tests = new ArrayList<>();
+        for (String testId : candidateIds) {
+            findById(projectId, testId)
+                    .filter(predicate)
+                    .ifPresent(tests::add);
+        }
+        
+        // Sort by updated time (most recent first)
+        tests.sort((t1, t2) -> {
+            if (t1.getUpdatedAt() == null) return 1;
+            if (t2.getUpdatedAt() == null) return -1;
+            return t2.getUpdatedAt().compareTo(t1.getUpdatedAt());
+        });
+        
+        return tests;
     }
 
     @Override
     public Test create(String projectId, Test test) {
+        prepareNew(projectId, test);
+        
+        // Ensure directories exist
+        String testsDir = String.format(TESTS_DIRECTORY, projectId);
+        String testDir = testsDir + "/" + test.getId();
+        storageManager.createDirectory(testDir);
+        
+        // Save the test
+        String testPath = String.format(TEST_FILE, projectId, test.getId());
+        storageManager.write(testPath, test);
+        
+        // Update indexes in transaction
+        updateIndexes(projectId, test, null);
+        
+        return test;
+    }
+
+    @Override
+    public List<Test> createAll(String projectId, List<Test> tests) {
+        if (tests.isEmpty()) {
+            return tests;
+        }
+        
+        final String indexPath = String.format(TEST_INDEX_FILE, projectId);
+        final String tagsIndexPath = String.format(TAGS_INDEX_FILE, projectId);
+        
+        // Stage the tests and one update per index file
+        StorageManager.Batch batch = storageManager.batch();
+        for (Test test : tests) {
+            prepareNew(projectId, test);
+            batch.write(String.format(TEST_FILE, projectId, test.getId()), test);
+        }
+        
+        batch.update(indexPath, Map.class, testIndex -> {
+            Map<String, Object> updated = testIndex != null ? testIndex : new HashMap<>();
+            for (Test test : tests) {
+                updated.put(test.getId(), test.getName());
+            }
+            return updated;
+        });
+        
+        batch.update(tagsIndexPath, Map.class, tagsIndex -> {
+            Map<String, Collection<String>> updated = tagsIndex != null ? tagsIndex : new HashMap<>();
+            for (Test test : tests) {
+                addToTagsIndex(updated, test);
+            }
+            return updated;
+        });
+        
+        if (!batch.commit()) {
+            throw new IllegalStateException("Failed to create " + tests.size() + " tests in project " + projectId);
+        }
+        
+        // Update status, type and timestamp indexes if they have been built
+        storageManager.executeInTransaction(Collections.singletonList(filterIndexLockPath(projectId)), unused -> {
+            if (isFilterIndexBuilt(projectId)) {
+                FilterIndexes filterIndexes = new FilterIndexes(projectId);
+                tests.forEach(filterIndexes::add);
+            }
+            return null;
+        });
+        return tests;
+    }
+
+    /**
+     * Set the ID, project, timestamps, version and default status of a new test
+     * 
+     * @param projectId Project ID
+     * @param test New test
+     */
+    private void prepareNew(String projectId, Test test) {
         // Ensure test has an ID
         if (test.getId() == null || test.getId().isEmpty()) {
             test.setId(UUID.randomUUID().toString());
@@ -165,20 +264,6 @@ public class TestRepositoryImpl implements TestRepository {
         if (test.getStatus() == null) {
             test.setStatus(TestStatus.DRAFT);
         }
-        
-        // Ensure directories exist
-        String testsDir = String.format(TESTS_DIRECTORY, projectId);
-        String testDir = testsDir + "/" + test.getId();
-        storageManager.createDirectory(testDir);
-        
-        // Save the test
-        String testPath = String.format(TEST_FILE, projectId, test.getId());
-        storageManager.write(testPath, test);
-        
-        // Update indexes in transaction
-        updateIndexes(projectId, test, null);
-        
-        return test;
     }
 
     @Override
@@ -315,8 +400,7 @@ public class TestRepositoryImpl implements TestRepository {
             return 0;
         }
         
-        Map<String, String> testIndex = storageManager.read(indexPath, Map.class);
-        return testIndex != null ? testIndex.size() : 0;
+        return readNameIndex(indexPath).size();
     }
 
     /**
@@ -348,7 +432,7 @@ public class TestRepositoryImpl implements TestRepository {
         final String indexPath = String.format(TEST_INDEX_FILE, projectId);
         final String tagsIndexPath = String.format(TAGS_INDEX_FILE, projectId);
         
-        List<String> pathsToLock = Arrays.asList(indexPath, tagsIndexPath);
+        List<String> pathsToLock = Arrays.asList(indexPath, tagsIndexPath, filterIndexLockPath(projectId));
         
         storageManager.executeInTransaction(pathsToLock, unused -> {
             // Update test index
@@ -388,22 +472,41 @@ public class TestRepositoryImpl implements TestRepository {
             }
             
             // Add new tags
-            if (test.getTags() != null) {
-                for (String tag : test.getTags()) {
-                    String tagLower = tag.toLowerCase();
-                    if (!tagsIndex.containsKey(tagLower)) {
-                        tagsIndex.put(tagLower, new HashSet<>());
-                    }
-                    tagsIndex.get(tagLower).add(test.getId());
-                }
-            }
+            addToTagsIndex((Map) tagsIndex, test);
             
             storageManager.write(tagsIndexPath, tagsIndex);
             
+            // Update status, type and timestamp indexes if they have been built
+            if (isFilterIndexBuilt(projectId)) {
+                FilterIndexes filterIndexes = new FilterIndexes(projectId);
+                if (originalTest != null) {
+                    filterIndexes.remove(originalTest);
+                }
+                filterIndexes.add(test);
+            }
+            
             return null;
         });
     }
 
+    /**
+     * Add a test under each of its tags
+     * 
+     * @param tagsIndex Test IDs by lower-case tag
+     * @param test Test to add
+     */
+    private static void addToTagsIndex(Map<String, Collection<String>> tagsIndex, Test test) {
+        if (test.getTags() == null) {
+            return;
+        }
+        for (String tag : test.getTags()) {
+            Collection<String> testIds = tagsIndex.computeIfAbsent(tag.toLowerCase(), key -> new HashSet<>());
+            if (!testIds.contains(test.getId())) {
+                testIds.add(test.getId());
+            }
+        }
+    }
+
     /**
      * Remove a test from index files when deleted
      * 
@@ -414,7 +517,7 @@ public class TestRepositoryImpl implements TestRepository {
         final String indexPath = String.format(TEST_INDEX_FILE, projectId);
         final String tagsIndexPath = String.format(TAGS_INDEX_FILE, projectId);
         
-        List<String> pathsToLock = Arrays.asList(indexPath, tagsIndexPath);
+        List<String> pathsToLock = Arrays.asList(indexPath, tagsIndexPath, filterIndexLockPath(projectId));
         
         storageManager.executeInTransaction(pathsToLock, unused -> {
             // Update test index
@@ -447,7 +550,293 @@ public class TestRepositoryImpl implements TestRepository {
                 }
             }
             
+            // Update status, type and timestamp indexes if they have been built
+            if (isFilterIndexBuilt(projectId)) {
+                new FilterIndexes(projectId).remove(test);
+            }
+            
             return null;
         });
     }
-} 
\ No newline at end of file
+    
+    /**
+     * Resolve the IDs of tests that can match the filters using the secondary indexes
+     * 
+     * @param projectId Project ID
+     * @param filters Filter criteria
+     * @return IDs of candidate tests
+     */
+    private Set<String> findCandidateIds(String projectId, Map<String, Object> filters) {
+        Map<String, String> nameIndex = readNameIndex(String.format(TEST_INDEX_FILE, projectId));
+        Set<String> candidateIds = new HashSet<>(nameIndex.keySet());
+        
+        if (filters.containsKey("name")) {
+            String nameFilter = filters.get("name").toString().toLowerCase();
+            candidateIds.removeIf(id -> {
+                String name = nameIndex.get(id);
+                return name == null || !name.toLowerCase().contains(nameFilter);
+            });
+        }
+        
+        if (filters.containsKey("tags") && !candidateIds.isEmpty()) {
+            @SuppressWarnings("unchecked")
+            List<String> tagFilters = (List<String>) filters.get("tags");
+            boolean matchAll = filters.containsKey("matchAllTags") && 
+                               (boolean) filters.get("matchAllTags");
+            Map<String, Set<String>> tagsIndex = readIdSetIndex(String.format(TAGS_INDEX_FILE, projectId));
+            
+            Set<String> taggedIds = new HashSet<>();
+            for (int i = 0; i < tagFilters.size(); i++) {
+                Set<String> testsWithTag = tagsIndex.getOrDefault(tagFilters.get(i).toLowerCase(), Collections.emptySet());
+                if (!matchAll || i == 0) {
+                    taggedIds.addAll(testsWithTag);
+                } else {
+                    taggedIds.retainAll(testsWithTag);
+                }
+            }
+            candidateIds.retainAll(taggedIds);
+        }
+        
+        boolean needsFilterIndex = filters.containsKey("status") || filters.containsKey("type")
+                || filters.containsKey("createdAfter") || filters.containsKey("updatedAfter");
+        if (!needsFilterIndex || candidateIds.isEmpty()) {
+            return candidateIds;
+        }
+        
+        FilterIndexes filterIndexes = readFilterIndexes(projectId);
+        
+        if (filters.containsKey("status")) {
+            candidateIds.retainAll(filterIndexes.status.get(filters.get("status").toString()));
+        }
+        
+        if (filters.containsKey("type")) {
+            candidateIds.retainAll(filterIndexes.type.get(filters.get("type").toString()));
+        }
+        
+        if (filters.containsKey("createdAfter")) {
+            LocalDateTime dateFilter = (LocalDateTime) filters.get("createdAfter");
+            candidateIds.removeIf(id -> {
+                LocalDateTime createdAt = filterIndexes.timestampOf(filterIndexes.createdAt, id);
+                return createdAt == null || !createdAt.isAfter(dateFilter);
+            });
+        }
+        
+        if (filters.containsKey("updatedAfter")) {
+            LocalDateTime dateFilter = (LocalDateTime) filters.get("updatedAfter");
+            candidateIds.removeIf(id -> {
+                LocalDateTime updatedAt = filterIndexes.timestampOf(filterIndexes.updatedAt, id);
+                return updatedAt == null || !updatedAt.isAfter(dateFilter);
+            });
+        }
+        
+        return candidateIds;
+    }
+    
+    /**
+     * Get the status, type and timestamp indexes of a project, building them from the
+     * stored tests the first time they are needed
+     * 
+     * @param projectId Project ID
+     * @return Filter indexes
+     */
+    private FilterIndexes readFilterIndexes(String projectId) {
+        if (isFilterIndexBuilt(projectId)) {
+            return new FilterIndexes(projectId);
+        }
+        
+        // Hold the same locks as index updates so no test is created while the indexes are built
+        final String indexPath = String.format(TEST_INDEX_FILE, projectId);
+        List<String> pathsToLock = Arrays.asList(indexPath, filterIndexLockPath(projectId));
+        return storageManager.executeInTransaction(pathsToLock, unused -> {
+            FilterIndexes filterIndexes = new FilterIndexes(projectId);
+            if (isFilterIndexBuilt(projectId)) {
+                return filterIndexes;
+            }
+            
+            Set<String> testIds = readNameIndex(indexPath).keySet();
+            List<Test> tests = new ArrayList<>();
+            for (String testId : testIds) {
+                findById(projectId, testId).ifPresent(tests::add);
+            }
+            filterIndexes.replaceAll(tests);
+            
+            // The single-file index of older versions is superseded
+            String legacyPath = String.format(LEGACY_FILTER_INDEX_FILE, projectId);
+            if (storageManager.exists(legacyPath)) {
+                storageManager.delete(legacyPath);
+            }
+            logger.info("Built filter indexes for {} tests in project {}", testIds.size(), projectId);
+            return filterIndexes;
+        });
+    }
+    
+    /**
+     * Check if the filter indexes of a project have been built
+     * 
+     * @param projectId Project ID
+     * @return true if the last index written by a build has a snapshot
+     */
+    private boolean isFilterIndexBuilt(String projectId) {
+        return storageManager.exists(String.format(UPDATED_AT_INDEX_FILE, projectId));
+    }
+    
+    /**
+     * Get the path locked while the filter indexes are built or updated
+     * 
+     * @param projectId Project ID
+     * @return Path of the index that marks the filter indexes as built
+     */
+    private String filterIndexLockPath(String projectId) {
+        return String.format(UPDATED_AT_INDEX_FILE, projectId);
+    }
+    
+    /**
+     * Read the test ID to name index
+     * 
+     * @param indexPath Path to the index file
+     * @return Names by test ID, without the storage manager's version stamps
+     */
+    private Map<String, String> readNameIndex(String indexPath) {
+        Map<String, Object> index = storageManager.exists(indexPath) 
+            ? storageManager.read(indexPath, Map.class) 
+            : null;
+        if (index == null) {
+            return Collections.emptyMap();
+        }
+        
+        Map<String, String> names = new HashMap<>();
+        index.forEach((id, name) -> {
+            if (!id.startsWith("_")) {
+                names.put(id, name != null ? name.toString() : null);
+            }
+        });
+        return names;
+    }
+    
+    /**
+     * Read a key to test IDs index such as the tags index
+     * 
+     * @param indexPath Path to the index file
+     * @return Test IDs by key, without the storage manager's version stamps
+     */
+    private Map<String, Set<String>> readIdSetIndex(String indexPath) {
+        Map<String, Object> index = storageManager.exists(indexPath) 
+            ? storageManager.read(indexPath, Map.class) 
+            : null;
+        if (index == null) {
+            return Collections.emptyMap();
+        }
+        
+        Map<String, Set<String>> idSets = new HashMap<>();
+        index.forEach((key, ids) -> {
+            if (ids instanceof Collection) {
+                Set<String> idSet = new HashSet<>();
+                for (Object id : (Collection<?>) ids) {
+                    idSet.add(id.toString());
+                }
+                idSets.put(key, idSet);
+            }
+        });
+        return idSets;
+    }
+    
+    /**
+     * Secondary indexes over status, type and timestamps of the tests in a project.
+     * Status and type map to test IDs; the timestamp indexes map a test ID to its one
+     * ISO-8601 timestamp. Every change appends to the log of the index it touches.
+     */
+    private class FilterIndexes {
+        final JournaledSetIndex status;
+        final JournaledSetIndex type;
+        final JournaledSetIndex createdAt;
+        final JournaledSetIndex updatedAt;
+        
+        FilterIndexes(String projectId) {
+            status = storageManager.openSetIndex(String.format(STATUS_INDEX_FILE, projectId));
+            type = storageManager.openSetIndex(String.format(TYPE_INDEX_FILE, projectId));
+            createdAt = storageManager.openSetIndex(String.format(CREATED_AT_INDEX_FILE, projectId));
+            updatedAt = storageManager.openSetIndex(String.format(UPDATED_AT_INDEX_FILE, projectId));
+        }
+        
+        void add(Test test) {
+            try {
+                if (test.getStatus() != null) {
+                    status.add(test.getStatus().toString(), test.getId());
+                }
+                if (test.getType() != null) {
+                    type.add(test.getType().toString(), test.getId());
+                }
+                setTimestamp(createdAt, test.getId(), test.getCreatedAt());
+                setTimestamp(updatedAt, test.getId(), test.getUpdatedAt());
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to update filter indexes for test " + test.getId(), e);
+            }
+        }
+        
+        void remove(Test test) {
+            try {
+                if (test.getStatus() != null) {
+                    status.remove(test.getStatus().toString(), test.getId());
+                }
+                if (test.getType() != null) {
+                    type.remove(test.getType().toString(), test.getId());
+                }
+                setTimestamp(createdAt, test.getId(), null);
+                setTimestamp(updatedAt, test.getId(), null);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to update filter indexes for test " + test.getId(), e);
+            }
+        }
+        
+        /**
+         * Replace the content of all indexes with the given tests, writing the index that
+         * marks them as built last
+         */
+        void replaceAll(List<Test> tests) {
+            Map<String, Set<String>> statusContent = new HashMap<>();
+            Map<String, Set<String>> typeContent = new HashMap<>();
+            Map<String, Set<String>> createdAtContent = new HashMap<>();
+            Map<String, Set<String>> updatedAtContent = new HashMap<>();
+            for (Test test : tests) {
+                if (test.getStatus() != null) {
+                    statusContent.computeIfAbsent(test.getStatus().toString(), key -> new HashSet<>()).add(test.getId());
+                }
+                if (test.getType() != null) {
+                    typeContent.computeIfAbsent(test.getType().toString(), key -> new HashSet<>()).add(test.getId());
+                }
+                if (test.getCreatedAt() != null) {
+                    createdAtContent.put(test.getId(), Collections.singleton(test.getCreatedAt().toString()));
+                }
+                if (test.getUpdatedAt() != null) {
+                    updatedAtContent.put(test.getId(), Collections.singleton(test.getUpdatedAt().toString()));
+                }
+            }
+            
+            try {
+                status.replaceAll(statusContent);
+                type.replaceAll(typeContent);
+                createdAt.replaceAll(createdAtContent);
+                updatedAt.replaceAll(updatedAtContent);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to build filter indexes", e);
+            }
+        }
+        
+        LocalDateTime timestampOf(JournaledSetIndex index, String testId) {
+            Set<String> values = index.get(testId);
+            return values.isEmpty() ? null : LocalDateTime.parse(values.iterator().next());
+        }
+        
+        private void setTimestamp(JournaledSetIndex index, String testId, LocalDateTime timestamp) throws IOException {
+            String value = timestamp != null ? timestamp.toString() : null;
+            for (String previous : index.get(testId)) {
+                if (!previous.equals(value)) {
+                    index.remove(testId, previous);
+                }
+            }
+            if (value != null) {
+                index.add(testId, value);
+            }
+        }
+    }
+}
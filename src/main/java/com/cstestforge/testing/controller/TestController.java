@@ -42,6 +42,7 @@ public class TestController {
      * @param sortDirection Sort direction
      * @param page Page number
      * @param size Page size
+     * @param cursor Cursor of the page to fetch, from a previous response's nextCursor
      * @return Paged response of tests
      */
     @GetMapping
@@ -54,7 +55,8 @@ public class TestController {
             @RequestParam(required = false, defaultValue = "updatedAt") String sortBy,
             @RequestParam(required = false, defaultValue = "desc") String sortDirection,
             @RequestParam(required = false, defaultValue = "1") int page,
-            @RequestParam(required = false, defaultValue = "10") int size) {
+            @RequestParam(required = false, defaultValue = "10") int size,
+            @RequestParam(required = false) String cursor) {
         
         try {
             // Create filter from request parameters
@@ -62,6 +64,7 @@ public class TestController {
             filter.setSearch(search);
             filter.setPage(page);
             filter.setSize(size);
+            filter.setCursor(cursor);
             filter.setSortBy(sortBy);
             filter.setSortDirection(sortDirection);
             
@@ -84,6 +87,10 @@ public class TestController {
             
             PagedResponse<Test> response = testService.findAll(projectId, filter);
             return ResponseEntity.ok(ApiResponse.success(response));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity
+                    .status(HttpStatus.BAD_REQUEST)
+                    .body(ApiResponse.error("Invalid test query", e.getMessage()));
         } catch (Exception e) {
             return ResponseEntity
                     .status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -138,6 +145,29 @@ public class TestController {
         }
     }
 
+    /**
+     * Create several tests at once, e.g. for an import
+     * 
+     * @param projectId Project ID
+     * @param tests Tests to create
+     * @return Created tests
+     */
+    @PostMapping("/bulk")
+    public ResponseEntity<ApiResponse<List<Test>>> createTests(
+            @PathVariable String projectId, 
+            @RequestBody List<Test> tests) {
+        try {
+            List<Test> createdTests = testService.createAll(projectId, tests);
+            return ResponseEntity
+                    .status(HttpStatus.CREATED)
+                    .body(ApiResponse.success(createdTests, createdTests.size() + " tests created successfully"));
+        } catch (Exception e) {
+            return ResponseEntity
+                    .status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(ApiResponse.error("Error creating tests", e.getMessage()));
+        }
+    }
+
     /**
      * Update an existing test
      * 
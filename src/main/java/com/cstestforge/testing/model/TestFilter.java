@@ -17,6 +17,7 @@ public class TestFilter {
     private String sortDirection;
     private int page;
     private int size;
+    private String cursor;
     
     /**
      * Default constructor
@@ -172,6 +173,24 @@ public class TestFilter {
         this.size = size;
     }
     
+    /**
+     * Get the cursor of the page to fetch; it takes precedence over the page number
+     * 
+     * @return Cursor from a previous response, or null
+     */
+    public String getCursor() {
+        return cursor;
+    }
+    
+    /**
+     * Set the cursor of the page to fetch
+     * 
+     * @param cursor Cursor from a previous response
+     */
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+    
     /**
      * Get the offset for pagination
      * 
@@ -2,42 +2,55 @@ package com.cstestforge.testing.repository;
 
 import com.cstestforge.testing.model.ApiRequest;
 import com.cstestforge.testing.model.ApiResponse;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.cstestforge.storage.ShardedCollection;
+import com.cstestforge.storage.ShardedLayout;
+import com.cstestforge.storage.StorageEngine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
- * File system implementation of the ApiRequestRepository interface
+ * File system implementation of the ApiRequestRepository interface.
+ * Responses are stored per request in a {@link ShardedLayout} at
+ * "api-responses/{requestId}/{h1}/{h2}/{responseId}.json".
  */
 @Repository
-public class ApiRequestRepositoryImpl implements ApiRequestRepository {
+public class ApiRequestRepositoryImpl implements ApiRequestRepository, ShardedCollection {
     
     private static final Logger logger = LoggerFactory.getLogger(ApiRequestRepositoryImpl.class);
     
     private final String dataDirectoryPath;
-    private final ObjectMapper objectMapper;
+    private final StorageEngine storageEngine;
+    private final boolean migrateOnFirstUse;
+    
+    // Requests whose responses have been moved into the sharded layout in this process
+    private final Set<String> migratedRequests = ConcurrentHashMap.newKeySet();
     
     /**
      * Constructor with path to data directory
      * 
      * @param dataDirectoryPath Base path to store data files
+     * @param storageEngine Shared storage engine
+     * @param migrateOnFirstUse Move flat response histories into buckets when first read
      */
-    public ApiRequestRepositoryImpl(@Value("${app.data.directory:./data}") String dataDirectoryPath) {
+    public ApiRequestRepositoryImpl(@Value("${app.data.directory:./data}") String dataDirectoryPath,
+                                    StorageEngine storageEngine,
+                                    @Value("${cstestforge.storage.sharding.migrate-on-first-use:true}") boolean migrateOnFirstUse) {
         this.dataDirectoryPath = dataDirectoryPath;
-        this.objectMapper = new ObjectMapper();
-        this.objectMapper.registerModule(new JavaTimeModule());
+        this.storageEngine = storageEngine;
+        this.migrateOnFirstUse = migrateOnFirstUse;
         
         // Ensure directories exist
         try {
@@ -96,13 +109,7 @@ public class ApiRequestRepositoryImpl implements ApiRequestRepository {
             return Optional.empty();
         }
         
-        try {
-            ApiRequest request = objectMapper.readValue(filePath.toFile(), ApiRequest.class);
-            return Optional.of(request);
-        } catch (IOException e) {
-            logger.error("Error reading API request from {}", filePath, e);
-            return Optional.empty();
-        }
+        return readRequestFromFile(filePath);
     }
     
     @Override
@@ -149,12 +156,15 @@ public class ApiRequestRepositoryImpl implements ApiRequestRepository {
         }
         
         Path filePath = Paths.get(dataDirectoryPath, "api-requests", id + ".json");
-        try {
-            return Files.deleteIfExists(filePath);
-        } catch (IOException e) {
-            logger.error("Error deleting API request with ID {}", id, e);
+        if (!Files.exists(filePath)) {
             return false;
         }
+        
+        if (!storageEngine.delete(filePath.toFile())) {
+            logger.error("Error deleting API request with ID {}", id);
+            return false;
+        }
+        return true;
     }
     
     @Override
@@ -168,12 +178,8 @@ public class ApiRequestRepositoryImpl implements ApiRequestRepository {
         }
         
         try {
-            Path responsesDir = Paths.get(dataDirectoryPath, "api-responses");
-            Path requestResponsesDir = responsesDir.resolve(response.getRequestId());
-            Files.createDirectories(requestResponsesDir);
-            
-            Path filePath = requestResponsesDir.resolve(response.getId() + ".json");
-            objectMapper.writeValue(filePath.toFile(), response);
+            File file = responseLayout(response.getRequestId()).resolve(response.getId() + ".json");
+            storageEngine.write(file, response);
             
             return response;
         } catch (IOException e) {
@@ -188,25 +194,65 @@ public class ApiRequestRepositoryImpl implements ApiRequestRepository {
             return Collections.emptyList();
         }
         
-        Path responsesDir = Paths.get(dataDirectoryPath, "api-responses", requestId);
-        if (!Files.exists(responsesDir)) {
+        ShardedLayout layout = responseLayout(requestId);
+        if (!layout.getRoot().exists()) {
             return Collections.emptyList();
         }
+        if (migrateOnFirstUse && migratedRequests.add(requestId)) {
+            layout.migrate(storageEngine::move);
+        }
         
-        try (Stream<Path> paths = Files.list(responsesDir)) {
-            return paths
-                .filter(Files::isRegularFile)
-                .filter(path -> path.toString().endsWith(".json"))
-                .map(this::readResponseFromFile)
-                .filter(Optional::isPresent)
-                .map(Optional::get)
-                .sorted(Comparator.comparing(ApiResponse::getTimestamp).reversed())
-                .limit(limit > 0 ? limit : Integer.MAX_VALUE)
-                .collect(Collectors.toList());
-        } catch (IOException e) {
-            logger.error("Error listing API response history for request ID {}", requestId, e);
-            return Collections.emptyList();
+        // Keep only the newest responses while walking the buckets
+        Comparator<ApiResponse> newestFirst = Comparator.comparing(ApiResponse::getTimestamp,
+                Comparator.nullsLast(Comparator.reverseOrder()));
+        PriorityQueue<ApiResponse> newest = new PriorityQueue<>(newestFirst.reversed());
+        for (File file : layout) {
+            if (!file.isFile()) {
+                continue;
+            }
+            Optional<ApiResponse> response = readResponseFromFile(file.toPath());
+            if (response.isPresent()) {
+                newest.add(response.get());
+                if (limit > 0 && newest.size() > limit) {
+                    newest.poll();
+                }
+            }
+        }
+        
+        List<ApiResponse> history = new ArrayList<>(newest);
+        history.sort(newestFirst);
+        return history;
+    }
+    
+    @Override
+    public String getCollectionName() {
+        return "api-responses";
+    }
+    
+    @Override
+    public int migrateToShards() {
+        File[] requestDirs = Paths.get(dataDirectoryPath, "api-responses").toFile().listFiles(File::isDirectory);
+        if (requestDirs == null) {
+            return 0;
+        }
+        
+        int moved = 0;
+        for (File requestDir : requestDirs) {
+            moved += responseLayout(requestDir.getName()).migrate(storageEngine::move);
+            migratedRequests.add(requestDir.getName());
         }
+        return moved;
+    }
+    
+    /**
+     * Get the sharded layout of the responses of a request
+     * 
+     * @param requestId API request ID
+     * @return Responses layout
+     */
+    private ShardedLayout responseLayout(String requestId) {
+        return new ShardedLayout(Paths.get(dataDirectoryPath, "api-responses", requestId).toFile(),
+                name -> name.endsWith(".json") && !name.startsWith("."));
     }
     
     /**
@@ -217,10 +263,9 @@ public class ApiRequestRepositoryImpl implements ApiRequestRepository {
     private void saveRequestToFile(ApiRequest request) {
         try {
             Path requestsDir = Paths.get(dataDirectoryPath, "api-requests");
-            Files.createDirectories(requestsDir);
             
             Path filePath = requestsDir.resolve(request.getId() + ".json");
-            objectMapper.writeValue(filePath.toFile(), request);
+            storageEngine.write(filePath.toFile(), request);
         } catch (IOException e) {
             logger.error("Error saving API request with ID {}", request.getId(), e);
             throw new RuntimeException("Failed to save API request", e);
@@ -235,8 +280,8 @@ public class ApiRequestRepositoryImpl implements ApiRequestRepository {
      */
     private Optional<ApiRequest> readRequestFromFile(Path path) {
         try {
-            ApiRequest request = objectMapper.readValue(path.toFile(), ApiRequest.class);
-            return Optional.of(request);
+            ApiRequest request = storageEngine.read(path.toFile(), ApiRequest.class);
+            return Optional.ofNullable(request);
         } catch (IOException e) {
             logger.error("Error reading API request from {}", path, e);
             return Optional.empty();
@@ -251,8 +296,8 @@ public class ApiRequestRepositoryImpl implements ApiRequestRepository {
      */
     private Optional<ApiResponse> readResponseFromFile(Path path) {
         try {
-            ApiResponse response = objectMapper.readValue(path.toFile(), ApiResponse.class);
-            return Optional.of(response);
+            ApiResponse response = storageEngine.read(path.toFile(), ApiResponse.class);
+            return Optional.ofNullable(response);
         } catch (IOException e) {
             logger.error("Error reading API response from {}", path, e);
             return Optional.empty();
@@ -97,6 +97,15 @@ public interface TestService {
      */
     Test create(String projectId, Test test);
 
+    /**
+     * Create several tests, updating the project's indexes once for all of them
+     * 
+     * @param projectId Project ID
+     * @param tests Tests to create
+     * @return Created tests
+     */
+    List<Test> createAll(String projectId, List<Test> tests);
+
     /**
      * Update an existing test
      * 
@@ -9,6 +9,10 @@ import com.cstestforge.project.model.test.TestStatus;
 import com.cstestforge.project.model.test.TestConfig;
 import com.cstestforge.project.storage.FileLock;
 import com.cstestforge.project.storage.FileStorageService;
+import com.cstestforge.project.storage.IndexUpdate;
+import com.cstestforge.search.service.SearchIndexService;
+import com.cstestforge.storage.JournaledSortedIndex;
+import com.cstestforge.storage.SortedIndex;
 import com.cstestforge.testing.model.TestFilter;
 import com.cstestforge.testing.model.TestCase;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -16,14 +20,17 @@ import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.function.BiPredicate;
 import java.util.stream.Collectors;
 
 /**
@@ -33,12 +40,19 @@ import java.util.stream.Collectors;
 public class TestServiceImpl implements TestService {
 
     private final FileStorageService fileStorageService;
+    private final SearchIndexService searchIndexService;
     private static final String TESTS_INDEX_PATH_TEMPLATE = "projects/%s/tests/_index.json";
     private static final String TESTS_TAGS_PATH_TEMPLATE = "projects/%s/tests/_tags.json";
+    private static final String TESTS_SORT_INDEX_PATH_TEMPLATE = "projects/%s/tests/_sort.json";
+    private static final List<String> TEST_SORT_FIELDS = Arrays.asList("name", "type", "status", "createdAt", "updatedAt");
 
     @Autowired
-    public TestServiceImpl(FileStorageService fileStorageService) {
+    public TestServiceImpl(FileStorageService fileStorageService, SearchIndexService searchIndexService) {
         this.fileStorageService = fileStorageService;
+        this.searchIndexService = searchIndexService;
+
+        // Keep the sort indexes current when tests are edited by hand or by another instance
+        fileStorageService.addChangeListener(this::onExternalChanges);
     }
 
     /**
@@ -70,40 +84,57 @@ public class TestServiceImpl implements TestService {
         // Initialize indexes if they don't exist
         initProjectIndexes(projectId);
         
-        // Get all test IDs from the index
-        String testsIndexPath = String.format(TESTS_INDEX_PATH_TEMPLATE, projectId);
-        Map<String, String> testIndex = fileStorageService.readMapFromJson(
-                testsIndexPath, String.class, String.class);
+        JournaledSortedIndex sortIndex = getSortIndex(projectId);
+        BiPredicate<String, Map<String, Object>> rowFilter = rowFilter(filter);
+        int offset = filter.getOffset();
+        int limit = filter.getSize();
 
-        // Load all tests
-        List<Test> allTests = new ArrayList<>();
-        for (String testId : testIndex.keySet()) {
+        List<String> pageIds;
+        long total;
+        String nextCursor = null;
+        if (filter.getSearch() != null && !filter.getSearch().trim().isEmpty()) {
+            List<String> matchingIds = searchIndexService.searchTestIds(projectId, filter.getSearch());
+            if ("relevance".equals(filter.getSortBy())) {
+                // Relevance order comes from the search index and is paged by offset
+                List<String> filteredIds = matchingIds.stream()
+                        .filter(id -> {
+                            Map<String, Object> row = sortIndex.getRow(id);
+                            return row != null && rowFilter.test(id, row);
+                        })
+                        .collect(Collectors.toList());
+                total = filteredIds.size();
+                pageIds = filteredIds.stream().skip(offset).limit(limit).collect(Collectors.toList());
+            } else {
+                // Search matches change with the search index, so their count is not cached
+                Set<String> matchingIdSet = new HashSet<>(matchingIds);
+                SortedIndex.Page page = sortIndex.page(sortField(sortIndex, filter.getSortBy()),
+                        "asc".equalsIgnoreCase(filter.getSortDirection()), filter.getCursor(), offset, limit,
+                        null,
+                        (id, row) -> matchingIdSet.contains(id) && rowFilter.test(id, row));
+                pageIds = page.getIds();
+                total = page.getTotal();
+                nextCursor = page.getNextCursor();
+            }
+        } else {
+            SortedIndex.Page page = sortIndex.page(sortField(sortIndex, filter.getSortBy()),
+                    "asc".equalsIgnoreCase(filter.getSortDirection()), filter.getCursor(), offset, limit,
+                    filterKey(filter), rowFilter);
+            pageIds = page.getIds();
+            total = page.getTotal();
+            nextCursor = page.getNextCursor();
+        }
+
+        // Load only the tests on the page
+        List<Test> pagedTests = new ArrayList<>();
+        for (String testId : pageIds) {
             String testPath = String.format("projects/%s/tests/%s.json", projectId, testId);
             Test test = fileStorageService.readFromJson(testPath, Test.class);
             if (test != null) {
-                allTests.add(test);
+                pagedTests.add(test);
             }
         }
 
-        // Apply filtering
-        List<Test> filteredTests = allTests.stream()
-                .filter(t -> applyFilter(t, filter))
-                .collect(Collectors.toList());
-
-        // Apply sorting
-        sortTests(filteredTests, filter.getSortBy(), filter.getSortDirection());
-
-        // Apply pagination
-        int total = filteredTests.size();
-        int offset = filter.getOffset();
-        int limit = filter.getSize();
-
-        List<Test> pagedTests = filteredTests.stream()
-                .skip(offset)
-                .limit(limit)
-                .collect(Collectors.toList());
-
-        return new PagedResponse<>(pagedTests, filter.getPage(), filter.getSize(), total);
+        return new PagedResponse<>(pagedTests, filter.getPage(), filter.getSize(), total, nextCursor);
     }
 
     @Override
@@ -119,9 +150,28 @@ public class TestServiceImpl implements TestService {
 
     @Override
     public Test create(String projectId, Test test) {
-        // Initialize indexes if they don't exist
-        initProjectIndexes(projectId);
-        
+        saveNewTests(projectId, Collections.singletonList(prepareNew(projectId, test)));
+        return test;
+    }
+
+    @Override
+    public List<Test> createAll(String projectId, List<Test> tests) {
+        List<Test> newTests = new ArrayList<>(tests.size());
+        for (Test test : tests) {
+            newTests.add(prepareNew(projectId, test));
+        }
+        saveNewTests(projectId, newTests);
+        return newTests;
+    }
+
+    /**
+     * Set the ID, project, timestamps, version and default status of a new test
+     * 
+     * @param projectId Project ID
+     * @param test New test
+     * @return The same test
+     */
+    private Test prepareNew(String projectId, Test test) {
         // Ensure ID is set
         if (test.getId() == null || test.getId().isEmpty()) {
             test.setId(UUID.randomUUID().toString());
@@ -140,30 +190,54 @@ public class TestServiceImpl implements TestService {
         if (test.getStatus() == null) {
             test.setStatus(TestStatus.DRAFT);
         }
+        return test;
+    }
 
-        // Save the test
-        String testPath = String.format("projects/%s/tests/%s.json", projectId, test.getId());
+    /**
+     * Save new tests together with one update of the test and tags indexes, so adding
+     * many tests reads and writes each index once
+     * 
+     * @param projectId Project ID
+     * @param tests Prepared new tests
+     */
+    @SuppressWarnings("unchecked")
+    private void saveNewTests(String projectId, List<Test> tests) {
+        if (tests.isEmpty()) {
+            return;
+        }
 
-        // Update the test index
-        String testsIndexPath = String.format(TESTS_INDEX_PATH_TEMPLATE, projectId);
-        try (FileLock lock = fileStorageService.lockFile(testsIndexPath)) {
-            if (lock != null) {
-                Map<String, String> testIndex = fileStorageService.readMapFromJson(
-                        testsIndexPath, String.class, String.class);
-                testIndex.put(test.getId(), test.getName());
-                fileStorageService.saveToJson(testsIndexPath, testIndex);
-            } else {
-                throw new ConcurrencyException("Test Index", "projectId", projectId);
+        // Initialize indexes if they don't exist
+        initProjectIndexes(projectId);
+
+        Map<String, Object> documents = new LinkedHashMap<>();
+        Map<String, String> names = new HashMap<>();
+        Set<String> tags = new HashSet<>();
+        for (Test test : tests) {
+            documents.put(String.format("projects/%s/tests/%s.json", projectId, test.getId()), test);
+            names.put(test.getId(), test.getName());
+            if (test.getTags() != null) {
+                tags.addAll(test.getTags());
             }
         }
 
-        // Update tags index
-        updateTagsIndex(projectId, test.getTags());
-
-        // Save the test
-        fileStorageService.saveToJson(testPath, test);
+        List<IndexUpdate<?>> indexUpdates = new ArrayList<>();
+        indexUpdates.add(IndexUpdate.ofMap(String.format(TESTS_INDEX_PATH_TEMPLATE, projectId),
+                String.class, String.class, testIndex -> {
+                    testIndex.putAll(names);
+                    return testIndex;
+                }));
+        if (!tags.isEmpty()) {
+            indexUpdates.add(IndexUpdate.of(String.format(TESTS_TAGS_PATH_TEMPLATE, projectId),
+                    Set.class, existingTags -> {
+                        Set<String> allTags = existingTags != null ? existingTags : new HashSet<>();
+                        allTags.addAll(tags);
+                        return allTags;
+                    }));
+        }
 
-        return test;
+        // Save the tests and index entries as one unit
+        fileStorageService.writeAll(documents, indexUpdates);
+        updateTestIndexes(projectId, tests);
     }
 
     @Override
@@ -219,6 +293,7 @@ public class TestServiceImpl implements TestService {
 
         // Save the updated test
         fileStorageService.saveToJson(testPath, existingTest);
+        updateTestIndexes(projectId, existingTest);
 
         return existingTest;
     }
@@ -252,6 +327,7 @@ public class TestServiceImpl implements TestService {
         }
 
         // Delete the test file
+        removeFromTestIndexes(projectId, id);
         return fileStorageService.deleteFile(testPath);
     }
 
@@ -306,27 +382,8 @@ public class TestServiceImpl implements TestService {
         // Copy config
         duplicateTest.setConfig(existingTest.getConfig());
 
-        // Save the duplicated test
-        String duplicateTestPath = String.format("projects/%s/tests/%s.json", projectId, duplicateTest.getId());
-
-        // Update the test index
-        String testsIndexPath = String.format(TESTS_INDEX_PATH_TEMPLATE, projectId);
-        try (FileLock lock = fileStorageService.lockFile(testsIndexPath)) {
-            if (lock != null) {
-                Map<String, String> testIndex = fileStorageService.readMapFromJson(
-                        testsIndexPath, String.class, String.class);
-                testIndex.put(duplicateTest.getId(), duplicateTest.getName());
-                fileStorageService.saveToJson(testsIndexPath, testIndex);
-            } else {
-                throw new ConcurrencyException("Test Index", "projectId", projectId);
-            }
-        }
-
-        // Update tags index
-        updateTagsIndex(projectId, duplicateTest.getTags());
-
-        // Save the test
-        fileStorageService.saveToJson(duplicateTestPath, duplicateTest);
+        // Save the duplicated test with its index entries
+        saveNewTests(projectId, Collections.singletonList(duplicateTest));
 
         return duplicateTest;
     }
@@ -357,6 +414,7 @@ public class TestServiceImpl implements TestService {
 
         // Save the updated test
         fileStorageService.saveToJson(testPath, test);
+        updateTestIndexes(projectId, test);
 
         return test;
     }
@@ -381,6 +439,7 @@ public class TestServiceImpl implements TestService {
 
         // Save the updated test
         fileStorageService.saveToJson(testPath, test);
+        updateTestIndexes(projectId, test);
 
         return test;
     }
@@ -407,6 +466,7 @@ public class TestServiceImpl implements TestService {
 
         // Save the updated test
         fileStorageService.saveToJson(testPath, test);
+        updateTestIndexes(projectId, test);
 
         return test;
     }
@@ -443,6 +503,7 @@ public class TestServiceImpl implements TestService {
 
         // Save the updated test
         fileStorageService.saveToJson(testPath, test);
+        updateTestIndexes(projectId, test);
 
         return test;
     }
@@ -469,6 +530,7 @@ public class TestServiceImpl implements TestService {
 
         // Save the updated test
         fileStorageService.saveToJson(testPath, test);
+        updateTestIndexes(projectId, test);
 
         return test;
     }
@@ -508,105 +570,245 @@ public class TestServiceImpl implements TestService {
 
         // Save the updated test
         fileStorageService.saveToJson(testPath, test);
+        updateTestIndexes(projectId, test);
 
         return test;
     }
 
     /**
-     * Apply filter criteria to a test
+     * Get the key under which the sort index caches the match count of a filter
      * 
-     * @param test Test to filter
      * @param filter Filter criteria
-     * @return True if test matches the filter
+     * @return Key naming every criterion the row filter applies
      */
-    private boolean applyFilter(Test test, TestFilter filter) {
-        // Check search term
-        if (filter.getSearch() != null && !filter.getSearch().isEmpty()) {
-            String search = filter.getSearch().toLowerCase();
-            boolean matches = false;
-            
-            if (test.getName() != null && test.getName().toLowerCase().contains(search)) {
-                matches = true;
-            } else if (test.getDescription() != null && test.getDescription().toLowerCase().contains(search)) {
-                matches = true;
-            }
-            
-            if (!matches) {
-                return false;
-            }
-        }
-        
-        // Check statuses
-        if (filter.getStatuses() != null && !filter.getStatuses().isEmpty()) {
-            if (test.getStatus() == null || !filter.getStatuses().contains(test.getStatus())) {
+    private String filterKey(TestFilter filter) {
+        return String.join("|",
+                String.valueOf(filter.getStatuses()),
+                String.valueOf(filter.getTypes()),
+                String.valueOf(filter.getTags()));
+    }
+
+    /**
+     * Build a sort index row filter from the filter criteria
+     * 
+     * @param filter Filter criteria
+     * @return Predicate over test ID and sort index row
+     */
+    private BiPredicate<String, Map<String, Object>> rowFilter(TestFilter filter) {
+        Set<String> statuses = filter.getStatuses() != null && !filter.getStatuses().isEmpty()
+                ? filter.getStatuses().stream().map(Enum::name).collect(Collectors.toSet())
+                : null;
+        Set<String> types = filter.getTypes() != null && !filter.getTypes().isEmpty()
+                ? filter.getTypes().stream().map(Enum::name).collect(Collectors.toSet())
+                : null;
+        List<String> tags = filter.getTags() != null && !filter.getTags().isEmpty() ? filter.getTags() : null;
+
+        return (id, row) -> {
+            // Check statuses
+            if (statuses != null && !statuses.contains(row.get("status"))) {
                 return false;
             }
-        }
-        
-        // Check types
-        if (filter.getTypes() != null && !filter.getTypes().isEmpty()) {
-            if (test.getType() == null || !filter.getTypes().contains(test.getType())) {
+
+            // Check types
+            if (types != null && !types.contains(row.get("type"))) {
                 return false;
             }
-        }
-        
-        // Check tags
-        if (filter.getTags() != null && !filter.getTags().isEmpty()) {
-            if (test.getTags() == null) {
+
+            // Check tags
+            if (tags != null) {
+                Object testTags = row.get("tags");
+                if (!(testTags instanceof List)) {
+                    return false;
+                }
+                for (String tag : tags) {
+                    if (((List<?>) testTags).contains(tag)) {
+                        return true;
+                    }
+                }
                 return false;
             }
-            
-            boolean hasTag = false;
-            for (String tag : filter.getTags()) {
-                if (test.getTags().contains(tag)) {
-                    hasTag = true;
-                    break;
+
+            return true;
+        };
+    }
+
+    /**
+     * Resolve the sort field, defaulting to updatedAt
+     * 
+     * @param sortIndex Sort index
+     * @param sortBy Requested sort field
+     * @return Sort field kept by the index
+     */
+    private String sortField(SortedIndex sortIndex, String sortBy) {
+        return sortBy != null && sortIndex.isSortField(sortBy) ? sortBy : "updatedAt";
+    }
+
+    /**
+     * Get the sort index of a project's tests, building it from the tests on first use
+     * 
+     * @param projectId Project ID
+     * @return Sort index
+     */
+    private JournaledSortedIndex getSortIndex(String projectId) {
+        JournaledSortedIndex sortIndex = fileStorageService.openSortedIndex(
+                String.format(TESTS_SORT_INDEX_PATH_TEMPLATE, projectId), TEST_SORT_FIELDS);
+        if (sortIndex.isNew()) {
+            synchronized (sortIndex) {
+                if (sortIndex.isNew()) {
+                    // Build from the tests once; later changes are logged as tests are saved
+                    sortIndex.replaceAll(buildSortRows(projectId));
                 }
             }
-            
-            if (!hasTag) {
-                return false;
+        }
+        return sortIndex;
+    }
+
+    /**
+     * Read the sort index rows of all tests in a project's test index
+     * 
+     * @param projectId Project ID
+     * @return Rows by test ID
+     */
+    private Map<String, Map<String, Object>> buildSortRows(String projectId) {
+        Map<String, Map<String, Object>> rows = new HashMap<>();
+        String testsIndexPath = String.format(TESTS_INDEX_PATH_TEMPLATE, projectId);
+        Map<String, String> testIndex = fileStorageService.readMapFromJson(testsIndexPath, String.class, String.class);
+        for (String testId : testIndex.keySet()) {
+            if (testId.startsWith("_")) {
+                continue;
+            }
+            String testPath = String.format("projects/%s/tests/%s.json", projectId, testId);
+            Test test = fileStorageService.readFromJson(testPath, Test.class);
+            if (test != null) {
+                rows.put(testId, toSortRow(test));
             }
         }
-        
-        return true;
+        return rows;
     }
 
     /**
-     * Sort a list of tests
+     * Get the sort index row of a test
      * 
-     * @param tests Tests to sort
-     * @param sortBy Field to sort by
-     * @param sortDirection Sort direction
+     * @param test Test
+     * @return Sortable and filterable fields
      */
-    private void sortTests(List<Test> tests, String sortBy, String sortDirection) {
-        Comparator<Test> comparator;
-        
-        switch (sortBy) {
-            case "name":
-                comparator = Comparator.comparing(Test::getName, Comparator.nullsLast(String::compareTo));
-                break;
-            case "type":
-                comparator = Comparator.comparing(test -> test.getType() != null ? test.getType().name() : "", 
-                        Comparator.nullsLast(String::compareTo));
-                break;
-            case "status":
-                comparator = Comparator.comparing(test -> test.getStatus() != null ? test.getStatus().name() : "", 
-                        Comparator.nullsLast(String::compareTo));
-                break;
-            case "createdAt":
-                comparator = Comparator.comparing(Test::getCreatedAt, Comparator.nullsLast(LocalDateTime::compareTo));
-                break;
-            case "updatedAt":
-            default:
-                comparator = Comparator.comparing(Test::getUpdatedAt, Comparator.nullsLast(LocalDateTime::compareTo));
-                break;
+    private Map<String, Object> toSortRow(Test test) {
+        Map<String, Object> row = new HashMap<>();
+        row.put("name", test.getName());
+        row.put("type", test.getType());
+        row.put("status", test.getStatus());
+        row.put("createdAt", test.getCreatedAt());
+        row.put("updatedAt", test.getUpdatedAt());
+        row.put("tags", test.getTags());
+        return row;
+    }
+
+    /**
+     * Update the sort and search indexes after a test was saved
+     * 
+     * @param projectId Project ID
+     * @param test Saved test
+     */
+    private void updateTestIndexes(String projectId, Test test) {
+        updateSortRow(projectId, test.getId(), test);
+        searchIndexService.indexTest(projectId, test);
+    }
+
+    /**
+     * Update the sort and search indexes after several tests were saved, persisting the
+     * sort index once
+     * 
+     * @param projectId Project ID
+     * @param tests Saved tests
+     */
+    private void updateTestIndexes(String projectId, List<Test> tests) {
+        Map<String, Test> testsById = new LinkedHashMap<>();
+        for (Test test : tests) {
+            testsById.put(test.getId(), test);
+            searchIndexService.indexTest(projectId, test);
         }
-        
-        if ("asc".equalsIgnoreCase(sortDirection)) {
-            tests.sort(comparator);
-        } else {
-            tests.sort(comparator.reversed());
+        updateSortRows(projectId, testsById);
+    }
+
+    /**
+     * Remove a deleted test from the sort and search indexes
+     * 
+     * @param projectId Project ID
+     * @param testId Test ID
+     */
+    private void removeFromTestIndexes(String projectId, String testId) {
+        updateSortRow(projectId, testId, null);
+        searchIndexService.removeTest(projectId, testId);
+    }
+
+    /**
+     * Replace or remove the sort index row of a test
+     * 
+     * @param projectId Project ID
+     * @param testId Test ID
+     * @param test Current test, or null if it was deleted
+     */
+    private void updateSortRow(String projectId, String testId, Test test) {
+        updateSortRows(projectId, Collections.singletonMap(testId, test));
+    }
+
+    /**
+     * Replace or remove the sort index rows of several tests; each change is appended to
+     * the index log
+     * 
+     * @param projectId Project ID
+     * @param tests Current tests by ID, with null values for deleted tests
+     */
+    private void updateSortRows(String projectId, Map<String, Test> tests) {
+        JournaledSortedIndex sortIndex = getSortIndex(projectId);
+        tests.forEach((testId, test) -> {
+            if (test != null) {
+                sortIndex.put(testId, toSortRow(test));
+            } else {
+                sortIndex.remove(testId);
+            }
+        });
+    }
+
+    /**
+     * Bring the sort indexes up to date with tests changed outside this process
+     * 
+     * @param paths Changed paths relative to the storage root
+     */
+    private void onExternalChanges(List<String> paths) {
+        Set<String> rebuildProjectIds = new HashSet<>();
+        for (String path : paths) {
+            String[] parts = path.split("/");
+            if (!path.isEmpty() && !"projects".equals(parts[0])) {
+                continue;
+            }
+
+            if (parts.length == 4 && "tests".equals(parts[2])) {
+                String projectId = parts[1];
+                String fileName = parts[3];
+                if (fileName.endsWith(".json") && !fileName.startsWith("_")) {
+                    String testId = fileName.substring(0, fileName.length() - ".json".length());
+                    Test test = fileStorageService.readFromJson(
+                            String.format("projects/%s/tests/%s", projectId, fileName), Test.class);
+                    updateSortRow(projectId, testId, test);
+                }
+            } else if (parts.length == 2 || (parts.length == 3 && "tests".equals(parts[2]))) {
+                // A project or tests directory changed as a whole
+                rebuildProjectIds.add(parts[1]);
+            } else if (parts.length == 1) {
+                // The projects directory changed as a whole
+                Map<String, String> projectIndex = fileStorageService.readMapFromJson(
+                        "projects/_index.json", String.class, String.class);
+                rebuildProjectIds.addAll(projectIndex.keySet());
+            }
+        }
+
+        // Rebuild the rows of changed projects from their tests
+        for (String projectId : rebuildProjectIds) {
+            if (projectId.startsWith("_")) {
+                continue;
+            }
+            getSortIndex(projectId).replaceAll(buildSortRows(projectId));
         }
     }
 
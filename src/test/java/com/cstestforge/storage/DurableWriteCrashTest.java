@@ -0,0 +1,221 @@
+package com.cstestforge.storage;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Crash-injection tests for the durable write path: interrupted writes, files left behind
+ * by a crash and torn journal appends must never expose a partial document.
+ */
+class DurableWriteCrashTest {
+
+    @TempDir
+    Path dataDir;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private DurableFileWriter fileWriter;
+    private DocumentCodec codec;
+
+    @BeforeEach
+    void setUp() {
+        fileWriter = new DurableFileWriter(DurableFileWriter.Durability.FSYNC, 10);
+        codec = new DocumentCodec(objectMapper, DocumentCodec.Format.JSON, Collections.emptyMap(), fileWriter);
+    }
+
+    @AfterEach
+    void tearDown() {
+        fileWriter.shutdown();
+    }
+
+    @Test
+    void writerFailingMidStreamKeepsOriginalContent() throws IOException {
+        File target = dataDir.resolve("project.json").toFile();
+        fileWriter.write(target, out -> out.write("{\"name\":\"original\"}".getBytes(StandardCharsets.UTF_8)));
+
+        IOException failure = assertThrows(IOException.class, () -> fileWriter.write(target, out -> {
+            out.write("{\"name\":\"repl".getBytes(StandardCharsets.UTF_8));
+            throw new IOException("disk full");
+        }));
+
+        assertEquals("disk full", failure.getMessage());
+        assertEquals("{\"name\":\"original\"}", Files.readString(target.toPath()));
+        assertEquals(List.of("project.json"), fileNames(dataDir));
+    }
+
+    @Test
+    void leftoverTempFileIsIgnoredAndDoesNotBlockWrites() throws IOException {
+        File target = dataDir.resolve("project.json").toFile();
+        fileWriter.write(target, out -> out.write("{\"name\":\"original\"}".getBytes(StandardCharsets.UTF_8)));
+
+        // Temp file of a write that crashed before its rename
+        String leftoverName = ".project.json." + UUID.randomUUID() + ".tmp";
+        Files.write(dataDir.resolve(leftoverName), "{\"name\":\"tor".getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(DurableFileWriter.isTempFile(leftoverName));
+        assertEquals(List.of("project.json"), new FileStorageEngine().listFiles(dataDir.toFile(), null));
+        assertEquals("original", codec.read(target).get("name").asText());
+
+        fileWriter.write(target, out -> out.write("{\"name\":\"updated\"}".getBytes(StandardCharsets.UTF_8)));
+        assertEquals("updated", codec.read(target).get("name").asText());
+    }
+
+    @Test
+    void interruptedCommitIsRolledForwardOnRecovery() throws IOException {
+        File logDir = dataDir.resolve("_batches").toFile();
+        File first = dataDir.resolve("first.json").toFile();
+        File second = dataDir.resolve("second.json").toFile();
+
+        // A non-empty directory in place of the second target makes its rename fail
+        Files.createDirectories(second.toPath().resolve("blocker"));
+
+        DurableFileWriter.Staged stagedFirst = fileWriter.stage(first, out -> out.write("1".getBytes(StandardCharsets.UTF_8)));
+        DurableFileWriter.Staged stagedSecond = fileWriter.stage(second, out -> out.write("2".getBytes(StandardCharsets.UTF_8)));
+        assertThrows(IOException.class, () -> fileWriter.commit(
+                List.of(stagedFirst, stagedSecond), Collections.emptyList(), logDir));
+
+        assertEquals("1", Files.readString(first.toPath()));
+        assertEquals(1, fileNames(logDir.toPath()).size());
+
+        Files.delete(second.toPath().resolve("blocker"));
+        Files.delete(second.toPath());
+        assertEquals(1, fileWriter.recover(logDir));
+
+        assertEquals("2", Files.readString(second.toPath()));
+        assertTrue(fileNames(logDir.toPath()).isEmpty());
+        assertFalse(fileNames(dataDir).stream().anyMatch(DurableFileWriter::isTempFile));
+    }
+
+    @Test
+    void tornCommitLogDiscardsStagedFiles() throws IOException {
+        File logDir = dataDir.resolve("_batches").toFile();
+        File target = dataDir.resolve("target.json").toFile();
+        File blocked = dataDir.resolve("blocked.json").toFile();
+        Files.write(target.toPath(), "old".getBytes(StandardCharsets.UTF_8));
+        Files.createDirectories(blocked.toPath().resolve("blocker"));
+
+        // Leave a commit log behind, then cut it short as if the crash hit while writing it
+        DurableFileWriter.Staged stagedBlocked = fileWriter.stage(blocked, out -> out.write("new".getBytes(StandardCharsets.UTF_8)));
+        assertThrows(IOException.class, () -> fileWriter.commit(
+                List.of(stagedBlocked), Collections.emptyList(), logDir));
+        File log = logDir.listFiles()[0];
+        try (RandomAccessFile file = new RandomAccessFile(log, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        assertEquals(0, fileWriter.recover(logDir));
+        assertTrue(fileNames(logDir.toPath()).isEmpty());
+        assertFalse(fileNames(dataDir).stream().anyMatch(DurableFileWriter::isTempFile));
+        assertEquals("old", Files.readString(target.toPath()));
+    }
+
+    @Test
+    void tornJournalTailIsSkippedOnReplay() throws IOException {
+        File document = dataDir.resolve("execution.json").toFile();
+        codec.write(document, document("status", "QUEUED", 0));
+
+        DocumentJournal journal = new DocumentJournal(objectMapper, codec, fileWriter);
+        journal.append(document, document("status", "RUNNING", 1));
+        journal.append(document, document("status", "RUNNING", 2));
+
+        // Crash in the middle of the next append
+        appendRaw(document, "{\"status\":\"PASS");
+
+        DocumentJournal restarted = new DocumentJournal(objectMapper, codec, fileWriter);
+        JsonNode merged = restarted.readMerged(document);
+        assertEquals("RUNNING", merged.get("status").asText());
+        assertEquals(2, merged.get("completed").asInt());
+        assertEquals(2, restarted.getPendingEntries(document));
+
+        // Appends after the torn entry start on their own line and survive the next restart
+        restarted.append(document, document("status", "PASSED", 3));
+        JsonNode replayed = new DocumentJournal(objectMapper, codec, fileWriter).readMerged(document);
+        assertEquals("PASSED", replayed.get("status").asText());
+        assertEquals(3, replayed.get("completed").asInt());
+    }
+
+    @Test
+    void appendedArrayElementsReplayOnceAfterInterruptedCompaction() throws IOException {
+        File document = dataDir.resolve("execution.json").toFile();
+        ObjectNode tree = document("status", "RUNNING", 0);
+        ArrayNode results = tree.putArray("results");
+        for (int i = 0; i < 20; i++) {
+            results.add("step-" + i);
+        }
+        codec.write(document, tree);
+
+        DocumentJournal journal = new DocumentJournal(objectMapper, codec, fileWriter);
+        ObjectNode grown = tree.deepCopy();
+        ((ArrayNode) grown.get("results")).add("step-20");
+        assertTrue(journal.append(document, grown) > 0);
+
+        // Only the new element is journaled
+        String entry = Files.readString(DocumentJournal.journalFileFor(document).toPath());
+        assertFalse(entry.contains("step-0"));
+
+        // Crash after compaction wrote the merged base but before the journal was deleted
+        codec.write(document, journal.readMerged(document));
+        JsonNode replayed = new DocumentJournal(objectMapper, codec, fileWriter).readMerged(document);
+        assertEquals(21, replayed.get("results").size());
+        assertEquals("step-20", replayed.get("results").get(20).asText());
+    }
+
+    @Test
+    void oversizedPatchIsNotJournaled() throws IOException {
+        File document = dataDir.resolve("execution.json").toFile();
+        codec.write(document, document("status", "QUEUED", 0));
+
+        DocumentJournal journal = new DocumentJournal(objectMapper, codec, fileWriter);
+        ObjectNode replaced = document("status", "QUEUED", 0);
+        replaced.put("log", "x".repeat(10000));
+
+        assertEquals(DocumentJournal.REWRITE_BASE, journal.append(document, replaced));
+        assertFalse(DocumentJournal.journalFileFor(document).exists());
+        assertEquals(List.of(), DocumentJournal.findJournaledDocuments(List.of(dataDir)));
+
+        journal.append(document, document("status", "RUNNING", 0));
+        assertEquals(List.of(document.getAbsoluteFile()), DocumentJournal.findJournaledDocuments(List.of(dataDir)));
+    }
+
+    private ObjectNode document(String field, String value, int completed) {
+        ObjectNode tree = objectMapper.createObjectNode();
+        tree.put(field, value);
+        tree.put("completed", completed);
+        return tree;
+    }
+
+    private static void appendRaw(File document, String content) throws IOException {
+        try (OutputStream out = Files.newOutputStream(DocumentJournal.journalFileFor(document).toPath(),
+                StandardOpenOption.APPEND)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static List<String> fileNames(Path dir) throws IOException {
+        try (var entries = Files.list(dir)) {
+            return entries.map(path -> path.getFileName().toString()).sorted().toList();
+        }
+    }
+}